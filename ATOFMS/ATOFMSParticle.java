@@ -47,8 +47,6 @@
 package ATOFMS;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Date;
 import java.text.DateFormat;
 
@@ -59,8 +57,6 @@ import java.text.DateFormat;
 
 public class ATOFMSParticle {
 
-	private final int MAX_BIN_NUMBER;
-
 	public String filename;
 	public Date time;
 	public float laserPower;
@@ -81,7 +77,6 @@ public class ATOFMSParticle {
 	public ATOFMSParticle()
 	{
 		super();
-		MAX_BIN_NUMBER = 30000;
 		
 	}
 	
@@ -105,7 +100,6 @@ public class ATOFMSParticle {
 						  int[] nSpect
 						  )
 	{
-		MAX_BIN_NUMBER = pSpect.length;
 		filename = fname;
 		time = timet;
 		laserPower = lasPow/1000;
@@ -163,115 +157,29 @@ public class ATOFMSParticle {
 	{
 		if (peakList!= null)
 			return peakList;
-		peakList = new ArrayList<Peak>(20);
-		
-		int baselines[] = findBaseLines();
-		
-		getPosPeaks(baselines[0]);
-		getNegPeaks(baselines[1]);
-		
-		return peakList;
-	}
-	
-	/**
-	 * Finds the base lines.
-	 * @return int[2], pos and neg baselines.
-	 */
-	private int[] findBaseLines()
-	{
-		int baselines[] = new int[2];
-		
-		baselines[0] = 0;
-		baselines[1] = 0;
-		
-		// This calculation does not take into account the last bin
-		for (int i = MAX_BIN_NUMBER - MAX_BIN_NUMBER/10; i < MAX_BIN_NUMBER; i++)
+		double posSlope, posIntercept, negSlope, negIntercept;
+		if (currCalInfo.autocal)
 		{
-			baselines[0] += posSpectrum[i];
-			baselines[1] += negSpectrum[i];
+			posSlope = autoPosSlope;
+			posIntercept = autoPosIntercept;
+			negSlope = autoNegSlope;
+			negIntercept = autoNegIntercept;
 		}
-		baselines[0] /= MAX_BIN_NUMBER/10;
-		baselines[1] /= MAX_BIN_NUMBER/10;
-		return baselines;
-	}
-	
-	/**
-	 * get positive peaks and put them into a sparse peak list.
-	 * @param baseline
-	 * @return true if successful
-	 */
-	private boolean getPosPeaks(int baseline)
-	{
-		int i = 0;
-		int startLoc = 0;
-		int endLoc = 0;
-		int centerIndex = 0;
-		int peakHeight;
-		int peakArea;
-		int temp = 0;
-		int totalArea = 0;
-		boolean foundPeak = false;
-		while (i < MAX_BIN_NUMBER)
-		{
-			startLoc = i;
-			
-			//Set peakHeight and peakArea to zero.
-			peakHeight = 0;
-			peakArea = 0;
-			
-			// if the index is above the baseline find where it 
-			// goes back below, this range (startLoc-endLoc) is 
-			// the peak's key
-			while (i < MAX_BIN_NUMBER && posSpectrum[i] > baseline + currPeakParams.minHeight)
-			{
-				foundPeak = true;
-				endLoc = i;
-				temp = posSpectrum[i] - baseline;
-				if (temp > peakHeight)
-					peakHeight = temp;
-				i++;
-			}// while (posSpectrum[i] > baseline)
-			// We found a peak and its range, now let's find out
-			// about it.
-			if (foundPeak == true)
-			{ 
-				// This is how MS-Analyze calculates peak centers,
-				// the main effect of the -1 is that peaks centered
-				// on even bins get pushed up a bin instead of back one
-				// from the *.5 value.
-				centerIndex = startLoc + (endLoc-(startLoc-1))/2;
-				
-				for (int j = startLoc; j <= endLoc; j++)
-				{
-					peakArea = peakArea + posSpectrum[j];
-				}
-				peakArea = peakArea - baseline*(endLoc-startLoc+1);
-				totalArea += peakArea;
-				double peakLocation = getPosMZ(centerIndex);
-				peakList.add(new ATOFMSPeak(peakHeight, peakArea, peakLocation));
-				
-				foundPeak = false;
-			} // if (foundPeak == true)
-			else
-				i++;
-		} // while (i < MAX_BIN_NUMBER)
-		int k = 0;
-		
-		
-		while (k < peakList.size())
+		else
 		{
-			Peak peak = peakList.get(k);
-			((ATOFMSPeak)peak).relArea = (float) ((ATOFMSPeak)peak).area/totalArea;
-			if(((ATOFMSPeak)peak).relArea <= currPeakParams.minRelArea ||
-					((ATOFMSPeak)peak).area <= currPeakParams.minArea)
-			{
-				peakList.remove(k);
-			}
-			else
-				k++;
+			posSlope = currCalInfo.posSlope;
+			posIntercept = currCalInfo.posIntercept;
+			negSlope = currCalInfo.negSlope;
+			negIntercept = currCalInfo.negIntercept;
 		}
-
-		return true;
+		PeakFinder finder = new PeakFinder();
+		int numPeaks = finder.find(posSpectrum, negSpectrum, 
+				posSlope, posIntercept, negSlope, negIntercept);
+		peakList = new ArrayList<Peak>(numPeaks);
+		for (int i = 0; i < numPeaks; i++)
+			peakList.add(new ATOFMSPeak(finder.getHeight(i), finder.getArea(i),
+					finder.getRelArea(i), finder.getMZ(i)));
+		return peakList;
 	}
 	
 	private double getRoundedMZ(double rawMZ) {
@@ -283,98 +191,6 @@ public class ATOFMSParticle {
 		return -1;
 	}
 
-	/**
-	 * Gets neg peaks and puts them into a sparse peaklist.
-	 * @param baseline
-	 * @return true on success.
-	 */
-	private boolean getNegPeaks(int baseline)
-	{
-		int startingListSize = peakList.size();
-		int i = 0;
-		int startLoc = 0;
-		int endLoc = 0;
-		int centerIndex = 0;
-		int peakHeight = 0;
-		int peakArea = 0;
-		int temp = 0;
-		int totalArea = 0;
-		boolean foundPeak = false;
-		while (i < MAX_BIN_NUMBER)
-		{
-			peakHeight = 0;
-			peakArea = 0;
-			startLoc = i;
-			// if the index is above the baseline find where it 
-			// goes back below, this range (startLoc-endLoc) is 
-			// the peak's key
-			//if (negSpectrum[i] < 0)
-			//	System.out.println(negSpectrum[i]);
-			while (i < MAX_BIN_NUMBER && negSpectrum[i] > (baseline
-	               + currPeakParams.minHeight))
-			{
-				foundPeak = true;
-				endLoc = i;
-				temp = negSpectrum[i] - baseline;
-				if (temp > peakHeight)
-					peakHeight = temp;
-				i++;
-			}// while (negSpectrum[i] > baseline)
-			// We found a peak and it's range, now let's find out
-			// about it.  
-			if (foundPeak == true)
-			{
-				centerIndex = startLoc + (endLoc-(startLoc-1))/2;
-				
-				peakArea = 0;
-				for (int j = startLoc; j <= endLoc; j++)
-				{
-					peakArea = peakArea + negSpectrum[j];
-				}
-				peakArea = peakArea - baseline*(endLoc-startLoc+1);
-				totalArea += peakArea;
-				
-				// lets see if we can pre cut a peak from the list
-				// In an effor to match the MSAnalyze results, I'm 
-				// reducing total value by the value of the peak as we 
-				// cut it.  Nevermind.
-
-				double peakLocation = getNegMZ(centerIndex);
-				peakList.add(new ATOFMSPeak(peakHeight, peakArea, peakLocation));
-				
-				peakHeight = 0;
-				foundPeak = false;
-			} // if (foundPeak == true)
-			else
-				i++;
-		} // while (i < MAX_BIN_NUMBER)
-		
-		
-		int k = startingListSize;
-
-		while (k < peakList.size())
-		{
-			Peak peak = peakList.get(k);
-			((ATOFMSPeak)peak).relArea = (float) ((ATOFMSPeak)peak).area/totalArea;
-			if(((ATOFMSPeak)peak).relArea <= currPeakParams.minRelArea ||
-					((ATOFMSPeak)peak).area <= currPeakParams.minArea)
-			{
-				peakList.remove(k);
-			}
-			else
-				k++;
-		}
-		
-		// Calculate the relative areas.
-		for (int l = startingListSize; l < peakList.size(); l++)
-		{
-			Peak peak = peakList.get(l);
-			((ATOFMSPeak)peak).relArea = (float)((ATOFMSPeak)peak).area/totalArea;
-			peakList.set(l, peak);
-		}
-		return true;
-	}
-
 	/**
 	 * returns the pos. M/Z value for the given bin
 	 * @param bin
@@ -439,42 +255,12 @@ public class ATOFMSParticle {
 	public ArrayList<String> particleInfoSparseString() {
 		ArrayList<String> peaks = new ArrayList<String>();
 		getPeakList();
-		Map<Integer, Peak> map = new LinkedHashMap<Integer, Peak>();
-		
-
-		for (Peak p : peakList) {
-			// see BinnedPeakList.java for source of this routine
-			int mzInt; double mz = p.massToCharge;
-			
-			if (mz >= 0.0)
-				mzInt = (int) (mz + 0.5);
-			else
-				mzInt = (int) (mz - 0.5);
-			
-			//new Peak(int height, int area, double masstocharge)
-			if (map.containsKey(mzInt))
-			{
-				ATOFMSPeak soFar = (ATOFMSPeak)map.get(mzInt);
-				map.put(mzInt, 
-						new ATOFMSPeak(soFar.height + ((ATOFMSPeak)p).height,
-								soFar.area + ((ATOFMSPeak)p).area,
-								soFar.relArea + ((ATOFMSPeak)p).relArea,
-								mzInt));
-			} else {
-				map.put(mzInt, new ATOFMSPeak(((ATOFMSPeak)p).height, ((ATOFMSPeak)p).area, ((ATOFMSPeak)p).relArea, mzInt));
-			}
-		}
-		for(Peak peak : map.values()){
-			peaks.add(((ATOFMSPeak)peak).massToCharge + ", "
-					+ ((ATOFMSPeak)peak).area + ", " + ((ATOFMSPeak)peak).relArea
-					+ ", " + ((ATOFMSPeak)peak).height);
-		}
-		
-		/*for(Peak peak : peakList){
-			peaks.add(peak.massToCharge + ", "
-					+ peak.area + ", " + peak.relArea
-					+ ", " + peak.height);
-		}*/
+		PeakBuffer merged = new PeakBuffer(peakList.size() + 1);
+		for (Peak p : peakList)
+			merged.addRounded(p.massToCharge, ((ATOFMSPeak)p).area,
+					((ATOFMSPeak)p).relArea, ((ATOFMSPeak)p).height);
+		for (int i = 0; i < merged.size(); i++)
+			peaks.add(merged.sparseString(i));
 		return peaks;	
 	}
 //	***SLH 	 
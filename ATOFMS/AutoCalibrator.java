@@ -64,12 +64,11 @@ public class AutoCalibrator {
 	private static final int FLIGHT_TUBE_LENGTH = 1;
 	
 	
-	private static int posZeroPoint;
-	private static double posVoltage;
-	private static int negZeroPoint;
-	private static double negVoltage;
-	
-	private static float oldDigitRate = -1;
+	// indexes into the array getZeroPointAndVoltage() returns
+	private static final int POS_ZERO_POINT = 0;
+	private static final int POS_VOLTAGE = 1;
+	private static final int NEG_ZERO_POINT = 2;
+	private static final int NEG_VOLTAGE = 3;
 
 	private static double timeTranslateReverse(double mass,
 											   int spectrumType)
@@ -173,8 +172,10 @@ public class AutoCalibrator {
 		// digit rate changes.
 		// 12/05/04: Removed todo from above comment, Autocal 
 		// seems to work so I think this is correct.  
-		if (digitRate != oldDigitRate)
-			getZeroPointAndVoltage(digitRate);
+		// The results used to be kept in static fields, but they were 
+		// worked out again for every spectrum anyway, and particles are 
+		// now calibrated on several threads at once, so they're local.
+		double[] zeroPointAndVoltage = getZeroPointAndVoltage(digitRate);
 		
 		long i, ThisMass;
 		int k;
@@ -197,13 +198,13 @@ public class AutoCalibrator {
 		int ZeroPoint = 0;
 		if (charge == POS)
 		{
-			Voltage = posVoltage;
-			ZeroPoint = posZeroPoint;
+			Voltage = zeroPointAndVoltage[POS_VOLTAGE];
+			ZeroPoint = (int) zeroPointAndVoltage[POS_ZERO_POINT];
 		}
 		else
 		{
-			Voltage = negVoltage;
-			ZeroPoint = negZeroPoint;
+			Voltage = zeroPointAndVoltage[NEG_VOLTAGE];
+			ZeroPoint = (int) zeroPointAndVoltage[NEG_ZERO_POINT];
 		}
 		
 		//System.out.println("Voltage: " + Voltage);
@@ -367,8 +368,10 @@ public class AutoCalibrator {
 	//
 	// Contributed by TSI inc, again seems to be from Tasware
 	///////////////////////////////////////////////////////////////////////////////
-	private static boolean getZeroPointAndVoltage(float digitRate)
+	private static double[] getZeroPointAndVoltage(float digitRate)
 	{
+		int posZeroPoint, negZeroPoint;
+		double posVoltage, negVoltage;
 		double TimeOfFlight, Time, VelocityInMetersPerSecond;
 		double EnergyInDaltonsPerMSquaredPerSSquared, Joules;
 		
@@ -436,7 +439,8 @@ public class AutoCalibrator {
 		negVoltage = Joules / 1.602E-19;
 		
 		
-		return true;
+		return new double[] {posZeroPoint, posVoltage, 
+				negZeroPoint, negVoltage};
 	}
 
 	//from mass calibration formula
@@ -0,0 +1,158 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's PeakBuffer class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package ATOFMS;
+
+/**
+ * A reusable list of peaks kept in parallel primitive arrays, for code
+ * that handles a lot of particles and doesn't want an object per peak.
+ * Peaks are at integer m/z locations, the way they're stored in the 
+ * AtomInfoSparse tables.
+ */
+public class PeakBuffer {
+	private int size = 0;
+	private int[] location;
+	private int[] area;
+	private float[] relArea;
+	private int[] height;
+	
+	public PeakBuffer() {
+		this(64);
+	}
+	
+	public PeakBuffer(int capacity) {
+		location = new int[capacity];
+		area = new int[capacity];
+		relArea = new float[capacity];
+		height = new int[capacity];
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public void add(int location, int area, float relArea, int height) {
+		if (size == this.location.length) {
+			int capacity = size * 2;
+			this.location = grow(this.location, capacity);
+			this.area = grow(this.area, capacity);
+			this.height = grow(this.height, capacity);
+			float[] newRelArea = new float[capacity];
+			System.arraycopy(this.relArea, 0, newRelArea, 0, size);
+			this.relArea = newRelArea;
+		}
+		this.location[size] = location;
+		this.area[size] = area;
+		this.relArea[size] = relArea;
+		this.height[size] = height;
+		size++;
+	}
+	
+	private int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, size);
+		return grown;
+	}
+	
+	/**
+	 * @return the index of the peak at the given location, or -1.
+	 */
+	public int indexOf(int location) {
+		// peaks tend to be merged into the one just added, so look from
+		// the end
+		for (int i = size - 1; i >= 0; i--)
+			if (this.location[i] == location)
+				return i;
+		return -1;
+	}
+	
+	/**
+	 * Adds to the peak at index i.
+	 */
+	public void merge(int i, int area, float relArea, int height) {
+		this.area[i] += area;
+		this.relArea[i] += relArea;
+		this.height[i] += height;
+	}
+	
+	/**
+	 * Adds a peak at the nearest integer m/z, merging it into the peak 
+	 * already there if there is one.
+	 */
+	public void addRounded(double mz, int area, float relArea, int height) {
+		// see BinnedPeakList.java for source of this routine
+		int location = mz >= 0.0 ? (int) (mz + 0.5) : (int) (mz - 0.5);
+		int i = indexOf(location);
+		if (i < 0)
+			add(location, area, relArea, height);
+		else
+			merge(i, area, relArea, height);
+	}
+	
+	public int getLocation(int i) {
+		return location[i];
+	}
+	
+	public int getArea(int i) {
+		return area[i];
+	}
+	
+	public float getRelArea(int i) {
+		return relArea[i];
+	}
+	
+	public int getHeight(int i) {
+		return height[i];
+	}
+	
+	/**
+	 * @return peak i as a row for the ATOFMSAtomInfoSparse table, in the 
+	 * same form as ATOFMSParticle.particleInfoSparseString().
+	 */
+	public String sparseString(int i) {
+		return (double) location[i] + ", " + area[i] + ", " + relArea[i]
+			+ ", " + height[i];
+	}
+}
@@ -0,0 +1,197 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's PeakFinder class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+
+package ATOFMS;
+
+/**
+ * Finds the peaks of a pair of ATOFMS spectra.  This is the one place 
+ * peaks are picked: ATOFMSParticle uses it for its peak list and 
+ * SpectrumDecoder for the rows it imports.
+ * 
+ * Each spectrum's baseline is the average of its last tenth.  A peak is 
+ * a run of points more than PeakParams.minHeight above the baseline; its
+ * area is the sum of the run less the baseline, and its m/z comes from 
+ * the calibration at the middle of the run, counted the way MS-Analyze 
+ * counts it.  Peaks whose area, or whose share of their spectrum's total
+ * area, isn't above the PeakParams minimums are dropped.
+ * 
+ * The peaks are kept in arrays that are reused by the next call to 
+ * find(), so a PeakFinder can be kept for many particles, one per thread.
+ */
+public class PeakFinder {
+	private int size = 0;
+	private double[] mz = new double[64];
+	private int[] area = new int[64];
+	private int[] height = new int[64];
+	private float[] relArea = new float[64];
+	
+	/**
+	 * Finds the positive spectrum's peaks, then the negative spectrum's, 
+	 * with PeakParams from ATOFMSParticle.currPeakParams.  Negative peaks
+	 * get negative m/z values.
+	 * @return the number of peaks found
+	 */
+	public int find(int[] posSpectrum, int[] negSpectrum, 
+			double posSlope, double posIntercept,
+			double negSlope, double negIntercept) {
+		size = 0;
+		find(posSpectrum, posSlope, posIntercept, false);
+		find(negSpectrum, negSlope, negIntercept, true);
+		return size;
+	}
+	
+	private void find(int[] spectrum, double slope, double intercept, 
+			boolean negative) {
+		PeakParams params = ATOFMSParticle.currPeakParams;
+		int numPoints = spectrum.length;
+		
+		// This calculation does not take into account the last bin
+		int baseline = 0;
+		for (int i = numPoints - numPoints/10; i < numPoints; i++)
+			baseline += spectrum[i];
+		baseline /= numPoints/10;
+		
+		int first = size;
+		int totalArea = 0;
+		int i = 0;
+		while (i < numPoints) {
+			int startLoc = i;
+			int endLoc = 0;
+			int peakHeight = 0;
+			boolean foundPeak = false;
+			// if the index is above the baseline find where it 
+			// goes back below, this range (startLoc-endLoc) is 
+			// the peak's key
+			while (i < numPoints && spectrum[i] > baseline + params.minHeight) {
+				foundPeak = true;
+				endLoc = i;
+				int temp = spectrum[i] - baseline;
+				if (temp > peakHeight)
+					peakHeight = temp;
+				i++;
+			}
+			if (foundPeak) {
+				// This is how MS-Analyze calculates peak centers,
+				// the main effect of the -1 is that peaks centered
+				// on even bins get pushed up a bin instead of back one
+				// from the *.5 value.
+				int centerIndex = startLoc + (endLoc-(startLoc-1))/2;
+				int peakArea = 0;
+				for (int j = startLoc; j <= endLoc; j++)
+					peakArea = peakArea + spectrum[j];
+				peakArea = peakArea - baseline*(endLoc-startLoc+1);
+				totalArea += peakArea;
+				double squareThis = slope*centerIndex + intercept;
+				double peakMZ = squareThis * squareThis;
+				add(negative ? -peakMZ : peakMZ, peakArea, peakHeight);
+			}
+			else
+				i++;
+		}
+		
+		// drop the peaks that are too small, keeping the rest in order
+		int kept = first;
+		for (int k = first; k < size; k++) {
+			float rel = (float) area[k]/totalArea;
+			if (rel <= params.minRelArea || area[k] <= params.minArea)
+				continue;
+			mz[kept] = mz[k];
+			area[kept] = area[k];
+			height[kept] = height[k];
+			relArea[kept] = rel;
+			kept++;
+		}
+		size = kept;
+	}
+	
+	private void add(double peakMZ, int peakArea, int peakHeight) {
+		if (size == mz.length) {
+			int capacity = 2 * size;
+			double[] newMZ = new double[capacity];
+			System.arraycopy(mz, 0, newMZ, 0, size);
+			mz = newMZ;
+			int[] newArea = new int[capacity];
+			System.arraycopy(area, 0, newArea, 0, size);
+			area = newArea;
+			int[] newHeight = new int[capacity];
+			System.arraycopy(height, 0, newHeight, 0, size);
+			height = newHeight;
+			float[] newRelArea = new float[capacity];
+			System.arraycopy(relArea, 0, newRelArea, 0, size);
+			relArea = newRelArea;
+		}
+		mz[size] = peakMZ;
+		area[size] = peakArea;
+		height[size] = peakHeight;
+		size++;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public double getMZ(int i) {
+		return mz[i];
+	}
+	
+	public int getArea(int i) {
+		return area[i];
+	}
+	
+	public float getRelArea(int i) {
+		return relArea[i];
+	}
+	
+	public int getHeight(int i) {
+		return height[i];
+	}
+	
+	/**
+	 * Puts the peaks found last into peaks, merged by integer m/z.
+	 */
+	public void merge(PeakBuffer peaks) {
+		peaks.clear();
+		for (int i = 0; i < size; i++)
+			peaks.addRounded(mz[i], area[i], relArea[i], height[i]);
+	}
+}
@@ -0,0 +1,72 @@
+package ATOFMS;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PeakFinderTest extends TestCase {
+	private PeakParams oldPeakParams;
+	private int[] pos, neg;
+	
+	protected void setUp() {
+		oldPeakParams = ATOFMSParticle.currPeakParams;
+		// points more than 5 above the baseline are in a peak
+		ATOFMSParticle.currPeakParams = new PeakParams(5, 20, 0.1f, 0.5f);
+		pos = new int[100];
+		neg = new int[100];
+		Arrays.fill(pos, 10);
+		Arrays.fill(neg, 10);
+		pos[20] = 30;
+		pos[21] = 50;
+		pos[22] = 30;
+		pos[50] = 40;
+		pos[51] = 40;
+		pos[70] = 20; // too small to keep
+		neg[3] = 100;
+		neg[4] = 100;
+	}
+	
+	protected void tearDown() {
+		ATOFMSParticle.currPeakParams = oldPeakParams;
+	}
+	
+	public void testFind() {
+		PeakFinder finder = new PeakFinder();
+		assertEquals(3, finder.find(pos, neg, 1, 0, 2, 1));
+		
+		assertEquals(441.0, finder.getMZ(0));
+		assertEquals(80, finder.getArea(0));
+		assertEquals(40, finder.getHeight(0));
+		assertEquals(80f/150, finder.getRelArea(0));
+		
+		// centers on an even number of points round up
+		assertEquals(2601.0, finder.getMZ(1));
+		assertEquals(60, finder.getArea(1));
+		assertEquals(30, finder.getHeight(1));
+		assertEquals(60f/150, finder.getRelArea(1));
+		
+		assertEquals(-81.0, finder.getMZ(2));
+		assertEquals(180, finder.getArea(2));
+		assertEquals(90, finder.getHeight(2));
+		assertEquals(1f, finder.getRelArea(2));
+		
+		// the arrays are reused
+		Arrays.fill(neg, 10);
+		assertEquals(2, finder.find(pos, neg, 1, 0, 2, 1));
+		assertEquals(2, finder.size());
+	}
+	
+	public void testMerge() {
+		PeakFinder finder = new PeakFinder();
+		// with this calibration both positive peaks round to m/z 9
+		finder.find(pos, neg, 0.001, 3, 2, 1);
+		PeakBuffer peaks = new PeakBuffer(1);
+		finder.merge(peaks);
+		assertEquals(2, peaks.size());
+		assertEquals(9, peaks.getLocation(0));
+		assertEquals(140, peaks.getArea(0));
+		assertEquals(70, peaks.getHeight(0));
+		assertEquals(-81, peaks.getLocation(1));
+		assertEquals("-81.0, 180, 1.0, 90", peaks.sparseString(1));
+	}
+}
@@ -0,0 +1,414 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's SpectrumDecoder class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package ATOFMS;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads ATOFMS spectrum files (.amz and .ams) and finds their peaks, 
+ * keeping its buffers, spectra, Inflater and PeakFinder from one file to
+ * the next.  Importing a big data set with one of these per thread makes
+ * next to no garbage.  ReadSpec reads its files with one too.
+ * 
+ * A SpectrumDecoder isn't thread-safe; use one per thread.  The spectra
+ * and header values it returns belong to the last file read, and are
+ * overwritten by the next.  Calibration comes from 
+ * ATOFMSParticle.currCalInfo and currPeakParams, as it does for 
+ * ATOFMSParticle.
+ */
+public class SpectrumDecoder {
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_HEADER_LENGTH = 30;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final int MAX_PEAKS = 16;
+	
+	private final PeakFinder finder = new PeakFinder();
+	private Inflater inflater = null;
+	// the file as it is on disk
+	private byte[] raw = new byte[0];
+	// the uncompressed spectrum file
+	private byte[] data = new byte[0];
+	private ByteBuffer dataBuff = 
+		ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+	
+	private int version;
+	private int numPoints;
+	private int[] posSpectrum = new int[0];
+	private int[] negSpectrum = new int[0];
+	// as it is in the file
+	private float laserPower;
+	private float digitRate;
+	private int scatDelay;
+	
+	/**
+	 * Reads a spectrum file.  Files ending in .amz are unzipped, files
+	 * ending in .ams are read as they are.
+	 */
+	public void read(String fileName) throws IOException {
+		int length = readFile(fileName);
+		int dataLength;
+		if (fileName.endsWith(".amz"))
+			dataLength = unzip(fileName, length);
+		else if (fileName.endsWith(".ams")) {
+			ensureData(length);
+			System.arraycopy(raw, 0, data, 0, length);
+			dataLength = length;
+		}
+		else
+			throw new IOException(fileName + " is not an ATOFMS spectrum file");
+		if (dataLength < 2)
+			throw new IOException(fileName + " is empty");
+		
+		dataBuff.clear();
+		dataBuff.limit(dataLength);
+		version = (data[0] & 0xff) + (data[1] & 0xff) * 256;
+		dataBuff.position(2);
+		try {
+			if (version == 201 || version == 202)
+				readOldHeader();
+			else
+				readNewHeader();
+		} catch (RuntimeException e) {
+			// BufferUnderflowException and friends
+			throw new IOException("Corrupt spectrum file " + fileName + ": " + e);
+		}
+	}
+	
+	private int readFile(String fileName) throws IOException {
+		File f = new File(fileName);
+		long length = f.length();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException(fileName + " is too big to be a spectrum");
+		if (raw.length < length)
+			raw = new byte[(int) length];
+		FileInputStream in = new FileInputStream(f);
+		try {
+			int read = 0;
+			while (read < length) {
+				int n = in.read(raw, read, (int) length - read);
+				if (n < 0)
+					break;
+				read += n;
+			}
+			return read;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Inflates the first entry of the zip file in raw into data, the way
+	 * ZipInputStream would but without making a new Inflater and stream
+	 * stack for every file.
+	 * @return the uncompressed length
+	 */
+	private int unzip(String fileName, int length) throws IOException {
+		if (length < LOCAL_HEADER_LENGTH || 
+				readInt(raw, 0) != LOCAL_HEADER_SIGNATURE)
+			throw new ZipException(fileName + " is not a zip file");
+		int method = readShort(raw, 8);
+		int compressedSize = readInt(raw, 18);
+		int size = readInt(raw, 22);
+		int start = LOCAL_HEADER_LENGTH + readShort(raw, 26) + readShort(raw, 28);
+		// sizes may be left out of the local header, and come after the 
+		// data instead
+		if (compressedSize <= 0 || start + compressedSize > length)
+			compressedSize = length - start;
+		if (compressedSize < 0)
+			throw new ZipException(fileName + " is truncated");
+		
+		if (method == STORED) {
+			ensureData(compressedSize);
+			System.arraycopy(raw, start, data, 0, compressedSize);
+			return compressedSize;
+		}
+		if (method != DEFLATED)
+			throw new ZipException(fileName + " uses an unknown compression method");
+		
+		ensureData(size > 0 ? size : 2 * compressedSize);
+		if (inflater == null)
+			inflater = new Inflater(true);
+		inflater.reset();
+		inflater.setInput(raw, start, compressedSize);
+		int inflated = 0;
+		try {
+			while (!inflater.finished()) {
+				if (inflated == data.length)
+					growData(2 * data.length, inflated);
+				int n = inflater.inflate(data, inflated, data.length - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new ZipException(fileName + " is truncated");
+				inflated += n;
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException(fileName + ": " + e.getMessage());
+		}
+		return inflated;
+	}
+	
+	private void ensureData(int length) {
+		if (data.length < length)
+			growData(length, 0);
+	}
+	
+	private void growData(int length, int keep) {
+		byte[] grown = new byte[length];
+		System.arraycopy(data, 0, grown, 0, keep);
+		data = grown;
+		dataBuff = ByteBuffer.wrap(data);
+		dataBuff.order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	private static int readShort(byte[] b, int off) {
+		return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+	}
+	
+	private static int readInt(byte[] b, int off) {
+		return readShort(b, off) | readShort(b, off + 2) << 16;
+	}
+	
+	private void skip(int bytes) {
+		dataBuff.position(dataBuff.position() + bytes);
+	}
+	
+	/**
+	 * Version 201 and 202 files.  Fields that aren't needed are skipped.
+	 */
+	private void readOldHeader() {
+		setNumPoints(dataBuff.getInt());
+		skip(4); // int counter
+		scatDelay = dataBuff.getInt();
+		skip(4); // float speed
+		skip(4); // float particle size
+		skip(20); // serial number
+		skip(4); // not used
+		skip(2); // short ion type
+		skip(4); // int timestamp
+		skip(20); // time text
+		laserPower = dataBuff.getFloat();
+		skip(4 + 4); // int posarea, posbase
+		skip(2); // short calibrate
+		skip(8 + 8); // double posslope, posintercept
+		skip(8*2*MAX_PEAKS); // positive calibration data
+		skip(8 + 8); // double negslope, negintercept
+		skip(8*2*MAX_PEAKS); // negative calibration data
+		skip(2); // short databits
+		digitRate = dataBuff.getFloat();
+		skip(4 + 4); // int negarea, negbase
+		skip(248); // reserved
+		// Version 201 uses chars, version 202 uses unsigned shorts.
+		readSpectra(version == 201);
+	}
+	
+	/**
+	 * Every other version.  Fields that aren't needed are skipped.
+	 */
+	private void readNewHeader() {
+		setNumPoints(dataBuff.getInt());
+		skip(4); // int counter
+		scatDelay = dataBuff.getInt();
+		skip(4); // float speed
+		skip(4); // float particle size
+		skip(20); // serial number
+		skip(2); // short ion type
+		// The timestamp looks like a 32-bit time value in the first 4 
+		// bytes, with the next 4 unused.
+		skip(4);
+		laserPower = dataBuff.getFloat();
+		skip(4 + 4 + 4 + 4); // int posarea, posbase, negarea, negbase
+		skip(4); // boolean calibrate
+		skip(8 + 8); // double posslope, posintercept
+		skip(256); // positive calibration data
+		skip(8 + 8); // double negslope, negintercept
+		skip(256); // negative calibration data
+		skip(2); // short mode
+		digitRate = dataBuff.getFloat();
+		skip(64); // reserved
+		skip(2); // short inlet type
+		// boolean bUseClassifier, int DMA, particleSize, sheathFlow,
+		// sampleFlow, boolean bRunSettings, int intervalLength, 
+		// numIntervals
+		skip(8*4);
+		skip(2); // short incrementMode
+		skip(4); // int endParticleSize
+		skip(2); // unknown
+		// EDR uses chars, non-EDR uses unsigned shorts.
+		readSpectra(version == 768);
+	}
+	
+	private void setNumPoints(int points) {
+		numPoints = points;
+		// AutoCalibrator and the peak finder go by the length of the 
+		// arrays, so they're only kept when they're the right size
+		if (posSpectrum.length != points) {
+			posSpectrum = new int[points];
+			negSpectrum = new int[points];
+		}
+	}
+	
+	private void readSpectra(boolean bytes) {
+		if (bytes) {
+			for (int i = 0; i < numPoints; i++)
+				posSpectrum[i] = dataBuff.get() & 0xff;
+			for (int i = 0; i < numPoints; i++)
+				negSpectrum[i] = dataBuff.get() & 0xff;
+		}
+		else {
+			for (int i = 0; i < numPoints; i++)
+				posSpectrum[i] = dataBuff.getChar();
+			for (int i = 0; i < numPoints; i++)
+				negSpectrum[i] = dataBuff.getChar();
+		}
+	}
+	
+	public int getVersion() {
+		return version;
+	}
+	
+	public int getNumPoints() {
+		return numPoints;
+	}
+	
+	/**
+	 * @return the positive spectrum of the last file read.  It's reused
+	 * for the next file.
+	 */
+	public int[] getPosSpectrum() {
+		return posSpectrum;
+	}
+	
+	/**
+	 * @return the negative spectrum of the last file read.  It's reused
+	 * for the next file.
+	 */
+	public int[] getNegSpectrum() {
+		return negSpectrum;
+	}
+	
+	/**
+	 * @return the laser power, scaled as ATOFMSParticle.laserPower is.
+	 */
+	public float getLaserPower() {
+		return laserPower/1000;
+	}
+	
+	/**
+	 * @return the laser power as it is in the file, the way the 
+	 * ATOFMSParticle constructor takes it.
+	 */
+	public float getRawLaserPower() {
+		return laserPower;
+	}
+	
+	public float getDigitRate() {
+		return digitRate;
+	}
+	
+	public int getScatDelay() {
+		return scatDelay;
+	}
+	
+	/**
+	 * @return the particle size from the size calibration, as 
+	 * ATOFMSParticle works it out.
+	 */
+	public float getSize() {
+		CalInfo cal = ATOFMSParticle.currCalInfo;
+		if (!cal.sizecal)
+			return 0;
+		float size = cal.c1 +
+			cal.c2*scatDelay +
+			cal.c3*scatDelay*scatDelay +
+			cal.c4*scatDelay*scatDelay*scatDelay;
+		return size < 0 ? 0 : size;
+	}
+	
+	/**
+	 * Finds the peaks of the last file read and puts them in peaks, 
+	 * merged by integer m/z, as ATOFMSParticle.particleInfoSparseString()
+	 * does.
+	 * @return the number of peaks
+	 */
+	public int findPeaks(PeakBuffer peaks) {
+		CalInfo cal = ATOFMSParticle.currCalInfo;
+		double posSlope = cal.posSlope, posIntercept = cal.posIntercept;
+		double negSlope = cal.negSlope, negIntercept = cal.negIntercept;
+		if (cal.autocal) {
+			double[] fit = AutoCalibrator.autoCalibrate(digitRate, 
+					AutoCalibrator.POS, posSpectrum);
+			if (fit != null) {
+				posSlope = fit[0];
+				posIntercept = fit[1];
+			}
+			fit = AutoCalibrator.autoCalibrate(digitRate, 
+					AutoCalibrator.NEG, negSpectrum);
+			if (fit != null) {
+				negSlope = fit[0];
+				negIntercept = fit[1];
+			}
+		}
+		
+		finder.find(posSpectrum, negSpectrum, 
+				posSlope, posIntercept, negSlope, negIntercept);
+		finder.merge(peaks);
+		return peaks.size();
+	}
+	
+	/**
+	 * Lets go of the Inflater's native memory.  The decoder can still be
+	 * used afterwards.
+	 */
+	public void close() {
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+}
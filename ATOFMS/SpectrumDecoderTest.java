@@ -0,0 +1,431 @@
+package ATOFMS;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+public class SpectrumDecoderTest extends TestCase {
+	private static class Spectrum {
+		final String name;
+		final float laserPower, digitRate, size;
+		final int scatDelay, posHash, negHash;
+		
+		Spectrum(String name, float laserPower, float digitRate, 
+				int scatDelay, float size, int posHash, int negHash) {
+			this.name = name;
+			this.laserPower = laserPower;
+			this.digitRate = digitRate;
+			this.scatDelay = scatDelay;
+			this.size = size;
+			this.posHash = posHash;
+			this.negHash = negHash;
+		}
+	}
+	
+	/**
+	 * What the old ReadSpec and ATOFMSParticle made of each testRow/b
+	 * spectrum: laser power, digit rate, scatter delay, size, and
+	 * Arrays.hashCode of the positive and negative spectra.
+	 */
+	private static final Spectrum[] SPECTRA = {
+		new Spectrum("b-040804153913-00001.amz", 1.031E-6f, 5.0E8f, 3129, 0.0f, -1489377533, 1831635151),
+		new Spectrum("b-040804153917-00002.amz", 9.96E-7f, 5.0E8f, 2763, 0.0f, -72004928, -1641130841),
+		new Spectrum("b-040804153940-00003.amz", 1.002E-6f, 5.0E8f, 2482, 0.0f, 1205061517, -150467190),
+		new Spectrum("b-040804154010-00004.amz", 9.84E-7f, 5.0E8f, 2948, 0.0f, 429648593, -997215579),
+		new Spectrum("b-040804154107-00005.amz", 1.008E-6f, 5.0E8f, 2722, 0.0f, 1951171802, 390748084),
+		new Spectrum("b-040804154122-00006.amz", 1.028E-6f, 5.0E8f, 2524, 0.0f, -751027143, -2108518402),
+		new Spectrum("b-040804154205-00007.amz", 8.95E-7f, 5.0E8f, 2539, 0.0f, 389368836, -1240689954),
+		new Spectrum("b-040804154252-00008.amz", 9.17E-7f, 5.0E8f, 2954, 0.0f, 536744963, 98543399),
+		new Spectrum("b-040804154319-00009.amz", 9.26E-7f, 5.0E8f, 2977, 0.0f, 16445882, 693104058),
+		new Spectrum("b-040804154325-00010.amz", 9.46E-7f, 5.0E8f, 2899, 0.0f, -762270771, 173334844),
+	};
+	
+	/**
+	 * The ATOFMSAtomInfoSparse rows the old code made, with the
+	 * calibration in testRow/b/cal.cal.
+	 */
+	private static final String[][] PEAKS = {
+		{
+			"18.0, 614, 0.015573084, 159",
+			"27.0, 1918, 0.048646867, 500",
+			"36.0, 1636, 0.041494407, 425",
+			"37.0, 1184, 0.030030182, 275",
+			"38.0, 851, 0.021584194, 193",
+			"39.0, 24872, 0.6308367, 3525",
+			"40.0, 733, 0.01859132, 84",
+			"41.0, 1919, 0.04867223, 325",
+			"42.0, 411, 0.010424329, 72",
+			"44.0, 1049, 0.026606133, 225",
+			"221.0, 582, 0.014761458, 94",
+			"-43.0, 533, 0.03912501, 93",
+			"-95.0, 228, 0.016736401, 63",
+			"-97.0, 10517, 0.77200323, 875",
+			"-99.0, 214, 0.015708728, 58",
+			"-103.0, 142, 0.0104235485, 40",
+			"-194.0, 296, 0.02172796, 53",
+			"-214.0, 308, 0.022608824, 48",
+			"-231.0, 410, 0.03009616, 83",
+		},
+		{
+			"12.0, 5566, 0.16359521, 1400",
+			"24.0, 1774, 0.052141197, 425",
+			"27.0, 442, 0.012991211, 99",
+			"36.0, 10417, 0.30617523, 2175",
+			"37.0, 1123, 0.03300708, 225",
+			"39.0, 12692, 0.37304178, 1925",
+			"41.0, 656, 0.019281074, 128",
+			"49.0, 342, 0.010052023, 97",
+			"-96.0, 631, 1.0, 112",
+		},
+		{
+			"23.0, 4099, 0.22896883, 575",
+			"40.0, 13092, 0.7313149, 1578",
+			"41.0, 338, 0.018880572, 86",
+			"-63.0, 455, 0.034938186, 96",
+			"-78.0, 7824, 0.6007832, 725",
+			"-79.0, 1497, 0.11495047, 196",
+			"-95.0, 1394, 0.10704139, 160",
+			"-96.0, 701, 0.053827845, 103",
+		},
+		{
+			"36.0, 104, 0.20512821, 41",
+			"39.0, 69, 0.13609467, 36",
+			"40.0, 147, 0.28994083, 72",
+			"44.0, 114, 0.22485209, 81",
+			"71.0, 41, 0.08086785, 41",
+			"132.0, 32, 0.06311637, 32",
+			"-96.0, 232, 1.0, 72",
+		},
+		{
+			"12.0, 2037, 0.022505054, 475",
+			"15.0, 1109, 0.012252384, 300",
+			"26.0, 953, 0.010528875, 174",
+			"27.0, 13010, 0.14373626, 2200",
+			"29.0, 5311, 0.058676653, 800",
+			"36.0, 6928, 0.07654149, 1175",
+			"37.0, 9921, 0.10960856, 1675",
+			"38.0, 6236, 0.06889618, 1100",
+			"39.0, 8370, 0.0924729, 1275",
+			"40.0, 1024, 0.011313292, 174",
+			"42.0, 3492, 0.038580094, 550",
+			"44.0, 7529, 0.08318142, 875",
+			"49.0, 1212, 0.013390342, 196",
+			"50.0, 1259, 0.013909604, 250",
+			"51.0, 3290, 0.03634837, 500",
+			"52.0, 2456, 0.027134223, 425",
+			"56.0, 1453, 0.016052943, 171",
+			"58.0, 1052, 0.01162264, 133",
+			"61.0, 1246, 0.013765979, 250",
+			"62.0, 950, 0.01049573, 171",
+			"63.0, 1035, 0.011434821, 170",
+			"64.0, 1275, 0.014086374, 200",
+			"-64.0, 174, 0.010575579, 50",
+			"-80.0, 1493, 0.09074333, 166",
+			"-89.0, 635, 0.038594786, 75",
+			"-95.0, 266, 0.016167264, 63",
+			"-97.0, 12138, 0.7377378, 950",
+			"-98.0, 889, 0.0540327, 87",
+		},
+		{
+			"27.0, 952, 0.25185186, 275",
+			"29.0, 195, 0.051587302, 69",
+			"36.0, 112, 0.02962963, 48",
+			"37.0, 370, 0.0978836, 110",
+			"38.0, 276, 0.073015876, 97",
+			"39.0, 472, 0.12486772, 109",
+			"41.0, 257, 0.06798942, 88",
+			"44.0, 398, 0.10529101, 111",
+			"51.0, 328, 0.08677249, 127",
+			"52.0, 236, 0.06243386, 99",
+			"64.0, 114, 0.03015873, 66",
+		},
+		{
+			"27.0, 845, 0.22599626, 225",
+			"29.0, 128, 0.034233753, 93",
+			"37.0, 166, 0.044396896, 63",
+			"38.0, 454, 0.12142284, 153",
+			"39.0, 525, 0.14041187, 125",
+			"41.0, 89, 0.023803156, 52",
+			"44.0, 422, 0.112864405, 96",
+			"51.0, 329, 0.08799144, 86",
+			"52.0, 203, 0.054292593, 76",
+			"56.0, 42, 0.01123295, 42",
+			"58.0, 157, 0.041989837, 60",
+			"64.0, 98, 0.026210217, 59",
+			"79.0, 81, 0.021663547, 49",
+			"93.0, 65, 0.017384328, 33",
+		},
+		{
+			"27.0, 84, 0.5419355, 42",
+			"38.0, 34, 0.21935484, 34",
+			"52.0, 37, 0.23870967, 37",
+		},
+		{
+			"12.0, 337, 0.043483872, 112",
+			"18.0, 91, 0.011741935, 51",
+			"36.0, 1996, 0.2575484, 550",
+			"37.0, 163, 0.021032259, 50",
+			"39.0, 3772, 0.48670968, 675",
+			"41.0, 229, 0.029548388, 45",
+			"43.0, 212, 0.027354838, 63",
+			"49.0, 526, 0.06787097, 95",
+			"60.0, 87, 0.011225807, 48",
+			"61.0, 171, 0.022064516, 52",
+			"-97.0, 33, 1.0, 33",
+		},
+		{
+			"40.0, 20518, 0.9094858, 1450",
+			"42.0, 1317, 0.058377657, 198",
+			"-26.0, 236, 1.0, 148",
+		},
+	};
+	
+	/**
+	 * The same, autocalibrated.
+	 */
+	private static final String[][] AUTOCAL_PEAKS = {
+		{
+			"18.0, 614, 0.015573084, 159",
+			"27.0, 1918, 0.048646867, 500",
+			"36.0, 1636, 0.041494407, 425",
+			"37.0, 1184, 0.030030182, 275",
+			"38.0, 851, 0.021584194, 193",
+			"39.0, 25605, 0.64942807, 3609",
+			"41.0, 1919, 0.04867223, 325",
+			"42.0, 411, 0.010424329, 72",
+			"43.0, 1049, 0.026606133, 225",
+			"219.0, 582, 0.014761458, 94",
+			"-43.0, 533, 0.03912501, 93",
+			"-95.0, 228, 0.016736401, 63",
+			"-97.0, 10517, 0.77200323, 875",
+			"-99.0, 214, 0.015708728, 58",
+			"-103.0, 142, 0.0104235485, 40",
+			"-195.0, 296, 0.02172796, 53",
+			"-215.0, 308, 0.022608824, 48",
+			"-233.0, 410, 0.03009616, 83",
+		},
+		{
+			"12.0, 5566, 0.16359521, 1400",
+			"24.0, 1774, 0.052141197, 425",
+			"27.0, 442, 0.012991211, 99",
+			"36.0, 10417, 0.30617523, 2175",
+			"37.0, 1123, 0.03300708, 225",
+			"39.0, 12692, 0.37304178, 1925",
+			"41.0, 656, 0.019281074, 128",
+			"48.0, 342, 0.010052023, 97",
+			"-96.0, 631, 1.0, 112",
+		},
+		{
+			"23.0, 4099, 0.22896883, 575",
+			"39.0, 13092, 0.7313149, 1578",
+			"41.0, 338, 0.018880572, 86",
+			"-64.0, 455, 0.034938186, 96",
+			"-79.0, 7824, 0.6007832, 725",
+			"-80.0, 1497, 0.11495047, 196",
+			"-96.0, 1394, 0.10704139, 160",
+			"-97.0, 701, 0.053827845, 103",
+		},
+		{
+			"36.0, 104, 0.20512821, 41",
+			"39.0, 216, 0.42603552, 108",
+			"43.0, 114, 0.22485209, 81",
+			"70.0, 41, 0.08086785, 41",
+			"131.0, 32, 0.06311637, 32",
+			"-94.0, 232, 1.0, 72",
+		},
+		{
+			"12.0, 2037, 0.022505054, 475",
+			"15.0, 1109, 0.012252384, 300",
+			"26.0, 953, 0.010528875, 174",
+			"27.0, 13010, 0.14373626, 2200",
+			"29.0, 5311, 0.058676653, 800",
+			"36.0, 6928, 0.07654149, 1175",
+			"37.0, 9921, 0.10960856, 1675",
+			"38.0, 6236, 0.06889618, 1100",
+			"39.0, 8370, 0.0924729, 1275",
+			"40.0, 1024, 0.011313292, 174",
+			"41.0, 3492, 0.038580094, 550",
+			"43.0, 7529, 0.08318142, 875",
+			"48.0, 1212, 0.013390342, 196",
+			"49.0, 1259, 0.013909604, 250",
+			"50.0, 3290, 0.03634837, 500",
+			"51.0, 2456, 0.027134223, 425",
+			"55.0, 1453, 0.016052943, 171",
+			"58.0, 1052, 0.01162264, 133",
+			"61.0, 1246, 0.013765979, 250",
+			"62.0, 950, 0.01049573, 171",
+			"63.0, 1035, 0.011434821, 170",
+			"64.0, 1275, 0.014086374, 200",
+			"-64.0, 174, 0.010575579, 50",
+			"-80.0, 1493, 0.09074333, 166",
+			"-89.0, 635, 0.038594786, 75",
+			"-96.0, 266, 0.016167264, 63",
+			"-97.0, 12138, 0.7377378, 950",
+			"-99.0, 889, 0.0540327, 87",
+		},
+		{
+			"27.0, 952, 0.25185186, 275",
+			"29.0, 195, 0.051587302, 69",
+			"36.0, 112, 0.02962963, 48",
+			"37.0, 370, 0.0978836, 110",
+			"38.0, 276, 0.073015876, 97",
+			"39.0, 472, 0.12486772, 109",
+			"41.0, 257, 0.06798942, 88",
+			"43.0, 398, 0.10529101, 111",
+			"50.0, 328, 0.08677249, 127",
+			"51.0, 236, 0.06243386, 99",
+			"64.0, 114, 0.03015873, 66",
+		},
+		{
+			"27.0, 845, 0.22599626, 225",
+			"29.0, 128, 0.034233753, 93",
+			"37.0, 166, 0.044396896, 63",
+			"38.0, 454, 0.12142284, 153",
+			"39.0, 525, 0.14041187, 125",
+			"41.0, 89, 0.023803156, 52",
+			"43.0, 422, 0.112864405, 96",
+			"50.0, 329, 0.08799144, 86",
+			"51.0, 203, 0.054292593, 76",
+			"55.0, 42, 0.01123295, 42",
+			"57.0, 157, 0.041989837, 60",
+			"64.0, 98, 0.026210217, 59",
+			"78.0, 81, 0.021663547, 49",
+			"93.0, 65, 0.017384328, 33",
+		},
+		{
+			"27.0, 84, 0.5419355, 42",
+			"38.0, 34, 0.21935484, 34",
+			"51.0, 37, 0.23870967, 37",
+		},
+		{
+			"12.0, 337, 0.043483872, 112",
+			"18.0, 91, 0.011741935, 51",
+			"36.0, 1996, 0.2575484, 550",
+			"37.0, 163, 0.021032259, 50",
+			"39.0, 3772, 0.48670968, 675",
+			"41.0, 229, 0.029548388, 45",
+			"43.0, 212, 0.027354838, 63",
+			"48.0, 526, 0.06787097, 95",
+			"60.0, 87, 0.011225807, 48",
+			"61.0, 171, 0.022064516, 52",
+			"-95.0, 33, 1.0, 33",
+		},
+		{
+			"40.0, 20518, 0.9094858, 1450",
+			"41.0, 1317, 0.058377657, 198",
+			"-26.0, 236, 1.0, 148",
+		},
+	};
+	
+	private File[] files;
+	private CalInfo oldCalInfo;
+	private PeakParams oldPeakParams;
+	
+	protected void setUp() throws Exception {
+		files = new File("testRow/b").listFiles();
+		ArrayList<File> spectra = new ArrayList<File>();
+		for (File f : files)
+			if (f.getName().endsWith(".amz"))
+				spectra.add(f);
+		files = spectra.toArray(new File[spectra.size()]);
+		Arrays.sort(files);
+		assertEquals(SPECTRA.length, files.length);
+		for (int i = 0; i < files.length; i++)
+			assertEquals(SPECTRA[i].name, files[i].getName());
+		oldCalInfo = ATOFMSParticle.currCalInfo;
+		oldPeakParams = ATOFMSParticle.currPeakParams;
+		ATOFMSParticle.currPeakParams = new PeakParams(30, 30, 0.01f, 0.5f);
+	}
+	
+	protected void tearDown() {
+		ATOFMSParticle.currCalInfo = oldCalInfo;
+		ATOFMSParticle.currPeakParams = oldPeakParams;
+	}
+	
+	/**
+	 * Checks the decoder, and ReadSpec and ATOFMSParticle, against what
+	 * the old code made of the i'th spectrum.
+	 */
+	private void check(String fileName, int i, SpectrumDecoder decoder,
+			PeakBuffer peaks) throws IOException {
+		Spectrum expected = SPECTRA[i];
+		String[] rows = ATOFMSParticle.currCalInfo.autocal ? 
+				AUTOCAL_PEAKS[i] : PEAKS[i];
+		
+		decoder.read(fileName);
+		assertEquals(30000, decoder.getNumPoints());
+		assertEquals(expected.posHash, Arrays.hashCode(decoder.getPosSpectrum()));
+		assertEquals(expected.negHash, Arrays.hashCode(decoder.getNegSpectrum()));
+		assertEquals(expected.laserPower, decoder.getLaserPower());
+		assertEquals(expected.digitRate, decoder.getDigitRate());
+		assertEquals(expected.scatDelay, decoder.getScatDelay());
+		assertEquals(expected.size, decoder.getSize());
+		assertEquals(rows.length, decoder.findPeaks(peaks));
+		for (int p = 0; p < rows.length; p++)
+			assertEquals(rows[p], peaks.sparseString(p));
+		
+		ATOFMSParticle particle = 
+			new ReadSpec(fileName, new Date(0)).getParticle();
+		assertEquals(expected.posHash, Arrays.hashCode(particle.posSpectrum));
+		assertEquals(expected.negHash, Arrays.hashCode(particle.negSpectrum));
+		assertEquals(expected.laserPower, particle.laserPower);
+		assertEquals(expected.size, particle.size);
+		assertEquals(Arrays.asList(rows), particle.particleInfoSparseString());
+	}
+	
+	public void testMatchesOldReadSpec() throws IOException {
+		ATOFMSParticle.currCalInfo = new CalInfo("testRow/b/cal.cal", false);
+		SpectrumDecoder decoder = new SpectrumDecoder();
+		PeakBuffer peaks = new PeakBuffer(1);
+		for (int i = 0; i < files.length; i++)
+			check(files[i].getPath(), i, decoder, peaks);
+	}
+	
+	public void testMatchesOldReadSpecAutocal() throws IOException {
+		ATOFMSParticle.currCalInfo = new CalInfo("testRow/b/cal.cal", true);
+		SpectrumDecoder decoder = new SpectrumDecoder();
+		PeakBuffer peaks = new PeakBuffer();
+		// twice over, so every file is read into buffers left by another
+		for (int pass = 0; pass < 2; pass++)
+			for (int i = 0; i < files.length; i++)
+				check(files[i].getPath(), i, decoder, peaks);
+	}
+	
+	public void testUnzippedFile() throws IOException {
+		ATOFMSParticle.currCalInfo = new CalInfo("testRow/b/cal.cal", false);
+		File ams = File.createTempFile("SpectrumDecoderTest", ".ams");
+		ams.deleteOnExit();
+		ZipInputStream in = new ZipInputStream(new FileInputStream(files[0]));
+		in.getNextEntry();
+		FileOutputStream out = new FileOutputStream(ams);
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			out.write(buf, 0, n);
+		in.close();
+		out.close();
+		
+		SpectrumDecoder decoder = new SpectrumDecoder();
+		check(ams.getPath(), 0, decoder, new PeakBuffer());
+		check(files[1].getPath(), 1, decoder, new PeakBuffer());
+		check(ams.getPath(), 0, decoder, new PeakBuffer());
+		decoder.close();
+		ams.delete();
+	}
+	
+	public void testNotASpectrum() {
+		SpectrumDecoder decoder = new SpectrumDecoder();
+		try {
+			decoder.read("testRow/b/b.par");
+			fail("Read a .par file as a spectrum");
+		} catch (IOException e) {
+		}
+	}
+}
@@ -39,8 +39,6 @@
 
 package analysis;
 
-import java.util.Map;
-
 /**
  * @author andersbe, jtbigwoo
  *
@@ -48,11 +46,14 @@ import java.util.Map;
  * of a given peak.
  * @version 1.1 added the map entry so that we can modify the underlying 
  * BinnedPeakList if there is one.
+ * @version 1.2 the BinnedPeakList no longer keeps a map, so we hold on to
+ * the list and the index of the peak in it instead.
  */
 public class BinnedPeak {
 	private float value;
 	private int key;
-	private Map.Entry<Integer, Float> entry;
+	private BinnedPeakList list;
+	private int index;
 	
 	public BinnedPeak(int l, float a)
 	{
@@ -61,21 +62,24 @@ public class BinnedPeak {
 	}
 
 	/**
-	 * Creates a new binned peak with a reference back to the entry in the 
+	 * Creates a new binned peak with a reference back to its slot in the 
 	 * BinnedPeakList in case we change something.
 	 * @param l the integer key for this peak
 	 * @param a the float area for this peak
-	 * @param entry the entry in the BinnedPeakList for this peak.  If you're
-	 * not going to be changing the entry behind the BinnedPeak (or if there
+	 * @param list the BinnedPeakList holding this peak.  If you're
+	 * not going to be changing the value behind the BinnedPeak (or if there
 	 * isn't a BinnedPeakList containing this one) you should use the other
-	 * constructor (or you can just pass null for this parameter. 
+	 * constructor (or you can just pass null for this parameter.
+	 * @param index the position of this peak in the list; only good until
+	 * a peak is added to the list. 
 	 * @author jtbigwoo
 	 */
-	public BinnedPeak(int l, float a, Map.Entry<Integer, Float> entry)
+	BinnedPeak(int l, float a, BinnedPeakList list, int index)
 	{
 		key = l;
 		value = a;
-		this.entry = entry;
+		this.list = list;
+		this.index = index;
 	}
 	
 	public String toString() {
@@ -84,8 +88,8 @@ public class BinnedPeak {
 
 	public void setValue(float value) {
 		this.value = value;
-		if (entry != null) {
-			entry.setValue(value);
+		if (list != null) {
+			list.areas[index] = value;
 		}
 	}
 
@@ -40,7 +40,6 @@
 package analysis;
 
 import java.util.*;
-import java.util.Map.Entry;
 
 import analysis.dataCompression.Pair;
 
@@ -54,10 +53,21 @@ import analysis.dataCompression.Pair;
  * appropriately from a float).  Provides methods for adding peaks
  * from a regular peaklist, as well as methods for adding values
  * with no checks.
+ * 
+ * The peaks are kept in two packed, parallel arrays sorted by location:
+ * an int[] of locations and a float[] of areas.  Only the first
+ * <code>size</code> entries of each array are in use.  This takes about
+ * 8 bytes per peak, rather than the boxed Integer, boxed Float and tree
+ * node per peak that a TreeMap needs, and lets the distance calculations
+ * walk the arrays directly.
  */
 public class BinnedPeakList implements Iterable<BinnedPeak> {
 	
-	protected SortedMap<Integer, Float> peaks;
+	private static final int INITIAL_CAPACITY = 8;
+	
+	protected int[] locations;
+	protected float[] areas;
+	protected int size;
 
 	private Normalizable normalizable;
 	public static long distTime = 0;
@@ -65,30 +75,74 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 
 	/**
 	 * A constructor for the peaklist, initializes the underlying
-	 * ArrayLists to a size of 20.
+	 * arrays to a small default size.
 	 */
 	public BinnedPeakList(Normalizable norm)
 	{
-		peaks = new TreeMap<Integer, Float>();
+		locations = new int[INITIAL_CAPACITY];
+		areas = new float[INITIAL_CAPACITY];
+		size = 0;
 		normalizable = norm;
 	}
 
 	/**
-	 * A constructor for the peaklist, initializes the underlying
-	 * ArrayLists to a size of 20.
+	 * A constructor for the peaklist, fills the underlying arrays with the
+	 * contents of the map.  The map does not need to be sorted.
 	 */
 	public BinnedPeakList(Normalizable norm, Map<Integer,Float> m)
 	{
-		peaks = new TreeMap<Integer, Float>(m);
 		normalizable = norm;
+		size = m.size();
+		locations = new int[Math.max(size, INITIAL_CAPACITY)];
+		areas = new float[Math.max(size, INITIAL_CAPACITY)];
+		if (m instanceof SortedMap 
+				&& ((SortedMap<Integer,Float>) m).comparator() == null) {
+			int index = 0;
+			for (Map.Entry<Integer, Float> entry : m.entrySet()) {
+				locations[index] = entry.getKey();
+				areas[index] = entry.getValue();
+				index++;
+			}
+		} else {
+			// Pack each peak into a long with the location in the high
+			// bits, so that sorting the longs sorts the peaks by location
+			// without boxing anything.
+			long[] packed = new long[size];
+			int index = 0;
+			for (Map.Entry<Integer, Float> entry : m.entrySet()) {
+				packed[index++] = ((long) entry.getKey() << 32) |
+					(Float.floatToRawIntBits(entry.getValue()) & 0xFFFFFFFFL);
+			}
+			Arrays.sort(packed);
+			for (index = 0; index < size; index++) {
+				locations[index] = (int) (packed[index] >> 32);
+				areas[index] = Float.intBitsToFloat((int) packed[index]);
+			}
+		}
+	}
+
+	/**
+	 * A constructor for the peaklist that takes over the given arrays 
+	 * rather than copying them.  The locations must be strictly 
+	 * increasing.
+	 * @param size how many of the array elements are peaks
+	 */
+	public BinnedPeakList(Normalizable norm, int[] locations, float[] areas,
+			int size)
+	{
+		assert locations.length >= size && areas.length >= size : 
+			"arrays are shorter than size " + size;
+		normalizable = norm;
+		this.locations = locations;
+		this.areas = areas;
+		this.size = size;
 	}
 
 	/**
 	 * Creates a BinnedPeakList with a new Normalizer
 	 */
 	public BinnedPeakList() {
-		peaks = new TreeMap<Integer, Float>();
-		normalizable = new Normalizer();
+		this(new Normalizer());
 	}
 	
 	public Normalizable getNormalizable(){
@@ -101,33 +155,36 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 * @author dmusican
 	 */
 	public void copyBinnedPeakList(BinnedPeakList original) {
-		// Note that the TreeMap copy-constructor is likely a shallow copy;
-		// it does not copy the keys and values. But this contains Integer and
-		// Float immutable objects, so this doesn't matter.
-		peaks = new TreeMap<Integer,Float>(original.peaks);
+		int capacity = Math.max(original.size, INITIAL_CAPACITY);
+		locations = Arrays.copyOf(original.locations, capacity);
+		areas = Arrays.copyOf(original.areas, capacity);
+		size = original.size;
 		normalizable = original.getNormalizable();
 	}
 	
+	/**
+	 * @return roughly how many bytes of heap this list takes up: the 
+	 * object and its two arrays, counting their spare capacity.
+	 */
+	public long getMemory() {
+		return 32 + 2 * (16 + 4L * locations.length);
+	}
+	
 	/**
 	 * Compares the BinnedPeak data of two BinnedPeakLists
 	 * @param toCompare the other BinnedPeakList to use
 	 * @return true if equal
 	 */
 	public boolean comparePeakLists(BinnedPeakList toCompare) {
-		boolean equal = true;
-		Iterator<Map.Entry<Integer, Float>> i = peaks.entrySet().iterator();
-		Iterator<Map.Entry<Integer, Float>> i2 = toCompare.getPeaks().entrySet().iterator();
-		Entry<Integer, Float> entry;
-		Entry<Integer, Float> entry2;
-		while(i.hasNext() && i2.hasNext()){
-			entry = i.next();
-			entry2 = i2.next();
-			if(!entry.getKey().equals(entry2.getKey()) || !entry.getValue().equals(entry2.getValue())){
-				equal = false;
-				break;
+		int common = Math.min(size, toCompare.size);
+		for (int i = 0; i < common; i++) {
+			if (locations[i] != toCompare.locations[i] ||
+					Float.floatToIntBits(areas[i]) != 
+						Float.floatToIntBits(toCompare.areas[i])) {
+				return false;
 			}
 		}
-		return equal;
+		return true;
 	}
 	
 	/**
@@ -135,12 +192,8 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 * @return true if this BinnedPeakList contains any zero values (peak areas)
 	 */
 	public boolean containsZeros() {
-		
-		Iterator<BinnedPeak> iter = iterator();
-		BinnedPeak p;
-		while (iter.hasNext()) {
-			p = iter.next();
-			if (p.getValue()==0)
+		for (int i = 0; i < size; i++) {
+			if (areas[i] == 0)
 				return true;
 		}
 		return false;
@@ -153,12 +206,9 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 */
 	public BinnedPeakList getFilteredZerosList() {
 		BinnedPeakList newSums = new BinnedPeakList(new Normalizer());
-		Iterator<BinnedPeak> iter = iterator();
-		BinnedPeak p;
-		while (iter.hasNext()) {
-			p = iter.next();
-			if (p.getValue()!=0) {
-				newSums.add(p);
+		for (int i = 0; i < size; i++) {
+			if (areas[i] != 0) {
+				newSums.addNoChecks(locations[i], areas[i]);
 			}
 		}
 		return newSums;
@@ -189,25 +239,22 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	{
 		float magnitude = 0;
 
-		Iterator<Map.Entry<Integer, Float>> i = peaks.entrySet().iterator();
 		if (dMetric == DistanceMetric.CITY_BLOCK)
-			while (i.hasNext())
+			for (int i = 0; i < size; i++)
 			{
-				magnitude += i.next().getValue();
+				magnitude += areas[i];
 			}
 		else if (dMetric == DistanceMetric.EUCLIDEAN_SQUARED ||
 		         dMetric == DistanceMetric.DOT_PRODUCT)
 		{
 			float currentArea;
-			while (i.hasNext())
+			for (int i = 0; i < size; i++)
 			{
-				currentArea = i.next().getValue();
+				currentArea = areas[i];
 				magnitude += currentArea*currentArea;
 			}
 			magnitude = (float) Math.sqrt(magnitude);
 		}
-	//	if(magnitude>1.0)
-	//		System.out.println("BAD MAGNITUDE " + magnitude);
 		return magnitude;
 	}
 	
@@ -248,35 +295,28 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	{
 		float negMagnitude = 0;
 		float posMagnitude = 0;
-		Entry<Integer, Float> entry;
 		
-		Iterator<Map.Entry<Integer, Float>> i = peaks.entrySet().iterator();
 		if (dMetric == DistanceMetric.CITY_BLOCK)
-			while (i.hasNext())
+			for (int i = 0; i < size; i++)
 			{
-				entry = i.next();
-				if(entry.getKey()<0)
-					negMagnitude += entry.getValue();
+				if(locations[i]<0)
+					negMagnitude += areas[i];
 				else
-					posMagnitude += entry.getValue();
+					posMagnitude += areas[i];
 			}
 		else if (dMetric == DistanceMetric.EUCLIDEAN_SQUARED ||
 		         dMetric == DistanceMetric.DOT_PRODUCT)
 		{
-			float currentArea;
-			while (i.hasNext())
+			for (int i = 0; i < size; i++)
 			{
-				entry = i.next();
-				if(entry.getKey()<0)
-					negMagnitude += entry.getValue()*entry.getValue();
+				if(locations[i]<0)
+					negMagnitude += areas[i]*areas[i];
 				else
-					posMagnitude += entry.getValue()*entry.getValue();
+					posMagnitude += areas[i]*areas[i];
 			}
 			negMagnitude = (float) Math.sqrt(negMagnitude);
 			posMagnitude = (float) Math.sqrt(posMagnitude);
 		}
-	//	if(magnitude>1.0)
-	//		System.out.println("BAD MAGNITUDE " + magnitude);
 		return new Pair<Float, Float>(negMagnitude, posMagnitude);
 	}
 	/**
@@ -288,18 +328,20 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 */
 	public float getPartialMag(DistanceMetric dMetric, boolean negative){
 		float magnitude = 0;
-		Iterator<BinnedPeak> iter = posNegIterator(negative);
+		int firstPositive = firstNonNegativeIndex();
+		int start = negative ? 0 : firstPositive;
+		int end = negative ? firstPositive : size;
 		if (dMetric == DistanceMetric.CITY_BLOCK){
 			
-			while (iter.hasNext())
-				magnitude += iter.next().getValue();
+			for (int i = start; i < end; i++)
+				magnitude += areas[i];
 			
 		} else if (dMetric == DistanceMetric.EUCLIDEAN_SQUARED ||
 					dMetric == DistanceMetric.DOT_PRODUCT){
 			
 			float currentArea;
-			while (iter.hasNext()){
-				currentArea = iter.next().getValue();
+			for (int i = start; i < end; i++){
+				currentArea = areas[i];
 				magnitude += currentArea*currentArea;
 			}
 			magnitude = (float) Math.sqrt(magnitude);
@@ -325,68 +367,43 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 		 * in which case we don't choose one but calculate the distance between
 		 * them. 
 		 */
-		
-		Map.Entry<Integer, Float> i = null, j = null;
-		Iterator<Map.Entry<Integer, Float>> thisIter = peaks.entrySet().iterator(),
-			thatIter = other.peaks.entrySet().iterator();
+		int[] thisLocations = locations, thatLocations = other.locations;
+		float[] thisAreas = areas, thatAreas = other.areas;
+		int thisSize = size, thatSize = other.size;
+		int i = 0, j = 0;
 			
 		float distance = 0;
 		
-		// if one of the peak lists is empty, do something about it.
-		if (thisIter.hasNext()) {
-			i = thisIter.next();
-		}
-		if (thatIter.hasNext()) {
-			j = thatIter.next();
-		}
 		// both lists have some particles, so 
-		while (i != null && j != null) {
-			if (i.getKey().equals(j.getKey()))
+		while (i < thisSize && j < thatSize) {
+			if (thisLocations[i] == thatLocations[j])
 			{
-				distance += DistanceMetric.getDistance(i.getValue(),
-						j.getValue(),
+				distance += DistanceMetric.getDistance(thisAreas[i],
+						thatAreas[j],
 						metric);
-				
-				
-				if (thisIter.hasNext())
-					i = thisIter.next();
-				else i = null;
-				
-				if (thatIter.hasNext())
-					j = thatIter.next();
-				else j = null;
+				i++;
+				j++;
 			}
-			else if (i.getKey() < j.getKey())
+			else if (thisLocations[i] < thatLocations[j])
 			{
-				distance += DistanceMetric.getDistance(0, i.getValue(), metric);
-			
-				if (thisIter.hasNext())
-					i = thisIter.next();
-				else i = null;
+				distance += DistanceMetric.getDistance(0, thisAreas[i], metric);
+				i++;
 			}
 			else
 			{
-				distance += DistanceMetric.getDistance(0, j.getValue(), metric);
-				
-				if (thatIter.hasNext())
-					j = thatIter.next();
-				else j = null;
+				distance += DistanceMetric.getDistance(0, thatAreas[j], metric);
+				j++;
 			}
 		}
 	
-		if (i != null) {
-			assert(j == null);
-			distance += DistanceMetric.getDistance(0, i.getValue(), metric);
-			while (thisIter.hasNext()) {
-				distance += DistanceMetric.getDistance(0, 
-						thisIter.next().getValue(), metric);
-			}
-		} else if (j != null) {
-			distance += DistanceMetric.getDistance(0, j.getValue(), metric);
-			while (thatIter.hasNext()) {
-				distance += DistanceMetric.getDistance(0,
-						thatIter.next().getValue(), metric);
-			}
+		// at most one of these has anything left in it
+		while (i < thisSize) {
+			distance += DistanceMetric.getDistance(0, thisAreas[i], metric);
+			i++;
+		}
+		while (j < thatSize) {
+			distance += DistanceMetric.getDistance(0, thatAreas[j], metric);
+			j++;
 		}
 		
 		if (metric == DistanceMetric.DOT_PRODUCT)
@@ -408,15 +425,35 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 */
 	public float getAreaAt(int location)
 	{
-		Float area = peaks.get(location);
-		if (area == null) {
+		int index = indexOf(location);
+		if (index < 0) {
 			return 0;
 		} else {
-			return area;
+			return areas[index];
 		}
 	}
 
-	
+	/**
+	 * Returns the location of the index-th peak in this list, counting 
+	 * from the lowest location.
+	 * @param index between 0 and length() - 1
+	 * @return the location of that peak
+	 */
+	public int getLocationAtIndex(int index) {
+		assert index < size : "index " + index + " out of range " + size;
+		return locations[index];
+	}
+
+	/**
+	 * Returns the area of the index-th peak in this list, counting 
+	 * from the lowest location.
+	 * @param index between 0 and length() - 1
+	 * @return the area of that peak
+	 */
+	public float getAreaAtIndex(int index) {
+		assert index < size : "index " + index + " out of range " + size;
+		return areas[index];
+	}
 	
 	
 	/**
@@ -441,15 +478,22 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 		long temptime = System.currentTimeMillis();
 		
 		float distance = magnitude;
+		int[] thatLocations = other.locations;
+		float[] thatAreas = other.areas;
+		int thatSize = other.size;
+		int j = 0;
 		
 		// loop over this peak list, accumulating magnitude as you go,
 		// but calculating distance if match with other (and subtracting off
 		// that portion from magnitude with other)
-		for (Map.Entry<Integer,Float> i : peaks.entrySet()) {
-			int iKey = i.getKey();
-			float iValue = i.getValue();
-			if (other.peaks.containsKey(iKey)) {
-				float otherValue = other.peaks.get(iKey);
+		for (int i = 0; i < size; i++) {
+			int iKey = locations[i];
+			float iValue = areas[i];
+			while (j < thatSize && thatLocations[j] < iKey) {
+				j++;
+			}
+			if (j < thatSize && thatLocations[j] == iKey) {
+				float otherValue = thatAreas[j];
 				distance = distance +
 					(DistanceMetric.getDistance(iValue,otherValue,metric) -
 					DistanceMetric.getDistance(0,otherValue,metric));
@@ -496,10 +540,10 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 		// loop over this peak list, accumulating magnitude as you go,
 		// but calculating distance if match with other (and subtracting off
 		// that portion from magnitude with other)
-		for (Map.Entry<Integer,Float> i : peaks.entrySet()) {
-			int iKey = i.getKey();
+		for (int i = 0; i < size; i++) {
+			int iKey = locations[i];
 			if (iKey >= -zeroOffset && iKey <= zeroOffset) {
-				float iValue = i.getValue();
+				float iValue = areas[i];
 				if (other[iKey + zeroOffset] != 0) {
 					float otherValue = other[iKey + zeroOffset];
 					distance = distance + 
@@ -522,22 +566,6 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 		return normalizable.roundDistance(this, other, metric, distance);
 	}
 	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
 	/**
 	 * Add a regular peak to the peaklist.  This actually involves
 	 * quite a bit of processing.  First, each float key is
@@ -569,17 +597,21 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	/**
 	 * This is just like add(float, float) except that it is assumed that
 	 * rounding the peaks to the right location has been done already.
+	 * Peaks usually arrive in order of location, so adding past the end
+	 * of the list is the cheap case.
 	 * @param location
 	 * @param area
 	 */
 	public void add(int location, float area) {
-		assert !(peaks.containsKey(location)== true && peaks.get(location)== null) : "null peak is present in list";
-		Float tempArea = peaks.get(location);
-		if (tempArea != null)
-		{
-			peaks.put(location, tempArea + area);
+		if (size == 0 || location > locations[size - 1]) {
+			insertAt(size, location, area);
+			return;
+		}
+		int index = indexOf(location);
+		if (index >= 0) {
+			areas[index] += area;
 		} else {
-			peaks.put(location, area);
+			insertAt(-(index + 1), location, area);
 		}
 	}
 	
@@ -591,10 +623,6 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	public void add(BinnedPeak bp) {
 		add(bp.getKey(), bp.getValue());
 	}
-	private void add(Entry<Integer, Float> entry) {
-		add(entry.getKey(), entry.getValue());
-		
-	}
 	
 	/**
 	 * Returns the number of locations represented by this 
@@ -603,7 +631,7 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 */
 	public int length()
 	{
-		return peaks.size();
+		return size;
 	}
 	
 	/**
@@ -615,7 +643,16 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 */
 	public void addNoChecks(int location, float area)
 	{
-		peaks.put(location, area);
+		if (size == 0 || location > locations[size - 1]) {
+			insertAt(size, location, area);
+			return;
+		}
+		int index = indexOf(location);
+		if (index >= 0) {
+			areas[index] = area;
+		} else {
+			insertAt(-(index + 1), location, area);
+		}
 	}
 	
 	/**
@@ -623,12 +660,8 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 * @param divisor
 	 */
 	public void divideAreasBy(int divisor) {
-		Map.Entry<Integer,Float> e;
-		Iterator<Map.Entry<Integer,Float>> i = peaks.entrySet().iterator();
-		
-		while (i.hasNext()) {
-			e = i.next();
-			e.setValue(e.getValue() / divisor);
+		for (int i = 0; i < size; i++) {
+			areas[i] = areas[i] / divisor;
 		}
 	}
 	
@@ -637,11 +670,8 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 */
 	public void printPeakList() {
 		System.out.println("printing peak list");
-		Iterator<BinnedPeak> i = iterator();
-		BinnedPeak p;
-		while (i.hasNext()) {
-			p = i.next();
-			System.out.println(p.getKey() + ", " + p.getValue());
+		for (int i = 0; i < size; i++) {
+			System.out.println(locations[i] + ", " + areas[i]);
 		}
 	}
 
@@ -650,20 +680,35 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 * value itself).
 	 */
 	public float getLargestArea() {
-		return Collections.max(peaks.values());
+		if (size == 0)
+			throw new NoSuchElementException();
+		float largest = areas[0];
+		for (int i = 1; i < size; i++) {
+			if (Float.compare(areas[i], largest) > 0)
+				largest = areas[i];
+		}
+		return largest;
 	}
+	
+	/**
+	 * Returns the peaks as a sorted map from location to area.  This is
+	 * a copy: changes made to the map are NOT reflected in this list.  Use
+	 * the iterator or getAreaAt for anything performance-sensitive.
+	 */
 	public SortedMap<Integer, Float> getPeaks() {
-		return peaks;
+		SortedMap<Integer, Float> map = new TreeMap<Integer, Float>();
+		for (int i = 0; i < size; i++) {
+			map.put(locations[i], areas[i]);
+		}
+		return map;
 	}
+	
 	/**
 	 * Find the sum of two particles.
 	 * @param other the particle to add to this one.
 	 */
 	public void addAnotherParticle(BinnedPeakList other) {
-		Iterator<Map.Entry<Integer, Float>> i = other.peaks.entrySet().iterator();
-		while (i.hasNext()) {
-			add(i.next());
-		}
+		mergeWeighted(other, 1);
 	}
 	
 	/** 
@@ -672,92 +717,22 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 * @param  factor the weight of the binnedPeakList you wish to add
 	 */
 	public void addWeightedParticle(BinnedPeakList other, int factor) {
-		Iterator<Map.Entry<Integer, Float>> iter = other.peaks.entrySet().iterator();
-		Map.Entry<Integer,Float> temp;
-		while (iter.hasNext()) {
-			temp = iter.next();
-			assert !(peaks.containsKey(temp.getKey())== true && peaks.get(temp.getKey())== null) : "null peak is present in list";
-			Float curArea = peaks.get(temp.getKey());
-			if(curArea != null) 
-				peaks.put(temp.getKey(), curArea + temp.getValue() * factor);
-			else
-				peaks.put(temp.getKey(), temp.getValue() * factor);
-		}
+		mergeWeighted(other, factor);
 	}	
 	public HashMap<Integer, Float> addWeightedToHash(HashMap<Integer, Float> hash, float factor) {
-		Iterator<Map.Entry<Integer, Float>> iter = peaks.entrySet().iterator();
-		Map.Entry<Integer,Float> temp;
-		while (iter.hasNext()) {
-			temp = iter.next();
-			Float value = hash.get(temp.getKey());
-			long beginTime = System.currentTimeMillis();
+		for (int i = 0; i < size; i++) {
+			Float value = hash.get(locations[i]);
 			if(value!= null) {
-				hash.put(temp.getKey(), value+temp.getValue()*factor);
+				hash.put(locations[i], value+areas[i]*factor);
 			}
 			else {
-				hash.put(temp.getKey(), temp.getValue()*factor);
+				hash.put(locations[i], areas[i]*factor);
 			}
 		}	
 		return hash;
 	}
 	public void addWeightedParticle2 (BinnedPeakList other, int factor) {	
-		BinnedPeakList reduced = new BinnedPeakList(normalizable);
-
-		Map.Entry<Integer, Float> i = null, j = null;
-		Iterator<Map.Entry<Integer, Float>> thisIter = peaks.entrySet().iterator(),
-			thatIter = other.peaks.entrySet().iterator();
-		
-		float distance = 0;
-		
-		// if one of the peak lists is empty, do something about it.
-		if (thisIter.hasNext()) {
-			i = thisIter.next();
-		}
-		if (thatIter.hasNext()) {
-			j = thatIter.next();
-		}
-		// both lists have some particles, so 
-		while (i != null && j != null) {
-			//if both have peaks at the next key, add the values together
-			if (i.getKey().equals(j.getKey()))
-			{
-				i.setValue(i.getValue() + j.getValue() * factor);
-				if (thisIter.hasNext())
-					i = thisIter.next();
-				else i = null;
-				
-				if (thatIter.hasNext())
-					j = thatIter.next();
-				else j = null;
-			}
-			//if only i has a value at the next key, move on
-			else if (i.getKey() < j.getKey())
-			{
-				if (thisIter.hasNext())
-				{
-					i = thisIter.next();
-			//		System.out.println(i);
-				}
-				else i = null;
-			}
-			//if only j has a value at the next key, add it to i
-			else
-			{
-				reduced.addNoChecks(j.getKey(), j.getValue() * factor);
-				if (thatIter.hasNext())
-					j = thatIter.next();
-				else j = null;
-			}
-		}
-		this.peaks.putAll(reduced.peaks);
-		//if there are more j's
-		while (j != null) {
-			this.addNoChecks(j.getKey(),j.getValue() * factor);
-			if(thatIter.hasNext())
-				j = thatIter.next();
-			else j = null;
-		}
-		
+		mergeWeighted(other, factor);
 	}
 	public class Node{
 		private Integer key;
@@ -774,59 +749,89 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 		}
 	}
 	public void addWeightedParticle3 (BinnedPeakList other, int factor) {	
+		mergeWeighted(other, factor);
+	}
+	
+	/**
+	 * Adds factor times each peak of the other list to this one, by
+	 * riffling through both sorted lists the way getDistance does.  If
+	 * every location in the other list is already present here, this is
+	 * done in place; otherwise the arrays are rebuilt at exactly the size
+	 * of the union.
+	 * @param other the list to add in
+	 * @param factor the weight of the other list
+	 */
+	private void mergeWeighted(BinnedPeakList other, float factor) {
+		int[] thatLocations = other.locations;
+		float[] thatAreas = other.areas;
+		int thatSize = other.size;
+		if (thatSize == 0)
+			return;
+		
+		// count the size of the union first
+		int i = 0, j = 0, union = 0;
+		while (i < size && j < thatSize) {
+			if (locations[i] == thatLocations[j]) {
+				i++;
+				j++;
+			} else if (locations[i] < thatLocations[j]) {
+				i++;
+			} else {
+				j++;
+			}
+			union++;
+		}
+		union += (size - i) + (thatSize - j);
 		
-		SortedMap<Integer, Float> newPeaks = new TreeMap<Integer, Float>();
-		
-		Map.Entry<Integer, Float> i = null, j = null;
-		Iterator<Map.Entry<Integer, Float>> thisIter = peaks.entrySet().iterator(),
-			thatIter = other.peaks.entrySet().iterator();
-		
-		
-		//build the two arrays
-		Node[] thisArray = new Node[this.peaks.size()];
-		Node[] thatArray = new Node[other.peaks.size()];
-		int index = 0;
-		while (thisIter.hasNext()) {
-			i = thisIter.next();
-			thisArray[index] = new Node(i.getKey(), i.getValue());
-			index++;
-		}
-		index = 0;
-		while (thatIter.hasNext()) {
-			j = thatIter.next();
-			thatArray[index] = new Node(j.getKey(), j.getValue());
-			index++;
+		if (union == size) {
+			for (i = 0, j = 0; j < thatSize; i++) {
+				if (locations[i] == thatLocations[j]) {
+					areas[i] = areas[i] + thatAreas[j] * factor;
+					j++;
+				}
+			}
+			return;
 		}
 		
-		//go across the arrays and merge them
-		int cur = 0;
+		int[] newLocations = new int[union];
+		float[] newAreas = new float[union];
 		int k = 0;
-		while (k < thisArray.length && cur<thatArray.length)
-		{
-			if(thisArray[k].getKey().equals(thatArray[cur].getKey())){
-				newPeaks.put(thisArray[k].getKey(), thisArray[k].getValue() + thatArray[cur].getValue() * factor);
-				k++;
-				cur++;
-			}
-			else if(thisArray[k].getKey() < thatArray[cur].getKey()) {
-				newPeaks.put(thisArray[k].getKey(), thisArray[k].getValue());
-				k++;
-			}
-			else {
-				newPeaks.put(thatArray[cur].getKey(), thatArray[cur].getValue() * factor);
-				cur++;
+		i = 0;
+		j = 0;
+		while (i < size && j < thatSize) {
+			if (locations[i] == thatLocations[j]) {
+				newLocations[k] = locations[i];
+				newAreas[k] = areas[i] + thatAreas[j] * factor;
+				i++;
+				j++;
+			} else if (locations[i] < thatLocations[j]) {
+				newLocations[k] = locations[i];
+				newAreas[k] = areas[i];
+				i++;
+			} else {
+				newLocations[k] = thatLocations[j];
+				newAreas[k] = thatAreas[j] * factor;
+				j++;
 			}
+			k++;
 		}
-		while(k<thisArray.length) {
-			newPeaks.put(thisArray[k].getKey(), thisArray[k].getValue());
+		while (i < size) {
+			newLocations[k] = locations[i];
+			newAreas[k] = areas[i];
+			i++;
 			k++;
 		}
-		while(cur < thatArray.length) {
-			newPeaks.put(thatArray[cur].getKey(), thatArray[cur].getValue() *factor);
-			cur++;
+		while (j < thatSize) {
+			newLocations[k] = thatLocations[j];
+			newAreas[k] = thatAreas[j] * factor;
+			j++;
+			k++;
 		}
-		this.peaks = newPeaks;
+		locations = newLocations;
+		areas = newAreas;
+		size = union;
 	}
+	
 	/**
 	 * A method to normalize this BinnedPeakList.  Depending 
 	 * on which distance metric is
@@ -869,11 +874,8 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	
 	// used for testing BIRCH
 	public boolean testForMax(int max) {
-		Iterator<BinnedPeak> iterator = iterator();
-		BinnedPeak peak;
-		while (iterator.hasNext()) {
-			peak = iterator.next();
-			if (peak.getValue() > max)
+		for (int i = 0; i < size; i++) {
+			if (areas[i] > max)
 				return false;
 		}
 		return true;
@@ -884,11 +886,8 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 * @param factor
 	 */
 	public void multiply(float factor) {
-		Iterator<Map.Entry<Integer, Float>> iter = peaks.entrySet().iterator();
-		Map.Entry<Integer,Float> temp;
-		while (iter.hasNext()) {
-			temp = iter.next();
-			temp.setValue(temp.getValue() * factor);
+		for (int i = 0; i < size; i++) {
+			areas[i] = areas[i] * factor;
 		}
 	}
 	
@@ -897,17 +896,51 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	 * @param factor
 	 */
 	public void divideAreasBy(float factor) {
-		Iterator<Map.Entry<Integer, Float>> iter = peaks.entrySet().iterator();
-		Map.Entry<Integer,Float> temp;
-		while (iter.hasNext()) {
-			temp = iter.next();
-			temp.setValue(temp.getValue() / factor);
+		for (int i = 0; i < size; i++) {
+			areas[i] = areas[i] / factor;
+		}
+	}
+	
+	/**
+	 * Binary search for a location.
+	 * @return the index of the location, or (-(insertion point) - 1) if
+	 * it isn't in the list, just like Arrays.binarySearch.
+	 */
+	private int indexOf(int location) {
+		return Arrays.binarySearch(locations, 0, size, location);
+	}
+	
+	/**
+	 * @return the index of the first peak at a location >= 0, which is
+	 * also the number of negative peaks.
+	 */
+	int firstNonNegativeIndex() {
+		int index = indexOf(0);
+		return index >= 0 ? index : -(index + 1);
+	}
+	
+	/**
+	 * Opens up a slot at index, growing the arrays if needed, and puts the
+	 * peak there.
+	 */
+	private void insertAt(int index, int location, float area) {
+		if (size == locations.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+			locations = Arrays.copyOf(locations, capacity);
+			areas = Arrays.copyOf(areas, capacity);
 		}
+		if (index < size) {
+			System.arraycopy(locations, index, locations, index + 1, size - index);
+			System.arraycopy(areas, index, areas, index + 1, size - index);
+		}
+		locations[index] = location;
+		areas[index] = area;
+		size++;
 	}
 	
 	/**
-	 * Return an iterator view of the binned peak list.  Note that modifying
-	 * the elements accessed by the iterator will NOT modify the peaklist itself.
+	 * Return an iterator view of the binned peak list.  Calling setValue on
+	 * the BinnedPeaks it returns changes the area in this list.
 	 */
 	public Iterator<BinnedPeak> iterator() {
 		return new Iter(this);
@@ -924,46 +957,49 @@ public class BinnedPeakList implements Iterable<BinnedPeak> {
 	}
 	
 	/**
-	 * Warning!  This does not actually provide you with access to the
-	 * underlying map structure, so any changes made to elements accessed by
-	 * this iterator will NOT BE REFLECTED in the BPL itself.
+	 * Walks the packed arrays in order of location.  Adding peaks to the
+	 * list while iterating is not supported.
 	 * 
 	 * @author smitht
 	 *
 	 */
 	public class Iter implements Iterator<BinnedPeak> {
-		private Iterator<Map.Entry<Integer,Float>> entries;
+		private BinnedPeakList list;
+		private int next;
+		private int end;
 		
-		/*
-		 * Copy the set of peaks into a list, and get an iterator on the list.
-		 * This happens to be sorted, yay.
-		 */
 		public Iter(BinnedPeakList bpl) {
-			this.entries = bpl.peaks.entrySet().iterator();
+			list = bpl;
+			next = 0;
+			end = bpl.size;
 		}
 		
 		/**
 		 * @author steinbel
 		 * overloaded constructor gives us an iterator for either negative or
-		 * non-negative peaks only
+		 * non-negative peaks only.  Since the list is sorted, that is just
+		 * the front or the back part of it.
 		 * @param bpl	the list through which to iterate
 		 * @param negative	true if only negative peaks desired, false for non-neg.
 		 */
 		public Iter(BinnedPeakList bpl, boolean negative){
-			BinnedPeakList sub = new BinnedPeakList();
-			for (BinnedPeak peak : bpl)
-				if( (!negative && peak.getKey() >= 0) || (negative && peak.getKey() <0) )
-					sub.add(peak);
-			this.entries = sub.peaks.entrySet().iterator();
+			list = bpl;
+			int firstPositive = bpl.firstNonNegativeIndex();
+			next = negative ? 0 : firstPositive;
+			end = negative ? firstPositive : bpl.size;
 		}
 
 		public boolean hasNext() {
-			return entries.hasNext();
+			return next < end;
 		}
 
 		public BinnedPeak next() {
-			Map.Entry<Integer,Float> e = entries.next();
-			return new BinnedPeak(e.getKey(), e.getValue(), e);
+			if (next >= end)
+				throw new NoSuchElementException();
+			BinnedPeak peak = new BinnedPeak(list.locations[next], 
+					list.areas[next], list, next);
+			next++;
+			return peak;
 		}
 
 		public void remove() {
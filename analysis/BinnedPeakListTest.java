@@ -178,13 +178,13 @@ public class BinnedPeakListTest extends TestCase {
 		bp1.add(100, (float) 1);
 		bp1.add(180, (float) 1);
 
-		assertEquals(bp1.peaks.get(-250), (float) 1);
-		assertEquals(bp1.peaks.get(-200), (float) 1);
-		assertEquals(bp1.peaks.get(-95), (float) 1 + (float) 1);
-		assertEquals(bp1.peaks.get(-25), (float) 1 + (float) 1);
-		assertEquals(bp1.peaks.get(30), (float) 1 + (float) 1);
-		assertEquals(bp1.peaks.get(100), (float) 1 + (float) 1);
-		assertEquals(bp1.peaks.get(125), (float) 1);
+		assertEquals(bp1.getAreaAt(-250), (float) 1);
+		assertEquals(bp1.getAreaAt(-200), (float) 1);
+		assertEquals(bp1.getAreaAt(-95), (float) 1 + (float) 1);
+		assertEquals(bp1.getAreaAt(-25), (float) 1 + (float) 1);
+		assertEquals(bp1.getAreaAt(30), (float) 1 + (float) 1);
+		assertEquals(bp1.getAreaAt(100), (float) 1 + (float) 1);
+		assertEquals(bp1.getAreaAt(125), (float) 1);
 	}
 	public void testAddWeightedParticle() {
 		BinnedPeakList bp1 = new BinnedPeakList(new Normalizer());
@@ -583,6 +583,53 @@ public class BinnedPeakListTest extends TestCase {
 			assertEquals(bpl.getAreaAt(i), 0, 0.0001f);
 	}
 	
+	/**
+	 * Peaks added out of order, from an unsorted map, or merged in from
+	 * another list should all come back sorted by location, and setting a
+	 * value through the iterator should change the list.
+	 */
+	public void testSortedStorage() {
+		BinnedPeakList bpl = new BinnedPeakList();
+		int[] keys = {30, -10, 200, 0, -300, 30, 5};
+		for (int key : keys)
+			bpl.add(key, 1f);
+		assertEquals(6, bpl.length());
+		assertEquals(2f, bpl.getAreaAt(30), delta);
+		int last = Integer.MIN_VALUE;
+		for (int i = 0; i < bpl.length(); i++) {
+			assertTrue(bpl.getLocationAtIndex(i) > last);
+			last = bpl.getLocationAtIndex(i);
+		}
+		
+		java.util.HashMap<Integer, Float> map = 
+			new java.util.HashMap<Integer, Float>();
+		map.put(-300, 1f);
+		map.put(-10, 1f);
+		map.put(0, 1f);
+		map.put(5, 1f);
+		map.put(30, 2f);
+		map.put(200, 1f);
+		BinnedPeakList fromMap = new BinnedPeakList(new Normalizer(), map);
+		assertTrue(bpl.comparePeakLists(fromMap));
+		assertEquals(bpl.getPeaks(), fromMap.getPeaks());
+		
+		BinnedPeakList other = new BinnedPeakList();
+		other.add(-20, 4f);
+		other.add(30, 4f);
+		other.add(500, 4f);
+		bpl.addWeightedParticle(other, 2);
+		assertEquals(8, bpl.length());
+		assertEquals(8f, bpl.getAreaAt(-20), delta);
+		assertEquals(10f, bpl.getAreaAt(30), delta);
+		assertEquals(8f, bpl.getAreaAt(500), delta);
+		assertEquals(1f, bpl.getAreaAt(5), delta);
+		
+		for (BinnedPeak peak : bpl)
+			peak.setValue(peak.getValue() * 3);
+		assertEquals(30f, bpl.getAreaAt(30), delta);
+		assertEquals(3f, bpl.getAreaAt(-300), delta);
+	}
+	
 	/**
 	 * @author shaferia
 	 */
@@ -82,6 +82,13 @@ public abstract class CollectionDivider {
 	 */
 	public static final int STORE_ON_FIRST_PASS = 1;
 
+	/**
+	 * Store each row in a temporary file on the first pass, and read
+	 * the file back (memory mapped) on subsequent passes.  For 
+	 * collections too big to keep in memory.
+	 */
+	public static final int STORE_ON_DISK_ON_FIRST_PASS = 2;
+
 	/**
 	 * The collection you are dividing
 	 */
@@ -150,7 +157,8 @@ public abstract class CollectionDivider {
 	 * initialize curs using one of the InfoWarehouse getCursor
 	 * methods
 	 * 
-	 * @param type	DISK_BASED or STORE_ON_FIRST_PASS, or others
+	 * @param type	DISK_BASED, STORE_ON_FIRST_PASS, 
+	 * STORE_ON_DISK_ON_FIRST_PASS, or others
 	 * @return true if the cursor type is supported, false 
 	 * otherwise
 	 */
@@ -46,21 +46,32 @@ package analysis;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.io.*;
 
 /**
  * @author andersbe
  *
  * A helper class to find the k smallest peak in a peaklist.
+ * 
+ * Only the peaks that are there are kept: the areas at each location
+ * are packed together in one float array, with the areas below zero 
+ * first, and the particles with no peak at a location are just counted
+ * as zeros.  The k-th smallest area at a location is found with 
+ * quickselect rather than by sorting.  This takes memory in proportion
+ * to the number of peaks, where a dense matrix took 
+ * (number of locations) x (number of particles), and gives the same 
+ * answers.
  */
 public class MedianFinder {
-	private static final int MAX_LOCATION = 2500;
-	private static int DOUBLE_MAX = MAX_LOCATION * 2;
-	
 	private ArrayList<BinnedPeakList> particles;
-	private float[][] sortedList;
-	private boolean [] locationsUsed = new boolean [DOUBLE_MAX];
+	private final int numParticles;
+	
+	// the locations that have peaks, in order
+	private int[] locations;
+	// the areas at locations[l] are at values[start[l]] to 
+	// values[start[l+1]-1]; the first below[l] of them are less than zero
+	private int[] start;
+	private int[] below;
+	private float[] values;
 	
 	private boolean isNormalized;
 	
@@ -70,9 +81,8 @@ public class MedianFinder {
 		isNormalized = norm;
 		if (particles.size() != 0)
 		{
-			sortedList = new float[DOUBLE_MAX][particles.size()];
+			numParticles = particles.size();
 			fill();
-			sort();
 		}
 		else
 			throw new IllegalArgumentException("Input list contains no " +
@@ -82,29 +92,192 @@ public class MedianFinder {
 	
 	private void fill()
 	{
-		BinnedPeakList tempPL;
-		for (int i = 0; i < particles.size(); i++)
-		{
-			tempPL = particles.get(i);
-			Iterator<BinnedPeak> j = tempPL.iterator();
-
-			while (j.hasNext())
-			{
-				BinnedPeak peak = j.next();
-				sortedList[MAX_LOCATION+peak.getKey()][i] = 
-					peak.getValue();
-				locationsUsed[MAX_LOCATION+peak.getKey()] = true;
+		// find every location that has a peak
+		int numPeaks = 0;
+		int minLocation = Integer.MAX_VALUE, maxLocation = Integer.MIN_VALUE;
+		for (BinnedPeakList peakList : particles) {
+			int length = peakList.length();
+			numPeaks += length;
+			if (length > 0) {
+				minLocation = Math.min(minLocation, 
+						peakList.getLocationAtIndex(0));
+				maxLocation = Math.max(maxLocation, 
+						peakList.getLocationAtIndex(length - 1));
 			}
 		}
+		if (numPeaks == 0) {
+			locations = new int[0];
+			start = new int[1];
+			below = new int[0];
+			values = new float[0];
+			return;
+		}
+		long range = (long) maxLocation - minLocation + 1;
+		int[] slotOf = null;
+		if (range <= Math.max(1 << 16, 2L * numPeaks)) {
+			// the usual case: a table from location to slot
+			slotOf = new int[(int) range];
+			for (BinnedPeakList peakList : particles)
+				for (int i = 0; i < peakList.length(); i++)
+					slotOf[peakList.getLocationAtIndex(i) - minLocation] = 1;
+			int numLocations = 0;
+			for (int i = 0; i < slotOf.length; i++)
+				if (slotOf[i] != 0)
+					numLocations++;
+			locations = new int[numLocations];
+			numLocations = 0;
+			for (int i = 0; i < slotOf.length; i++)
+				if (slotOf[i] != 0) {
+					locations[numLocations] = i + minLocation;
+					slotOf[i] = numLocations++;
+				}
+		}
+		else {
+			// locations spread too thinly for a table; binary search them
+			int[] all = new int[numPeaks];
+			int n = 0;
+			for (BinnedPeakList peakList : particles)
+				for (int i = 0; i < peakList.length(); i++)
+					all[n++] = peakList.getLocationAtIndex(i);
+			Arrays.sort(all);
+			int numLocations = 0;
+			for (int i = 0; i < n; i++)
+				if (i == 0 || all[i] != all[i-1])
+					all[numLocations++] = all[i];
+			locations = Arrays.copyOf(all, numLocations);
+		}
+		
+		// count the areas below and above zero at each location; zeros 
+		// are left out, since they're counted implicitly
+		int[] above = new int[locations.length];
+		below = new int[locations.length];
+		for (BinnedPeakList peakList : particles)
+			for (int i = 0; i < peakList.length(); i++) {
+				int slot = slot(slotOf, minLocation, 
+						peakList.getLocationAtIndex(i));
+				int sign = Float.compare(peakList.getAreaAtIndex(i), 0.0f);
+				if (sign < 0)
+					below[slot]++;
+				else if (sign > 0)
+					above[slot]++;
+			}
+		start = new int[locations.length + 1];
+		for (int l = 0; l < locations.length; l++)
+			start[l+1] = start[l] + below[l] + above[l];
+		
+		values = new float[start[locations.length]];
+		int[] nextBelow = new int[locations.length];
+		int[] nextAbove = above;
+		for (int l = 0; l < locations.length; l++) {
+			nextBelow[l] = start[l];
+			nextAbove[l] = start[l] + below[l];
+		}
+		for (BinnedPeakList peakList : particles)
+			for (int i = 0; i < peakList.length(); i++) {
+				int slot = slot(slotOf, minLocation, 
+						peakList.getLocationAtIndex(i));
+				float area = peakList.getAreaAtIndex(i);
+				int sign = Float.compare(area, 0.0f);
+				if (sign < 0)
+					values[nextBelow[slot]++] = area;
+				else if (sign > 0)
+					values[nextAbove[slot]++] = area;
+			}
 	}
 	
-	private void sort()
-	{	
-		for (int i = 0; i < DOUBLE_MAX; i++)
-		{
-			if (locationsUsed[i])
-				Arrays.sort(sortedList[i]);
+	private int slot(int[] slotOf, int minLocation, int location) {
+		if (slotOf != null)
+			return slotOf[location - minLocation];
+		return Arrays.binarySearch(locations, location);
+	}
+	
+	/**
+	 * @return the k-th smallest area at locations[l], counting the 
+	 * particles with no peak there as zeros, as it would be in a sorted
+	 * array of every particle's area there.
+	 */
+	private float kth(int l, int k)
+	{
+		int from = start[l];
+		int stored = start[l+1] - from;
+		int zeros = numParticles - stored;
+		if (k < below[l])
+			return select(values, from, from + below[l], from + k);
+		else if (k < below[l] + zeros)
+			return 0.0f;
+		else
+			return select(values, from + below[l], from + stored, 
+					from + k - zeros);
+	}
+	
+	/**
+	 * Rearranges a[from..to) enough to put the element that would be at 
+	 * index k, if it were sorted, at k, and returns it.  Compares as 
+	 * Arrays.sort(float[]) does.
+	 */
+	private static float select(float[] a, int from, int to, int k)
+	{
+		int lo = from, hi = to - 1;
+		while (hi > lo) {
+			// median of three, so sorted runs don't go quadratic
+			int mid = (lo + hi) >>> 1;
+			if (Float.compare(a[mid], a[lo]) < 0)
+				swap(a, mid, lo);
+			if (Float.compare(a[hi], a[lo]) < 0)
+				swap(a, hi, lo);
+			if (Float.compare(a[hi], a[mid]) < 0)
+				swap(a, hi, mid);
+			float pivot = a[mid];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (Float.compare(a[i], pivot) < 0)
+					i++;
+				while (Float.compare(a[j], pivot) > 0)
+					j--;
+				if (i <= j) {
+					swap(a, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
 		}
+		return a[k];
+	}
+	
+	private static void swap(float[] a, int i, int j)
+	{
+		float temp = a[i];
+		a[i] = a[j];
+		a[j] = temp;
+	}
+	
+	/**
+	 * @return the areas at locations[l] that compare greater than 
+	 * (if greater is true) or less than the given area, sorted, with 
+	 * the particles that have no peak there counted as zeros.
+	 */
+	private float[] sortedBeyond(int l, float area, boolean greater)
+	{
+		int zeros = numParticles - (start[l+1] - start[l]);
+		boolean zerosBeyond = greater ? 0.0f > area : area > 0.0f;
+		int count = zerosBeyond ? zeros : 0;
+		for (int i = start[l]; i < start[l+1]; i++)
+			if (greater ? values[i] > area : area > values[i])
+				count++;
+		float[] beyond = new float[count];
+		int n = 0;
+		for (int i = start[l]; i < start[l+1]; i++)
+			if (greater ? values[i] > area : area > values[i])
+				beyond[n++] = values[i];
+		// the zeros are already there, since the array starts out zeroed
+		Arrays.sort(beyond);
+		return beyond;
 	}
 
 	// Make MPS file to try to solve the median problem instead via a linear
@@ -222,35 +395,28 @@ public class MedianFinder {
 			returnThis = new BinnedPeakList(new Normalizer());
 		else 
 			returnThis = new BinnedPeakList(new DummyNormalizer());
-		if (particles.size()%2 == 0)
+		if (numParticles%2 == 0)
 		{
-			double sum = 0.0;
-			float fSum = 0.0f;
 			float subMid, supMid;
-			for (int i = 0; i < DOUBLE_MAX; i++)
+			for (int l = 0; l < locations.length; l++)
 			{
-				subMid = sortedList[i][particles.size()/2-1];
-				supMid = sortedList[i][particles.size()/2];
+				subMid = kth(l, numParticles/2-1);
+				supMid = kth(l, numParticles/2);
 				if (subMid == 0.0f &&
 					supMid == 0.0f)
 					;
 				else
 				{
-					sum += ((double) subMid + (double) supMid)/2.0;
-					fSum += (subMid+supMid)/2.0f;
-					returnThis.addNoChecks(i-MAX_LOCATION, 
+					returnThis.addNoChecks(locations[l], 
 							(subMid+supMid)/2.0f);
 				}
 			}
-			//System.out.println("Double Sum = " + sum);
-			//System.out.println("Float sum = " + fSum);
-			//System.out.flush();
 		
 			return returnThis;
 		}
 		else
 		{
-			return getKthElement(particles.size()/2);
+			return getKthElement(numParticles/2);
 		}
 	}
 	
@@ -258,22 +424,22 @@ public class MedianFinder {
 	{
 		if (particles.size() == 0)
 			return null;
-		if (k >= particles.size() || k < 0)
+		if (k >= numParticles || k < 0)
 			throw new IndexOutOfBoundsException(
 					"k must be a number from 0 to " +
-					(particles.size()-1));
+					(numParticles-1));
 		BinnedPeakList returnThis;
 		if (isNormalized)
 			returnThis = new BinnedPeakList(new Normalizer());
 		else 
 			returnThis = new BinnedPeakList(new DummyNormalizer());
-		for (int i = 0; i < DOUBLE_MAX; i++)
+		for (int l = 0; l < locations.length; l++)
 		{
-			if (sortedList[i][k] == 0)
+			float area = kth(l, k);
+			if (area == 0)
 				;
 			else
-				returnThis.addNoChecks(i-MAX_LOCATION,
-						sortedList[i][k]);
+				returnThis.addNoChecks(locations[l], area);
 		}
 		
 		return returnThis;
@@ -328,131 +494,65 @@ public class MedianFinder {
 		// If the median is not normalized, normalize it already
 		if (magnitude < 0.999f)
 		{
-			// For each key, Find out how many spectra have peaks 
-			// bigger than those in the median 
-			int [] numEntriesGreaterThanMedian = new int[DOUBLE_MAX];
-			int maxIndex = -1;
-			int maxNumEntries = 0; 
-			float maxAreaDiff = 0;
-			float tempArea = 0;
-			assert(sortedList[0].length > 0) : "List contains no elements";
-			assert(sortedList[0].length > 1) : "List contains only one element, " +
+			// For each key, find the spectra that have peaks bigger 
+			// than those in the median.  Each location's are sorted,
+			// and the ones still bigger than the median are from 
+			// next[l] on.
+			float[][] greater = new float[locations.length][];
+			int[] next = new int[locations.length];
+			assert(numParticles > 1) : "List contains only one element, " +
 					"and magnitude is still < 1.0f: " + magnitude;
 			
 			//TODO:  magnitude can still be summed to one if there's only one element.  
 			// Fix this eventually.
-			for (int i = 0; i < DOUBLE_MAX; i++)
+			for (int l = 0; l < locations.length; l++)
+				greater[l] = sortedBeyond(l, 
+						median.getAreaAt(locations[l]), true);
+			
+			// Magnify the median at the key where the most peaklists 
+			// have values higher than the median, move past the 
+			// peaklists that are now no bigger than the median there, 
+			// and go again until magnitude reaches 1.0f
+			while (magnitude < 1.0f)
 			{
-				int j = sortedList[i].length -1;
-				// We have to subtract MAX_LOCATION here since inside
-				// peaklists, neg. values are actually negative, but
-				// since we can't have negative array indices
-				// when we declare arrays, negative values are 
-				// positive and positive values are value+MAX_LOCATION
-				tempArea = median.getAreaAt(i-MAX_LOCATION);
-				while (j >= 0 && sortedList[i][j] - tempArea > 0.0f)
-				{
-					numEntriesGreaterThanMedian[i]++;
-					j--;
-					
-					assert(j >= particles.size()/2-1) :
-						"j is less than size()/2 which shouldn't happen if tempArea " +
-						"is really the median.\n" +
-						"median.getAreaAt(i-MAX_LOCATION) = " + tempArea + "\n" +
-						"sortedList[i][0] = " + sortedList[i][0];
-					
-				}
-				//assert (j != sortedList[i].length - 1) : 
-					//"j did not decrease";
-				// Find the key where the most peaklists have 
-				// values higher than the median
-				if (numEntriesGreaterThanMedian[i] > maxNumEntries)
+				int maxIndex = -1;
+				int maxNumEntries = 0;
+				float maxAreaDiff = 0.0f;
+				for (int l = 0; l < locations.length; l++)
 				{
-					maxNumEntries = numEntriesGreaterThanMedian[i];
-					maxIndex = i;
-					maxAreaDiff = sortedList[i]
-						   [sortedList[i].length - 
-							numEntriesGreaterThanMedian[i]] - tempArea;
+					int numEntries = greater[l].length - next[l];
+					if (numEntries > maxNumEntries)
+					{
+						maxNumEntries = numEntries;
+						maxIndex = l;
+						maxAreaDiff = greater[l][next[l]] - 
+							median.getAreaAt(locations[l]);
+					}
 				}
-			}
-
-			assert (maxNumEntries > 0) : 
-				"maxValue remained 0.  List size: " + sortedList[0].length;
-			
-			// Magnify the median at this key, adjust the count
-			// at this key for how many peaklists are bigger
-			// than the median and go again until magnitude reaches 1.0f
-			while (magnitude < 1.0f && numEntriesGreaterThanMedian.length > 0)
-			{
-				//System.out.println("Magnitude = " + magnitude);
+				if (maxIndex < 0)
+					throw new IllegalStateException("No peaks are left " +
+							"to bring the median's magnitude up to 1: " + 
+							magnitude);
+				
 				assert maxAreaDiff > 0.0f : 
 					"areadiff to add is negative: " + maxAreaDiff;
 				if (maxAreaDiff + magnitude <= 1.0f)
 				{
-					assert(maxIndex < DOUBLE_MAX) :
-						"maxIndex is out of bounds: " + maxIndex;
-					median.add(maxIndex-MAX_LOCATION, maxAreaDiff);
+					median.add(locations[maxIndex], maxAreaDiff);
 					magnitude += maxAreaDiff;
-					assert(maxIndex >= 0) : "maxIndex negative";
-					assert(sortedList[maxIndex].length - 
-										numEntriesGreaterThanMedian
-										[maxIndex] >= 0) :
-											"negative index";
-					float currentValue = sortedList[maxIndex]
-													[sortedList[maxIndex]
-													.length - 
-													numEntriesGreaterThanMedian
-													[maxIndex]];
-					while (numEntriesGreaterThanMedian[maxIndex] > 0
-							&& currentValue == 
-								sortedList[maxIndex][sortedList[maxIndex].length 
-													 - 
-													 numEntriesGreaterThanMedian
-													 [maxIndex]])
-					{
-						numEntriesGreaterThanMedian[maxIndex]--;
-					}
-					//numEntriesGreaterThanMedian[maxIndex] = 0;
-					maxIndex = 0;
-					maxAreaDiff = 0.0f;
-					maxNumEntries = 0;
-					for (int i = 0; 
-						 i < numEntriesGreaterThanMedian.length; 
-						 i++)
-					{
-						if (numEntriesGreaterThanMedian[i] > maxNumEntries)
-						{
-							maxNumEntries = numEntriesGreaterThanMedian[i];
-							maxIndex = i;
-							maxAreaDiff = sortedList[i]
-									 [sortedList[i].length - 
-										numEntriesGreaterThanMedian[i]]   
-								- median.getAreaAt(i-MAX_LOCATION); 
-						}
-					}
-					assert (maxNumEntries > 0) : 
-						"maxValue remained 0";
-						
+					float[] entries = greater[maxIndex];
+					float currentValue = entries[next[maxIndex]];
+					while (next[maxIndex] < entries.length &&
+							currentValue == entries[next[maxIndex]])
+						next[maxIndex]++;
 				}
 				else
 				{
 					assert (1.0f-magnitude > 0.0f) : 
 						"1.0f-magnitude is negative";
-					assert(maxIndex < DOUBLE_MAX) : 
-						"maxIndex is out of bounds: " + maxIndex;
-					median.add(maxIndex-MAX_LOCATION,1.0f-magnitude);
+					median.add(locations[maxIndex],1.0f-magnitude);
 					magnitude += 1.0f-magnitude;
-					
-					assert(median.getMagnitude(DistanceMetric.CITY_BLOCK) > 0.9999 
-							&& median.getMagnitude(DistanceMetric.CITY_BLOCK) < 1.0001) :
-						"Magnitude is out of range:" + median.getMagnitude(DistanceMetric.CITY_BLOCK);
-					
-					return median;
 				}
-				
-				//assert(magnitude > tempMag) : 
-					//"magnitude has not changed positively: tempMag = " +
-					//tempMag + " magnitude = " + magnitude;
 			}
 			assert(median.getMagnitude(DistanceMetric.CITY_BLOCK) > 0.9999 
 					&& median.getMagnitude(DistanceMetric.CITY_BLOCK) < 1.0001) :
@@ -462,128 +562,64 @@ public class MedianFinder {
 		}
 		else if (magnitude > 1.0001)
 		{
-//			 For each key, Find out how many spectra have peaks 
-			// less than those in the median 
-			int [] numEntriesLessThanMedian = new int[DOUBLE_MAX];
-			int maxIndex = -1;
-			int maxNumEntries = 0; 
-			float maxAreaDiff = 0;
-			float tempArea = 0;
-			assert(sortedList[0].length > 0) : "List contains no elements";
-			assert(sortedList[0].length > 1) : "List contains only one element, " +
+			// The same, but shrinking the median at the keys where the
+			// most peaklists have values lower than it.  The ones still
+			// lower than the median are before end[l].
+			float[][] less = new float[locations.length][];
+			int[] end = new int[locations.length];
+			assert(numParticles > 1) : "List contains only one element, " +
 					"and magnitude is still > 1.0f: " + magnitude;
-//			TODO:  magnitude can still be summed to one if there's only one element.  
-			// Fix this eventually.
-			for (int i = 0; i < DOUBLE_MAX; i++)
-			{
-				int j = 0;
-				// We have to subtract MAX_LOCATION here since inside
-				// peaklists, neg. values are actually negative, but
-				// since we can't have negative array indices
-				// when we declare arrays, negative values are 
-				// positive and positive values are value+MAX_LOCATION
-				tempArea = median.getAreaAt(i-MAX_LOCATION);
-				while (tempArea - sortedList[i][j] > 0.0f)
-				{
-					numEntriesLessThanMedian[i]++;
-					j++;
-					
-					assert(j <= particles.size()/2+1) :
-						"j is less than 0 which shouldn't happen if tempArea " +
-						"is really the median.\n" +
-						"median.getAreaAt(i-MAX_LOCATION) = " + tempArea + "\n" +
-						"sortedList[i][0] = " + sortedList[i][0];
-					
-				}
-				//assert (j != sortedList[i].length - 1) : 
-					//"j did not decrease";
-				// Find the key where the most peaklists have 
-				// values higher than the median
-				if (numEntriesLessThanMedian[i] > maxNumEntries)
-				{
-					maxNumEntries = numEntriesLessThanMedian[i];
-					maxIndex = i;
-					maxAreaDiff = tempArea - sortedList[i]
-						   [numEntriesLessThanMedian[i]-1];
-				}
+			for (int l = 0; l < locations.length; l++) {
+				less[l] = sortedBeyond(l, 
+						median.getAreaAt(locations[l]), false);
+				end[l] = less[l].length;
 			}
-
-			assert (maxNumEntries > 0) : 
-				"maxNumEntries remained 0.  List size: " + sortedList[0].length;
 			
-			// Minify the median at this key, adjust the count
-			// at this key for how many peaklists are bigger
-			// than the median and go again until magnitude reaches 1.0f
 			while (magnitude > 1.0f)
 			{
-				//System.out.println("Magnitude = " + magnitude);
+				int maxIndex = -1;
+				int maxNumEntries = 0;
+				float maxAreaDiff = 0.0f;
+				for (int l = 0; l < locations.length; l++)
+				{
+					if (end[l] > maxNumEntries)
+					{
+						maxNumEntries = end[l];
+						maxIndex = l;
+						maxAreaDiff = median.getAreaAt(locations[l]) -
+							less[l][end[l]-1];
+					}
+				}
+				if (maxIndex < 0)
+					throw new IllegalStateException("No peaks are left " +
+							"to bring the median's magnitude down to 1: " + 
+							magnitude);
+				
 				assert maxAreaDiff > 0.0f : 
 					"areadiff to add is negative: " + maxAreaDiff;
 				if (magnitude - maxAreaDiff >= 1.0f)
 				{
-					assert(maxIndex < DOUBLE_MAX) :
-						"maxIndex is out of bounds: " + maxIndex;
-					median.add(maxIndex-MAX_LOCATION, -maxAreaDiff);
+					median.add(locations[maxIndex], -maxAreaDiff);
 					magnitude -= maxAreaDiff;
-					assert(maxIndex >= 0) : "maxIndex negative";
-					assert(numEntriesLessThanMedian
-										[maxIndex]-1 >= 0) :
-											"negative index";
-					float currentValue = sortedList[maxIndex]
-													[numEntriesLessThanMedian
-													[maxIndex]-1];
-					while (numEntriesLessThanMedian[maxIndex] > 0
-							&& currentValue == 
-								sortedList[maxIndex][numEntriesLessThanMedian
-													 [maxIndex]-1])
-					{
-						numEntriesLessThanMedian[maxIndex]--;
-					}
-					maxIndex = 0;
-					maxAreaDiff = 0.0f;
-					maxNumEntries = 0;
-					for (int i = 0; 
-						 i < numEntriesLessThanMedian.length; 
-						 i++)
-					{
-						if (numEntriesLessThanMedian[i] > maxNumEntries)
-						{
-							maxNumEntries = numEntriesLessThanMedian[i];
-							maxIndex = i;
-							maxAreaDiff = median.getAreaAt(i-MAX_LOCATION) -
-								sortedList[i][numEntriesLessThanMedian[i]-1]; 
-						}
-					}
-					assert (maxNumEntries > 0) : 
-						"maxNumEntries remained 0";
-						
+					float[] entries = less[maxIndex];
+					float currentValue = entries[end[maxIndex]-1];
+					while (end[maxIndex] > 0 &&
+							currentValue == entries[end[maxIndex]-1])
+						end[maxIndex]--;
 				}
 				else
 				{
 					assert (magnitude-1.0f > 0.0f) : 
 						"magnitude-1.0f is negative";
-					assert(maxIndex < DOUBLE_MAX) : 
-						"maxIndex is out of bounds: " + maxIndex;
-					median.add(maxIndex-MAX_LOCATION,1.0f-magnitude);
+					median.add(locations[maxIndex],1.0f-magnitude);
 					magnitude += 1.0f-magnitude;
-					
-					assert(median.getMagnitude(DistanceMetric.CITY_BLOCK) > 0.9999 
-							&& median.getMagnitude(DistanceMetric.CITY_BLOCK) < 1.0001) :
-						"Magnitude is out of range:" + median.getMagnitude(DistanceMetric.CITY_BLOCK);
-					
-					return median;
 				}
-				
-				//assert(magnitude > tempMag) : 
-					//"magnitude has not changed positively: tempMag = " +
-					//tempMag + " magnitude = " + magnitude;
 			}
 			assert(median.getMagnitude(DistanceMetric.CITY_BLOCK) > 0.9999 
 					&& median.getMagnitude(DistanceMetric.CITY_BLOCK) < 1.0001) :
 				"Magnitude is out of range:" + median.getMagnitude(DistanceMetric.CITY_BLOCK);
 			
 			return median;
-			
 		}
 		else
 			return median;
@@ -48,6 +48,8 @@
 package analysis;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -290,6 +292,65 @@ public class MedianFinderTest extends TestCase {
 		assertTrue(exception);
 	}
 
+	/**
+	 * Compares every order statistic with a brute force sort of each 
+	 * location's areas, zeros and negative areas included.
+	 */
+	public void testMatchesSorting() {
+		Random random = new Random(11);
+		for (int trial = 0; trial < 20; trial++) {
+			int n = 1 + random.nextInt(40);
+			ArrayList<BinnedPeakList> lists = new ArrayList<BinnedPeakList>();
+			for (int p = 0; p < n; p++) {
+				BinnedPeakList list = new BinnedPeakList(new Normalizer());
+				for (int q = random.nextInt(10); q > 0; q--)
+					list.add(random.nextInt(30) - 15, 
+							(random.nextInt(9) - 3) * 0.5f);
+				lists.add(list);
+			}
+			MedianFinder mf = new MedianFinder(lists, false);
+			for (int k = 0; k < n; k++) {
+				BinnedPeakList kth = mf.getKthElement(k);
+				for (int location = -15; location < 15; location++) {
+					float[] column = new float[n];
+					for (int p = 0; p < n; p++)
+						column[p] = lists.get(p).getAreaAt(location);
+					Arrays.sort(column);
+					assertEquals(column[k], kth.getAreaAt(location));
+				}
+			}
+			BinnedPeakList median = mf.getMedian();
+			for (int location = -15; location < 15; location++) {
+				float[] column = new float[n];
+				for (int p = 0; p < n; p++)
+					column[p] = lists.get(p).getAreaAt(location);
+				Arrays.sort(column);
+				float expected = n % 2 == 1 ? column[n/2] 
+						: (column[n/2-1] + column[n/2]) / 2.0f;
+				assertEquals(expected, median.getAreaAt(location));
+			}
+		}
+	}
+	
+	/**
+	 * Locations used to be limited to -2500 to 2499.
+	 */
+	public void testFarLocations() {
+		ArrayList<BinnedPeakList> lists = new ArrayList<BinnedPeakList>();
+		for (int p = 0; p < 3; p++) {
+			BinnedPeakList list = new BinnedPeakList(new Normalizer());
+			list.add(-3000000, 10 + p);
+			list.add(7, 1 + p);
+			list.add(40000000, 5 * p);
+			lists.add(list);
+		}
+		BinnedPeakList median = new MedianFinder(lists, true).getMedian();
+		assertEquals(11f, median.getAreaAt(-3000000));
+		assertEquals(2f, median.getAreaAt(7));
+		assertEquals(5f, median.getAreaAt(40000000));
+		assertEquals(3, median.length());
+	}
+
 // commented out by jtbigwoo, method under test was not used anywhere
 //	public void testmakeMPS() {
 //		MedianFinder mf = new MedianFinder(allFiveNorm, true);
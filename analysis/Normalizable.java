@@ -1,8 +1,5 @@
 package analysis;
 
-import java.util.Iterator;
-import java.util.Map.Entry;
-
 public abstract class Normalizable {
 	public abstract float normalize(BinnedPeakList peakList, DistanceMetric dMetric);
 	public abstract float roundDistance(BinnedPeakList peakList, BinnedPeakList toList, DistanceMetric dMetric, float distance);
@@ -19,14 +16,9 @@ public abstract class Normalizable {
 	 * 						(.5 is a good value.)
 	 */
 	public void reducePeaks(BinnedPeakList peakList, double powerValue) {
-		Entry<Integer, Float> entry;
-		Iterator<Entry<Integer, Float>> iter = peakList.peaks.entrySet().iterator();
-		float newVal;
-		while (iter.hasNext()){
-			entry = iter.next();
-			newVal = (float)Math.pow((double)entry.getValue(), powerValue);
-			//System.out.println("Old value " + entry.getValue() + " sqrt " + newVal); //DEBUGGING
-			entry.setValue(newVal);
+		float[] areas = peakList.areas;
+		for (int i = 0; i < peakList.size; i++){
+			areas[i] = (float)Math.pow((double)areas[i], powerValue);
 		}
 	}
 	public abstract float posNegNormalize(BinnedPeakList list, DistanceMetric metric);
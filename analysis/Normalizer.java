@@ -1,8 +1,5 @@
 package analysis;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
 import analysis.dataCompression.Pair;
 public class Normalizer extends Normalizable {
 
@@ -10,14 +7,11 @@ public class Normalizer extends Normalizable {
 
 		//set up stuff
 		float magnitude;
-		Map.Entry<Integer,Float> entry;
-		Iterator<Entry<Integer, Float>> iterator;
+		float[] areas = peakList.areas;
 		
 		magnitude = peakList.getMagnitude(dMetric);
-		iterator = peakList.peaks.entrySet().iterator();
-		while (iterator.hasNext()) {
-			entry = iterator.next();
-			entry.setValue(entry.getValue() / magnitude);
+		for (int i = 0; i < peakList.size; i++) {
+			areas[i] = areas[i] / magnitude;
 		}
 		
 		return magnitude;
@@ -32,20 +26,17 @@ public class Normalizer extends Normalizable {
 	 */
 	public float posNegNormalize(BinnedPeakList peakList, DistanceMetric dMetric){
 		float posMag, negMag;
-		Map.Entry<Integer, Float> entry;
-		Iterator<Map.Entry<Integer, Float>> iterator;
+		float[] areas = peakList.areas;
 		
 		Pair<Float, Float> pair = peakList.getNegPosMagnitude(dMetric);
 		negMag = pair.first;
 		posMag = pair.second;;
-		iterator = peakList.peaks.entrySet().iterator();
-		while (iterator.hasNext()) {
-			entry = iterator.next();
-			if(entry.getKey() < 0)
-				entry.setValue(entry.getValue() / negMag);
-			else 
-				entry.setValue(entry.getValue() / posMag);
-		}
+		// the list is sorted, so the negative peaks all come first
+		int firstPositive = peakList.firstNonNegativeIndex();
+		for (int i = 0; i < firstPositive; i++)
+			areas[i] = areas[i] / negMag;
+		for (int i = firstPositive; i < peakList.size; i++)
+			areas[i] = areas[i] / posMag;
 		
 		//normalize altogether
 		return normalize(peakList, dMetric);
@@ -0,0 +1,295 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's PlumeDetector class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package analysis;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds plumes in a time series: runs of consecutive points at or above a
+ * threshold that last at least a minimum duration.
+ * 
+ * The series is laid out on a timeline, usually the times of every 
+ * sequence under the same parent, with NaN wherever this one has no 
+ * point.  A missing point ends a plume.  Thresholds are found by 
+ * selection rather than sorting, and plumes by a single pass over the
+ * timeline.
+ */
+public class PlumeDetector {
+	/**
+	 * How the magnitude given to detect is turned into a threshold.
+	 */
+	public enum Metric {
+		/** the value below which that fraction of the timeline lies */
+		PERCENT,
+		/** that multiple of the median value */
+		MEDIAN,
+		/** the magnitude itself */
+		VALUE
+	}
+	
+	private final long[] times;
+	private final float[] values;
+	private final int size;
+	
+	/**
+	 * Takes over the arrays.
+	 * @param times the timeline, increasing
+	 * @param values the value at each time, or NaN if there is none
+	 */
+	public PlumeDetector(long[] times, float[] values, int size) {
+		this.times = times;
+		this.values = values;
+		this.size = size;
+	}
+	
+	/**
+	 * Lays a series out on a timeline.  Times of the series missing from 
+	 * the timeline are added to it.
+	 * @param grid the timeline, increasing
+	 * @param times the series' times, increasing
+	 * @param values the series' values
+	 */
+	public static PlumeDetector onTimeline(long[] grid, int gridSize, 
+			long[] times, float[] values, int size) {
+		long[] mergedTimes = new long[gridSize + size];
+		float[] mergedValues = new float[gridSize + size];
+		int n = 0, g = 0, s = 0;
+		while (g < gridSize || s < size) {
+			if (s == size || (g < gridSize && grid[g] < times[s])) {
+				mergedTimes[n] = grid[g++];
+				mergedValues[n] = Float.NaN;
+			} else {
+				if (g < gridSize && grid[g] == times[s])
+					g++;
+				mergedTimes[n] = times[s];
+				mergedValues[n] = values[s++];
+			}
+			n++;
+		}
+		return new PlumeDetector(mergedTimes, mergedValues, n);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return the threshold the metric gives for this series, or NaN if 
+	 * the series is empty.
+	 */
+	public double threshold(Metric metric, double magnitude) {
+		switch (metric) {
+		case PERCENT:
+			return percentThreshold(magnitude);
+		case MEDIAN:
+			return medianThreshold(magnitude);
+		default:
+			return magnitude;
+		}
+	}
+	
+	/**
+	 * The value at position fraction * size of the whole timeline in 
+	 * increasing order, the way the SQL this replaced found it: the times
+	 * without a point sort first, as NULLs did, and read as zero.  The 
+	 * value is a float widened to double, as a REAL column read with
+	 * getDouble would be.
+	 */
+	public double percentThreshold(double fraction) {
+		if (size == 0)
+			return Double.NaN;
+		float[] present = new float[size];
+		int n = 0;
+		for (int i = 0; i < size; i++)
+			if (!Float.isNaN(values[i]))
+				present[n++] = values[i];
+		int k = (int) (fraction * size) - 1;
+		k = Math.min(Math.max(k, 0), size - 1);
+		int missing = size - n;
+		if (k < missing)
+			return 0;
+		return select(present, n, k - missing);
+	}
+	
+	/**
+	 * The (lower) median of the points actually present, times factor.
+	 * The SQL this replaced skipped one row too few for an odd number of
+	 * points, and so took the point below the median.
+	 */
+	public double medianThreshold(double factor) {
+		float[] present = new float[size];
+		int n = 0;
+		for (int i = 0; i < size; i++)
+			if (!Float.isNaN(values[i]))
+				present[n++] = values[i];
+		if (n == 0)
+			return Double.NaN;
+		return factor * select(present, n, (n - 1) / 2);
+	}
+	
+	/**
+	 * Finds the plumes in one pass over the timeline.
+	 * @param minValue the threshold; points at or above it are in plumes
+	 * @param minDuration in seconds, from a plume's first point to its last
+	 * @return each plume's points, by time
+	 */
+	public ArrayList<TreeMap<Date,Double>> detect(double minValue, 
+			int minDuration) {
+		ArrayList<TreeMap<Date,Double>> plumes = 
+			new ArrayList<TreeMap<Date,Double>>();
+		long minMillis = minDuration * 1000L;
+		int i = 0;
+		while (i < size) {
+			// NaN fails the comparison, so a missing point ends a plume
+			if (!(values[i] >= minValue)) {
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i < size && values[i] >= minValue)
+				i++;
+			if (times[i - 1] - times[start] >= minMillis) {
+				TreeMap<Date,Double> plume = new TreeMap<Date,Double>();
+				for (int j = start; j < i; j++)
+					plume.put(new Date(times[j]), (double) values[j]);
+				plumes.add(plume);
+			}
+		}
+		return plumes;
+	}
+	
+	/**
+	 * Finds the threshold and then the plumes.
+	 */
+	public ArrayList<TreeMap<Date,Double>> detect(Metric metric, 
+			double magnitude, int minDuration) {
+		return detect(threshold(metric, magnitude), minDuration);
+	}
+	
+	/**
+	 * Runs detect on each series, several at a time.
+	 * @param numThreads how many threads to use; less than one means
+	 * one per available processor.
+	 * @return the plumes of each series, in the same order
+	 */
+	public static ArrayList<ArrayList<TreeMap<Date,Double>>> detectAll(
+			List<PlumeDetector> detectors, final Metric metric, 
+			final double magnitude, final int minDuration, int numThreads) {
+		ArrayList<ArrayList<TreeMap<Date,Double>>> results = 
+			new ArrayList<ArrayList<TreeMap<Date,Double>>>();
+		if (numThreads < 1)
+			numThreads = Runtime.getRuntime().availableProcessors();
+		numThreads = Math.min(numThreads, detectors.size());
+		if (numThreads <= 1) {
+			for (PlumeDetector d : detectors)
+				results.add(d.detect(metric, magnitude, minDuration));
+			return results;
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			ArrayList<Future<ArrayList<TreeMap<Date,Double>>>> futures = 
+				new ArrayList<Future<ArrayList<TreeMap<Date,Double>>>>();
+			for (final PlumeDetector d : detectors) {
+				futures.add(pool.submit(
+						new Callable<ArrayList<TreeMap<Date,Double>>>() {
+					public ArrayList<TreeMap<Date,Double>> call() {
+						return d.detect(metric, magnitude, minDuration);
+					}
+				}));
+			}
+			for (Future<ArrayList<TreeMap<Date,Double>>> f : futures)
+				results.add(f.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+	
+	/**
+	 * Quickselect: rearranges the first n elements of a so that a[k] is
+	 * the k-th smallest, and returns it.
+	 */
+	public static float select(float[] a, int n, int k) {
+		int lo = 0, hi = n - 1;
+		while (hi > lo) {
+			// median of three, so sorted input isn't the worst case
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < a[lo]) swap(a, mid, lo);
+			if (a[hi] < a[lo]) swap(a, hi, lo);
+			if (a[hi] < a[mid]) swap(a, hi, mid);
+			float pivot = a[mid];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (a[i] < pivot) i++;
+				while (a[j] > pivot) j--;
+				if (i <= j)
+					swap(a, i++, j--);
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
+		}
+		return a[k];
+	}
+	
+	private static void swap(float[] a, int i, int j) {
+		float t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+}
@@ -0,0 +1,138 @@
+package analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class PlumeDetectorTest extends TestCase {
+	
+	private static PlumeDetector series(float... values) {
+		long[] times = new long[values.length];
+		for (int i = 0; i < values.length; i++)
+			times[i] = i * 1000L;
+		return new PlumeDetector(times, values, values.length);
+	}
+	
+	public void testSelect() {
+		Random random = new Random(3);
+		for (int trial = 0; trial < 50; trial++) {
+			int n = 1 + random.nextInt(40);
+			float[] a = new float[n];
+			for (int i = 0; i < n; i++)
+				a[i] = random.nextInt(10);
+			float[] sorted = a.clone();
+			Arrays.sort(sorted);
+			int k = random.nextInt(n);
+			assertEquals(sorted[k], PlumeDetector.select(a.clone(), n, k));
+		}
+	}
+	
+	public void testDetect() {
+		PlumeDetector d = series(1, 5, 6, 7, 1, 8, 9, Float.NaN, 9, 9, 9);
+		ArrayList<TreeMap<Date,Double>> plumes = d.detect(5, 2);
+		// 5,6,7 lasts two seconds; 8,9 only one; the missing point 
+		// splits off the last run, which lasts two
+		assertEquals(2, plumes.size());
+		assertEquals(new Date(1000), plumes.get(0).firstKey());
+		assertEquals(new Date(3000), plumes.get(0).lastKey());
+		assertEquals(7.0, plumes.get(0).get(new Date(3000)));
+		assertEquals(new Date(8000), plumes.get(1).firstKey());
+		assertEquals(3, plumes.get(1).size());
+		
+		assertEquals(3, d.detect(5, 0).size());
+		assertEquals(0, d.detect(Double.NaN, 0).size());
+	}
+	
+	public void testThresholds() {
+		PlumeDetector d = series(4, Float.NaN, 2, 8, 6, Float.NaN);
+		// missing points count as zero: 0 0 2 4 6 8
+		assertEquals(2.0, d.percentThreshold(0.5));
+		assertEquals(0.0, d.percentThreshold(0.0));
+		assertEquals(8.0, d.percentThreshold(1.0));
+		// lower median of 2 4 6 8
+		assertEquals(8.0, d.medianThreshold(2));
+		assertEquals(3.0, d.threshold(PlumeDetector.Metric.VALUE, 3));
+		assertTrue(Double.isNaN(series().medianThreshold(1)));
+	}
+	
+	/**
+	 * The threshold the old SQL found: the values ordered with NULLs 
+	 * first, fraction * count rows skipped, and the value of the row 
+	 * reached read with getDouble, so a NULL is zero.
+	 */
+	private static double oldPercentWalk(float[] values, double fraction) {
+		ArrayList<Float> rows = new ArrayList<Float>();
+		for (float v : values)
+			rows.add(Float.isNaN(v) ? null : v);
+		Collections.sort(rows, new Comparator<Float>() {
+			public int compare(Float a, Float b) {
+				if (a == null || b == null)
+					return (a == null ? 0 : 1) - (b == null ? 0 : 1);
+				return a.compareTo(b);
+			}
+		});
+		Float row = rows.get((int) (fraction * values.length) - 1);
+		return row == null ? 0 : row.doubleValue();
+	}
+	
+	public void testPercentMatchesOldWalk() {
+		float[] values = {0.7f, Float.NaN, -0.25f, 0.1f, 2.5f, 
+				0.1f, Float.NaN, 1.3f, 0.9f, 0.45f};
+		PlumeDetector d = series(values.clone());
+		// 10 points, so each of these skips a whole number of rows:
+		// NULL NULL -0.25 0.1 0.1 0.45 0.7 0.9 1.3 2.5
+		assertEquals(0.0, d.percentThreshold(0.2));
+		assertEquals(-0.25, d.percentThreshold(0.3));
+		assertEquals((double) 0.1f, d.percentThreshold(0.5));
+		assertEquals((double) 0.45f, d.percentThreshold(0.6));
+		assertEquals((double) 2.5f, d.percentThreshold(1.0));
+		for (int rows = 1; rows <= values.length; rows++) {
+			double fraction = rows / 10.0;
+			assertEquals(oldPercentWalk(values, fraction), 
+					d.percentThreshold(fraction));
+		}
+		// the threshold is exactly the float, so the 0.1s at either end
+		// of 0.1 2.5 0.1 are in its plume
+		ArrayList<TreeMap<Date,Double>> plumes = 
+			d.detect(PlumeDetector.Metric.PERCENT, 0.5, 0);
+		assertEquals(3, plumes.get(1).size());
+		assertEquals(new Date(3000), plumes.get(1).firstKey());
+	}
+	
+	public void testOddMedian() {
+		PlumeDetector d = series(5.5f, Float.NaN, 1.5f, 4.5f, Float.NaN, 
+				2.5f, 3.5f);
+		// the middle of 1.5 2.5 3.5 4.5 5.5; the old SQL skipped 
+		// (int) (7 - 0.5 * 5) = 4 rows, NULLs first, and took 2.5
+		assertEquals(3.5, d.medianThreshold(1));
+		assertEquals(7.0, d.medianThreshold(2));
+		// even counts are the same as before: the lower median
+		assertEquals(2.5, series(1.5f, 3.5f, Float.NaN, 2.5f, 4.5f)
+				.medianThreshold(1));
+	}
+	
+	public void testOnTimeline() {
+		PlumeDetector d = PlumeDetector.onTimeline(new long[] {0, 2000, 3000}, 3,
+				new long[] {1000, 3000}, new float[] {5, 5}, 2);
+		assertEquals(4, d.size());
+		// the gap at 2000 keeps the points apart
+		assertEquals(2, d.detect(5, 0).size());
+	}
+	
+	public void testDetectAll() {
+		ArrayList<PlumeDetector> detectors = new ArrayList<PlumeDetector>();
+		for (int i = 0; i < 10; i++)
+			detectors.add(series(0, i, i, 0));
+		ArrayList<ArrayList<TreeMap<Date,Double>>> all = PlumeDetector.detectAll(
+				detectors, PlumeDetector.Metric.VALUE, 5, 1, 4);
+		assertEquals(10, all.size());
+		for (int i = 0; i < 10; i++)
+			assertEquals(i >= 5 ? 1 : 0, all.get(i).size());
+	}
+}
@@ -44,6 +44,7 @@
 
 package analysis;
 import database.CollectionCursor;
+import database.IntIntHashMap;
 import errorframework.ErrorLogger;
 
 import java.util.*;
@@ -67,6 +68,8 @@ public class SubSampleCursor implements CollectionCursor {
 	private int currentIndex = -1;
 	private int sampleSize;
 	private ArrayList<ParticleInfo> storedInfo = null;
+	// where each atom is in storedInfo
+	private IntIntHashMap positions = null;
 	private boolean firstPass = true;
 	
 	public SubSampleCursor(CollectionCursor curs, 
@@ -76,6 +79,7 @@ public class SubSampleCursor implements CollectionCursor {
 		this.startIndex = startIndex;
 		this.sampleSize = sampleSize;
 		storedInfo = new ArrayList<ParticleInfo>(sampleSize);
+		positions = new IntIntHashMap(sampleSize);
 		
 		curs.reset();
 		for (int i = 0; i < startIndex; i++)
@@ -89,8 +93,11 @@ public class SubSampleCursor implements CollectionCursor {
 	    if (firstPass) {
    	        if (currentIndex < sampleSize) {
 	            boolean cursNext = curs.next();
-	            if (cursNext)
+	            if (cursNext) {
+	                positions.putIfAbsent(curs.getCurrent().getID(), 
+	                		storedInfo.size());
 	                storedInfo.add(curs.getCurrent());
+	            }
 	            else {
 	    			ErrorLogger.writeExceptionToLogAndPrompt("SubSampleCursor",
 	    					"Sample size was too large, internal error.");
@@ -127,6 +134,7 @@ public class SubSampleCursor implements CollectionCursor {
 	public void reset() {
 	    if (firstPass) {
 	        storedInfo.clear();
+	        positions.clear();
 	        curs.reset();
 	        currentIndex = -1;
 	        for (int i = 0; i < startIndex; i++)
@@ -151,11 +159,17 @@ public class SubSampleCursor implements CollectionCursor {
 	 * This method only returns the peaklist of it has already read the ID.
 	 */
 	public BinnedPeakList getPeakListfromAtomID(int id) {
-	    for (ParticleInfo particleInfo : storedInfo) {
-	        if (particleInfo.getID() == id)
-	            return particleInfo.getBinnedList();
-	    }
+	    int i = positions.get(id, -1);
+	    if (i >= 0)
+	        return storedInfo.get(i).getBinnedList();
 	    return null;	
 	}
 
+	/* (non-Javadoc)
+	 * @see database.CollectionCursor#getPositionOfAtomID(int)
+	 */
+	public int getPositionOfAtomID(int atomID) {
+	    return positions.get(atomID, -1);
+	}
+
 }
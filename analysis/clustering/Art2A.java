@@ -45,14 +45,13 @@
 package analysis.clustering;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
 import ATOFMS.ParticleInfo;
 import analysis.*;
 
+import database.FileCachedCursor;
 import database.InfoWarehouse;
 import database.NonZeroCursor;
-import analysis.BinnedPeak;
 import analysis.BinnedPeakList;
 
 /**
@@ -90,60 +89,6 @@ public class Art2A extends Cluster
 		super.clusterInfo = c;//set inherited variable
 	}
 	
-	private BinnedPeakList adjustByLearningRate(
-			BinnedPeakList addedParticle,
-			BinnedPeakList centroid)
-	{
-		BinnedPeakList returnList;
-		if (isNormalized)
-			returnList = new BinnedPeakList(new Normalizer());
-		else
-			returnList = new BinnedPeakList(new DummyNormalizer());
-		
-		BinnedPeak addedPeak;
-		// keep track of locations that are in both lists so we don't 
-		// redo them.
-		Iterator<BinnedPeak> iter = addedParticle.iterator();
-		ArrayList<Integer> locationsGrabbed = new ArrayList<Integer>();
-		float centroidArea;
-		while (iter.hasNext())
-		{
-			addedPeak = iter.next();
-			centroidArea = centroid.getAreaAt(addedPeak.getKey());
-			locationsGrabbed.add(new Integer(addedPeak.getKey()));
-			
-			returnList.addNoChecks(addedPeak.getKey(), 
-					centroidArea + 
-					(addedPeak.getValue()-centroidArea)*learningRate);
-		}
-		
-		BinnedPeak centroidPeak;
-		float addedArea;
-		boolean alreadyAdded;
-		
-		iter = centroid.iterator(); // iterator is now over CENTROID
-		while (iter.hasNext())
-		{
-			centroidPeak = iter.next();
-			alreadyAdded = false;
-			for (int j = 0; j < locationsGrabbed.size(); j++)
-				if (centroidPeak.getKey() == 
-					locationsGrabbed.get(j).intValue())
-					alreadyAdded = true;
-			if (!alreadyAdded)
-			{
-				addedArea = addedParticle.getAreaAt(
-						centroidPeak.getKey());
-				
-				returnList.addNoChecks(centroidPeak.getKey(),
-						centroidPeak.getValue() +
-						(addedArea-centroidPeak.getValue()) *
-						learningRate);
-			}
-		}
-		return returnList;
-	}
-	
 	/* (non-Javadoc)
 	 * @see analysis.CollectionDivider#divide()
 	 */
@@ -167,11 +112,14 @@ public class Art2A extends Cluster
 		// TODO: no memory binned cursor here anymore; have to fix eventually.
 		switch (type) {
 		case CollectionDivider.DISK_BASED :
-			curs = new NonZeroCursor(db.getClusteringCursor(db.getCollection(collectionID), clusterInfo));
+			curs = new NonZeroCursor(db.getStreamingClusteringCursor(db.getCollection(collectionID), clusterInfo));
 			return true;
 		case CollectionDivider.STORE_ON_FIRST_PASS : 
 		    curs = new NonZeroCursor(db.getMemoryClusteringCursor(db.getCollection(collectionID), clusterInfo));
 			return true;
+		case CollectionDivider.STORE_ON_DISK_ON_FIRST_PASS : 
+		    curs = new NonZeroCursor(new FileCachedCursor(db.getStreamingClusteringCursor(db.getCollection(collectionID), clusterInfo)));
+			return true;
 		default :
 			return false;
 		}
@@ -188,18 +136,31 @@ public class Art2A extends Cluster
 		createCentroids = create;
 	}
 
+	/**
+	 * Runs the Art2A passes.  The centroids are DenseCentroids while 
+	 * clustering and only become BinnedPeakLists at the end, so each 
+	 * particle is compared with every centroid and merged into the nearest
+	 * without building any new peak lists.
+	 */
 	private ArrayList<Centroid> processPart(ArrayList<Centroid> centroidList,
 			NonZeroCursor curs)
 	{
 		int particleCount;
 		ParticleInfo thisParticleInfo = null;
 		BinnedPeakList thisBinnedPeakList = null;
-		int closestCentroidIndex = -1;
-		double nearestDistance;
+		float nearestDistance;
 		boolean withinVigilance = false;
-		double distance;
+		float distance;
 		int chosenCluster = 0;
 		
+		ArrayList<DenseCentroid> centroids = new ArrayList<DenseCentroid>();
+		for (Centroid c : centroidList)
+			centroids.add(new DenseCentroid(c.peaks, c.numMembers));
+		// the current particle, unpacked once for all the centroids
+		int[] locations = new int[64];
+		float[] areas = new float[64];
+		int size;
+		
 		double minTotalStableDistance = Double.POSITIVE_INFINITY;
 		int iterationsSinceNewMin = 0;
 		boolean stable = false;
@@ -208,61 +169,54 @@ public class Art2A extends Cluster
 		{ // for each pass
 			System.out.println("Pass #:" + passIndex);
 			particleCount = 0;
-			totalDistancePerPass.add(new Double(0));
-			ArrayList<BinnedPeakList> array;
+			double totalDistance = 0;
 			while(curs.next())
 			{ // while there are particles remaining
 				particleCount++;
-				//System.out.println("particleCount = " + 
-				//		particleCount);
 				thisParticleInfo = curs.getCurrent();
 				thisBinnedPeakList = thisParticleInfo.getBinnedList();
 				thisBinnedPeakList.preProcess(power);
 				// [jtbigwoo] added pos/neg normalization 
 				thisBinnedPeakList.posNegNormalize(distanceMetric);
+				size = thisBinnedPeakList.length();
+				locations = DenseCentroid.locationsOf(thisBinnedPeakList, locations);
+				areas = DenseCentroid.areasOf(thisBinnedPeakList, areas);
 				
-						
 				// no centroid will be found further than the vigilance
 				// since that centroid would not be considered
 				nearestDistance = vigilance + 1;
 				withinVigilance = false;
 				for (int centroidIndex = 0; 
-					 centroidIndex < centroidList.size(); 
+					 centroidIndex < centroids.size(); 
 					 centroidIndex++)
 				{// for each centroid
-					distance = centroidList.get(centroidIndex).peaks.
-						getDistance(thisBinnedPeakList,distanceMetric);
-					if (distance <= vigilance)
-					{// if cluster is within the vigilance
-						if (distance < nearestDistance)
-						{
-							nearestDistance = distance;
-							chosenCluster = centroidIndex;
-							withinVigilance = true;
-						}
-					}// end if each cluster is within the vigilance
+					distance = centroids.get(centroidIndex).getDistance(
+							locations, areas, size, distanceMetric, 
+							vigilance, nearestDistance);
+					if (distance <= vigilance && distance < nearestDistance)
+					{// if cluster is within the vigilance and nearest
+						nearestDistance = distance;
+						chosenCluster = centroidIndex;
+						withinVigilance = true;
+					}
 				}// end for each centroid
 				if (withinVigilance)
 				{// if atom falls within existing cluster
-					Centroid temp = centroidList.get(chosenCluster);
-					totalDistancePerPass.set(passIndex,
-							new Double(totalDistancePerPass.get(
-										passIndex).doubleValue() 
-											+ nearestDistance));
-
+					DenseCentroid temp = centroids.get(chosenCluster);
+					totalDistance += nearestDistance;
 					temp.numMembers++;
-					temp.peaks = adjustByLearningRate(thisBinnedPeakList, 
-							centroidList.get(chosenCluster).peaks);
 					// don't do pos/neg normalize on centroid peaks
-					temp.peaks.normalize(distanceMetric);
+					temp.learn(locations, areas, size, learningRate, 
+							isNormalized, distanceMetric);
 				}// end if atom falls within existing cluster
 				
 				else
 				{
 					System.out.println("Adding new centroid");
-					centroidList.add(new Centroid (thisBinnedPeakList,1));
+					centroids.add(new DenseCentroid(thisBinnedPeakList, 1));
 				}
 			}// end while there are particles remaining
+			totalDistancePerPass.add(new Double(totalDistance));
 			System.out.println("about to reset");
 			curs.reset();
 			
@@ -271,15 +225,15 @@ public class Art2A extends Cluster
 			float outlierThreshold = 0.005f;
 			int i = 0;
 			int tempNumMembers;
-			while(i < centroidList.size())
+			while(i < centroids.size())
 			{ // for each centroid
-				Centroid temp = centroidList.get(i);
+				DenseCentroid temp = centroids.get(i);
 				tempNumMembers = temp.numMembers;
 				temp.numMembers = 0;
 				if (tempNumMembers < outlierThreshold * particleCount)
 				{
 					System.out.println("Removing outlier centroid");
-					centroidList.remove(i);
+					centroids.remove(i);
 				}
 				else
 					i++;
@@ -301,6 +255,10 @@ public class Art2A extends Cluster
 		} // end for each pass
 		//curs.close();
 		zeroPeakListParticleCount = curs.getZeroCount();
+		
+		centroidList.clear();
+		for (DenseCentroid c : centroids)
+			centroidList.add(new Centroid(c.toPeakList(), c.numMembers));
 		return centroidList;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,270 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's CentroidBounds class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package analysis.clustering;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import analysis.BinnedPeakList;
+import analysis.DistanceMetric;
+
+/**
+ * Keeps the distance bounds that let k-means skip most of its distance
+ * computations (Hamerly's variant of Elkan's algorithm).
+ * 
+ * For every particle we remember which centroid it went to last pass and
+ * a lower bound on its distance to every other centroid.  For every 
+ * centroid we know how far it moved since last pass, and half the distance
+ * to its nearest neighbouring centroid.  By the triangle inequality, if a
+ * particle is closer to its own centroid than both of those, no other 
+ * centroid can be as close, so only the one distance needs computing.
+ * Otherwise all k distances are computed exactly as before; either way the
+ * particle ends up where the full search would have put it.
+ * 
+ * This only works for metrics that obey the triangle inequality.  
+ * CITY_BLOCK does as is; EUCLIDEAN_SQUARED does once you take the square
+ * root, so the bounds are kept on the square roots.  DOT_PRODUCT is not 
+ * supported.
+ * 
+ * The bounds are indexed by the particle's position in the cursor, so the
+ * cursor must give back the particles in the same order each pass.  
+ * Different particles may be looked at from different threads.
+ */
+public class CentroidBounds {
+	// Distances come back as floats added up over many peaks, so a bound
+	// only gets to prune if it wins by at least this much.
+	private static final float SLACK = 1e-3f;
+	
+	private final DistanceMetric metric;
+	
+	// per particle
+	private int[] assigned = new int[0];
+	private float[] lower = new float[0];
+	// how many particles the bounds above are good for
+	private int numKnown = 0;
+	private int numSeen = 0;
+	
+	// per centroid
+	private BinnedPeakList[] previous = null;
+	private float[] drift;
+	private float[] halfSeparation;
+	private int maxDriftCentroid;
+	private float maxDrift, secondMaxDrift;
+	
+	private final AtomicLong computed = new AtomicLong();
+	private final AtomicLong possible = new AtomicLong();
+	
+	/**
+	 * @param metric the metric being clustered with; see supports()
+	 */
+	public CentroidBounds(DistanceMetric metric) {
+		assert supports(metric) : "Can't bound " + metric + " distances";
+		this.metric = metric;
+	}
+	
+	/**
+	 * @return whether distances in this metric can be bounded.
+	 */
+	public static boolean supports(DistanceMetric metric) {
+		return metric == DistanceMetric.EUCLIDEAN_SQUARED 
+			|| metric == DistanceMetric.CITY_BLOCK;
+	}
+	
+	/**
+	 * Works out how far each centroid moved since the last pass and how 
+	 * far apart the centroids are.  Call this at the start of every pass.
+	 * @param centroids this pass's centroids
+	 * @param centroidArrays the same, from Cluster.generateCentroidArrays
+	 * @param centroidMags the magnitudes used with the arrays
+	 */
+	public void startPass(List<Centroid> centroids, 
+			List<float[]> centroidArrays, float[] centroidMags) {
+		int k = centroids.size();
+		if (previous == null || previous.length != k) {
+			// nothing we know about is any good.
+			numKnown = 0;
+			previous = new BinnedPeakList[k];
+			drift = new float[k];
+			halfSeparation = new float[k];
+		}
+		else
+			numKnown = numSeen;
+		numSeen = 0;
+		
+		maxDriftCentroid = -1;
+		maxDrift = 0;
+		secondMaxDrift = 0;
+		for (int c = 0; c < k; c++) {
+			BinnedPeakList peaks = centroids.get(c).peaks;
+			if (numKnown > 0)
+				drift[c] = rootDistance(previous[c].getDistance(
+						centroidArrays.get(c), centroidMags[c], metric, 
+						Cluster.ARRAYOFFSET));
+			if (drift[c] > maxDrift) {
+				secondMaxDrift = maxDrift;
+				maxDrift = drift[c];
+				maxDriftCentroid = c;
+			}
+			else if (drift[c] > secondMaxDrift)
+				secondMaxDrift = drift[c];
+			previous[c] = peaks;
+		}
+		
+		Arrays.fill(halfSeparation, Float.MAX_VALUE);
+		for (int c = 0; c < k; c++) {
+			for (int other = 0; other < k; other++) {
+				if (other == c)
+					continue;
+				float separation = rootDistance(previous[c].getDistance(
+						centroidArrays.get(other), centroidMags[other], 
+						metric, Cluster.ARRAYOFFSET)) / 2;
+				if (separation < halfSeparation[c])
+					halfSeparation[c] = separation;
+			}
+		}
+	}
+	
+	/**
+	 * Makes room for bounds on this many particles.  Only call this 
+	 * between batches, not while assign() is running.
+	 */
+	public void ensureCapacity(int numParticles) {
+		if (numParticles > assigned.length) {
+			int newLength = Math.max(numParticles, assigned.length * 3 / 2);
+			assigned = Arrays.copyOf(assigned, newLength);
+			lower = Arrays.copyOf(lower, newLength);
+		}
+		if (numParticles > numSeen)
+			numSeen = numParticles;
+	}
+	
+	/**
+	 * Finds the nearest centroid to a (normalized) particle, skipping the
+	 * other centroids if the bounds allow it.  Ties go to the 
+	 * lowest-numbered centroid.
+	 * @param index the particle's position in the cursor
+	 * @param peakList the particle
+	 * @param centroids the centroids, as built by 
+	 * Cluster.generateCentroidArrays
+	 * @param centroidMags the magnitude of each centroid
+	 * @param distances filled in at distanceIndex with the distance to the
+	 * nearest centroid
+	 * @param tally the number of distances computed is added to tally[0],
+	 * and the number a full search would have computed to tally[1]
+	 * @return the index of the nearest centroid
+	 */
+	public int nearest(int index, BinnedPeakList peakList, 
+			List<float[]> centroids, float[] centroidMags, double[] distances,
+			int distanceIndex, long[] tally) {
+		int k = centroids.size();
+		int old = -1;
+		float oldDistance = 0;
+		if (index < numKnown) {
+			old = assigned[index];
+			oldDistance = peakList.getDistance(centroids.get(old),
+					centroidMags[old], metric, Cluster.ARRAYOFFSET);
+			float bound = lower[index] 
+				- (old == maxDriftCentroid ? secondMaxDrift : maxDrift);
+			lower[index] = bound;
+			if (halfSeparation[old] > bound)
+				bound = halfSeparation[old];
+			if (rootDistance(oldDistance) + SLACK < bound) {
+				tally[0]++;
+				tally[1] += k;
+				distances[distanceIndex] = oldDistance;
+				return old;
+			}
+		}
+		
+		float nearestDistance = Float.MAX_VALUE;
+		float secondDistance = Float.MAX_VALUE;
+		int nearestCentroid = -1;
+		for (int curCent = 0; curCent < k; curCent++) {
+			float d;
+			if (curCent == old)
+				d = oldDistance;
+			else
+				d = peakList.getDistance(centroids.get(curCent), 
+						centroidMags[curCent], metric, Cluster.ARRAYOFFSET);
+			if (d < nearestDistance) {
+				secondDistance = nearestDistance;
+				nearestDistance = d;
+				nearestCentroid = curCent;
+			}
+			else if (d < secondDistance)
+				secondDistance = d;
+		}
+		tally[0] += k;
+		tally[1] += k;
+		assigned[index] = nearestCentroid;
+		lower[index] = secondDistance == Float.MAX_VALUE ? 
+				Float.MAX_VALUE : rootDistance(secondDistance);
+		distances[distanceIndex] = nearestDistance;
+		return nearestCentroid;
+	}
+	
+	/**
+	 * Adds up the tallies kept by callers of nearest().
+	 */
+	public void addTally(long[] tally) {
+		computed.addAndGet(tally[0]);
+		possible.addAndGet(tally[1]);
+	}
+	
+	/**
+	 * @return how many particle-centroid distances have been computed
+	 * since the last call, and how many a full search would have computed.
+	 */
+	public long[] getAndResetCounts() {
+		return new long[] { computed.getAndSet(0), possible.getAndSet(0) };
+	}
+	
+	/**
+	 * Turns a distance into one that obeys the triangle inequality.
+	 */
+	private float rootDistance(float distance) {
+		if (metric == DistanceMetric.EUCLIDEAN_SQUARED)
+			return distance > 0 ? (float) Math.sqrt(distance) : 0;
+		return distance;
+	}
+}
@@ -0,0 +1,140 @@
+package analysis.clustering;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import ATOFMS.ParticleInfo;
+import analysis.BinnedPeakList;
+import analysis.DistanceMetric;
+import analysis.Normalizer;
+import junit.framework.TestCase;
+
+/**
+ * Runs a few passes of k-means with and without the bounds, and checks 
+ * that they put every particle in the same place.
+ */
+public class CentroidBoundsTest extends TestCase {
+	private static final int NUM_PARTICLES = 2000;
+	private static final int K = 12;
+	private static final int PASSES = 6;
+	
+	public void testSupports() {
+		assertTrue(CentroidBounds.supports(DistanceMetric.EUCLIDEAN_SQUARED));
+		assertTrue(CentroidBounds.supports(DistanceMetric.CITY_BLOCK));
+		assertFalse(CentroidBounds.supports(DistanceMetric.DOT_PRODUCT));
+	}
+	
+	public void testEuclideanSquared() {
+		checkSameAsFullSearch(DistanceMetric.EUCLIDEAN_SQUARED);
+	}
+	
+	public void testCityBlock() {
+		checkSameAsFullSearch(DistanceMetric.CITY_BLOCK);
+	}
+	
+	private void checkSameAsFullSearch(DistanceMetric metric) {
+		// assign() normalizes the particles every time, so the full search
+		// gets its own copy to keep the rounding the same.
+		ParticleInfo[] fullBatch = makeParticles();
+		ParticleInfo[] batch = makeParticles();
+		ArrayList<Centroid> centroids = new ArrayList<Centroid>();
+		for (int c = 0; c < K; c++) {
+			BinnedPeakList peaks = new BinnedPeakList(new Normalizer());
+			peaks.copyBinnedPeakList(batch[c * 7].getBinnedList());
+			peaks.posNegNormalize(metric);
+			centroids.add(new Centroid(peaks, 0));
+		}
+		
+		ParallelAssigner assigner = new ParallelAssigner(2);
+		CentroidBounds bounds = new CentroidBounds(metric);
+		int[] fullNearest = new int[NUM_PARTICLES];
+		double[] fullDistances = new double[NUM_PARTICLES];
+		int[] nearest = new int[NUM_PARTICLES];
+		double[] distances = new double[NUM_PARTICLES];
+		long computedAfterFirst = 0, possibleAfterFirst = 0;
+		for (int pass = 0; pass < PASSES; pass++) {
+			ArrayList<float[]> arrays = 
+				Cluster.generateCentroidArrays(centroids, Cluster.ARRAYOFFSET);
+			float[] mags = new float[K];
+			for (int c = 0; c < K; c++)
+				mags[c] = centroids.get(c).peaks.getMagnitude(metric);
+			bounds.startPass(centroids, arrays, mags);
+			
+			assigner.assign(fullBatch, NUM_PARTICLES, arrays, mags, metric, 
+					fullNearest, fullDistances);
+			// split in two batches so the cursor positions get used
+			int half = NUM_PARTICLES / 2;
+			assigner.assign(batch, half, arrays, mags, metric, nearest, 
+					distances, bounds, 0);
+			ParticleInfo[] rest = new ParticleInfo[NUM_PARTICLES - half];
+			System.arraycopy(batch, half, rest, 0, rest.length);
+			int[] restNearest = new int[rest.length];
+			double[] restDistances = new double[rest.length];
+			assigner.assign(rest, rest.length, arrays, mags, metric, 
+					restNearest, restDistances, bounds, half);
+			System.arraycopy(restNearest, 0, nearest, half, rest.length);
+			System.arraycopy(restDistances, 0, distances, half, rest.length);
+			
+			for (int i = 0; i < NUM_PARTICLES; i++) {
+				assertEquals("pass " + pass + " particle " + i, 
+						fullNearest[i], nearest[i]);
+				assertEquals(fullDistances[i], distances[i], 0.0);
+			}
+			long[] counts = bounds.getAndResetCounts();
+			assertEquals((long) NUM_PARTICLES * K, counts[1]);
+			if (pass == 0)
+				assertEquals(counts[1], counts[0]);
+			else {
+				computedAfterFirst += counts[0];
+				possibleAfterFirst += counts[1];
+			}
+			
+			BinnedPeakList[] sums = new BinnedPeakList[K];
+			int[] members = new int[K];
+			for (int c = 0; c < K; c++)
+				sums[c] = new BinnedPeakList();
+			for (int i = 0; i < NUM_PARTICLES; i++)
+				members[nearest[i]]++;
+			assigner.accumulate(batch, NUM_PARTICLES, nearest, sums);
+			for (int c = 0; c < K; c++) {
+				if (members[c] == 0)
+					continue;
+				sums[c].divideAreasBy(members[c]);
+				sums[c].normalize(metric);
+				centroids.set(c, new Centroid(sums[c], 0));
+			}
+		}
+		assigner.shutdown();
+		// the clusters are well separated, so most distances get skipped
+		assertTrue(computedAfterFirst * 2 < possibleAfterFirst);
+	}
+	
+	/**
+	 * Particles scattered around K well separated spectra.
+	 */
+	private ParticleInfo[] makeParticles() {
+		Random random = new Random(2468);
+		BinnedPeakList[] centres = new BinnedPeakList[K];
+		for (int c = 0; c < K; c++) {
+			centres[c] = new BinnedPeakList(new Normalizer());
+			for (int p = 0; p < 8; p++)
+				centres[c].add(c * 40 - 240 + p * 3, 
+						100 + random.nextFloat() * 900);
+		}
+		ParticleInfo[] batch = new ParticleInfo[NUM_PARTICLES];
+		for (int i = 0; i < batch.length; i++) {
+			BinnedPeakList centre = centres[i % K];
+			BinnedPeakList peaks = new BinnedPeakList(new Normalizer());
+			for (int p = 0; p < centre.length(); p++)
+				peaks.add(centre.getLocationAtIndex(p), 
+						centre.getAreaAtIndex(p) 
+						* (0.5f + random.nextFloat()));
+			if (random.nextBoolean())
+				peaks.add(random.nextInt(600) - 300, random.nextFloat() * 200);
+			batch[i] = new ParticleInfo();
+			batch[i].setID(i + 1);
+			batch[i].setBinnedList(peaks);
+		}
+		return batch;
+	}
+}
@@ -107,4 +107,15 @@ public class CentroidListCursor implements CollectionCursor {
 	public BinnedPeakList getPeakListfromAtomID(int id) {
 		return centroidList.get(id).peaks;
 	}
+	
+	/* (non-Javadoc)
+	 * @see database.CollectionCursor#getPositionOfAtomID(int)
+	 * 
+	 * The ID of a centroid is its position.
+	 */
+	public int getPositionOfAtomID(int atomID) {
+		if (atomID >= 0 && atomID < centroidList.size())
+			return atomID;
+		return -1;
+	}
 }
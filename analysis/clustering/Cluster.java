@@ -154,13 +154,11 @@ public abstract class Cluster extends CollectionDivider {
 		{
 			BinnedPeakList temp = centroidList.get(i).peaks;
 			float[] peakInfo = new float[arrayoffset*2+1];
-			for (int q = 0; q < peakInfo.length; q++)
+			for (int q = 0; q < temp.length(); q++)
 			{
-				int tempkey = q - arrayoffset;
-				if (temp.getPeaks().containsKey(tempkey))
-					peakInfo[q] = temp.getPeaks().get(tempkey);
-				else
-					peakInfo[q] = 0;
+				int tempkey = temp.getLocationAtIndex(q);
+				if (tempkey >= -arrayoffset && tempkey <= arrayoffset)
+					peakInfo[tempkey + arrayoffset] = temp.getAreaAtIndex(q);
 			}
 			tempCentroidList.add(peakInfo);
 		}
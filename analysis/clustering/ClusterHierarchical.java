@@ -40,11 +40,8 @@
 
 package analysis.clustering;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 
 import javax.swing.JFrame;
 
@@ -55,8 +52,10 @@ import analysis.BinnedPeakList;
 import analysis.CollectionDivider;
 import analysis.DistanceMetric;
 import database.CollectionCursor;
+import database.FileCachedCursor;
 import database.InfoWarehouse;
 import database.NonZeroCursor;
+import errorframework.ErrorLogger;
 import externalswing.SwingWorker;
 import gui.ProgressBarWrapper;
 
@@ -153,131 +152,104 @@ public class ClusterHierarchical extends Cluster {
 
 	private void processPart(boolean interactive)
 	{
-		ArrayList<ClusterPair> clusterPairs = new ArrayList<ClusterPair>((numInitialClusters * numInitialClusters) / 2);
-		HashMap<Integer, ClusterContents> clusterContentsMap = new HashMap<Integer, ClusterContents>((numInitialClusters * 4) / 2);
+		// every particle gets a collection and every merge moves two of them,
+		// so InternalAtomOrder is brought up to date once, at the end.
+		db.deferInternalAtomOrderUpdates();
+		try {
+			buildHierarchy(interactive);
+		} finally {
+			if (interactive) {
+				progressBar.setText("Updating collections");
+				progressBar.setIndeterminate(true);
+			}
+			db.flushInternalAtomOrderUpdates();
+		}
+	}
+
+	private void buildHierarchy(boolean interactive)
+	{
+		ArrayList<ClusterContents> clusters = new ArrayList<ClusterContents>();
 		sampleIters = 0; // this is the number of passes
 		clusterCentroidIters = 0; // also the number of passes
 
-		if (interactive) {
-			progressBar.setText("Building distance matrix");
-			progressBar.setMaximum((numInitialClusters * numInitialClusters)/2);
-			progressBar.setIndeterminate(false);
-		}
-
-		// set up distance matrix
+		// set up a ClusterContents for each collection or particle
 		if (preClustered) {
-			// set up a ClusterContents for each collection
 			ArrayList<Integer> subCollectionIDs = db.getImmediateSubCollections(collection);
 			for (int subCollectionID : subCollectionIDs) {
-				ClusterContents currentCluster = new ClusterContents(subCollectionID);
-				for (ClusterContents otherCluster : clusterContentsMap.values()) {
-					float distance = currentCluster.getDistance(otherCluster, distanceMetric);
-					clusterPairs.add(new ClusterPair(currentCluster.clusterCollectionID, otherCluster.clusterCollectionID, distance));
-					if (interactive) {
-						progressBar.increment("Building Distance Matrix");
-					}
-				}
-				clusterContentsMap.put(currentCluster.clusterCollectionID, currentCluster);
+				clusters.add(new ClusterContents(subCollectionID));
 			}
 		}
 		else {
-			// set up a ClusterContents for each particle
 			curs = getCursor(collectionID);
 			while (curs.next()) {
 				ParticleInfo info = curs.getCurrent();
 				info.getBinnedList().posNegNormalize(distanceMetric);
-				ClusterContents currentCluster = new ClusterContents(info);
-				// after we've constructed our cluster object, get the distances
-				// to all other cluster objects
-				for (ClusterContents otherCluster : clusterContentsMap.values()) {
-					float distance = currentCluster.getDistance(otherCluster, distanceMetric);
-					clusterPairs.add(new ClusterPair(currentCluster.clusterCollectionID, otherCluster.clusterCollectionID, distance));
-					if (interactive) {
-						progressBar.increment("Building Distance Matrix");
-					}
-				}
-				// this next bit is silly, but by waiting 1/10 of a second, we give the garbage collector time to run
-				// the whole process runs faster by waiting because we don't take up so much memory.
-				// in an ideal future, we could the next two lines out -- jtbigwoo
-//				Runtime.getRuntime().gc();
-//				try {Thread.sleep(100);} catch (Exception e) {}
-//				System.out.println(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
-				clusterContentsMap.put(currentCluster.clusterCollectionID, currentCluster);
+				clusters.add(new ClusterContents(info));
+			}
+		}
+		int numClusters = clusters.size();
+		
+		// the distance matrix is the only thing that grows as the square
+		// of the number of clusters, so make sure it'll fit before starting.
+		Runtime runtime = Runtime.getRuntime();
+		long available = runtime.maxMemory() - 
+			(runtime.totalMemory() - runtime.freeMemory());
+		if (numClusters > WardLinkage.MAX_CLUSTERS ||
+				WardLinkage.bytesNeeded(numClusters) > available) {
+			ErrorLogger.writeExceptionToLogAndPrompt("ClusterHierarchical",
+					"Not enough memory to hierarchically cluster " + 
+					numClusters + " items (the distance matrix needs " +
+					WardLinkage.bytesNeeded(numClusters) / (1024 * 1024) +
+					" MB).  Try pre-clustering them with K-Means first.");
+			return;
+		}
+
+		if (interactive) {
+			progressBar.setText("Building distance matrix");
+			progressBar.setMaximum(numClusters);
+			progressBar.setIndeterminate(false);
+		}
+		WardLinkage linkage = new WardLinkage(numClusters);
+		for (int i = 0; i < numClusters; i++) {
+			ClusterContents currentCluster = clusters.get(i);
+			linkage.setSize(i, currentCluster.getAtomIDList().size());
+			for (int j = 0; j < i; j++) {
+				linkage.setDistance(i, j, 
+						currentCluster.getDistance(clusters.get(j), distanceMetric));
+			}
+			if (interactive) {
+				progressBar.increment("Building Distance Matrix");
 			}
 		}
 		
 		if (interactive) {
 			System.err.println("done!");
-			progressBar.setMaximum(clusterContentsMap.size());
+			progressBar.setText("Finding clusters");
+			progressBar.setIndeterminate(true);
+		}
+		ArrayList<WardLinkage.Merge> merges = linkage.cluster();
+		linkage = null;
+
+		if (interactive) {
+			progressBar.setMaximum(numClusters);
 			progressBar.reset();
-			progressBar.setText("Number of Clusters Remaining: " + clusterContentsMap.size());
+			progressBar.setIndeterminate(false);
+			progressBar.setText("Number of Clusters Remaining: " + numClusters);
 		}
-		while (clusterContentsMap.size() > 1)
+		int clustersRemaining = numClusters;
+		for (WardLinkage.Merge merge : merges)
 		{
-			// the first pair element in the sorted list has the smallest distance, merge them
-			// name the clusters A and B.  Cluster B will be merged into Cluster A and removed.
+			// Cluster B will be merged into Cluster A and removed.
 			// Sorry, cluster B.
-			Collections.sort(clusterPairs);
-			int clusterAID = clusterPairs.get(0).getFirstClusterID();
-			int clusterBID = clusterPairs.get(0).getSecondClusterID();
-			totalDistancePerPass.add(new Double(clusterPairs.get(0).getDistance()));
-			float aToBDistance = clusterPairs.get(0).getDistance();
-			int clusterASize = clusterContentsMap.get(clusterAID).getAtomIDList().size();
-			int clusterBSize = clusterContentsMap.get(clusterBID).getAtomIDList().size();
-			clusterPairs.remove(0);
-			clusterContentsMap.get(clusterAID).merge(clusterContentsMap.get(clusterBID));
-			clusterContentsMap.remove(clusterBID);
-
-			// set the size to try to avoid rehashes
-			HashMap<Integer, ClusterPair> removedPairs = new HashMap<Integer, ClusterPair>((clusterContentsMap.size() * 4) / 3);
-			// because we're going to be removing elements, 
-			// it's easier to go backwards through the list
-			for (int i = clusterPairs.size() - 1; i >= 0; i--) {
-				// We're trying to get the distance from the new cluster to each 
-				// existing cluster.  We'll call the existing clusters Cluster Q.
-				int clusterQID = -1;
-				ClusterPair currentPair = clusterPairs.get(i);
-				if (clusterAID == currentPair.getFirstClusterID() || clusterBID == currentPair.getFirstClusterID()) {
-					clusterQID = currentPair.getSecondClusterID();
-				}
-				else if (clusterAID == currentPair.getSecondClusterID() || clusterBID == currentPair.getSecondClusterID()) {
-					clusterQID = currentPair.getFirstClusterID();
-				}
-				if (clusterQID != -1) {
-					if (removedPairs.get(clusterQID) == null) {
-						// if this is the first time we've encountered Cluster Q, delete the pair
-						// from the list, but save it for calculations below.
-						removedPairs.put(clusterQID, currentPair);
-						clusterPairs.remove(i);
-					}
-					else {
-						// if this is the second time we've encountered Cluster Q, recalculate
-						// distance and put a new pair in the list.
-						ClusterPair removedPair = removedPairs.get(clusterQID);
-						int clusterQSize = clusterContentsMap.get(clusterQID).getAtomIDList().size();
-						float aToQDistance, bToQDistance, newDistance;
-						if (clusterAID == removedPair.getFirstClusterID() || clusterAID == removedPair.getSecondClusterID()) {
-							aToQDistance = removedPair.getDistance();
-							bToQDistance = currentPair.getDistance();
-						}
-						else
-						{
-							bToQDistance = removedPair.getDistance();
-							aToQDistance = currentPair.getDistance();
-						}
-						float distance = ((clusterASize + clusterQSize) * aToQDistance) / (clusterASize + clusterBSize + clusterQSize) + 
-							((clusterBSize + clusterQSize) * bToQDistance) / (clusterASize + clusterBSize + clusterQSize) - 
-							((clusterQSize) * aToBDistance) / (clusterASize + clusterBSize + clusterQSize);
-						clusterPairs.set(i, new ClusterPair(clusterAID, clusterQID, distance));
-					}
-				}
-			}
+			totalDistancePerPass.add(new Double(merge.getDistance()));
+			clusters.get(merge.getInto()).merge(clusters.get(merge.getFrom()));
+			clusters.set(merge.getFrom(), null);
+			clustersRemaining--;
 			sampleIters++;
 			clusterCentroidIters++;
 			if (interactive) {
-				progressBar.increment("Number of Clusters Remaining: " + clusterContentsMap.size());
+				progressBar.increment("Number of Clusters Remaining: " + clustersRemaining);
 			}
-
 		}
 		// no need to create centroids, the cluster hierarchy we've created is what's useful.
 //		if (interactive) {
@@ -334,46 +306,6 @@ public class ClusterHierarchical extends Cluster {
 //		printDescriptionToDB(particleCount, centroidList);
 //	}
 
-	/**
-	 * Holds the id's for a pair of clusters and the distance between them.
-	 */
-	class ClusterPair implements Comparable<ClusterPair> {
-		
-		int firstClusterID;
-		int secondClusterID;
-		float distance;
-		
-		public ClusterPair(int firstID, int secondID, float dist) {
-			firstClusterID = firstID;
-			secondClusterID = secondID;
-			distance = dist;
-		}
-
-		public int getFirstClusterID() {
-			return firstClusterID;
-		}
-		
-		public int getSecondClusterID() {
-			return secondClusterID;
-		}
-		
-		public float getDistance() {
-			return distance;
-		}
-
-		public int compareTo(ClusterPair otherOne) {
-			if (otherOne.distance > this.distance) {
-				return -1;
-			}
-			else if (otherOne.distance < this.distance) {
-				return 1;
-			}
-			else {
-				return 0;
-			}
-		}
-	}
-
 	/**
 	 * Holds the atom id's in a cluster and the average peaklist
 	 */
@@ -495,6 +427,7 @@ public class ClusterHierarchical extends Cluster {
 		switch (type) {
 		case CollectionDivider.DISK_BASED :
 		case CollectionDivider.STORE_ON_FIRST_PASS : 
+		case CollectionDivider.STORE_ON_DISK_ON_FIRST_PASS : 
 			cursorType = type;
 			return true;
 		default :
@@ -506,16 +439,16 @@ public class ClusterHierarchical extends Cluster {
 		switch (cursorType) {
 		case CollectionDivider.DISK_BASED :
 			System.out.println("DISK_BASED");
-			try {
-					curs = new NonZeroCursor(db.getBPLOnlyCursor(db.getCollection(collID)));
-				} catch (SQLException e) {
-					e.printStackTrace();
-				}
+			curs = new NonZeroCursor(db.getStreamingClusteringCursor(db.getCollection(collID), clusterInfo));
 		return curs;
 		case CollectionDivider.STORE_ON_FIRST_PASS : 
 		    System.out.println("STORE_ON_FIRST_PASS");
 			curs = new NonZeroCursor(db.getMemoryClusteringCursor(db.getCollection(collID), clusterInfo));
 		return curs;
+		case CollectionDivider.STORE_ON_DISK_ON_FIRST_PASS : 
+		    System.out.println("STORE_ON_DISK_ON_FIRST_PASS");
+			curs = new NonZeroCursor(new FileCachedCursor(db.getStreamingClusteringCursor(db.getCollection(collID), clusterInfo)));
+		return curs;
 		default :
 			return null;
 		}
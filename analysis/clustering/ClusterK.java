@@ -44,7 +44,6 @@
  */
 package analysis.clustering;
 
-import java.sql.SQLException;
 import java.util.*;
 
 import javax.swing.JDialog;
@@ -57,6 +56,7 @@ import analysis.BinnedPeakList;
 import analysis.CollectionDivider;
 import analysis.SubSampleCursor;
 import database.CollectionCursor;
+import database.FileCachedCursor;
 import database.InfoWarehouse;
 import database.NonZeroCursor;
 import errorframework.ErrorLogger;
@@ -80,6 +80,12 @@ public abstract class ClusterK extends Cluster {
 	public static final int RANDOM_CENTROIDS = 1;
 	public static final int FARTHEST_DIST_CENTROIDS = 2;
 	public static final int KMEANS_PLUS_PLUS_CENTROIDS = 3;
+	public static final int KMEANS_PARALLEL_CENTROIDS = 4;
+	
+	// how many oversampling passes k-means|| makes, and how many 
+	// candidates per centroid it expects to pick in each
+	private static final int KMEANS_PARALLEL_ROUNDS = 5;
+	private static final int KMEANS_PARALLEL_OVERSAMPLING = 2;
 
 	public static final int DEFAULT_RANDOM = 90125;
 	/* Declared Class Variables */
@@ -110,6 +116,13 @@ public abstract class ClusterK extends Cluster {
 	private JFrame container;
 	
 	
+	// how many threads the assignment step may use; 0 means one per 
+	// processor
+	private int numThreads = 0;
+	// whether to use distance bounds to skip centroids a particle can't 
+	// belong to (only for metrics that CentroidBounds supports)
+	private boolean pruneDistances = true;
+	
 	//Testing time
 	public static long timeTaken = 0;
 	
@@ -157,6 +170,9 @@ public abstract class ClusterK extends Cluster {
 		else if (initialCentroids == KMEANS_PLUS_PLUS_CENTROIDS) {
 			centroidList = chooseKmeansPPCentroids();
 		}
+		else if (initialCentroids == KMEANS_PARALLEL_CENTROIDS) {
+			centroidList = chooseKmeansParallelCentroids();
+		}
 		
 		if(interactive){
 			try {
@@ -245,17 +261,16 @@ public abstract class ClusterK extends Cluster {
 		switch (type) {
 		case CollectionDivider.DISK_BASED :
 			System.out.println("DISK_BASED");
-			try {
-					curs = new NonZeroCursor(db.getBPLOnlyCursor(db.getCollection(collectionID)));
-				} catch (SQLException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+			curs = new NonZeroCursor(db.getStreamingClusteringCursor(db.getCollection(collectionID), clusterInfo));
 		return true;
 		case CollectionDivider.STORE_ON_FIRST_PASS : 
 		    System.out.println("STORE_ON_FIRST_PASS");
 			curs = new NonZeroCursor(db.getMemoryClusteringCursor(db.getCollection(collectionID), clusterInfo));
 		return true;
+		case CollectionDivider.STORE_ON_DISK_ON_FIRST_PASS : 
+		    System.out.println("STORE_ON_DISK_ON_FIRST_PASS");
+			curs = new NonZeroCursor(new FileCachedCursor(db.getStreamingClusteringCursor(db.getCollection(collectionID), clusterInfo)));
+		return true;
 		default :
 			return false;
 		}
@@ -363,10 +378,28 @@ public abstract class ClusterK extends Cluster {
 		float[] centroidMags = new float[k];
 		for (int i=0; i < k; i++)
 			centroidMags[i] = centroidList.get(i).peaks.getMagnitude(distanceMetric);
+		ParallelAssigner assigner = new ParallelAssigner(numThreads);
+		ParticleInfo[] batch = new ParticleInfo[ParallelAssigner.DEFAULT_BATCH_SIZE];
+		int[] nearest = new int[batch.length];
+		double[] distances = new double[batch.length];
+		CentroidBounds bounds = null;
+		if (pruneDistances && CentroidBounds.supports(distanceMetric))
+			bounds = new CentroidBounds(distanceMetric);
+		// K-Medians needs every member of a centroid to find its median, 
+		// so they're kept as they're assigned rather than fetched again
+		ArrayList<ArrayList<BinnedPeakList>> centroidMembers = null;
+		if (this instanceof KMedians) {
+			centroidMembers = new ArrayList<ArrayList<BinnedPeakList>>(k);
+			for (int i = 0; i < k; i++)
+				centroidMembers.add(new ArrayList<BinnedPeakList>());
+		}
 		while (!isStable) {
 			for (ArrayList<Integer> array : particlesInCentroids){
 				array.clear();
 			}
+			if (centroidMembers != null)
+				for (ArrayList<BinnedPeakList> members : centroidMembers)
+					members.clear();
 
 			outliers.clear();
 			for (int i=0; i < k; i++)
@@ -379,71 +412,81 @@ public abstract class ClusterK extends Cluster {
 			
 			ArrayList<float[]> tempCentroidList =
 				Cluster.generateCentroidArrays(centroidList,Cluster.ARRAYOFFSET);
+			if (bounds != null)
+				bounds.startPass(centroidList, tempCentroidList, centroidMags);
 			
 			int particleNumber = 0;
-			while(curs.next())
+			int batchCount;
+			do
 			{ // while there are particles remaining
-				particleNumber++;
-				if (particleNumber % 10000 == 0)
-					System.out.println("Particle number = " + particleNumber);
-				ParticleInfo p = curs.getCurrent();
-				BinnedPeakList thisBinnedPeakList = p.getBinnedList();
-				thisBinnedPeakList.posNegNormalize(distanceMetric);	
-				double nearestDistance = Double.MAX_VALUE;
-				int nearestCentroid = -1;
-				for (int curCent = 0; curCent < k; curCent++)
-				{// for each centroid
+				// Normalizing each particle and finding its nearest centroid
+				// is spread over the assigner's threads a batch at a time;
+				// everything that depends on the order of the particles
+				// happens here, in cursor order.
+				batchCount = ParallelAssigner.fillBatch(curs, batch);
+				assigner.assign(batch, batchCount, tempCentroidList,
+						centroidMags, distanceMetric, nearest, distances,
+						bounds, particleNumber);
+				for (int b = 0; b < batchCount; b++)
+				{
+					particleNumber++;
+					if (particleNumber % 10000 == 0)
+						System.out.println("Particle number = " + particleNumber);
+					ParticleInfo p = batch[b];
+					BinnedPeakList thisBinnedPeakList = p.getBinnedList();
+					double nearestDistance = distances[b];
+					int nearestCentroid = nearest[b];
 					
-					//first parameter was centroidList.get(curCent).peaks
-					//change it back in order to use the original data structure
-					//(instead of float arrays)
-					//also, don't pass 4th argument (arrayoffset)
-					// - benzaids
-					double distance = thisBinnedPeakList.getDistance(
-							tempCentroidList.get(curCent),centroidMags[curCent],
-							distanceMetric, Cluster.ARRAYOFFSET);
-					//If nearestDistance hasn't been set or is larger 
-					//than found distance, set the nearestCentroid index.
-					if (distance < nearestDistance){
-						nearestCentroid = curCent;
-						nearestDistance = distance;
-					}
-				}// end for each centroid
-				
-				// TreeSets do not allow duplicates. Therefore, we make small
-				// distinctions in the distances for the outliers that we add (if necessary).
-				// Making the distance smaller here (not bigger) is crucial. This ensures that
-				// if a whole series of atoms have the same distance, they do not keep bouncing
-				// each other out.
-				if (nearestDistance > smallestOutlierDistance) {
-					OutlierData outlier = new OutlierData(thisBinnedPeakList,nearestDistance);
-					while (outlier.distance > smallestOutlierDistance && outliers.contains(outlier))
-						outlier.distance -= 1e-5;
-
-					//	If distance is still an outlier, add it to the outlier array.
+					// TreeSets do not allow duplicates. Therefore, we make small
+					// distinctions in the distances for the outliers that we add (if necessary).
+					// Making the distance smaller here (not bigger) is crucial. This ensures that
+					// if a whole series of atoms have the same distance, they do not keep bouncing
+					// each other out.
 					if (nearestDistance > smallestOutlierDistance) {
-						outliers.add(outlier);			
-						if (outliers.size() > k)
-							outliers.remove(outliers.first());						
-						smallestOutlierDistance = outliers.first().distance;
-					}
-				}					
+						OutlierData outlier = new OutlierData(thisBinnedPeakList,nearestDistance);
+						while (outlier.distance > smallestOutlierDistance && outliers.contains(outlier))
+							outlier.distance -= 1e-5;
+
+						//	If distance is still an outlier, add it to the outlier array.
+						if (nearestDistance > smallestOutlierDistance) {
+							outliers.add(outlier);			
+							if (outliers.size() > k)
+								outliers.remove(outliers.first());						
+							smallestOutlierDistance = outliers.first().distance;
+						}
+					}					
 				
-				// Put atomID assigned to curCent in particlesInCentroids array, and increment
-				// appropriately.  
-				particlesInCentroids.get(nearestCentroid).add(new Integer(
-						p.getID()));
-				centroidList.get(nearestCentroid).numMembers++;
-				accumDistance += nearestDistance;
-				cumulativeCentroids[nearestCentroid].addAnotherParticle(thisBinnedPeakList);
-
-			}// end while there are particles remaining
+					// Put atomID assigned to curCent in particlesInCentroids array, and increment
+					// appropriately.  
+					particlesInCentroids.get(nearestCentroid).add(new Integer(
+							p.getID()));
+					if (centroidMembers != null)
+						centroidMembers.get(nearestCentroid).add(thisBinnedPeakList);
+					centroidList.get(nearestCentroid).numMembers++;
+					accumDistance += nearestDistance;
+				}
+				assigner.accumulate(batch, batchCount, nearest,
+						cumulativeCentroids);
+			} while (batchCount == batch.length);// end while there are particles remaining
+			Arrays.fill(batch, null);
+			if (bounds != null) {
+				long[] counts = bounds.getAndResetCounts();
+				System.out.println("Distances computed: " + counts[0] + 
+						" of " + counts[1]);
+			}
 			// IMPORTANT TO FIX: ZERO ISSUE
 			zeroPeakListParticleCount = 0; //curs.getZeroCount();
 			totalDistancePerPass.add(new Double(accumDistance));
 
 			// reset centroid list.  The averageCluster method is overwritten
 			// in K-Means and K-Medians.
+			ArrayList<Centroid> medians = null;
+			if (this instanceof KMedians) {
+				medians = ((KMedians) this).medianCentroids(centroidList, 
+						centroidMembers, assigner);
+				for (ArrayList<BinnedPeakList> members : centroidMembers)
+					members.clear();
+			}
 			for (int i = 0; i < k; i++) {
 				Centroid newCent;
 				if (this instanceof KMeans) {
@@ -456,8 +499,7 @@ public abstract class ClusterK extends Cluster {
 					newCent = new Centroid(cumulativeCentroids[i],0);
 				}
 				else if (this instanceof KMedians) {
-					newCent = averageCluster(centroidList.get(i),
-							particlesInCentroids.get(i));
+					newCent = medians.get(i);
 				}
 				else
 					throw new UnsupportedOperationException("Undefined clustering type.");
@@ -471,6 +513,7 @@ public abstract class ClusterK extends Cluster {
 
 			if (outliers.last().distance < 1E-4) {
 				System.out.println("Particles are perfectly clustered!");
+				assigner.shutdown();
 				return centroidList;
 			}
 
@@ -486,6 +529,7 @@ public abstract class ClusterK extends Cluster {
 				}
 			}
 		} // end while loop
+		assigner.shutdown();
 			
 		// Remove the last pass in the total distance array,
 		// since these are duplicates.
@@ -507,6 +551,26 @@ public abstract class ClusterK extends Cluster {
 		return centroidList;
 	}
 	
+	/**
+	 * Sets how many threads the assignment step of each pass may use.
+	 * The clusters come out the same regardless.
+	 * @param numThreads the number of threads, or 0 for one per processor
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Sets whether each pass may skip the distances from a particle to 
+	 * centroids that the triangle inequality says can't be nearest.  This
+	 * is only done for EUCLIDEAN_SQUARED and CITY_BLOCK, and doesn't change
+	 * the clusters.  It's on by default.
+	 * @param prune false to compute every distance every pass
+	 */
+	public void setPruneDistances(boolean prune) {
+		pruneDistances = prune;
+	}
+	
 	/**
 	 * Determines whether the centroids are stable or not.  It does this by
 	 * determining how much the centroids moved on the last pass and comparing
@@ -724,6 +788,170 @@ public abstract class ClusterK extends Cluster {
 		return centroidList;
 	}
 
+	/**
+	 * Chooses centroids with k-means||, the scalable version of k-means++.
+	 * Instead of one pass over the collection per centroid, it makes a 
+	 * fixed number of passes, each of which picks about 
+	 * KMEANS_PARALLEL_OVERSAMPLING * k candidates at once, with 
+	 * probability proportional to their distance from the candidates picked
+	 * so far.  One more pass counts how many particles are nearest to each 
+	 * candidate, and k-means++ is then run on the weighted candidates in 
+	 * memory.
+	 * 
+	 * The first candidate is a random particle, as in k-means++.  Each 
+	 * pass compares the particles only to the candidates picked by the 
+	 * pass before, using the assigner's threads, and keeps the distance 
+	 * to the nearest candidate so far in a float[].
+	 * @return k centroids picked from the collection
+	 */
+	private ArrayList<Centroid> chooseKmeansParallelCentroids() {
+		db.seedRandom(randomNumber);
+		random = new Random(randomNumber);
+		NonZeroCursor partCurs = new NonZeroCursor(
+				db.getRandomizedCursor(db.getCollection(collectionID)));
+		if (!partCurs.next()) {
+			partCurs.close();
+			throw new RuntimeException("No particles to make into centroids!");
+		}
+		ArrayList<Centroid> candidates = new ArrayList<Centroid>();
+		candidates.add(getCurrentParticleAsCentroid(partCurs));
+		partCurs.close();
+		
+		int capacity = Math.max(numParticles, 16);
+		// distance from each particle to its nearest candidate, and which
+		// candidate that is
+		float[] minDistances = new float[capacity];
+		int[] owners = new int[capacity];
+		int count = 0;
+		double cost = 0;
+		int oversample = KMEANS_PARALLEL_OVERSAMPLING * k;
+		
+		ParallelAssigner assigner = new ParallelAssigner(numThreads);
+		ParticleInfo[] batch = new ParticleInfo[ParallelAssigner.DEFAULT_BATCH_SIZE];
+		int[] nearest = new int[batch.length];
+		double[] distances = new double[batch.length];
+		int firstNew = 0;
+		// pass 0 finds the distances to the first candidate; the last pass
+		// only takes the candidates from the one before it into account
+		for (int pass = 0; pass <= KMEANS_PARALLEL_ROUNDS + 1; pass++) {
+			ArrayList<Centroid> newCandidates = new ArrayList<Centroid>(
+					candidates.subList(firstNew, candidates.size()));
+			boolean sampling = pass > 0 && pass <= KMEANS_PARALLEL_ROUNDS 
+				&& cost > 0;
+			if (newCandidates.isEmpty() && !sampling)
+				continue;
+			ArrayList<float[]> candidateArrays = 
+				Cluster.generateCentroidArrays(newCandidates, Cluster.ARRAYOFFSET);
+			float[] candidateMags = new float[newCandidates.size()];
+			for (int i = 0; i < candidateMags.length; i++)
+				candidateMags[i] = newCandidates.get(i).peaks.getMagnitude(distanceMetric);
+			ArrayList<Centroid> picked = new ArrayList<Centroid>();
+			double passCost = 0;
+			int index = 0;
+			int batchCount;
+			curs.reset();
+			do {
+				batchCount = ParallelAssigner.fillBatch(curs, batch);
+				if (!newCandidates.isEmpty())
+					assigner.assign(batch, batchCount, candidateArrays,
+							candidateMags, distanceMetric, nearest, distances);
+				for (int i = 0; i < batchCount; i++, index++) {
+					if (index == minDistances.length) {
+						minDistances = Arrays.copyOf(minDistances, index * 2);
+						owners = Arrays.copyOf(owners, index * 2);
+					}
+					if (pass == 0 || (!newCandidates.isEmpty() && 
+							distances[i] < minDistances[index])) {
+						minDistances[index] = (float) distances[i];
+						owners[index] = firstNew + nearest[i];
+					}
+					passCost += minDistances[index];
+					// cost is from the pass before, and the distances can 
+					// only have shrunk since, so this errs on the side of
+					// picking fewer
+					if (sampling && random.nextDouble() * cost < 
+							oversample * (double) minDistances[index])
+						picked.add(particleAsCentroid(batch[i]));
+				}
+			} while (batchCount == batch.length);
+			count = index;
+			cost = passCost;
+			firstNew = candidates.size();
+			candidates.addAll(picked);
+		}
+		assigner.shutdown();
+		
+		System.out.println("k-means|| candidates: " + candidates.size());
+		if (candidates.size() < k)
+			throw new RuntimeException("Only " + candidates.size() + 
+					" candidates for " + k + " centroids: probably "
+	        		+"ran out of particles to make into centroids!");
+		double[] weights = new double[candidates.size()];
+		for (int i = 0; i < count; i++)
+			weights[owners[i]]++;
+		return chooseWeightedCentroids(candidates, weights);
+	}
+	
+	/**
+	 * Runs k-means++ on a list of weighted candidates: the first centroid 
+	 * is picked with probability proportional to its weight, and each 
+	 * after that with probability proportional to its weight times its 
+	 * distance from the nearest centroid picked so far.
+	 * @return k of the candidates
+	 */
+	private ArrayList<Centroid> chooseWeightedCentroids(
+			List<Centroid> candidates, double[] weights) {
+		int numCandidates = candidates.size();
+		ArrayList<Centroid> centroidList = new ArrayList<Centroid>(k);
+		double[] nearestDistances = new double[numCandidates];
+		Arrays.fill(nearestDistances, Double.POSITIVE_INFINITY);
+		boolean[] chosen = new boolean[numCandidates];
+		int next = pickWeighted(weights, null, chosen);
+		while (true) {
+			Centroid newCent = candidates.get(next);
+			chosen[next] = true;
+			centroidList.add(newCent);
+			if (centroidList.size() == k)
+				return centroidList;
+			for (int i = 0; i < numCandidates; i++) {
+				if (chosen[i])
+					continue;
+				double distance = newCent.peaks.getDistance(
+						candidates.get(i).peaks, distanceMetric);
+				if (distance < nearestDistances[i])
+					nearestDistances[i] = distance;
+			}
+			next = pickWeighted(weights, nearestDistances, chosen);
+		}
+	}
+	
+	/**
+	 * Picks an index that hasn't been chosen yet, with probability
+	 * proportional to weights[i] * distances[i] (or just weights[i] if 
+	 * distances is null).  If nothing has any weight left, the first 
+	 * unchosen index is used.
+	 */
+	private int pickWeighted(double[] weights, double[] distances, 
+			boolean[] chosen) {
+		double total = 0;
+		for (int i = 0; i < weights.length; i++)
+			if (!chosen[i])
+				total += weights[i] * (distances == null ? 1 : distances[i]);
+		double target = random.nextDouble() * total;
+		int lastUnchosen = -1;
+		for (int i = 0; i < weights.length; i++) {
+			if (chosen[i])
+				continue;
+			double weight = weights[i] * (distances == null ? 1 : distances[i]);
+			if (lastUnchosen == -1 || weight > 0)
+				lastUnchosen = i;
+			if (weight > 0 && target < weight)
+				return i;
+			target -= weight;
+		}
+		return lastUnchosen;
+	}
+
 	/**
 	 * A set of centroids for the given cursor by taking the first particle
 	 * and then for each succeeding point, take the one that is furthest away 
@@ -808,7 +1036,13 @@ public abstract class ClusterK extends Cluster {
 	 * @return
 	 */
 	private Centroid getCurrentParticleAsCentroid(CollectionCursor curs) {
-		ParticleInfo p = curs.getCurrent();
+		return particleAsCentroid(curs.getCurrent());
+	}
+	
+	/**
+	 * Makes a Centroid out of the given particle.
+	 */
+	private Centroid particleAsCentroid(ParticleInfo p) {
 		p.getBinnedList().preProcess(power);
 		p.getBinnedList().posNegNormalize(distanceMetric);
 	    return new Centroid(p.getBinnedList(),0);
@@ -1,7 +1,6 @@
 package analysis.clustering;
 
 import java.io.File;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Scanner;
 
@@ -9,6 +8,7 @@ import analysis.BinnedPeakList;
 import analysis.CollectionDivider;
 import analysis.DistanceMetric;
 
+import database.FileCachedCursor;
 import database.InfoWarehouse;
 import database.NonZeroCursor;
 
@@ -85,17 +85,16 @@ public class ClusterQuery extends Cluster {
 		switch (type) {
 		case CollectionDivider.DISK_BASED :
 			System.out.println("DISK_BASED");
-			try {
-					curs = new NonZeroCursor(db.getBPLOnlyCursor(db.getCollection(collectionID)));
-				} catch (SQLException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+			curs = new NonZeroCursor(db.getStreamingClusteringCursor(db.getCollection(collectionID), clusterInfo));
 		return true;
 		case CollectionDivider.STORE_ON_FIRST_PASS : 
 		    System.out.println("STORE_ON_FIRST_PASS");
 			curs = new NonZeroCursor(db.getMemoryClusteringCursor(db.getCollection(collectionID), clusterInfo));
 		return true;
+		case CollectionDivider.STORE_ON_DISK_ON_FIRST_PASS : 
+		    System.out.println("STORE_ON_DISK_ON_FIRST_PASS");
+			curs = new NonZeroCursor(new FileCachedCursor(db.getStreamingClusteringCursor(db.getCollection(collectionID), clusterInfo)));
+		return true;
 		default :
 			return false;
 		}
@@ -0,0 +1,266 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's DenseCentroid class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+
+package analysis.clustering;
+
+import analysis.BinnedPeakList;
+import analysis.DistanceMetric;
+import analysis.DummyNormalizer;
+import analysis.Normalizer;
+
+/**
+ * An Art2A centroid kept as a dense array of areas over the m/z range it
+ * has seen, plus the sorted list of locations that have ever had a peak.
+ * 
+ * The distance and the learning-rate update walk the particle's peaks and
+ * that list together, in location order, so they add up exactly the same 
+ * floats in the same order as BinnedPeakList.getDistance and the old 
+ * list-building update did, and give bit-for-bit the same results.  But 
+ * nothing is allocated per particle: the area of any location is one array
+ * lookup, and the merged location list is written into a spare buffer 
+ * that is swapped in afterwards.
+ */
+public class DenseCentroid {
+	private static final int MARGIN = 64;
+	
+	// areas[location - offset]
+	private float[] areas;
+	private int offset;
+	// sorted locations that have an entry, possibly of zero area
+	private int[] support;
+	private int supportSize;
+	private int[] spare;
+	// whether distances are rounded down to 2, as Normalizer does
+	private boolean roundDistance;
+	
+	public int numMembers;
+	
+	/**
+	 * @param peaks the first particle of the cluster; its normalizer 
+	 * decides whether distances get rounded until the first update.
+	 */
+	public DenseCentroid(BinnedPeakList peaks, int numMembers) {
+		int size = peaks.length();
+		int low = size == 0 ? 0 : peaks.getLocationAtIndex(0);
+		int high = size == 0 ? 0 : peaks.getLocationAtIndex(size - 1);
+		offset = low - MARGIN;
+		areas = new float[high - low + 1 + 2 * MARGIN];
+		support = new int[Math.max(size, 8)];
+		spare = new int[support.length];
+		for (int i = 0; i < size; i++) {
+			int location = peaks.getLocationAtIndex(i);
+			support[i] = location;
+			areas[location - offset] = peaks.getAreaAtIndex(i);
+		}
+		supportSize = size;
+		roundDistance = peaks.getNormalizable() instanceof Normalizer;
+		this.numMembers = numMembers;
+	}
+	
+	/**
+	 * Distance from this centroid to a particle given as parallel sorted
+	 * arrays, the same as BinnedPeakList.getDistance with the centroid as
+	 * "this".  For metrics where each peak only adds to the distance, the
+	 * sum is abandoned once it's more than the vigilance or no less than 
+	 * nearest; the result is then just some value that won't be chosen.
+	 * 
+	 * @param vigilance a distance above this can't be chosen.
+	 * @param nearest a distance at least this can't be chosen.
+	 */
+	public float getDistance(int[] locations, float[] values, int size,
+			DistanceMetric metric, float vigilance, float nearest) {
+		float[] areas = this.areas;
+		int[] support = this.support;
+		int supportSize = this.supportSize;
+		int offset = this.offset;
+		// rounding to 2 only keeps an abandoned sum out of reach if 2 is 
+		// out of reach too.
+		boolean prune = metric != DistanceMetric.DOT_PRODUCT && 
+			(!roundDistance || vigilance < 2);
+		int i = 0, j = 0;
+		float distance = 0;
+		
+		while (i < supportSize && j < size) {
+			int location = support[i];
+			if (location == locations[j]) {
+				distance += DistanceMetric.getDistance(areas[location - offset], 
+						values[j], metric);
+				i++;
+				j++;
+			} else if (location < locations[j]) {
+				distance += DistanceMetric.getDistance(0, 
+						areas[location - offset], metric);
+				i++;
+			} else {
+				distance += DistanceMetric.getDistance(0, values[j], metric);
+				j++;
+			}
+			if (prune && (distance > vigilance || distance >= nearest))
+				return distance;
+		}
+		while (i < supportSize) {
+			distance += DistanceMetric.getDistance(0, 
+					areas[support[i] - offset], metric);
+			i++;
+		}
+		while (j < size) {
+			distance += DistanceMetric.getDistance(0, values[j], metric);
+			j++;
+		}
+		
+		if (metric == DistanceMetric.DOT_PRODUCT)
+			distance = 1 - distance;
+		if (roundDistance && distance > 2)
+			distance = 2.0f;
+		return distance;
+	}
+	
+	/**
+	 * Moves the centroid towards the particle by the learning rate at every
+	 * location either has, then normalizes it if normalize is set, in the
+	 * same way BinnedPeakList.normalize would.
+	 */
+	public void learn(int[] locations, float[] values, int size,
+			float learningRate, boolean normalize, DistanceMetric metric) {
+		if (size > 0)
+			cover(locations[0], locations[size - 1]);
+		if (spare.length < supportSize + size)
+			spare = new int[Math.max(supportSize + size, spare.length * 2)];
+		float[] areas = this.areas;
+		int[] support = this.support;
+		int[] merged = spare;
+		int offset = this.offset;
+		int i = 0, j = 0, n = 0;
+		while (i < supportSize || j < size) {
+			int location;
+			float value;
+			if (j == size || (i < supportSize && support[i] < locations[j])) {
+				location = support[i++];
+				value = 0;
+			} else {
+				location = locations[j];
+				value = values[j++];
+				if (i < supportSize && support[i] == location)
+					i++;
+			}
+			float area = areas[location - offset];
+			areas[location - offset] = area + (value - area) * learningRate;
+			merged[n++] = location;
+		}
+		spare = support;
+		this.support = merged;
+		supportSize = n;
+		
+		roundDistance = normalize;
+		if (normalize)
+			normalize(metric);
+	}
+	
+	private void normalize(DistanceMetric metric) {
+		float magnitude = 0;
+		if (metric == DistanceMetric.CITY_BLOCK) {
+			for (int i = 0; i < supportSize; i++)
+				magnitude += areas[support[i] - offset];
+		} else if (metric == DistanceMetric.EUCLIDEAN_SQUARED ||
+				metric == DistanceMetric.DOT_PRODUCT) {
+			for (int i = 0; i < supportSize; i++) {
+				float area = areas[support[i] - offset];
+				magnitude += area * area;
+			}
+			magnitude = (float) Math.sqrt(magnitude);
+		}
+		for (int i = 0; i < supportSize; i++)
+			areas[support[i] - offset] = areas[support[i] - offset] / magnitude;
+	}
+	
+	/**
+	 * Grows the dense array, with some room to spare, so that it covers 
+	 * low through high.
+	 */
+	private void cover(int low, int high) {
+		int end = offset + areas.length;
+		if (low >= offset && high < end)
+			return;
+		int newOffset = Math.min(offset, low - MARGIN);
+		int newEnd = Math.max(end, high + 1 + MARGIN);
+		float[] grown = new float[newEnd - newOffset];
+		System.arraycopy(areas, 0, grown, offset - newOffset, areas.length);
+		areas = grown;
+		offset = newOffset;
+	}
+	
+	/**
+	 * @return the centroid as a peak list, with an entry for every location
+	 * in its support.
+	 */
+	public BinnedPeakList toPeakList() {
+		BinnedPeakList peaks = roundDistance ? 
+				new BinnedPeakList(new Normalizer()) :
+				new BinnedPeakList(new DummyNormalizer());
+		for (int i = 0; i < supportSize; i++)
+			peaks.addNoChecks(support[i], areas[support[i] - offset]);
+		return peaks;
+	}
+	
+	/**
+	 * Copies a peak list into the given arrays, growing them if needed, and
+	 * returns them; used to hand particles to getDistance and learn.
+	 */
+	public static int[] locationsOf(BinnedPeakList peaks, int[] into) {
+		int size = peaks.length();
+		if (into.length < size)
+			into = new int[Math.max(size, into.length * 2)];
+		for (int i = 0; i < size; i++)
+			into[i] = peaks.getLocationAtIndex(i);
+		return into;
+	}
+	
+	public static float[] areasOf(BinnedPeakList peaks, float[] into) {
+		int size = peaks.length();
+		if (into.length < size)
+			into = new float[Math.max(size, into.length * 2)];
+		for (int i = 0; i < size; i++)
+			into[i] = peaks.getAreaAtIndex(i);
+		return into;
+	}
+}
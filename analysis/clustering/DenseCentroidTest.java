@@ -0,0 +1,122 @@
+package analysis.clustering;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import analysis.BinnedPeakList;
+import analysis.DistanceMetric;
+import analysis.DummyNormalizer;
+import analysis.Normalizer;
+
+public class DenseCentroidTest extends TestCase {
+	private static final DistanceMetric[] METRICS = {
+		DistanceMetric.CITY_BLOCK, DistanceMetric.EUCLIDEAN_SQUARED,
+		DistanceMetric.DOT_PRODUCT };
+	
+	private Random random = new Random(42);
+	
+	private BinnedPeakList randomList(DistanceMetric metric) {
+		BinnedPeakList peaks = new BinnedPeakList(new Normalizer());
+		int count = 1 + random.nextInt(30);
+		for (int i = 0; i < count; i++)
+			peaks.add(random.nextInt(600) - 300, random.nextFloat() * 100);
+		peaks.posNegNormalize(metric);
+		return peaks;
+	}
+	
+	/**
+	 * The learning rate update the way Art2A used to do it, one location
+	 * at a time.
+	 */
+	private BinnedPeakList reference(BinnedPeakList particle, 
+			BinnedPeakList centroid, float learningRate, DistanceMetric metric) {
+		BinnedPeakList result = new BinnedPeakList(new Normalizer());
+		for (int i = 0; i < particle.length(); i++) {
+			int location = particle.getLocationAtIndex(i);
+			float area = centroid.getAreaAt(location);
+			result.addNoChecks(location, area + 
+					(particle.getAreaAtIndex(i) - area) * learningRate);
+		}
+		for (int i = 0; i < centroid.length(); i++) {
+			int location = centroid.getLocationAtIndex(i);
+			if (result.getAreaAt(location) == 0 && 
+					particle.getAreaAt(location) == 0) {
+				float area = centroid.getAreaAtIndex(i);
+				result.addNoChecks(location, area + (0 - area) * learningRate);
+			}
+		}
+		result.normalize(metric);
+		return result;
+	}
+	
+	private float distance(DenseCentroid centroid, BinnedPeakList particle,
+			DistanceMetric metric, float vigilance, float nearest) {
+		return centroid.getDistance(
+				DenseCentroid.locationsOf(particle, new int[0]),
+				DenseCentroid.areasOf(particle, new float[0]),
+				particle.length(), metric, vigilance, nearest);
+	}
+	
+	private void learn(DenseCentroid centroid, BinnedPeakList particle,
+			float learningRate, DistanceMetric metric) {
+		centroid.learn(DenseCentroid.locationsOf(particle, new int[0]),
+				DenseCentroid.areasOf(particle, new float[0]),
+				particle.length(), learningRate, true, metric);
+	}
+	
+	public void testMatchesPeakLists() {
+		for (DistanceMetric metric : METRICS) {
+			BinnedPeakList expected = randomList(metric);
+			DenseCentroid centroid = new DenseCentroid(expected, 1);
+			for (int step = 0; step < 50; step++) {
+				BinnedPeakList particle = randomList(metric);
+				assertEquals(expected.getDistance(particle, metric),
+						distance(centroid, particle, metric, 3, 4), 0f);
+				expected = reference(particle, expected, 0.05f, metric);
+				learn(centroid, particle, 0.05f, metric);
+				BinnedPeakList actual = centroid.toPeakList();
+				assertEquals(expected.length(), actual.length());
+				for (int i = 0; i < expected.length(); i++) {
+					assertEquals(expected.getLocationAtIndex(i), 
+							actual.getLocationAtIndex(i));
+					assertEquals(expected.getAreaAtIndex(i), 
+							actual.getAreaAtIndex(i), 0f);
+				}
+			}
+		}
+	}
+	
+	public void testGrowsToNewLocations() {
+		BinnedPeakList first = new BinnedPeakList(new DummyNormalizer());
+		first.add(10, 1f);
+		DenseCentroid centroid = new DenseCentroid(first, 1);
+		BinnedPeakList far = new BinnedPeakList(new DummyNormalizer());
+		far.add(-5000, 2f);
+		far.add(5000, 4f);
+		centroid.learn(DenseCentroid.locationsOf(far, new int[0]),
+				DenseCentroid.areasOf(far, new float[0]), far.length(), 
+				0.5f, false, DistanceMetric.CITY_BLOCK);
+		BinnedPeakList peaks = centroid.toPeakList();
+		assertEquals(3, peaks.length());
+		assertEquals(1f, peaks.getAreaAt(-5000), 0f);
+		assertEquals(0.5f, peaks.getAreaAt(10), 0f);
+		assertEquals(2f, peaks.getAreaAt(5000), 0f);
+	}
+	
+	public void testAbandonedDistanceIsNeverChosen() {
+		DistanceMetric metric = DistanceMetric.CITY_BLOCK;
+		for (int trial = 0; trial < 200; trial++) {
+			BinnedPeakList a = randomList(metric);
+			BinnedPeakList b = randomList(metric);
+			float exact = a.getDistance(b, metric);
+			float vigilance = random.nextFloat() * 2;
+			float nearest = random.nextFloat() * 2;
+			float pruned = distance(new DenseCentroid(a, 1), b, metric, 
+					vigilance, nearest);
+			boolean chosen = exact <= vigilance && exact < nearest;
+			assertEquals(chosen, pruned <= vigilance && pruned < nearest);
+			if (chosen)
+				assertEquals(exact, pruned, 0f);
+		}
+	}
+}
@@ -483,6 +483,29 @@ public class KMeansTest extends TestCase {
     	assertTrue(cluster2.getSubCollectionIDs().isEmpty());
     }
 
+    /**
+     * Tests to see what happens when we use k-means|| to generate the 
+     * initial centroids.
+     * @throws Exception
+     */
+    public void testKMeansParallel() throws Exception {
+    	setupStandardKmeans(ClusterK.KMEANS_PARALLEL_CENTROIDS);
+    	int collectionID = kmeans.cluster(false);
+    	
+    	assertEquals(7, collectionID);
+    	
+    	Collection cluster1 = db.getCollection(8);
+    	Collection cluster2 = db.getCollection(9);
+
+    	assertTrue(cluster1.containsData());
+    	assertEquals(7, cluster1.getParentCollection().getCollectionID());
+    	assertTrue(cluster2.containsData());
+    	assertEquals(7, cluster2.getParentCollection().getCollectionID());
+    	// every particle with peaks ends up in one of the two clusters
+    	assertEquals(4, cluster1.getParticleIDs().size() + 
+    			cluster2.getParticleIDs().size());
+    }
+
     /**
      * Sets up a KMeans object with coll id = 2, k = 2, name = "", comment = 
      * Test comment
@@ -45,6 +45,7 @@
 package analysis.clustering;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import analysis.*;
 import database.CollectionCursor;
@@ -94,6 +95,48 @@ public class KMedians extends ClusterK {
 			temp.posNegNormalize(distanceMetric);
 			medianThis.add(temp);
 		}
+		curs.close();
+		return medianOf(origCentroids, medianThis);
+	}
+	
+	/**
+	 * Finds the new centroid for every cluster at once, from the peak 
+	 * lists that were assigned to it during the pass, without going back
+	 * to the database.  The clusters are done in parallel on the 
+	 * assigner's threads.
+	 * @param origCentroids the centroids the particles were assigned to
+	 * @param members the pos/neg normalized peak lists of each centroid's
+	 * particles
+	 * @param assigner whose threads to use
+	 * @return the new centroids, in the same order
+	 */
+	public ArrayList<Centroid> medianCentroids(
+			final List<Centroid> origCentroids,
+			final List<ArrayList<BinnedPeakList>> members,
+			ParallelAssigner assigner)
+	{
+		List<Callable<Centroid>> tasks = 
+			new ArrayList<Callable<Centroid>>(origCentroids.size());
+		for (int i = 0; i < origCentroids.size(); i++) {
+			final int centroid = i;
+			tasks.add(new Callable<Centroid>() {
+				public Centroid call() {
+					return medianOf(origCentroids.get(centroid), 
+							members.get(centroid));
+				}
+			});
+		}
+		return new ArrayList<Centroid>(assigner.invokeAll(tasks));
+	}
+	
+	/**
+	 * @param origCentroids the centroid the particles belonged to
+	 * @param medianThis the particles' pos/neg normalized peak lists
+	 * @return the median of the peak lists, as a centroid with no members
+	 */
+	private Centroid medianOf(Centroid origCentroids,
+			ArrayList<BinnedPeakList> medianThis)
+	{
 		Centroid returnThis = null;
 		MedianFinder mf = null;
 		if (medianThis.size() == 0)
@@ -126,7 +169,6 @@ public class KMedians extends ClusterK {
 			returnThis = new Centroid(mf.getMedianSumToOne(),
 					0,origCentroids.subCollectionNum);
 		}
-		curs.close();
 		return returnThis;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,349 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's ParallelAssigner class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package analysis.clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+import ATOFMS.ParticleInfo;
+import analysis.BinnedPeakList;
+import analysis.DistanceMetric;
+import database.CollectionCursor;
+
+/**
+ * Does the assignment step of k-means/k-medians on several cores.
+ * 
+ * Particles are pulled off the cursor in batches (the cursor itself is
+ * not thread safe), and the batch is split across a fork-join pool to
+ * normalize each particle and find its nearest centroid.  The sums for the 
+ * new centroids are then built in parallel, one task per centroid, with
+ * each centroid adding its members in cursor order.  Since every float
+ * addition happens in the same order as it would on one thread, the 
+ * results are identical to the serial code no matter how many threads 
+ * are used.
+ * 
+ * With one thread nothing is handed to the pool at all.
+ */
+public class ParallelAssigner {
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	
+	// don't bother splitting up ranges smaller than this
+	private static final int SPLIT_THRESHOLD = 256;
+	
+	private final int numThreads;
+	private ForkJoinPool pool = null;
+	
+	/**
+	 * @param numThreads how many threads to use; less than one means
+	 * one per available processor.
+	 */
+	public ParallelAssigner(int numThreads) {
+		if (numThreads < 1)
+			numThreads = Runtime.getRuntime().availableProcessors();
+		this.numThreads = numThreads;
+	}
+	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	
+	/**
+	 * Reads the next batch of particles off the cursor.
+	 * @param curs the cursor to read from
+	 * @param batch where to put the particles
+	 * @return the number of particles read; less than batch.length means
+	 * the cursor is used up.
+	 */
+	public static int fillBatch(CollectionCursor curs, ParticleInfo[] batch) {
+		int count = 0;
+		while (count < batch.length && curs.next())
+			batch[count++] = curs.getCurrent();
+		return count;
+	}
+	
+	/**
+	 * Pos/neg normalizes each particle in the batch and finds its nearest
+	 * centroid.  Ties go to the lowest-numbered centroid, as in the serial
+	 * loop.
+	 * @param batch the particles
+	 * @param count how many of them to use
+	 * @param centroids the centroids, as built by 
+	 * Cluster.generateCentroidArrays
+	 * @param centroidMags the magnitude of each centroid
+	 * @param metric the distance metric
+	 * @param nearest filled in with the index of the nearest centroid
+	 * @param distances filled in with the distance to that centroid
+	 */
+	public void assign(ParticleInfo[] batch, int count,
+			List<float[]> centroids, float[] centroidMags,
+			DistanceMetric metric, int[] nearest, double[] distances) {
+		assign(batch, count, centroids, centroidMags, metric, nearest, 
+				distances, null, 0);
+	}
+	
+	/**
+	 * As above, but uses bounds to skip centroids that can't be the
+	 * nearest.  The answers are the same.
+	 * @param bounds the bounds to use and update, or null to compute every
+	 * distance
+	 * @param firstIndex the cursor position of batch[0]
+	 */
+	public void assign(final ParticleInfo[] batch, int count,
+			final List<float[]> centroids, final float[] centroidMags,
+			final DistanceMetric metric,
+			final int[] nearest, final double[] distances,
+			CentroidBounds bounds, int firstIndex) {
+		if (bounds != null)
+			bounds.ensureCapacity(firstIndex + count);
+		if (numThreads == 1 || count <= SPLIT_THRESHOLD) {
+			assignRange(batch, 0, count, centroids, centroidMags, metric,
+					nearest, distances, bounds, firstIndex);
+			return;
+		}
+		getPool().invoke(new AssignTask(batch, 0, count, centroids, 
+				centroidMags, metric, nearest, distances, bounds, firstIndex));
+	}
+	
+	private static void assignRange(ParticleInfo[] batch, int from, int to,
+			List<float[]> centroids, float[] centroidMags,
+			DistanceMetric metric, int[] nearest, double[] distances,
+			CentroidBounds bounds, int firstIndex) {
+		if (bounds != null) {
+			long[] tally = new long[2];
+			for (int i = from; i < to; i++) {
+				BinnedPeakList peakList = batch[i].getBinnedList();
+				peakList.posNegNormalize(metric);
+				nearest[i] = bounds.nearest(firstIndex + i, peakList, 
+						centroids, centroidMags, distances, i, tally);
+			}
+			bounds.addTally(tally);
+			return;
+		}
+		int k = centroids.size();
+		for (int i = from; i < to; i++) {
+			BinnedPeakList peakList = batch[i].getBinnedList();
+			peakList.posNegNormalize(metric);
+			double nearestDistance = Double.MAX_VALUE;
+			int nearestCentroid = -1;
+			for (int curCent = 0; curCent < k; curCent++) {
+				double distance = peakList.getDistance(centroids.get(curCent),
+						centroidMags[curCent], metric, Cluster.ARRAYOFFSET);
+				if (distance < nearestDistance) {
+					nearestCentroid = curCent;
+					nearestDistance = distance;
+				}
+			}
+			nearest[i] = nearestCentroid;
+			distances[i] = nearestDistance;
+		}
+	}
+	
+	/**
+	 * Adds each particle in the batch to the running sum for its centroid.
+	 * @param batch the particles
+	 * @param count how many of them to use
+	 * @param nearest the centroid each particle belongs to
+	 * @param sums the running sums, one per centroid
+	 */
+	public void accumulate(final ParticleInfo[] batch, int count, 
+			int[] nearest, final BinnedPeakList[] sums) {
+		int k = sums.length;
+		// Counting sort the batch by centroid, keeping cursor order within 
+		// each centroid.
+		final int[] starts = new int[k + 1];
+		for (int i = 0; i < count; i++)
+			starts[nearest[i] + 1]++;
+		for (int c = 0; c < k; c++)
+			starts[c + 1] += starts[c];
+		final int[] members = new int[count];
+		int[] next = starts.clone();
+		for (int i = 0; i < count; i++)
+			members[next[nearest[i]]++] = i;
+		
+		if (numThreads == 1 || count <= SPLIT_THRESHOLD) {
+			accumulateRange(batch, members, starts, sums, 0, k);
+			return;
+		}
+		getPool().invoke(new AccumulateTask(batch, members, starts, sums, 0, k));
+	}
+	
+	private static void accumulateRange(ParticleInfo[] batch, int[] members,
+			int[] starts, BinnedPeakList[] sums, int fromCentroid, 
+			int toCentroid) {
+		for (int c = fromCentroid; c < toCentroid; c++) {
+			for (int m = starts[c]; m < starts[c + 1]; m++)
+				sums[c].addAnotherParticle(batch[members[m]].getBinnedList());
+		}
+	}
+	
+	/**
+	 * Runs independent tasks on the pool, such as computing each 
+	 * centroid's new value, and waits for all of them.
+	 * @return the tasks' results, in the same order as the tasks
+	 */
+	public <T> List<T> invokeAll(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if (numThreads == 1 || tasks.size() < 2) {
+				for (Callable<T> task : tasks)
+					results.add(task.call());
+			}
+			else {
+				for (Future<T> result : getPool().invokeAll(tasks))
+					results.add(result.get());
+			}
+		} catch (ExecutionException e) {
+			throw unchecked(e.getCause());
+		} catch (Exception e) {
+			throw unchecked(e);
+		}
+		return results;
+	}
+	
+	private static RuntimeException unchecked(Throwable t) {
+		// the pool rethrows a copy of the task's exception that wraps the 
+		// original; pass on the original
+		if (t.getCause() != null && t.getCause().getClass() == t.getClass())
+			t = t.getCause();
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new RuntimeException(t);
+	}
+	
+	/**
+	 * Lets the pool's threads go.  The assigner can still be used
+	 * afterwards; a new pool is made if one is needed.
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+	
+	private ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(numThreads);
+		return pool;
+	}
+	
+	private static class AssignTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ParticleInfo[] batch;
+		private final int from, to;
+		private final List<float[]> centroids;
+		private final float[] centroidMags;
+		private final DistanceMetric metric;
+		private final int[] nearest;
+		private final double[] distances;
+		private final CentroidBounds bounds;
+		private final int firstIndex;
+		
+		AssignTask(ParticleInfo[] batch, int from, int to,
+				List<float[]> centroids, float[] centroidMags,
+				DistanceMetric metric, int[] nearest, double[] distances,
+				CentroidBounds bounds, int firstIndex) {
+			this.batch = batch;
+			this.from = from;
+			this.to = to;
+			this.centroids = centroids;
+			this.centroidMags = centroidMags;
+			this.metric = metric;
+			this.nearest = nearest;
+			this.distances = distances;
+			this.bounds = bounds;
+			this.firstIndex = firstIndex;
+		}
+		
+		protected void compute() {
+			if (to - from <= SPLIT_THRESHOLD) {
+				assignRange(batch, from, to, centroids, centroidMags, metric,
+						nearest, distances, bounds, firstIndex);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new AssignTask(batch, from, mid, centroids, 
+					centroidMags, metric, nearest, distances, bounds, 
+					firstIndex),
+					new AssignTask(batch, mid, to, centroids, 
+					centroidMags, metric, nearest, distances, bounds, 
+					firstIndex));
+		}
+	}
+	
+	private static class AccumulateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ParticleInfo[] batch;
+		private final int[] members, starts;
+		private final BinnedPeakList[] sums;
+		private final int fromCentroid, toCentroid;
+		
+		AccumulateTask(ParticleInfo[] batch, int[] members, int[] starts,
+				BinnedPeakList[] sums, int fromCentroid, int toCentroid) {
+			this.batch = batch;
+			this.members = members;
+			this.starts = starts;
+			this.sums = sums;
+			this.fromCentroid = fromCentroid;
+			this.toCentroid = toCentroid;
+		}
+		
+		protected void compute() {
+			if (toCentroid - fromCentroid <= 1) {
+				accumulateRange(batch, members, starts, sums, 
+						fromCentroid, toCentroid);
+				return;
+			}
+			int mid = (fromCentroid + toCentroid) >>> 1;
+			invokeAll(new AccumulateTask(batch, members, starts, sums, 
+					fromCentroid, mid),
+					new AccumulateTask(batch, members, starts, sums, 
+					mid, toCentroid));
+		}
+	}
+}
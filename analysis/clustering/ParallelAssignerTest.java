@@ -0,0 +1,136 @@
+package analysis.clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import ATOFMS.ParticleInfo;
+import analysis.BinnedPeakList;
+import analysis.DistanceMetric;
+import analysis.Normalizer;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the multi-threaded assignment step gives exactly what the
+ * single-threaded one does.
+ */
+public class ParallelAssignerTest extends TestCase {
+	private static final int NUM_PARTICLES = 3000;
+	private static final int K = 7;
+	
+	private ArrayList<Centroid> centroids;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(4321);
+		centroids = new ArrayList<Centroid>();
+		for (int c = 0; c < K; c++) {
+			BinnedPeakList peaks = makePeakList(random);
+			peaks.posNegNormalize(DistanceMetric.EUCLIDEAN_SQUARED);
+			centroids.add(new Centroid(peaks, 0));
+		}
+	}
+	
+	private BinnedPeakList makePeakList(Random random) {
+		BinnedPeakList peaks = new BinnedPeakList(new Normalizer());
+		int numPeaks = 1 + random.nextInt(30);
+		for (int p = 0; p < numPeaks; p++)
+			peaks.add(random.nextInt(600) - 300, random.nextFloat() * 1000);
+		return peaks;
+	}
+	
+	private ParticleInfo[] makeParticles() {
+		Random random = new Random(1234);
+		ParticleInfo[] batch = new ParticleInfo[NUM_PARTICLES];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = new ParticleInfo();
+			batch[i].setID(i + 1);
+			batch[i].setBinnedList(makePeakList(random));
+		}
+		return batch;
+	}
+	
+	public void testSameAsOneThread() {
+		DistanceMetric metric = DistanceMetric.EUCLIDEAN_SQUARED;
+		ArrayList<float[]> arrays = 
+			Cluster.generateCentroidArrays(centroids, Cluster.ARRAYOFFSET);
+		float[] mags = new float[K];
+		for (int c = 0; c < K; c++)
+			mags[c] = centroids.get(c).peaks.getMagnitude(metric);
+		
+		ParticleInfo[] serialBatch = makeParticles();
+		int[] serialNearest = new int[NUM_PARTICLES];
+		double[] serialDistances = new double[NUM_PARTICLES];
+		BinnedPeakList[] serialSums = new BinnedPeakList[K];
+		ParallelAssigner serial = new ParallelAssigner(1);
+		
+		ParticleInfo[] parallelBatch = makeParticles();
+		int[] parallelNearest = new int[NUM_PARTICLES];
+		double[] parallelDistances = new double[NUM_PARTICLES];
+		BinnedPeakList[] parallelSums = new BinnedPeakList[K];
+		ParallelAssigner parallel = new ParallelAssigner(4);
+		
+		for (int c = 0; c < K; c++) {
+			serialSums[c] = new BinnedPeakList();
+			parallelSums[c] = new BinnedPeakList();
+		}
+		
+		serial.assign(serialBatch, NUM_PARTICLES, arrays, mags, metric, 
+				serialNearest, serialDistances);
+		serial.accumulate(serialBatch, NUM_PARTICLES, serialNearest, serialSums);
+		parallel.assign(parallelBatch, NUM_PARTICLES, arrays, mags, metric, 
+				parallelNearest, parallelDistances);
+		parallel.accumulate(parallelBatch, NUM_PARTICLES, parallelNearest, 
+				parallelSums);
+		parallel.shutdown();
+		
+		for (int i = 0; i < NUM_PARTICLES; i++) {
+			assertEquals(serialNearest[i], parallelNearest[i]);
+			assertEquals(serialDistances[i], parallelDistances[i], 0.0);
+			assertTrue(parallelBatch[i].getBinnedList().isNormalized(metric));
+		}
+		for (int c = 0; c < K; c++) {
+			assertEquals(serialSums[c].length(), parallelSums[c].length());
+			assertEquals(serialSums[c].getPeaks(), parallelSums[c].getPeaks());
+		}
+		
+		// every centroid should have gotten somebody with this many particles
+		for (int c = 0; c < K; c++)
+			assertTrue(serialSums[c].length() > 0);
+	}
+	
+	public void testInvokeAll() {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 50; i++) {
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					return value * value;
+				}
+			});
+		}
+		for (int threads = 1; threads <= 4; threads += 3) {
+			ParallelAssigner assigner = new ParallelAssigner(threads);
+			List<Integer> results = assigner.invokeAll(tasks);
+			assertEquals(50, results.size());
+			for (int i = 0; i < 50; i++)
+				assertEquals(i * i, results.get(i).intValue());
+			assigner.shutdown();
+		}
+		
+		tasks.add(new Callable<Integer>() {
+			public Integer call() {
+				throw new IllegalStateException("bad centroid");
+			}
+		});
+		ParallelAssigner assigner = new ParallelAssigner(4);
+		try {
+			assigner.invokeAll(tasks);
+			fail("A task's exception was lost");
+		} catch (IllegalStateException e) {
+			assertEquals("bad centroid", e.getMessage());
+		}
+		assigner.shutdown();
+	}
+}
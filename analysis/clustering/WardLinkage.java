@@ -0,0 +1,258 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's WardLinkage class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package analysis.clustering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Ward's method agglomerative clustering over a condensed distance matrix,
+ * using the nearest-neighbour chain algorithm.
+ * 
+ * The matrix is the upper triangle of the full pairwise matrix packed into
+ * one float[], so n clusters take 2n(n-1) bytes and no objects per pair.
+ * Distances between merged clusters come from the Lance-Williams update
+ * for Ward's method, exactly as ClusterHierarchical always did it:
+ * 
+ * d(A+B, Q) = ((|A|+|Q|) d(A,Q) + (|B|+|Q|) d(B,Q) - |Q| d(A,B)) / (|A|+|B|+|Q|)
+ * 
+ * Ward's update is reducible (merging two clusters never brings the result 
+ * closer to anything than the closer of the two was), so following chains 
+ * of nearest neighbours until two clusters are each other's nearest finds 
+ * the same merges as always merging the closest pair, in O(n^2) time 
+ * instead of O(n^3).  The merges are handed back sorted by distance, which
+ * is the order the closest-pair approach finds them in.
+ */
+public class WardLinkage {
+	
+	/**
+	 * The most clusters we can handle; the condensed matrix has to fit in
+	 * one Java array.
+	 */
+	public static final int MAX_CLUSTERS = 65535;
+	
+	private final int n;
+	private final float[] distances;
+	private final int[] sizes;
+	
+	/**
+	 * Makes the matrix for n clusters, each of size 1.  Check 
+	 * bytesNeeded() first if n might be big.
+	 * @param n the number of clusters to start with
+	 */
+	public WardLinkage(int n) {
+		if (n > MAX_CLUSTERS)
+			throw new IllegalArgumentException("Can't cluster " + n 
+					+ " items hierarchically, the most is " + MAX_CLUSTERS);
+		this.n = n;
+		distances = new float[(int) ((long) n * (n - 1) / 2)];
+		sizes = new int[n];
+		for (int i = 0; i < n; i++)
+			sizes[i] = 1;
+	}
+	
+	/**
+	 * @return how much memory the matrix for n clusters takes, in bytes.
+	 */
+	public static long bytesNeeded(int n) {
+		return (long) n * (n - 1) / 2 * 4 + (long) n * 4 * 4;
+	}
+	
+	/**
+	 * @return the number of clusters we started with.
+	 */
+	public int getNumClusters() {
+		return n;
+	}
+	
+	private int index(int i, int j) {
+		if (i > j) {
+			int temp = i;
+			i = j;
+			j = temp;
+		}
+		// rows before i hold (n-1) + (n-2) + ... + (n-i) entries
+		return (int) ((long) i * (2 * n - i - 1) / 2) + (j - i - 1);
+	}
+	
+	public void setDistance(int i, int j, float distance) {
+		distances[index(i, j)] = distance;
+	}
+	
+	public float getDistance(int i, int j) {
+		return distances[index(i, j)];
+	}
+	
+	/**
+	 * Sets how many things are in cluster i to start with (for instance,
+	 * when clustering the results of an earlier clustering).  Ward's update 
+	 * weights by size.
+	 */
+	public void setSize(int i, int size) {
+		sizes[i] = size;
+	}
+	
+	/**
+	 * Merges everything down to one cluster.  This uses up the matrix.
+	 * @return the n-1 merges, in order of increasing distance
+	 */
+	public ArrayList<Merge> cluster() {
+		ArrayList<Merge> merges = new ArrayList<Merge>(Math.max(n - 1, 0));
+		boolean[] merged = new boolean[n];
+		// the sort key of the last merge that went into each cluster
+		float[] height = new float[n];
+		int[] chain = new int[n];
+		int chainLength = 0;
+		int firstActive = 0;
+		
+		while (merges.size() < n - 1) {
+			if (chainLength == 0) {
+				while (merged[firstActive])
+					firstActive++;
+				chain[chainLength++] = firstActive;
+			}
+			int a = chain[chainLength - 1];
+			int previous = chainLength > 1 ? chain[chainLength - 2] : -1;
+			
+			// find a's nearest neighbour.  If the one we came from is as 
+			// near as any, stick with it so the chain can't go in circles.
+			int b = previous;
+			float nearestDistance = 
+				previous >= 0 ? getDistance(a, previous) : Float.MAX_VALUE;
+			for (int q = 0; q < n; q++) {
+				if (q == a || merged[q])
+					continue;
+				float d = getDistance(a, q);
+				if (d < nearestDistance || b < 0) {
+					nearestDistance = d;
+					b = q;
+				}
+			}
+			
+			if (b != previous) {
+				chain[chainLength++] = b;
+				continue;
+			}
+			
+			// a and b are each other's nearest neighbours
+			chainLength -= 2;
+			int into = Math.max(a, b);
+			int from = Math.min(a, b);
+			merge(into, from, nearestDistance, merged);
+			// Ward's distances never shrink going up the tree, but rounding
+			// could make them look like they do.  Sorting on the height 
+			// keeps each merge behind the ones that made its clusters.
+			float mergeHeight = Math.max(nearestDistance, 
+					Math.max(height[into], height[from]));
+			height[into] = mergeHeight;
+			merges.add(new Merge(into, from, nearestDistance, mergeHeight));
+		}
+		
+		// Put the merges in the order that merging the closest pair each 
+		// time would have found them.  The sort is stable, so merges at
+		// the same height stay in the order they were found, children 
+		// first.
+		Collections.sort(merges);
+		return merges;
+	}
+	
+	/**
+	 * Merges cluster from into cluster into, updating into's distances.
+	 */
+	private void merge(int into, int from, float aToBDistance, 
+			boolean[] merged) {
+		int clusterASize = sizes[into];
+		int clusterBSize = sizes[from];
+		for (int q = 0; q < n; q++) {
+			if (q == into || q == from || merged[q])
+				continue;
+			int clusterQSize = sizes[q];
+			float aToQDistance = getDistance(into, q);
+			float bToQDistance = getDistance(from, q);
+			float distance = ((clusterASize + clusterQSize) * aToQDistance) / (clusterASize + clusterBSize + clusterQSize) + 
+				((clusterBSize + clusterQSize) * bToQDistance) / (clusterASize + clusterBSize + clusterQSize) - 
+				((clusterQSize) * aToBDistance) / (clusterASize + clusterBSize + clusterQSize);
+			setDistance(into, q, distance);
+		}
+		merged[from] = true;
+		sizes[into] = clusterASize + clusterBSize;
+	}
+	
+	/**
+	 * One step of the clustering: cluster from was merged into cluster 
+	 * into.  Clusters are numbered by their position in the input, and
+	 * a merged cluster keeps the number of the one it was merged into.
+	 */
+	public static class Merge implements Comparable<Merge> {
+		private final int into;
+		private final int from;
+		private final float distance;
+		private final float height;
+		
+		Merge(int into, int from, float distance, float height) {
+			this.into = into;
+			this.from = from;
+			this.distance = distance;
+			this.height = height;
+		}
+		
+		public int getInto() {
+			return into;
+		}
+		
+		public int getFrom() {
+			return from;
+		}
+		
+		public float getDistance() {
+			return distance;
+		}
+		
+		public int compareTo(Merge other) {
+			if (height < other.height)
+				return -1;
+			else if (height > other.height)
+				return 1;
+			return 0;
+		}
+	}
+}
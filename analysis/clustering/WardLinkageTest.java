@@ -0,0 +1,120 @@
+package analysis.clustering;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the nearest-neighbour chain against merging the closest pair
+ * each time.
+ */
+public class WardLinkageTest extends TestCase {
+	
+	public void testIndexing() {
+		WardLinkage linkage = new WardLinkage(5);
+		for (int i = 0; i < 5; i++)
+			for (int j = 0; j < i; j++)
+				linkage.setDistance(i, j, i * 10 + j);
+		for (int i = 0; i < 5; i++)
+			for (int j = 0; j < i; j++) {
+				assertEquals((float) (i * 10 + j), linkage.getDistance(i, j));
+				assertEquals((float) (i * 10 + j), linkage.getDistance(j, i));
+			}
+	}
+	
+	public void testTrivial() {
+		assertEquals(0, new WardLinkage(0).cluster().size());
+		assertEquals(0, new WardLinkage(1).cluster().size());
+		WardLinkage linkage = new WardLinkage(2);
+		linkage.setDistance(0, 1, 0.5f);
+		ArrayList<WardLinkage.Merge> merges = linkage.cluster();
+		assertEquals(1, merges.size());
+		assertEquals(1, merges.get(0).getInto());
+		assertEquals(0, merges.get(0).getFrom());
+		assertEquals(0.5f, merges.get(0).getDistance());
+	}
+	
+	public void testSameAsClosestPair() {
+		Random random = new Random(97);
+		for (int trial = 0; trial < 20; trial++) {
+			int n = 2 + random.nextInt(60);
+			float[][] points = new float[n][3];
+			int[] sizes = new int[n];
+			for (int i = 0; i < n; i++) {
+				for (int d = 0; d < 3; d++)
+					points[i][d] = random.nextFloat();
+				sizes[i] = 1 + random.nextInt(4);
+			}
+			float[][] matrix = new float[n][n];
+			WardLinkage linkage = new WardLinkage(n);
+			for (int i = 0; i < n; i++) {
+				linkage.setSize(i, sizes[i]);
+				for (int j = 0; j < i; j++) {
+					float d = 0;
+					for (int dim = 0; dim < 3; dim++)
+						d += Math.abs(points[i][dim] - points[j][dim]);
+					matrix[i][j] = matrix[j][i] = d;
+					linkage.setDistance(i, j, d);
+				}
+			}
+			
+			ArrayList<WardLinkage.Merge> merges = linkage.cluster();
+			assertEquals(n - 1, merges.size());
+			
+			// replay the merges as sets of original clusters, next to the
+			// closest-pair version
+			BitSet[] chainSets = singletons(n);
+			BitSet[] pairSets = singletons(n);
+			boolean[] gone = new boolean[n];
+			for (WardLinkage.Merge merge : merges) {
+				assertNotNull(chainSets[merge.getInto()]);
+				assertNotNull(chainSets[merge.getFrom()]);
+				BitSet chainMerged = chainSets[merge.getInto()];
+				chainMerged.or(chainSets[merge.getFrom()]);
+				chainSets[merge.getFrom()] = null;
+				
+				int bestA = -1, bestB = -1;
+				float best = Float.MAX_VALUE;
+				for (int a = 0; a < n; a++)
+					for (int b = 0; b < a; b++)
+						if (!gone[a] && !gone[b] && matrix[a][b] < best) {
+							best = matrix[a][b];
+							bestA = a;
+							bestB = b;
+						}
+				assertEquals(best, merge.getDistance(), 1e-5);
+				for (int q = 0; q < n; q++) {
+					if (gone[q] || q == bestA || q == bestB)
+						continue;
+					int total = sizes[bestA] + sizes[bestB] + sizes[q];
+					matrix[bestA][q] = matrix[q][bestA] = 
+						((sizes[bestA] + sizes[q]) * matrix[bestA][q]
+						+ (sizes[bestB] + sizes[q]) * matrix[bestB][q]
+						- sizes[q] * best) / total;
+				}
+				sizes[bestA] += sizes[bestB];
+				gone[bestB] = true;
+				pairSets[bestA].or(pairSets[bestB]);
+				
+				assertEquals(pairSets[bestA], chainMerged);
+			}
+		}
+	}
+	
+	private BitSet[] singletons(int n) {
+		BitSet[] sets = new BitSet[n];
+		for (int i = 0; i < n; i++) {
+			sets[i] = new BitSet();
+			sets[i].set(i);
+		}
+		return sets;
+	}
+	
+	public void testBytesNeeded() {
+		// 20000 clusters should take well under a gigabyte
+		assertTrue(WardLinkage.bytesNeeded(20000) < 1024L * 1024 * 1024);
+		assertTrue(WardLinkage.bytesNeeded(20000) > 20000L * 19999 * 2);
+	}
+}
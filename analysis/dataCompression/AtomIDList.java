@@ -0,0 +1,232 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's AtomIDList class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+
+package analysis.dataCompression;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The atom IDs of a cluster feature, kept as a plain int array instead of
+ * boxed Integers.  Once a SpillFile is given, the IDs can be pushed out to
+ * it with spill(); the list then only remembers where they went, and new
+ * IDs collect in memory until the next spill.  Joining two lists just 
+ * joins those references, so merging spilled cluster features doesn't 
+ * read anything back.
+ * 
+ * A list in too many pieces has its spilled IDs copied into one piece
+ * at its next spill.  The old pieces are left in the file, because other
+ * lists may share them; see SpillFile.
+ */
+public class AtomIDList {
+	// bytes for the object, its two arrays' headers and its fields
+	private static final long OVERHEAD = 80;
+	// a list spilled into this many pieces or more is rewritten as one
+	// piece, plus whatever was still in memory
+	private static final int MAX_SEGMENTS = 16;
+	
+	private int[] ids;
+	private int size;
+	// spilled pieces: where each starts in the file, and how many IDs
+	private long[] segmentStarts;
+	private int[] segmentLengths;
+	private int segments;
+	private int spilledSize;
+	private SpillFile file;
+	
+	public AtomIDList() {
+		ids = new int[2];
+	}
+	
+	public AtomIDList(ArrayList<Integer> list) {
+		ids = new int[Math.max(2, list.size())];
+		for (int id : list)
+			ids[size++] = id;
+	}
+	
+	public void add(int atomID) {
+		if (size == ids.length)
+			ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+		ids[size++] = atomID;
+	}
+	
+	/**
+	 * Appends all of other's IDs.  Spilled pieces are shared, not copied.
+	 */
+	public void addAll(AtomIDList other) {
+		if (other.segments > 0) {
+			if (file != null && file != other.file)
+				throw new IllegalArgumentException("Lists spilled to different files");
+			file = other.file;
+			for (int i = 0; i < other.segments; i++)
+				addSegment(other.segmentStarts[i], other.segmentLengths[i]);
+		}
+		if (size + other.size > ids.length)
+			ids = Arrays.copyOf(ids, Math.max(size + other.size, 2 * ids.length));
+		System.arraycopy(other.ids, 0, ids, size, other.size);
+		size += other.size;
+	}
+	
+	private void addSegment(long start, int length) {
+		if (segmentStarts == null) {
+			segmentStarts = new long[2];
+			segmentLengths = new int[2];
+		} else if (segments == segmentStarts.length) {
+			segmentStarts = Arrays.copyOf(segmentStarts, 2 * segments);
+			segmentLengths = Arrays.copyOf(segmentLengths, 2 * segments);
+		}
+		segmentStarts[segments] = start;
+		segmentLengths[segments] = length;
+		segments++;
+		spilledSize += length;
+	}
+	
+	/**
+	 * @return the number of IDs, spilled or not.
+	 */
+	public int size() {
+		return spilledSize + size;
+	}
+	
+	/**
+	 * @return how many of the IDs are still on the heap.
+	 */
+	public int inMemory() {
+		return size;
+	}
+	
+	/**
+	 * @return roughly how many bytes of heap this list takes up.
+	 */
+	public long getMemory() {
+		long memory = OVERHEAD + 4L * ids.length;
+		if (segmentStarts != null)
+			memory += 12L * segmentStarts.length;
+		return memory;
+	}
+	
+	/**
+	 * Writes the IDs held in memory out to the file, and lets go of them.
+	 * If the list is already in too many pieces, whether from spills or 
+	 * from addAll(), the spilled IDs are first copied into one piece.
+	 */
+	public void spill(SpillFile to) throws IOException {
+		if (file != null && file != to)
+			throw new IllegalArgumentException("List spilled to another file");
+		if (size == 0 && segments < MAX_SEGMENTS)
+			return;
+		file = to;
+		if (segments >= MAX_SEGMENTS) {
+			long start = file.copy(segmentStarts, segmentLengths, segments);
+			int length = spilledSize;
+			segments = 0;
+			spilledSize = 0;
+			segmentStarts = null;
+			segmentLengths = null;
+			addSegment(start, length);
+		}
+		if (size > 0) {
+			addSegment(file.append(ids, 0, size), size);
+			ids = new int[2];
+			size = 0;
+		}
+	}
+	
+	/**
+	 * @return all the IDs, spilled ones first, reading them back if needed.
+	 */
+	public int[] toArray() throws IOException {
+		int[] all = new int[size()];
+		int at = 0;
+		for (int i = 0; i < segments; i++) {
+			file.read(segmentStarts[i], all, at, segmentLengths[i]);
+			at += segmentLengths[i];
+		}
+		System.arraycopy(ids, 0, all, at, size);
+		return all;
+	}
+	
+	public ArrayList<Integer> toArrayList() throws IOException {
+		int[] all = toArray();
+		ArrayList<Integer> list = new ArrayList<Integer>(all.length);
+		for (int id : all)
+			list.add(id);
+		return list;
+	}
+	
+	/**
+	 * Writes the list so that read() can rebuild it.  Spilled pieces are 
+	 * written as references into the file, so that has to stay open.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(segments);
+		for (int i = 0; i < segments; i++) {
+			out.writeLong(segmentStarts[i]);
+			out.writeInt(segmentLengths[i]);
+		}
+		out.writeInt(size);
+		for (int i = 0; i < size; i++)
+			out.writeInt(ids[i]);
+	}
+	
+	public static AtomIDList read(DataInput in, SpillFile file) 
+	throws IOException {
+		AtomIDList list = new AtomIDList();
+		int segments = in.readInt();
+		if (segments > 0)
+			list.file = file;
+		for (int i = 0; i < segments; i++) {
+			long start = in.readLong();
+			list.addSegment(start, in.readInt());
+		}
+		int size = in.readInt();
+		list.ids = new int[Math.max(2, size)];
+		for (int i = 0; i < size; i++)
+			list.ids[i] = in.readInt();
+		list.size = size;
+		return list;
+	}
+}
@@ -0,0 +1,126 @@
+package analysis.dataCompression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+public class AtomIDListTest extends TestCase {
+	SpillFile file;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = new SpillFile();
+	}
+	
+	protected void tearDown() throws Exception {
+		file.close();
+		super.tearDown();
+	}
+	
+	private static AtomIDList range(int from, int to) {
+		AtomIDList list = new AtomIDList();
+		for (int i = from; i < to; i++)
+			list.add(i);
+		return list;
+	}
+	
+	private static void assertRange(int from, int to, int[] ids) {
+		assertEquals(to - from, ids.length);
+		for (int i = 0; i < ids.length; i++)
+			assertEquals(from + i, ids[i]);
+	}
+	
+	public void testAddAndArrayList() throws Exception {
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		ids.add(4);
+		ids.add(9);
+		AtomIDList list = new AtomIDList(ids);
+		list.add(12);
+		assertEquals(3, list.size());
+		assertEquals(3, list.inMemory());
+		ids.add(12);
+		assertEquals(ids, list.toArrayList());
+	}
+	
+	public void testSpill() throws Exception {
+		AtomIDList list = range(0, 100);
+		long before = list.getMemory();
+		list.spill(file);
+		assertEquals(100, list.size());
+		assertEquals(0, list.inMemory());
+		assertTrue(list.getMemory() < before);
+		list.add(100);
+		list.add(101);
+		assertRange(0, 102, list.toArray());
+		assertEquals(100 * 4, file.length());
+	}
+	
+	public void testAddAllSharesSpilledPieces() throws Exception {
+		AtomIDList a = range(0, 10);
+		AtomIDList b = range(10, 20);
+		a.spill(file);
+		b.spill(file);
+		b.add(20);
+		long length = file.length();
+		a.addAll(b);
+		assertEquals(length, file.length());
+		assertEquals(21, a.size());
+		assertEquals(1, a.inMemory());
+		assertRange(0, 21, a.toArray());
+		// b is untouched
+		assertRange(10, 21, b.toArray());
+	}
+	
+	public void testSpillCoalescesPieces() throws Exception {
+		AtomIDList list = new AtomIDList();
+		for (int i = 0; i < 40; i++) {
+			list.add(i);
+			list.spill(file);
+		}
+		assertRange(0, 40, list.toArray());
+		// once it's in too many pieces, the next spill rewrites it whole
+		assertTrue(list.getMemory() < range(0, 40).getMemory() + 12 * 32);
+	}
+	
+	public void testSpillCompactsJoinedLists() throws Exception {
+		// big enough pieces that copying them takes several buffers
+		AtomIDList list = new AtomIDList();
+		for (int i = 0; i < 20; i++) {
+			AtomIDList piece = range(5000 * i, 5000 * (i + 1));
+			piece.spill(file);
+			list.addAll(piece);
+		}
+		long length = file.length();
+		long joined = list.getMemory();
+		// nothing in memory, but too many pieces
+		assertEquals(0, list.inMemory());
+		list.spill(file);
+		assertTrue(list.getMemory() < joined);
+		assertEquals(length + 4 * 100000, file.length());
+		assertRange(0, 100000, list.toArray());
+		
+		// one piece now, so nothing more to do
+		list.spill(file);
+		assertEquals(length + 4 * 100000, file.length());
+		list.add(100000);
+		list.spill(file);
+		assertRange(0, 100001, list.toArray());
+	}
+	
+	public void testWriteAndRead() throws Exception {
+		AtomIDList list = range(0, 5);
+		list.spill(file);
+		list.add(5);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		list.write(new DataOutputStream(bytes));
+		AtomIDList read = AtomIDList.read(new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())), file);
+		assertEquals(6, read.size());
+		assertEquals(1, read.inMemory());
+		assertRange(0, 6, read.toArray());
+	}
+}
@@ -39,14 +39,20 @@
 
 package analysis.dataCompression;
 
-import java.sql.ResultSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 
 import collection.Collection;
+import errorframework.ErrorLogger;
 import ATOFMS.ParticleInfo;
 import analysis.*;
 import database.*;
@@ -82,19 +88,30 @@ public class BIRCH extends CompressData{
 	private int size;
 	private int numParticles;
 	/**
-	 * MEM_THRESHOLD is a new way of calculating memory predictably.  This threshold
-	 * should ultimately be the max threshold of the system that Enchilada is being
-	 * run on, but for now I manually set it to test smaller datasets.  I think, for example.
-	 * that running Tester works well if MEM_THRESHOLD = 1000.
+	 * memThreshold is how many bytes the tree may take up before its atom 
+	 * IDs are spilled to disk, and then before it is rebuilt with a larger
+	 * threshold.  The byte counts come from the CFs' own estimates of their
+	 * arrays, so they track the heap roughly, not exactly.  Defaults to a 
+	 * quarter of the heap.
 	 * 
 	 * This should be an advanced option that the user can change in the GUI.
-	 * 
-	 * memory is in bytes - janara
 	 */
-	//ThinkPad claims it has 1GB RAM - 1073741824 bytes
-	//1000 for test data, 150118 for i
-	//private final float MEM_THRESHOLD = 150000;
-	private final float MEM_THRESHOLD = 150000;
+	private long memThreshold = Runtime.getRuntime().maxMemory() / 4;
+	
+	// atom IDs moved out of the heap, shared by every CF in the tree
+	private SpillFile spill;
+	private boolean spillFailed = false;
+	
+	// leaf entries set aside as outliers when the tree was rebuilt
+	private File outlierFile;
+	private int outlierCount;
+	private DataOutputStream outlierOut;
+	// leaf entries with fewer particles than this are outliers
+	private int outlierLimit;
+	
+	// set once the tree can't shrink any further
+	private boolean memoryExhausted = false;
+	private int inserted;
 
 	public static long buildTime = 0;
 	
@@ -115,6 +132,17 @@ public class BIRCH extends CompressData{
 		System.out.println("numParticles = " + numParticles);
 	}
 	
+	/**
+	 * Sets how many bytes the tree may use before it is rebuilt.
+	 */
+	public void setMemoryThreshold(long bytes) {
+		memThreshold = bytes;
+	}
+	
+	public long getMemoryThreshold() {
+		return memThreshold;
+	}
+	
 	/**
 	 * Builds the tree in memory. Inserts the particles one at a time, 
 	 * increasing the threshold if we run out of memory.
@@ -137,10 +165,10 @@ public class BIRCH extends CompressData{
 			peakList = p.getBinnedList();
 			atomID = p.getID();
 			peakList.posNegNormalize(distanceMetric);//necessary?
-			System.out.println("inserting particle " + atomID);
 			assert!peakList.containsZeros():"zero present";
 			// insert the entry
 			changedNode = curTree.insertEntry(peakList, atomID);
+			inserted++;
 			// if it's possible to split the node, do so.
 			lastSplitNode = curTree.splitNodeIfPossible(changedNode);
 			// If there has been a split above the leaves, refine the split
@@ -148,8 +176,12 @@ public class BIRCH extends CompressData{
 					!changedNode.equals(lastSplitNode)) {
 				curTree.refineMerge(lastSplitNode);
 			}	
-			// if we have run out of memory, rebuild the tree.
-			if (curTree.getMemory()> MEM_THRESHOLD) {
+			// if we have run out of memory, first move the atom IDs out
+			// of the heap, and only rebuild if that isn't enough.
+			if (!memoryExhausted && curTree.getMemory() > memThreshold) {
+				spillAtomIDs();
+				if (curTree.getMemory() <= memThreshold)
+					continue;
 				
 				//tester stuff
 				buildEnd = new Date().getTime();
@@ -161,13 +193,17 @@ public class BIRCH extends CompressData{
 				/**
 				 * If there is only one leaf node, then that means that there is only
 				 * enough memory to clump all particles into one collection, therefore
-				 * making BIRCH pointless.
+				 * making BIRCH pointless.  Say so once, and stop rebuilding.
 				 */
 				if (curTree.threshold >= 2 && leafNum == 1) {
-					System.err.println("Out of memory at max threshold with 1 " +
-							"leaf in tree.\nAll points will be in the same leaf," +
-							" so the clustering is pointless.\nExiting.");
-					System.exit(0);
+					ErrorLogger.writeExceptionToLogAndPrompt("BIRCH", 
+							"Out of memory at the largest threshold with one " +
+							"leaf in the tree.  All the remaining particles " +
+							"will be in the same leaf, so the clustering " +
+							"won't be useful.");
+					memoryExhausted = true;
+					buildStart = new Date().getTime();
+					continue;
 				}
 				rebuildCount++;
 				System.out.println("OUT OF MEMORY @ "+ curTree.getMemory() + "\n");
@@ -176,7 +212,6 @@ public class BIRCH extends CompressData{
 				curTree.countNodes();
 				System.out.println("interval: " + buildTotal);
 				
-			//	System.exit(1);
 				System.out.println("*****************REBUILDING TREE*****************\n");
 			
 				//  rebuild tree.
@@ -191,21 +226,25 @@ public class BIRCH extends CompressData{
 				curTree.countNodes();
 			}
 		}	
+		// outliers that still don't fit anywhere become CFs of their own
+		// when the collection is written out.
+		if (outlierFile != null)
+			rescanOutliers(true);
+		curTree.assignLeaves();
+		
 		buildEnd = new Date().getTime();
 		realEnd = new Date().getTime();
 		buildTotal = buildTotal + (buildEnd-buildStart);
-		System.out.println("\nFINAL TREE:");
-		curTree.printTree();
 		
-		//make sure each particle was inserted, and that there are no duplicates
-		//just tester code
-		ArrayList<Integer> array = curTree.getArrayOfParticles();
-		array = sort(array);
-		for(int i = 1; i<array.size(); i++){
-			if( array.get(i) != (array.get(i-1) + 1))
-				System.out.println("OH NO--duplicate particle!");
-		}
-		System.out.println("array.size() "+ array.size());
+		//make sure each particle ended up in the tree or with the outliers
+		int[] counts = curTree.countNodesRecurse(curTree.root, 
+				new int[] {0,0,0,0,0});
+		if (counts[4] + countOutlierParticles() != inserted)
+			System.err.println("BIRCH lost track of particles: inserted " + 
+					inserted + ", tree has " + counts[4] + ", outliers " +
+					countOutlierParticles());
+		System.out.println("particles: " + counts[4] + " in tree, " + 
+				outlierCount + " outlier entries");
 		System.out.println("interval: " + (realEnd-realStart));
 		System.out.println("buildTotal : " + buildTotal);
 		System.out.println("rebuildtotal : " + rebuildTotal);
@@ -214,26 +253,25 @@ public class BIRCH extends CompressData{
 		System.out.println("Build time = " + buildTime);
 
 	}
+	
 	/**
-	 * Sorts an array of all the atom ids
-	 * just a tester method
+	 * Moves the atom IDs of the tree's leaf entries into the spill file.
+	 * If the file can't be used, they just stay in memory.
 	 */
-	public ArrayList<Integer> sort(ArrayList<Integer> array){
-		ArrayList<Integer> array2 = new ArrayList<Integer>();
-		int j = 0;
-		while(array.size()>0){
-			int min = array.get(0);
-			int pos = 0;
-			for(int i = 0; i<array.size(); i++){
-				if(array.get(i)<min){
-					min = array.get(i);
-					pos = i;
-				}
-			}
-			array2.add(min);
-			array.remove(pos);
+	private void spillAtomIDs() {
+		if (spillFailed)
+			return;
+		try {
+			if (spill == null)
+				spill = new SpillFile();
+			curTree.spillAtomIDs(spill);
+		} catch (IOException e) {
+			spillFailed = true;
+			ErrorLogger.writeExceptionToLogAndPrompt("BIRCH", 
+					"Couldn't write atom IDs to a temporary file; keeping " +
+					"them in memory instead.");
+			e.printStackTrace();
 		}
-		return array2;
 	}
 	/**
 	 * finds the next threshold needed to fit two times as
@@ -272,6 +310,11 @@ public class BIRCH extends CompressData{
 	 * Rebuilds the tree if we run out of memory.  Calls rebuildTreeRecurse,
 	 * then removes all the empty nodes in the new tree.  Sets the current
 	 * tree to the new one at the end of the method.
+	 * 
+	 * Leaf entries much smaller than the average are written to the 
+	 * outlier file instead of going into the new tree, and the outliers 
+	 * set aside by earlier rebuilds get absorbed if the new threshold 
+	 * lets them.
 	 */
 	public void rebuildTree() {
 		float t = 0;
@@ -287,6 +330,16 @@ public class BIRCH extends CompressData{
 
 		System.out.println("new THRESHOLD: " + curThreshold);
 		
+		// a quarter of the average leaf entry's count; below one, nothing
+		// is an outlier.
+		int[] counts = curTree.countNodesRecurse(curTree.root, 
+				new int[] {0,0,0,0,0});
+		outlierLimit = counts[2] == 0 ? 0 : counts[4] / counts[2] / 4;
+		File oldOutliers = outlierFile;
+		int oldCount = outlierCount;
+		if (outlierLimit > 1 || oldOutliers != null)
+			openOutliers();
+		
 		CFTree newTree = new CFTree(curThreshold, branchingFactor, distanceMetric);
 		newTree = rebuildTreeRecurse(newTree, newTree.root, curTree.root, null);
 		System.out.println("*** DONE REBUILDING ***");
@@ -316,6 +369,10 @@ public class BIRCH extends CompressData{
 		newTree.findTreeMemory(newTree.root, true);
 		curTree = newTree;
 		curTree.setSize(size);
+		
+		if (oldOutliers != null)
+			rescanOutliers(oldOutliers, oldCount, false);
+		closeOutliers();
 		System.out.println("end of rebuildTree(), threshold = " + curTree.getThreshold());
 	}
 	
@@ -340,26 +397,11 @@ public class BIRCH extends CompressData{
 				lastLeaf.nextLeaf = newCurNode;
 			
 			boolean reinserted;
-			/*for (int i = 0; i < oldCurNode.getSize(); i++) {
-				ClusterFeature thisCF = oldCurNode.getCFs().get(i);
-				//try to reinsert the cf
-				reinserted = newTree.reinsertEntry(thisCF);
-				//if reinserting it would have resulted in too many cfs for that node
-				if (!reinserted) {
-					//make a new cluster feature and add it to newCurNode
-					ClusterFeature newLeaf = new ClusterFeature(
-							newCurNode, thisCF.getCount(), thisCF.getSums(), 
-							thisCF.getSumOfSquares(), thisCF.getAtomIDs(),
-							thisCF.getMagnitude());				
-					newCurNode.addCF(newLeaf);
-					//update everything
-					newTree.updateNonSplitPath(newLeaf.curNode);
-					for (int j = 0; j < newLeaf.curNode.getCFs().size(); j++){
-						newLeaf.curNode.getCFs().get(j).updateCF();
-					}
-				}*/
 			for (int i = 0; i < oldCurNode.getSize(); i++) {
 				ClusterFeature thisCF = oldCurNode.getCFs().get(i);
+				//set small entries aside rather than letting them grow the tree
+				if (thisCF.getCount() < outlierLimit && writeOutlier(thisCF))
+					continue;
 				//try to reinsert the cf
 				reinserted = newTree.reinsertEntry(thisCF);
 				//if reinserting it would have resulted in too many cfs for that node
@@ -368,7 +410,7 @@ public class BIRCH extends CompressData{
 					ClusterFeature newLeaf = new ClusterFeature(
 							newCurNode, thisCF.getCount(), thisCF.getSums(), 
 							thisCF.getNonNormalizedSums(),
-							thisCF.getSumOfSquares(), thisCF.getAtomIDs(),
+							thisCF.getSumOfSquares(), thisCF.getAtomIDList(),
 							thisCF.getMagnitude());				
 					newCurNode.addCF(newLeaf);
 					//update everything
@@ -401,6 +443,175 @@ public class BIRCH extends CompressData{
 		oldCurNode = null;
 		return newTree;
 	}
+	
+	/**
+	 * Starts a new outlier file; the current one, if any, is left for 
+	 * rescanOutliers to read.
+	 */
+	private void openOutliers() {
+		try {
+			outlierFile = File.createTempFile("birch", ".outliers");
+			outlierFile.deleteOnExit();
+			outlierOut = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(outlierFile)));
+			outlierCount = 0;
+		} catch (IOException e) {
+			ErrorLogger.writeExceptionToLogAndPrompt("BIRCH", 
+					"Couldn't create a temporary file for outliers; " +
+					"keeping them in the tree instead.");
+			e.printStackTrace();
+			outlierFile = null;
+			outlierOut = null;
+			outlierCount = 0;
+		}
+	}
+	
+	private void closeOutliers() {
+		if (outlierOut == null)
+			return;
+		try {
+			outlierOut.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		outlierOut = null;
+	}
+	
+	/**
+	 * Writes a leaf entry to the outlier file.  Its spilled atom IDs are
+	 * written as references into the spill file.
+	 * @return false if there's no outlier file to write to.
+	 * @throws IllegalStateException if writing fails part way.
+	 */
+	private boolean writeOutlier(ClusterFeature cf) {
+		if (outlierOut == null)
+			return false;
+		try {
+			outlierOut.writeInt(cf.getCount());
+			outlierOut.writeFloat(cf.getSumOfSquares());
+			outlierOut.writeFloat(cf.getMagnitude());
+			writePeaks(outlierOut, cf.getSums());
+			writePeaks(outlierOut, cf.getNonNormalizedSums());
+			cf.getAtomIDList().write(outlierOut);
+			outlierCount++;
+			return true;
+		} catch (IOException e) {
+			// the outliers already written can't be trusted any more, 
+			// so there's no carrying on without losing particles.
+			ErrorLogger.writeExceptionToLogAndPrompt("BIRCH", 
+					"Couldn't write to the outlier file: " + e.getMessage());
+			e.printStackTrace();
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private ClusterFeature readOutlier(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		float squareSums = in.readFloat();
+		float magnitude = in.readFloat();
+		BinnedPeakList sums = readPeaks(in);
+		BinnedPeakList nonNormalized = readPeaks(in);
+		AtomIDList ids = AtomIDList.read(in, spill);
+		return new ClusterFeature(new CFNode(null, distanceMetric), count, 
+				sums, nonNormalized, squareSums, ids, magnitude);
+	}
+	
+	private static void writePeaks(DataOutputStream out, BinnedPeakList peaks) 
+	throws IOException {
+		out.writeInt(peaks.length());
+		for (int i = 0; i < peaks.length(); i++) {
+			out.writeInt(peaks.getLocationAtIndex(i));
+			out.writeFloat(peaks.getAreaAtIndex(i));
+		}
+	}
+	
+	private static BinnedPeakList readPeaks(DataInputStream in) 
+	throws IOException {
+		int size = in.readInt();
+		int[] locations = new int[size];
+		float[] areas = new float[size];
+		for (int i = 0; i < size; i++) {
+			locations[i] = in.readInt();
+			areas[i] = in.readFloat();
+		}
+		return new BinnedPeakList(new Normalizer(), locations, areas, size);
+	}
+	
+	/**
+	 * Gives the outliers set aside so far one last chance to join the tree,
+	 * either absorbed by an entry or added as a new one where that won't
+	 * split a node.  The rest stay in the outlier file.
+	 */
+	private void rescanOutliers(boolean last) {
+		File oldOutliers = outlierFile;
+		int oldCount = outlierCount;
+		openOutliers();
+		rescanOutliers(oldOutliers, oldCount, last);
+		closeOutliers();
+	}
+	
+	/**
+	 * Reads the outliers in the given file, lets the current tree absorb 
+	 * the ones within its threshold, and writes the rest to the current 
+	 * outlier file.  Deletes the given file.
+	 * @param last - whether outliers may also be added as new entries.
+	 */
+	private void rescanOutliers(File from, int count, boolean last) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(from)));
+			for (int i = 0; i < count; i++) {
+				ClusterFeature cf = readOutlier(in);
+				if (curTree.absorbEntry(cf))
+					continue;
+				if (last && curTree.reinsertEntry(cf))
+					continue;
+				if (!writeOutlier(cf))
+					throw new IOException("No outlier file to write to");
+			}
+		} catch (IOException e) {
+			ErrorLogger.writeExceptionToLogAndPrompt("BIRCH", 
+					"Couldn't read the outlier file: " + e.getMessage());
+			e.printStackTrace();
+			throw new IllegalStateException(e);
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			from.delete();
+		}
+	}
+	
+	/**
+	 * @return how many particles the outlier file holds.
+	 */
+	private int countOutlierParticles() {
+		int particles = 0;
+		if (outlierFile == null)
+			return 0;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(outlierFile)));
+			for (int i = 0; i < outlierCount; i++)
+				particles += readOutlier(in).getCount();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return particles;
+	}
+	
 	/**
 	 * @Override
 	 * 
@@ -422,13 +633,23 @@ public class BIRCH extends CompressData{
 	@Override
 	public void compress() {
 		long b = System.currentTimeMillis();
-		buildTree(0.0f);
-		System.out.println("Total time = " + (System.currentTimeMillis()-b));
-		System.out.println("Distance time = " + BinnedPeakList.distTime);
-		System.out.println();
-		curTree.countNodes();
-		System.out.println(curTree.getSize());
-		putCollectionInDB();
+		try {
+			buildTree(0.0f);
+			System.out.println("Total time = " + (System.currentTimeMillis()-b));
+			System.out.println("Distance time = " + BinnedPeakList.distTime);
+			System.out.println();
+			curTree.countNodes();
+			System.out.println(curTree.getSize());
+			putCollectionInDB();
+		} finally {
+			closeOutliers();
+			if (outlierFile != null)
+				outlierFile.delete();
+			outlierFile = null;
+			if (spill != null)
+				spill.close();
+			spill = null;
+		}
 	}
 
 	@Override
@@ -439,90 +660,78 @@ public class BIRCH extends CompressData{
 	 */
 	protected void putCollectionInDB() {	
 		// Create new collection and dataset:
-		ArrayList<ArrayList<Integer>> centroidList = new ArrayList<ArrayList<Integer>>();
-		String compressedParams = getDatasetParams(oldDatatype);
 		int[] IDs = db.createEmptyCollectionAndDataset(newDatatype,0,name,comment,""); 
 		int newCollectionID = IDs[0];
 		int newDatasetID = IDs[1];
 		
 		// insert each CF as a new atom.
-		int atomID;
 		Collection collection  = new Collection(newDatatype, newCollectionID, db);
+		ArrayList<String> denseNames = db.getColNames(newDatatype, DynamicTable.AtomInfoDense);
 		
 		CFNode leaf = curTree.getFirstLeaf();
 		ArrayList<ClusterFeature> curCF;
-		ArrayList<Integer> curIDs;
-		ArrayList<String> sparseArray = new ArrayList<String>();
-		ArrayList<Integer> cfAtomIDs;
 		// Enter the CFS of each leaf
 		while (leaf != null) {
 			curCF = leaf.getCFs();
-			for (int i = 0; i < curCF.size(); i++) {
-				cfAtomIDs = curCF.get(i).getAtomIDs();
-				centroidList.add(cfAtomIDs);
-				
-				atomID = db.getNextID();
-				
-				// create denseAtomInfo string.
-				String denseStr = "";
-				curIDs = curCF.get(i).getAtomIDs();
-				ArrayList<String> denseNames = db.getColNames(newDatatype, DynamicTable.AtomInfoDense);
-				
-				// start at 1 to skip AtomID column.
-				for (int j = 1; j < denseNames.size()-1; j++) {
-					denseStr += db.aggregateColumn(DynamicTable.AtomInfoDense,denseNames.get(j),curIDs,oldDatatype);
-					denseStr += ", ";
-				}
-				denseStr+=curCF.get(i).getCount();
-				
-				// create sparseAtomInfo string arraylist.
-				sparseArray = new ArrayList<String>();
-				Iterator iter = curCF.get(i).getSums().iterator();
-				while (iter.hasNext()) {
-					BinnedPeak p=(BinnedPeak) iter.next();
-					sparseArray.add(p.getKey() + "," + 
-							p.getValue() + "," + p.getValue() + 
-							"," + 0);
-				}				
-				
-				//insert particle
-				db.insertParticle(denseStr,sparseArray,collection,newDatasetID,atomID);
-			}
+			for (int i = 0; i < curCF.size(); i++)
+				insertCF(curCF.get(i), denseNames, collection, newDatasetID);
 			leaf=leaf.nextLeaf;
 		}
 		
-		ArrayList<String> list = new ArrayList<String>();
-		db.updateInternalAtomOrder(collection);
-
-		//This bit is for testing, all it does is prints out the 
-		//atomID and thefilename for all 
-		//atoms in each new clusterfeature, this is nice for when
-		//you use experimental data and you want to make sure each 
-		//clusterfeature contains only the particles derived from
-		//the same original particle
-		try {
-			Statement stmt = db.getCon().createStatement();
-
-			for (int i = 0; i<centroidList.size(); i++) {
-				
-				Integer j = new Integer(i);
-				System.out.println("Set: " + i);
-				for (int k = 0; k<centroidList.get(i).size(); k++) {
-					String query = "SELECT *\n" +
-					" FROM ATOFMSAtomInfoDense" +
-					" WHERE AtomID = " + centroidList.get(i).get(k);
-					ResultSet rs = stmt.executeQuery(query);
-					rs.next();
-					System.out.println("AtomID: " + centroidList.get(i).get(k) + " file: " + rs.getString(6));
-					
+		// and then the outliers that never fit in the tree
+		if (outlierFile != null) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(outlierFile)));
+				for (int i = 0; i < outlierCount; i++)
+					insertCF(readOutlier(in), denseNames, collection, 
+							newDatasetID);
+			} catch (IOException e) {
+				ErrorLogger.writeExceptionToLogAndPrompt("BIRCH", 
+						"Couldn't read the outlier file: " + e.getMessage());
+				e.printStackTrace();
+			} finally {
+				try {
+					if (in != null)
+						in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
 			}
-			stmt.close();
-		} catch (SQLException e) {
-			System.err.println("Exception creating the dataset entries:");
-			e.printStackTrace();
 		}
-
+		
+		db.updateInternalAtomOrder(collection);
 		System.out.println("Done inserting BIRCH into DB.");
 	}
+	
+	/**
+	 * Inserts one cluster feature as an atom of the compressed collection.
+	 */
+	private void insertCF(ClusterFeature cf, ArrayList<String> denseNames,
+			Collection collection, int datasetID) {
+		int atomID = db.getNextID();
+		
+		// create denseAtomInfo string.
+		String denseStr = "";
+		ArrayList<Integer> curIDs = cf.getAtomIDs();
+		
+		// start at 1 to skip AtomID column.
+		for (int j = 1; j < denseNames.size()-1; j++) {
+			denseStr += db.aggregateColumn(DynamicTable.AtomInfoDense,denseNames.get(j),curIDs,oldDatatype);
+			denseStr += ", ";
+		}
+		denseStr+=cf.getCount();
+		
+		// create sparseAtomInfo string arraylist.
+		ArrayList<String> sparseArray = new ArrayList<String>();
+		for (BinnedPeak p : cf.getSums()) {
+			sparseArray.add(p.getKey() + "," + 
+					p.getValue() + "," + p.getValue() + 
+					"," + 0);
+		}				
+		
+		//insert particle
+		db.insertParticle(denseStr,sparseArray,collection,datasetID,atomID);
+	}
 }
@@ -38,6 +38,7 @@
  * ***** END LICENSE BLOCK ***** */
 
 package analysis.dataCompression;
+import java.io.IOException;
 import java.util.ArrayList;
 import analysis.BinnedPeakList;
 import analysis.DistanceMetric;
@@ -168,11 +169,12 @@ public class CFTree {
 			return true;
 		}
 		Pair<ClusterFeature, Float> pair = findClosestLeafEntry(cf.getSums(), root);
-		ClusterFeature closestLeaf = pair.first;
+		ClusterFeature closestLeaf = pair == null ? null : pair.first;
 		if (closestLeaf==null) {
+			// nowhere to put it without a split; the caller adds it as a 
+			// new CF instead.
 			System.err.println("CLOSEST LEAF = NULL in CFTree");
-			System.err.println("Try increasing the memory threshold. Exiting.");
-			System.exit(0);
+			return false;
 		}
 			
 		ClusterFeature mergedCF;
@@ -202,6 +204,47 @@ public class CFTree {
 		return true;
 	}
 		
+	/**
+	 * Lets the closest leaf entry absorb the given CF if it's within the
+	 * threshold; used to give outliers another chance once the threshold
+	 * has grown.  Never adds a new entry.
+	 * @param cf - cluster feature to absorb
+	 * @return true if it was absorbed.
+	 */
+	public boolean absorbEntry(ClusterFeature cf) {
+		if (root.getSize() == 0)
+			return false;
+		Pair<ClusterFeature, Float> pair = findClosestLeafEntry(cf.getSums(), root);
+		if (pair == null || pair.second > threshold)
+			return false;
+		ClusterFeature closestLeaf = pair.first;
+		CFNode closestNode = closestLeaf.curNode;
+		memory-=closestNode.getMemory();
+		closestLeaf.absorbCF(cf);
+		memory+=closestNode.getMemory();
+		updateNonSplitPath(closestNode);
+		return true;
+	}
+	
+	/**
+	 * Spills the atom IDs of every leaf entry to the file and recomputes
+	 * the memory used.
+	 */
+	public void spillAtomIDs(SpillFile file) throws IOException {
+		spillAtomIDsRecurse(root, file);
+		findTreeMemory(root, true);
+	}
+	
+	private void spillAtomIDsRecurse(CFNode node, SpillFile file) 
+	throws IOException {
+		for (ClusterFeature cf : node.getCFs()) {
+			if (cf.child == null)
+				cf.spillAtomIDs(file);
+			else
+				spillAtomIDsRecurse(cf.child, file);
+		}
+	}
+	
 	/**
 	 * Returns the closest leaf entry to the given entry. Recursive.
 	 * @param entry - entry to compare to
@@ -524,10 +567,10 @@ public class CFTree {
 		nonNormalizedCB.copyBinnedPeakList(combinedb);
 		float magnitude = combinedb.posNegNormalize(dMetric);
 		
-		//new atomIDs for the new node
-		ArrayList<Integer> newAtomIds = new ArrayList<Integer>();
-		newAtomIds.addAll(entry.getAtomIDs());
-		newAtomIds.addAll(entryToMerge.getAtomIDs());
+		//new atomIDs for the new node; spilled ones stay spilled
+		AtomIDList newAtomIds = new AtomIDList();
+		newAtomIds.addAll(entry.getAtomIDList());
+		newAtomIds.addAll(entryToMerge.getAtomIDList());
 		
 		ClusterFeature returnThis = new ClusterFeature(
 				curNode,
@@ -874,9 +917,7 @@ public class CFTree {
 		while(node!=null) {
 			for(int i = 0; i<node.getCFs().size(); i++){
 				curCF = node.getCFs().get(i);
-				for(int j = 0; j< curCF.getAtomIDs().size(); j++){
-					array.add(curCF.getAtomIDs().get(j));
-				}
+				array.addAll(curCF.getAtomIDs());
 			}
 			node = node.nextLeaf;
 		}
@@ -40,6 +40,7 @@
 
 package analysis.dataCompression;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -72,9 +73,13 @@ public class ClusterFeature {
 	private float squareSums;
 	public CFNode child = null;
 	public CFNode curNode; //node it belongs to
-	private ArrayList<Integer> atomIDs;
+	// only leaf entries keep their atom IDs; an entry with a child would
+	// just be repeating its descendants'.
+	private AtomIDList atomIDs;
 	private DistanceMetric dMetric;
 	
+	// bytes for the object itself and its fields
+	private static final long OVERHEAD = 64;
 	private long memory=0;
 	
 	/**
@@ -89,7 +94,8 @@ public class ClusterFeature {
 		nonNormalizedSums.copyBinnedPeakList(sums);
 		squareSums = 0;
 		curNode = cur;
-		atomIDs = new ArrayList<Integer>();
+		atomIDs = new AtomIDList();
+		updateMemory();
 	}
 	/*public ClusterFeature(CFNode cur, DistanceMetric d) {
 		count = 0;
@@ -118,8 +124,8 @@ public class ClusterFeature {
 		nonNormalizedSums = new BinnedPeakList(new Normalizer());
 		nonNormalizedSums.copyBinnedPeakList(sums);
 		squareSums = s2;
-		atomIDs = ids;
-		memory=8*sums.length()+4*atomIDs.size();
+		atomIDs = new AtomIDList(ids);
+		updateMemory();
 	}
 	/*public ClusterFeature(CFNode cur, int c, BinnedPeakList s1, float s2,
 			ArrayList<Integer> ids) {
@@ -144,6 +150,21 @@ public class ClusterFeature {
 	 */
 	public ClusterFeature(CFNode cur, int c, BinnedPeakList s1, BinnedPeakList n, float s2,
 			ArrayList<Integer> ids, float mag) {
+		this(cur, c, s1, n, s2, new AtomIDList(ids), mag);
+	}
+	
+	/**
+	 * Constructor
+	 * @param cur - current node
+	 * @param c - count
+	 * @param s1 - sums peaklist
+	 * @param n - sums before being normalized
+	 * @param s2 - sum of sqaures
+	 * @param ids - atomids, which the new CF takes over
+	 * @param mag - magnitude
+	 */
+	public ClusterFeature(CFNode cur, int c, BinnedPeakList s1, BinnedPeakList n, float s2,
+			AtomIDList ids, float mag) {
 		curNode = cur;
 		dMetric = cur.dMetric;
 		count = c;
@@ -152,7 +173,7 @@ public class ClusterFeature {
 		nonNormalizedSums = n;
 		squareSums = s2;
 		atomIDs = ids;
-		memory=8*sums.length()+4*atomIDs.size();
+		updateMemory();
 	}
 	
 	/*public ClusterFeature(CFNode cur, int c, BinnedPeakList s1, float s2,
@@ -175,23 +196,20 @@ public class ClusterFeature {
 	public void updateCF(BinnedPeakList list, int atomID, boolean normalized) {
 		assert(normalized) : "BIRCH only tested for normalized data";
 		
-		int oldPeakListMem = 8*sums.length();
-		atomIDs.add(new Integer(atomID));
-		sums = nonNormalizedSums;
-		sums.addAnotherParticle(list);
-		nonNormalizedSums = new BinnedPeakList(new Normalizer());
-		nonNormalizedSums.copyBinnedPeakList(sums);
+		if (child == null)
+			atomIDs.add(atomID);
+		nonNormalizedSums.addAnotherParticle(list);
+		sums.copyBinnedPeakList(nonNormalizedSums);
 		count++;
 		magnitude = sums.posNegNormalize(dMetric);
 		// calculate the square sums.
-		Entry<Integer, Float> peak;
-		Iterator<Map.Entry<Integer, Float>> iterator = list.getPeaks().entrySet().iterator();
-		while (iterator.hasNext()) {
-			peak = iterator.next();
-			squareSums += peak.getValue()*peak.getValue();
+		float area;
+		for (int i = 0; i < list.length(); i++) {
+			area = list.getAreaAtIndex(i);
+			squareSums += area*area;
 		}
 		
-		memory+= (8*sums.length()-oldPeakListMem)+4;
+		updateMemory();
 	}
 	/*public void updateCF(BinnedPeakList list, int atomID, boolean normalized) {
 		assert(normalized) : "BIRCH only tested for normalized data";
@@ -228,7 +246,7 @@ public class ClusterFeature {
 					 testMag;
 			return false;
 		}
-		atomIDs = new ArrayList<Integer>();
+		atomIDs = new AtomIDList();
 		ArrayList<ClusterFeature> cfs = child.getCFs();
 		count = 0;
 		squareSums = 0;
@@ -238,7 +256,6 @@ public class ClusterFeature {
 			tempSums = cfs.get(i).getNonNormalizedSums().addWeightedToHash(tempSums, 1);
 			count += cfs.get(i).count;
 			squareSums += cfs.get(i).squareSums;
-			atomIDs.addAll(cfs.get(i).getAtomIDs());
 		}
 		// sped up by dmusican
 		sums = new BinnedPeakList(new Normalizer(),tempSums);
@@ -249,7 +266,7 @@ public class ClusterFeature {
 		nonNormalizedSums = new BinnedPeakList(new Normalizer());
 		nonNormalizedSums.copyBinnedPeakList(sums);
 		magnitude = sums.posNegNormalize(dMetric);
-		memory= 8*sums.length()+4*atomIDs.size();
+		updateMemory();
 		return true;
 	}
 	/*public boolean updateCF() {
@@ -340,10 +357,10 @@ public class ClusterFeature {
 		//System.out.print(delimiter+ "CF : ");
 		//System.out.println(delimiter+"CF magnitude: "+sums.getMagnitude(dMetric));
 		//System.out.println(delimiter+"CF Count: " + count);
-		Object[] atoms = (atomIDs.toArray());
+		Object[] atoms = (getAtomIDs().toArray());
 		Arrays.sort(atoms);
 		System.out.print(delimiter + "CF::: " + count +" (");
-		for (int i = 0; i < atomIDs.size(); i++) {
+		for (int i = 0; i < atoms.length; i++) {
 		//	System.out.print(atomIDs.get(i) + " ");
 			System.out.print(atoms[i] + " ");
 		}
@@ -386,12 +403,11 @@ public class ClusterFeature {
 	}
 	public void setSums(BinnedPeakList s) {
 		sums = s;
-		Iterator<Map.Entry<Integer, Float>> iterator = s.getPeaks().entrySet().iterator();
-		Entry<Integer, Float> peak;
+		float area;
 		squareSums = 0;
-		while (iterator.hasNext()) {
-			peak = iterator.next();
-			squareSums += peak.getValue()*peak.getValue();
+		for (int i = 0; i < s.length(); i++) {
+			area = s.getAreaAtIndex(i);
+			squareSums += area*area;
 		}
 	}
 	/**
@@ -410,23 +426,51 @@ public class ClusterFeature {
 		return squareSums;
 	}
 	
+	/**
+	 * @return the atom IDs, read back from the spill file if they've been
+	 * spilled.  Empty for entries that aren't leaves.
+	 */
 	public ArrayList<Integer> getAtomIDs() {
+		try {
+			return atomIDs.toArrayList();
+		} catch (IOException e) {
+			throw new IllegalStateException("Couldn't read spilled atom IDs", e);
+		}
+	}
+	
+	public AtomIDList getAtomIDList() {
 		return atomIDs;
 	}
 	
+	/**
+	 * Moves the atom IDs held in memory out to the file.
+	 */
+	public void spillAtomIDs(SpillFile file) throws IOException {
+		atomIDs.spill(file);
+		updateMemory();
+	}
+	
+	/**
+	 * @return roughly how many bytes of heap this CF takes up, counting
+	 * both peak lists and the atom IDs still in memory.
+	 */
 	public long getMemory(){
 		return memory;
 	}
 	
+	private void updateMemory() {
+		memory = OVERHEAD + sums.getMemory() + 
+			nonNormalizedSums.getMemory() + atomIDs.getMemory();
+	}
+	
 	public void absorbCF(ClusterFeature absorbed) {
-		sums = nonNormalizedSums;
-		sums.addAnotherParticle(absorbed.getNonNormalizedSums());
-		nonNormalizedSums= new BinnedPeakList(new Normalizer());
-		nonNormalizedSums.copyBinnedPeakList(sums);
+		nonNormalizedSums.addAnotherParticle(absorbed.getNonNormalizedSums());
+		sums.copyBinnedPeakList(nonNormalizedSums);
 		magnitude = sums.posNegNormalize(dMetric);
 		squareSums+=absorbed.getSumOfSquares();
 		count+=absorbed.getCount();
-		atomIDs.addAll(absorbed.getAtomIDs());
+		atomIDs.addAll(absorbed.atomIDs);
+		updateMemory();
 	}
 	/*public void absorbCF(ClusterFeature absorbed) {
 		sums.multiply(magnitude);
@@ -464,6 +508,7 @@ public class ClusterFeature {
 	}
 	public void setNonNormalizedSums(BinnedPeakList b) {
 		this.nonNormalizedSums = b;
+		updateMemory();
 	}
 	/**
 	 * Accessor method for magnitude
@@ -0,0 +1,167 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's SpillFile class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+
+package analysis.dataCompression;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A temporary local file that atom IDs can be pushed out to when the 
+ * CFTree needs the heap for its cluster features.  Blocks of ints are 
+ * appended and read back by position; nothing is ever overwritten.  The 
+ * file is deleted on close, or failing that when the JVM exits.
+ * 
+ * Blocks are never freed, since several AtomIDLists can refer to the same
+ * one, so the file only grows.  Besides each atom ID's first spill, it
+ * holds a copy for every time a list it's in was rewritten by copy().
+ */
+public class SpillFile {
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private long end = 0;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+	
+	public SpillFile() throws IOException {
+		file = File.createTempFile("birch", ".spill");
+		file.deleteOnExit();
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+	}
+	
+	/**
+	 * Writes len ints from ids, starting at off, to the end of the file.
+	 * @return the position to read them back from.
+	 */
+	public synchronized long append(int[] ids, int off, int len) 
+	throws IOException {
+		long position = end;
+		int done = 0;
+		while (done < len) {
+			buffer.clear();
+			int chunk = Math.min(len - done, buffer.capacity() / 4);
+			buffer.asIntBuffer().put(ids, off + done, chunk);
+			buffer.limit(chunk * 4);
+			while (buffer.hasRemaining())
+				end += channel.write(buffer, end);
+			done += chunk;
+		}
+		return position;
+	}
+	
+	/**
+	 * Reads len ints written at position into ids, starting at off.
+	 */
+	public synchronized void read(long position, int[] ids, int off, int len) 
+	throws IOException {
+		int done = 0;
+		while (done < len) {
+			buffer.clear();
+			int chunk = Math.min(len - done, buffer.capacity() / 4);
+			buffer.limit(chunk * 4);
+			long at = position + 4L * done;
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, at);
+				if (read < 0)
+					throw new IOException("Spill file ended early");
+				at += read;
+			}
+			buffer.flip();
+			IntBuffer ints = buffer.asIntBuffer();
+			ints.get(ids, off + done, chunk);
+			done += chunk;
+		}
+	}
+	
+	/**
+	 * Copies the blocks of ints at the given positions to the end of the
+	 * file, one after another, a buffer at a time rather than reading 
+	 * them onto the heap.  The old blocks stay where they are.
+	 * @return the position to read the copy back from.
+	 */
+	public synchronized long copy(long[] positions, int[] lengths, int count)
+	throws IOException {
+		long position = end;
+		for (int i = 0; i < count; i++) {
+			long from = positions[i];
+			long left = 4L * lengths[i];
+			while (left > 0) {
+				buffer.clear();
+				buffer.limit((int) Math.min(left, buffer.capacity()));
+				while (buffer.hasRemaining()) {
+					int read = channel.read(buffer, from);
+					if (read < 0)
+						throw new IOException("Spill file ended early");
+					from += read;
+					left -= read;
+				}
+				buffer.flip();
+				while (buffer.hasRemaining())
+					end += channel.write(buffer, end);
+			}
+		}
+		return position;
+	}
+	
+	/**
+	 * @return how many bytes have been written.
+	 */
+	public long length() {
+		return end;
+	}
+	
+	public void close() {
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		file.delete();
+	}
+}
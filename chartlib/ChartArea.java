@@ -20,6 +20,8 @@ import java.util.*;
  */
 public class ChartArea extends AbstractMetricChartArea {
 	protected ArrayList<Dataset> datasets;
+	// reused between repaints by drawDataLines
+	private MinMaxPyramid.Envelope envelope = null;
 	protected boolean drawXAxisAsDateTime;
 	protected int barWidth = 3;
 	
@@ -50,8 +52,9 @@ public class ChartArea extends AbstractMetricChartArea {
 	 * @param g2d
 	 */
 	protected void drawDataLines(Graphics2D g2d,Dataset dataset){
-			if(dataset == null) return;
+			if(dataset == null||dataset.isEmpty()) return;
 			Rectangle dataArea = getDataAreaBounds();
+			if (dataArea.width <= 0) return;
 			//setup
 			Shape oldClip = g2d.getClip();
 			Stroke oldStroke = g2d.getStroke();
@@ -59,65 +62,60 @@ public class ChartArea extends AbstractMetricChartArea {
 			g2d.clip(dataArea);	//constrains drawing to the data value
 			g2d.setStroke(new BasicStroke(1.5f));
 			
-			//Keep track of the last point, both in pixel units and in chart units
-			int lastXCoord = Integer.MIN_VALUE;
-			double lastXValue = Double.NEGATIVE_INFINITY;
-			double lastYCoord = -999.0;
-			int numPoints = 0;
-			//Iterate through the whole dataset because you need to draw lines 
-			// even if most of the line is off-screen (when you zoom in one one point
-			// there are still lines connecting it to its neighbors even if you can't
-			// see the neighbors)
+			// Rather than visiting every point, take the envelope of each
+			// pixel column from the dataset's pyramid: a vertical line from
+			// its lowest to its highest point, joined to the next column
+			// from its last point.  Lines still run off both edges to the
+			// nearest points outside the window.
+			MinMaxPyramid points = dataset.getPyramid();
+			envelope = points.envelope(xAxis.getMin(), xAxis.getMax(), 
+					dataArea.width, envelope);
 			
-			SortedSet<DataPoint> drawable = dataset.tailSet(new DataPoint(xAxis.getMin(), 0));
-			if(drawable.size()>0){
-				Iterator<DataPoint> iterator 
-				= drawable.iterator();
-			SortedSet<DataPoint> headSet = dataset.headSet(drawable.first());
-			DataPoint head = null;
-			if(headSet.size()> 0 ){
-				head = headSet.last();
+			boolean haveLast = false;
+			double lastXCoord = 0, lastYCoord = 0;
+			int head = envelope.from[0] - 1;
+			if (head >= 0 && points.getY(head) != MinMaxPyramid.MISSING) {
+				lastXCoord = dataArea.x + xAxis.relativePosition(points.getX(head)) 
+						* dataArea.width;
+				lastYCoord = yCoordinate(dataArea, points.getY(head));
+				haveLast = true;
 			}
-			
-			while(iterator.hasNext())
-			{
-				DataPoint curPoint = iterator.next();
-				
-				double x = curPoint.x, y = curPoint.y;
-				
-				//if you've finished the drawable points, stop
-				if((x >xAxis.getMax())&&(lastXValue >xAxis.getMax()))break;
-				
-				int xCoord = (int) (dataArea.x+xAxis.relativePosition(x) 
-						* dataArea.width);
-				double yCoord = (dataArea.y + dataArea.height 
-						- (yAxis.relativePosition(y) * dataArea.height));
-			
-				if(numPoints==0){
-					if(head!=null){
-					int headxCoord = (int) (dataArea.x+xAxis.relativePosition(head.x) 
-							* dataArea.width);
-					double headyCoord = (dataArea.y + dataArea.height 
-							- (yAxis.relativePosition(head.y) * dataArea.height));
-					g2d.draw(new Line2D.Double((double) headxCoord, headyCoord, (double) xCoord, yCoord));
-					}
-				}else
-				if(lastXCoord == xCoord){// &&lastYCoord == yCoord){
-					;
-				}else{
-					// draw the line if either the current point is within the bounds or the last point
-					// was within the bounds
-					// Note: for the last point you don't need to check the upper bounds because
-					// the loop should terminate.
-					//if((x >= xAxis.getMin()&&x <=xAxis.getMax())||(lastXValue >= xAxis.getMin()))
-							g2d.draw(new Line2D.Double((double) lastXCoord, lastYCoord, (double) xCoord, yCoord));
+			for (int c = 0; c < envelope.columns; c++) {
+				int from = envelope.from[c], to = envelope.to[c];
+				if (from == to)
+					continue;
+				// a gap breaks the line
+				if (envelope.gap[c]) {
+					haveLast = false;
+					continue;
+				}
+				double xCoord = dataArea.x + c;
+				double firstYCoord = yCoordinate(dataArea, points.getY(from));
+				if (haveLast)
+					g2d.draw(new Line2D.Double(lastXCoord, lastYCoord, xCoord, firstYCoord));
+				if (to - from > 1)
+					g2d.draw(new Line2D.Double(xCoord, 
+							yCoordinate(dataArea, envelope.min[c]), xCoord, 
+							yCoordinate(dataArea, envelope.max[c])));
+				else if (!haveLast) {
+					// Point is valid, but last point wasn't... so just draw a large point:
+					g2d.setStroke(new BasicStroke(2.5f));
+					g2d.draw(new Line2D.Double(xCoord, firstYCoord, xCoord, firstYCoord));
+					g2d.setStroke(new BasicStroke(1.5f));
 				}
-				numPoints++;
 				lastXCoord = xCoord;
-				lastYCoord = yCoord; // maybe get rid of
-				lastXValue= x;
+				lastYCoord = yCoordinate(dataArea, points.getY(to - 1));
+				haveLast = true;
 			}
+			int tail = envelope.to[envelope.columns - 1];
+			if (haveLast && tail < points.size() 
+					&& points.getY(tail) != MinMaxPyramid.MISSING) {
+				double xCoord = dataArea.x + xAxis.relativePosition(points.getX(tail)) 
+						* dataArea.width;
+				g2d.draw(new Line2D.Double(lastXCoord, lastYCoord, xCoord, 
+						yCoordinate(dataArea, points.getY(tail))));
 			}
+			
 			if (dataset.first().x < xAxis.getMin()) {
 				drawMorePointsIndicator(0, g2d);
 			}
@@ -125,12 +123,19 @@ public class ChartArea extends AbstractMetricChartArea {
 				drawMorePointsIndicator(1, g2d);
 			}
 			
-			
 			//cleanup
 			g2d.setClip(oldClip);
 			g2d.setStroke(oldStroke);
 			
 		}
+	
+	/**
+	 * @return the vertical pixel position of a y value.
+	 */
+	protected double yCoordinate(Rectangle dataArea, double y) {
+		return dataArea.y + dataArea.height 
+			- (yAxis.relativePosition(y) * dataArea.height);
+	}
 
 	/**
 	 * Draws the a (small) X for each data point per horizontal pixel.
@@ -141,45 +146,35 @@ public class ChartArea extends AbstractMetricChartArea {
 		if(dataset == null||dataset.isEmpty()) return;
 		Rectangle dataArea = getDataAreaBounds();
 		
-		boolean drawnMoreLeft = false, drawnMoreRight = false;
+		if (dataset.first().x < xAxis.getMin())
+			drawMorePointsIndicator(0, g2d);
+		if (dataset.last().x > xAxis.getMax())
+			drawMorePointsIndicator(1, g2d);
 		
-		int maxX = 0;
-		
-		//	loops through all data points, drawing each one as
-		//  a scatter plot...
-		Iterator<DataPoint> iterator = dataset.iterator();
-		while(iterator.hasNext())
-		{
-			DataPoint curPoint = iterator.next();
-			
-			double x = curPoint.x, y = curPoint.y;
-			double pointPos = xAxis.relativePosition(x);
-			if (pointPos < 0 && !drawnMoreLeft) {
-				drawnMoreLeft = true;
-				drawMorePointsIndicator(0, g2d);
+		//	loops through the points in the window, drawing each one as
+		//  a scatter plot... but only once per pixel, since more points
+		//  landing on the same pixel don't show.
+		MinMaxPyramid points = dataset.getPyramid();
+		int end = points.upperBound(xAxis.getMax());
+		boolean[] drawn = new boolean[Math.max(dataArea.height + 1, 1)];
+		int lastXCoord = Integer.MIN_VALUE;
+		for (int i = points.lowerBound(xAxis.getMin()); i < end; i++) {
+			int xCoord = (int) (dataArea.x + xAxis
+					.relativePosition(points.getX(i))
+					* dataArea.width);
+			double yCoord = yCoordinate(dataArea, points.getY(i));
+			if (xCoord != lastXCoord) {
+				java.util.Arrays.fill(drawn, false);
+				lastXCoord = xCoord;
 			}
-			else if (pointPos > 1 && !drawnMoreRight) {
-				drawnMoreRight = true;
-				drawMorePointsIndicator(1, g2d);
-			}else{
-				int xCoord = (int) (dataArea.x + xAxis
-						.relativePosition(curPoint.x)
-						* dataArea.width);
-				double yCoord = (dataArea.y + dataArea.height - (yAxis
-						.relativePosition(curPoint.y) * dataArea.height));
-				drawPoint(g2d, xCoord, yCoord);
+			int row = (int) yCoord - dataArea.y;
+			if (row >= 0 && row < drawn.length) {
+				if (drawn[row])
+					continue;
+				drawn[row] = true;
 			}
-			/*} else if (x < 0 && !drawnMoreLeft) {
-				drawnMoreLeft = true;
-				drawMorePointsIndicator(0, g2d);
-				// puts a null bar in the array to hold its place
-				// barsTemp[index] = null;
-			} else if (!drawnMoreRight) {
-				drawnMoreRight = true;
-				drawMorePointsIndicator(1, g2d);
-			}*/
+			drawPoint(g2d, xCoord, yCoord);
 		}
-		
 	}
 	
 	protected void drawPoint(Graphics2D g2d,double xCoord, double yCoord){
@@ -331,35 +326,22 @@ public class ChartArea extends AbstractMetricChartArea {
 	 * @return
 	 */
 	public double[][] findAllMinsMaxes(Dataset dataset) {
-		double xmin, ymin, xmax, ymax;	
-		xmin = ymin = Double.MAX_VALUE;
-		xmax = ymax = Double.MIN_VALUE;
-		DataPoint dp;
 		double[][] ret = new double[2][2];
-		ret[0][0] = 0;
-		ret[0][1] = 0;
-		ret[1][0] = 0;
-		ret[1][1] = 0;
-		if(dataset == null){
+		if(dataset == null || dataset.isEmpty()){
 			return ret;
 		}
 		
-		int size = dataset.size();
-		java.util.Iterator iterator = dataset.iterator();
-
-		while(iterator.hasNext())
-		{
-			dp = (DataPoint)(iterator.next());
-			if(dp.y < ymin) ymin = dp.y;
-			if(dp.y > ymax) ymax = dp.y;
-			if(dp.x < xmin) xmin = dp.x;
-			if(dp.x > xmax) xmax = dp.x;
-		}
+		MinMaxPyramid points = dataset.getPyramid();
+		double[] minMax = new double[2];
+		points.minMax(0, points.size(), minMax);
+		// nothing but gaps
+		if (minMax[0] > minMax[1])
+			minMax[0] = minMax[1] = MinMaxPyramid.MISSING;
 		
-		ret[0][0] = xmin;
-		ret[0][1] = xmax;
-		ret[1][0] = ymin;
-		ret[1][1] = ymax;
+		ret[0][0] = points.getX(0);
+		ret[0][1] = points.getX(points.size() - 1);
+		ret[1][0] = minMax[0];
+		ret[1][1] = minMax[1];
 		return ret;
 	}
 	
@@ -367,49 +349,25 @@ public class ChartArea extends AbstractMetricChartArea {
 	/**
 	 * Finds the minimum and maximum y values PRESERVING the current domain of x.
 	 * (Finds the range of the data for the current (restricted) domain.)
+	 * The nearest points on either side of the window count too, since 
+	 * lines are drawn to them.
 	 * @param dataset
 	 * @return
 	 */
 	public double[] findYMinMax(Dataset dataset) {
-		double xmin, ymin, xmax, lastXValue, ymax;	
-		xmin = ymin = Double.POSITIVE_INFINITY;
-		lastXValue = xmax = ymax = Double.NEGATIVE_INFINITY;
-		DataPoint dp;
-		
 		double[] ret = new double[2];
-		ret[0] = 0;
-		ret[1] = 0;
 		if(dataset == null){
 			return ret;
 		}
 		
-		int size = 0;
-		SortedSet<DataPoint> drawable = dataset.tailSet(new DataPoint(xAxis.getMin(), 0));
-		if(drawable.size()>0){
-		Iterator<DataPoint> iterator 
-			= drawable.iterator();
-		SortedSet<DataPoint> headSet = dataset.headSet(drawable.first());
-		DataPoint head = null;
-		if(headSet.size()> 0 ){
-			head = headSet.last();
-			ymax = ymin = head.y;
-			lastXValue = head.x;
-		}
-		
-		
-		while(iterator.hasNext())
-		{
-			dp = iterator.next();
-			if((dp.x >xAxis.getMax())&&(lastXValue >xAxis.getMax()))break;
-			if(dp.y < ymin) ymin = dp.y;
-			if(dp.y > ymax) ymax = dp.y;
-			size++;
-		}
-		}
-		if (size == 0) return null;
-		
-		ret[0] = ymin;
-		ret[1] = ymax;
+		MinMaxPyramid points = dataset.getPyramid();
+		int from = points.lowerBound(xAxis.getMin());
+		if (from == points.size())
+			return null;
+		int to = points.upperBound(xAxis.getMax());
+		points.minMax(Math.max(from - 1, 0), Math.min(to + 1, points.size()), ret);
+		if (ret[0] > ret[1])
+			return null;
 		return ret;
 	}
 	
@@ -53,8 +53,13 @@ import java.util.*;
  */
 public class Dataset extends TreeSet<DataPoint>
 {
-	private Statistics cachedStats = null;
-	private Dataset lastCorrelatedDataset = null;
+	// regressions against other datasets, each kept with the pyramids it
+	// was computed from so that a change to either set is noticed
+	private transient IdentityHashMap<Dataset, CachedStats> correlations;
+	private transient CachedStats selfCorrelation = null;
+	// the points as arrays, for drawing; rebuilt after the set changes.
+	// Changes made through iterators or subsets aren't noticed.
+	private transient MinMaxPyramid pyramid = null;
 	
 	/**
 	 * Empty dataset.
@@ -63,7 +68,6 @@ public class Dataset extends TreeSet<DataPoint>
 	public Dataset()
 	{
 		super();
-		lastCorrelatedDataset = null;
 	}
 	
 	/**
@@ -92,7 +96,55 @@ public class Dataset extends TreeSet<DataPoint>
 				|| Double.isNaN(y))
 			throw new IllegalArgumentException("Infinite or NaN Datapoint value.");
 	
-		return super.add(d);
+		boolean added = super.add(d);
+		if (added)
+			pyramid = null;
+		return added;
+	}
+	
+	public boolean addAll(java.util.Collection<? extends DataPoint> c) {
+		pyramid = null;
+		return super.addAll(c);
+	}
+	
+	public boolean remove(Object o) {
+		pyramid = null;
+		return super.remove(o);
+	}
+	
+	public boolean removeAll(java.util.Collection<?> c) {
+		pyramid = null;
+		return super.removeAll(c);
+	}
+	
+	public boolean retainAll(java.util.Collection<?> c) {
+		pyramid = null;
+		return super.retainAll(c);
+	}
+	
+	public DataPoint pollFirst() {
+		pyramid = null;
+		return super.pollFirst();
+	}
+	
+	public DataPoint pollLast() {
+		pyramid = null;
+		return super.pollLast();
+	}
+	
+	public void clear() {
+		pyramid = null;
+		super.clear();
+	}
+	
+	/**
+	 * @return the points as sorted arrays with a min/max pyramid over them,
+	 * built on first use and kept until the set changes.
+	 */
+	public synchronized MinMaxPyramid getPyramid() {
+		if (pyramid == null)
+			pyramid = MinMaxPyramid.of(this);
+		return pyramid;
 	}
 
 	
@@ -128,82 +180,81 @@ public class Dataset extends TreeSet<DataPoint>
 		return get(x, 1);
 	}
 
+	/**
+	 * Regresses dataset2's y values on this one's, matching points whose
+	 * x values are within 0.10 of each other.
+	 */
 	public Statistics getCorrelationStats(Dataset dataset2) {
-		if (lastCorrelatedDataset == dataset2)
-			return cachedStats;
-		
-		double sumxx = 0, sumxy = 0, sumyy = 0, sumx = 0, sumy = 0;
-		int numValidPoints = 0;
-		
-		Iterator<DataPoint> iterator = iterator();
-		while(iterator.hasNext())
-		{
-			DataPoint dpX = iterator.next();
-			DataPoint dpY = dataset2.get(dpX.x,0.10);
-			
-			if (dpY != null) {
-				numValidPoints++;
-				double x = dpX.y, y = dpY.y;
-				
-				sumx += x;
-				sumy += y;
-				sumxx += x * x;
-				sumxy += x * y;
-				sumyy += y * y;
-			}
+		return getCorrelationStats(dataset2, SeriesAligner.DEFAULT_TOLERANCE);
+	}
+	
+	/**
+	 * Regresses dataset2's y values on this one's, matching each point to
+	 * the first point of dataset2 within tolerance of its x value.  The
+	 * result is cached until either dataset changes.
+	 */
+	public Statistics getCorrelationStats(Dataset dataset2, double tolerance) {
+		Statistics stats = getCachedCorrelationStats(dataset2, tolerance);
+		if (stats != null)
+			return stats;
+		MinMaxPyramid mine = getPyramid(), theirs = dataset2.getPyramid();
+		stats = SeriesAligner.regress(mine, theirs, tolerance);
+		cacheCorrelationStats(dataset2, tolerance, mine, theirs, stats);
+		return stats;
+	}
+	
+	/**
+	 * @return the cached regression of other on this, or null if there 
+	 * isn't one or either dataset has changed since.
+	 */
+	Statistics getCachedCorrelationStats(Dataset other, double tolerance) {
+		CachedStats cached = null;
+		synchronized (this) {
+			if (correlations != null)
+				cached = correlations.get(other);
 		}
-
-		double Sxx = sumxx - (sumx * sumx / numValidPoints);
-		double Sxy = sumxy - (sumx * sumy / numValidPoints);
-		double Syy = sumyy - (sumy * sumy / numValidPoints);
-
-		Statistics ret = new Statistics();
-		ret.b = Sxy / Sxx;
-		ret.a = (sumy - ret.b * sumx) / numValidPoints;
-		ret.r2 = (Sxy * Sxy) / (Sxx * Syy);
-		
-		lastCorrelatedDataset = dataset2;
-		cachedStats = ret;
-		
-		return ret;
+		if (cached != null && cached.tolerance == tolerance
+				&& cached.mine == getPyramid() 
+				&& cached.theirs == other.getPyramid())
+			return cached.stats;
+		return null;
 	}
 	
-	public Statistics getCorrelationStats() {
-		if (lastCorrelatedDataset == this){
-			//System.out.println("skipping calculation");
-			return cachedStats;
+	void cacheCorrelationStats(Dataset other, double tolerance, 
+			MinMaxPyramid mine, MinMaxPyramid theirs, Statistics stats) {
+		synchronized (this) {
+			if (correlations == null)
+				correlations = new IdentityHashMap<Dataset, CachedStats>();
+			correlations.put(other, 
+					new CachedStats(tolerance, mine, theirs, stats));
 		}
+	}
+	
+	/**
+	 * Regresses this dataset's y values on its x values.
+	 */
+	public Statistics getCorrelationStats() {
+		MinMaxPyramid mine = getPyramid();
+		CachedStats cached = selfCorrelation;
+		if (cached != null && cached.mine == mine)
+			return cached.stats;
+		Statistics stats = SeriesAligner.regress(mine);
+		selfCorrelation = new CachedStats(0, mine, mine, stats);
+		return stats;
+	}
+	
+	private static class CachedStats {
+		final double tolerance;
+		final MinMaxPyramid mine, theirs;
+		final Statistics stats;
 		
-		double sumxx = 0, sumxy = 0, sumyy = 0, sumx = 0, sumy = 0;
-		int numValidPoints = 0;
-		
-		Iterator<DataPoint> iterator = iterator();
-		while(iterator.hasNext())
-		{
-			DataPoint point = iterator.next();
-				numValidPoints++;
-				double x = point.x, y = point.y;
-				
-				sumx += x;
-				sumy += y;
-				sumxx += x * x;
-				sumxy += x * y;
-				sumyy += y * y;
+		CachedStats(double tolerance, MinMaxPyramid mine, 
+				MinMaxPyramid theirs, Statistics stats) {
+			this.tolerance = tolerance;
+			this.mine = mine;
+			this.theirs = theirs;
+			this.stats = stats;
 		}
-
-		double Sxx = sumxx - (sumx * sumx / numValidPoints);
-		double Sxy = sumxy - (sumx * sumy / numValidPoints);
-		double Syy = sumyy - (sumy * sumy / numValidPoints);
-
-		Statistics ret = new Statistics();
-		ret.b = Sxy / Sxx;
-		ret.a = (sumy - ret.b * sumx) / numValidPoints;
-		ret.r2 = (Sxy * Sxy) / (Sxx * Syy);
-		
-		lastCorrelatedDataset = this;
-		cachedStats = ret;
-		//System.out.println("b: "+ret.b+"\ta: "+ret.a+"\tr^2: "+ret.r2+"\tnum points: "+numValidPoints);
-		return ret;
 	}
 	
 	public static class Statistics {
@@ -43,6 +43,27 @@ public class LinePointsChartArea extends ChartArea {
 		drawPointX(g2d,xCoord,yCoord);
 	}
 	
+	/**
+	 * Draws only the lowest and highest point in each pixel column; the
+	 * line drawn through the column covers the ones in between.
+	 */
+	@Override
+	protected void drawDataPoints(Graphics2D g2d, Dataset dataset) {
+		if (dataset == null || dataset.isEmpty()) return;
+		Rectangle dataArea = getDataAreaBounds();
+		if (dataArea.width <= 0) return;
+		MinMaxPyramid.Envelope envelope = dataset.getPyramid().envelope(
+				xAxis.getMin(), xAxis.getMax(), dataArea.width, null);
+		for (int c = 0; c < envelope.columns; c++) {
+			// empty, or nothing but gaps
+			if (envelope.min[c] > envelope.max[c])
+				continue;
+			drawPoint(g2d, dataArea.x + c, yCoordinate(dataArea, envelope.min[c]));
+			if (envelope.max[c] != envelope.min[c])
+				drawPoint(g2d, dataArea.x + c, yCoordinate(dataArea, envelope.max[c]));
+		}
+	}
+	
 	
 	
 	public void drawXAxisAsDateTime(){
@@ -0,0 +1,243 @@
+package chartlib;
+
+import java.util.Iterator;
+
+/**
+ * A Dataset's points in two sorted arrays, with the minimum and maximum y
+ * of every block of 8, 64, 512... points precomputed.  The min and max of
+ * any range of points then takes a few block lookups per level, so a chart
+ * can find what each pixel column covers in time that depends on its width
+ * rather than on how many points there are.
+ *
+ * Points with y == MISSING mark gaps in the data; they're left out of the
+ * minimums and maximums, and a line shouldn't be drawn across them.
+ *
+ * The pyramid is a snapshot; Dataset builds a new one after it changes.
+ */
+public class MinMaxPyramid {
+	/** The y value that marks a gap, as used by the line charts. */
+	public static final double MISSING = -999;
+
+	private static final int FANOUT = 8;
+
+	private final double[] x;
+	private final double[] y;
+	private final int size;
+	// mins[l] and maxes[l] cover blocks of FANOUT^(l+1) points
+	private final double[][] mins;
+	private final double[][] maxes;
+	// gapsBefore[i] is how many of the first i points are MISSING
+	private final int[] gapsBefore;
+
+	/**
+	 * Takes over the arrays.
+	 * @param x increasing
+	 * @param y the value at each x
+	 */
+	public MinMaxPyramid(double[] x, double[] y, int size) {
+		this.x = x;
+		this.y = y;
+		this.size = size;
+
+		gapsBefore = new int[size + 1];
+		for (int i = 0; i < size; i++)
+			gapsBefore[i + 1] = gapsBefore[i] + (y[i] == MISSING ? 1 : 0);
+
+		int levels = 0;
+		for (int n = size; n > FANOUT; n = (n + FANOUT - 1) / FANOUT)
+			levels++;
+		mins = new double[levels][];
+		maxes = new double[levels][];
+		double[] belowMin = y, belowMax = y;
+		int belowSize = size;
+		for (int l = 0; l < levels; l++) {
+			int n = (belowSize + FANOUT - 1) / FANOUT;
+			double[] min = new double[n];
+			double[] max = new double[n];
+			for (int b = 0; b < n; b++) {
+				double lo = Double.POSITIVE_INFINITY;
+				double hi = Double.NEGATIVE_INFINITY;
+				int end = Math.min(belowSize, (b + 1) * FANOUT);
+				for (int i = b * FANOUT; i < end; i++) {
+					if (l == 0 && belowMin[i] == MISSING)
+						continue;
+					if (belowMin[i] < lo) lo = belowMin[i];
+					if (belowMax[i] > hi) hi = belowMax[i];
+				}
+				min[b] = lo;
+				max[b] = hi;
+			}
+			mins[l] = min;
+			maxes[l] = max;
+			belowMin = min;
+			belowMax = max;
+			belowSize = n;
+		}
+	}
+
+	/**
+	 * Copies the points of an x-ordered collection, such as a Dataset.
+	 */
+	public static MinMaxPyramid of(java.util.Collection<DataPoint> points) {
+		double[] x = new double[points.size()];
+		double[] y = new double[points.size()];
+		int i = 0;
+		Iterator<DataPoint> iterator = points.iterator();
+		while (iterator.hasNext()) {
+			DataPoint p = iterator.next();
+			x[i] = p.x;
+			y[i] = p.y;
+			i++;
+		}
+		return new MinMaxPyramid(x, y, i);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	/**
+	 * @return the index of the first point with an x of at least value, or
+	 * size() if there is none.
+	 */
+	public int lowerBound(double value) {
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (x[mid] < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the index of the first point with an x greater than value, or
+	 * size() if there is none.
+	 */
+	public int upperBound(double value) {
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (x[mid] <= value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return whether any point from index from up to (not including) to
+	 * is MISSING.
+	 */
+	public boolean hasGap(int from, int to) {
+		return gapsBefore[to] > gapsBefore[from];
+	}
+
+	/**
+	 * Finds the smallest and largest y of the points from index from up to
+	 * (not including) to, leaving out MISSING ones.
+	 * @param minMax filled in with the two; infinities if there are none
+	 */
+	public void minMax(int from, int to, double[] minMax) {
+		double lo = Double.POSITIVE_INFINITY;
+		double hi = Double.NEGATIVE_INFINITY;
+		// trim the ends of the range at each level until the rest is
+		// whole blocks of the next level up
+		int level = -1;
+		while (from < to) {
+			double[] min = level < 0 ? y : mins[level];
+			double[] max = level < 0 ? y : maxes[level];
+			if (level == mins.length - 1 || to - from < 2 * FANOUT) {
+				for (int i = from; i < to; i++) {
+					if (level < 0 && y[i] == MISSING)
+						continue;
+					if (min[i] < lo) lo = min[i];
+					if (max[i] > hi) hi = max[i];
+				}
+				break;
+			}
+			for (; from % FANOUT != 0; from++) {
+				if (level < 0 && y[from] == MISSING)
+					continue;
+				if (min[from] < lo) lo = min[from];
+				if (max[from] > hi) hi = max[from];
+			}
+			for (; to % FANOUT != 0; to--) {
+				if (level < 0 && y[to - 1] == MISSING)
+					continue;
+				if (min[to - 1] < lo) lo = min[to - 1];
+				if (max[to - 1] > hi) hi = max[to - 1];
+			}
+			from /= FANOUT;
+			to /= FANOUT;
+			level++;
+		}
+		minMax[0] = lo;
+		minMax[1] = hi;
+	}
+
+	/**
+	 * What the points in each of a number of equal slices of an x range
+	 * look like: enough to draw them one pixel column per slice.
+	 */
+	public static class Envelope {
+		/** how many slices there are */
+		public int columns;
+		/** the index of the first point in each slice, and one past the last */
+		public int[] from, to;
+		/** the smallest and largest y in each slice, leaving out gaps */
+		public double[] min, max;
+		/** whether each slice holds a MISSING point */
+		public boolean[] gap;
+
+		private void ensureCapacity(int n) {
+			if (from == null || from.length < n) {
+				from = new int[n];
+				to = new int[n];
+				min = new double[n];
+				max = new double[n];
+				gap = new boolean[n];
+			}
+			columns = n;
+		}
+	}
+
+	/**
+	 * Splits xMin to xMax into columns equal slices; a point is in the
+	 * slice (int) ((x - xMin) / (xMax - xMin) * columns), and a point at
+	 * exactly xMax goes in the last one.
+	 * @param reuse an envelope to fill in, or null to make a new one
+	 * @return the envelope
+	 */
+	public Envelope envelope(double xMin, double xMax, int columns,
+			Envelope reuse) {
+		Envelope env = reuse == null ? new Envelope() : reuse;
+		env.ensureCapacity(columns);
+		double[] minMax = new double[2];
+		double width = (xMax - xMin) / columns;
+		int start = lowerBound(xMin);
+		for (int c = 0; c < columns; c++) {
+			int end = c == columns - 1 ? upperBound(xMax)
+					: Math.max(start, lowerBound(xMin + (c + 1) * width));
+			env.from[c] = start;
+			env.to[c] = end;
+			minMax(start, end, minMax);
+			env.min[c] = minMax[0];
+			env.max[c] = minMax[1];
+			env.gap[c] = hasGap(start, end);
+			start = end;
+		}
+		return env;
+	}
+}
@@ -0,0 +1,96 @@
+package chartlib;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class MinMaxPyramidTest extends TestCase {
+	private MinMaxPyramid pyramid;
+	private double[] y;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(11);
+		int n = 5000;
+		double[] x = new double[n];
+		y = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = i * 2;
+			y[i] = random.nextInt(1000) - 500;
+			if (random.nextInt(200) == 0)
+				y[i] = MinMaxPyramid.MISSING;
+		}
+		pyramid = new MinMaxPyramid(x, y.clone(), n);
+	}
+	
+	public void testMinMaxMatchesScan() {
+		Random random = new Random(5);
+		double[] minMax = new double[2];
+		for (int trial = 0; trial < 500; trial++) {
+			int from = random.nextInt(y.length);
+			int to = from + random.nextInt(y.length - from + 1);
+			double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+			boolean gap = false;
+			for (int i = from; i < to; i++) {
+				if (y[i] == MinMaxPyramid.MISSING) {
+					gap = true;
+					continue;
+				}
+				lo = Math.min(lo, y[i]);
+				hi = Math.max(hi, y[i]);
+			}
+			pyramid.minMax(from, to, minMax);
+			assertEquals(lo, minMax[0]);
+			assertEquals(hi, minMax[1]);
+			assertEquals(gap, pyramid.hasGap(from, to));
+		}
+	}
+	
+	public void testBounds() {
+		assertEquals(0, pyramid.lowerBound(-5));
+		assertEquals(3, pyramid.lowerBound(5));
+		assertEquals(3, pyramid.lowerBound(6));
+		assertEquals(4, pyramid.upperBound(6));
+		assertEquals(pyramid.size(), pyramid.upperBound(1e9));
+	}
+	
+	public void testEnvelope() {
+		// x runs 0, 2, 4...; ten columns of 20 cover x = 100 to 300
+		MinMaxPyramid.Envelope env = pyramid.envelope(100, 300, 10, null);
+		assertEquals(10, env.columns);
+		assertEquals(50, env.from[0]);
+		assertEquals(60, env.to[0]);
+		// x = 300 itself goes in the last column
+		assertEquals(151, env.to[9]);
+		double[] minMax = new double[2];
+		for (int c = 0; c < 10; c++) {
+			pyramid.minMax(env.from[c], env.to[c], minMax);
+			assertEquals(minMax[0], env.min[c]);
+			assertEquals(minMax[1], env.max[c]);
+			if (c > 0)
+				assertEquals(env.to[c - 1], env.from[c]);
+		}
+		// more columns than points: most are empty
+		env = pyramid.envelope(0, 10, 100, env);
+		int points = 0;
+		for (int c = 0; c < env.columns; c++)
+			points += env.to[c] - env.from[c];
+		assertEquals(6, points);
+	}
+	
+	public void testDatasetRebuildsAfterChange() {
+		Dataset d = new Dataset();
+		d.add(new DataPoint(1, 5));
+		d.add(new DataPoint(2, 7));
+		MinMaxPyramid first = d.getPyramid();
+		assertSame(first, d.getPyramid());
+		assertEquals(2, first.size());
+		
+		d.add(new DataPoint(3, 1));
+		assertEquals(3, d.getPyramid().size());
+		d.remove(new DataPoint(1, 0));
+		assertEquals(2.0, d.getPyramid().getX(0));
+		d.clear();
+		assertEquals(0, d.getPyramid().size());
+	}
+}
@@ -0,0 +1,176 @@
+package chartlib;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lines up the points of two series by x and regresses one's y values on
+ * the other's.  Both series are sorted, so matching is a single merge
+ * rather than a search per point.
+ */
+public class SeriesAligner {
+	/** The tolerance Dataset.getCorrelationStats has always used. */
+	public static final double DEFAULT_TOLERANCE = 0.10;
+
+	/**
+	 * For each point of a, finds the first point of b whose x is within
+	 * tolerance of it: at least x - tolerance, and less than x + tolerance.
+	 * @return for each point of a, the index of its match in b, or -1
+	 */
+	public static int[] align(MinMaxPyramid a, MinMaxPyramid b,
+			double tolerance) {
+		int[] match = new int[a.size()];
+		int j = 0;
+		for (int i = 0; i < a.size(); i++) {
+			double x = a.getX(i);
+			while (j < b.size() && b.getX(j) < x - tolerance)
+				j++;
+			match[i] = (j < b.size() && b.getX(j) < x + tolerance) ? j : -1;
+		}
+		return match;
+	}
+
+	/**
+	 * Regresses the y values of b on those of a, over the points that
+	 * align.
+	 */
+	public static Dataset.Statistics regress(MinMaxPyramid a,
+			MinMaxPyramid b, double tolerance) {
+		double sumxx = 0, sumxy = 0, sumyy = 0, sumx = 0, sumy = 0;
+		int numValidPoints = 0;
+		int j = 0;
+		for (int i = 0; i < a.size(); i++) {
+			double ax = a.getX(i);
+			while (j < b.size() && b.getX(j) < ax - tolerance)
+				j++;
+			if (j < b.size() && b.getX(j) < ax + tolerance) {
+				numValidPoints++;
+				double x = a.getY(i), y = b.getY(j);
+
+				sumx += x;
+				sumy += y;
+				sumxx += x * x;
+				sumxy += x * y;
+				sumyy += y * y;
+			}
+		}
+		return statistics(numValidPoints, sumx, sumy, sumxx, sumxy, sumyy);
+	}
+
+	/**
+	 * Regresses the y values of the points on their x values.
+	 */
+	public static Dataset.Statistics regress(MinMaxPyramid points) {
+		double sumxx = 0, sumxy = 0, sumyy = 0, sumx = 0, sumy = 0;
+		for (int i = 0; i < points.size(); i++) {
+			double x = points.getX(i), y = points.getY(i);
+
+			sumx += x;
+			sumy += y;
+			sumxx += x * x;
+			sumxy += x * y;
+			sumyy += y * y;
+		}
+		return statistics(points.size(), sumx, sumy, sumxx, sumxy, sumyy);
+	}
+
+	private static Dataset.Statistics statistics(int numValidPoints,
+			double sumx, double sumy, double sumxx, double sumxy,
+			double sumyy) {
+		double Sxx = sumxx - (sumx * sumx / numValidPoints);
+		double Sxy = sumxy - (sumx * sumy / numValidPoints);
+		double Syy = sumyy - (sumy * sumy / numValidPoints);
+
+		Dataset.Statistics ret = new Dataset.Statistics();
+		ret.b = Sxy / Sxx;
+		ret.a = (sumy - ret.b * sumx) / numValidPoints;
+		ret.r2 = (Sxy * Sxy) / (Sxx * Syy);
+		return ret;
+	}
+
+	/**
+	 * Regresses every series on every other, several pairs at a time.
+	 * @param numThreads how many threads to use; less than one means
+	 * one per available processor.
+	 * @return stats[i][j] is series j regressed on series i
+	 */
+	public static Dataset.Statistics[][] correlationMatrix(
+			MinMaxPyramid[] series, double tolerance, int numThreads) {
+		int n = series.length;
+		Dataset.Statistics[][] stats = new Dataset.Statistics[n][n];
+		regressMissing(series, stats, tolerance, numThreads);
+		return stats;
+	}
+
+	/**
+	 * As above, for Datasets.  Pairs already in the first dataset's cache
+	 * of statistics aren't computed again, and the rest are added to it.
+	 */
+	public static Dataset.Statistics[][] correlationMatrix(Dataset[] series,
+			double tolerance, int numThreads) {
+		int n = series.length;
+		Dataset.Statistics[][] stats = new Dataset.Statistics[n][n];
+		MinMaxPyramid[] pyramids = new MinMaxPyramid[n];
+		for (int i = 0; i < n; i++)
+			pyramids[i] = series[i].getPyramid();
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				stats[i][j] = series[i].getCachedCorrelationStats(
+						series[j], tolerance);
+		regressMissing(pyramids, stats, tolerance, numThreads);
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				series[i].cacheCorrelationStats(series[j], tolerance,
+						pyramids[i], pyramids[j], stats[i][j]);
+		return stats;
+	}
+
+	/**
+	 * Fills in the null entries of stats, spreading the pairs over a pool.
+	 */
+	private static void regressMissing(final MinMaxPyramid[] series,
+			final Dataset.Statistics[][] stats, final double tolerance,
+			int numThreads) {
+		final ArrayList<int[]> pairs = new ArrayList<int[]>();
+		for (int i = 0; i < series.length; i++)
+			for (int j = 0; j < series.length; j++)
+				if (stats[i][j] == null)
+					pairs.add(new int[] {i, j});
+		if (numThreads < 1)
+			numThreads = Runtime.getRuntime().availableProcessors();
+		numThreads = Math.min(numThreads, pairs.size());
+		if (numThreads <= 1) {
+			for (int[] p : pairs)
+				stats[p[0]][p[1]] = regress(series[p[0]], series[p[1]],
+						tolerance);
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final int[] p : pairs) {
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						stats[p[0]][p[1]] = regress(series[p[0]],
+								series[p[1]], tolerance);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> f : futures)
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
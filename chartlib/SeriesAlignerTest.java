@@ -0,0 +1,115 @@
+package chartlib;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SeriesAlignerTest extends TestCase {
+	private Dataset[] series;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(3);
+		series = new Dataset[4];
+		for (int s = 0; s < series.length; s++) {
+			series[s] = new Dataset();
+			for (int i = 0; i < 400; i++) {
+				if (random.nextInt(5) == 0)
+					continue;
+				// some points sit just off the grid, to exercise the tolerance
+				double x = i + (random.nextInt(4) == 0 ? 0.05 * s : 0);
+				series[s].add(new DataPoint(x, i * (s + 1) + random.nextGaussian() * 20));
+			}
+		}
+	}
+
+	/**
+	 * The regression the way Dataset used to do it, a search per point.
+	 */
+	private static Dataset.Statistics slowRegress(Dataset a, Dataset b) {
+		double sumxx = 0, sumxy = 0, sumyy = 0, sumx = 0, sumy = 0;
+		int n = 0;
+		Iterator<DataPoint> iterator = a.iterator();
+		while (iterator.hasNext()) {
+			DataPoint dpX = iterator.next();
+			DataPoint dpY = b.get(dpX.x, 0.10);
+			if (dpY != null) {
+				n++;
+				sumx += dpX.y;
+				sumy += dpY.y;
+				sumxx += dpX.y * dpX.y;
+				sumxy += dpX.y * dpY.y;
+				sumyy += dpY.y * dpY.y;
+			}
+		}
+		double Sxx = sumxx - (sumx * sumx / n);
+		double Sxy = sumxy - (sumx * sumy / n);
+		double Syy = sumyy - (sumy * sumy / n);
+		Dataset.Statistics ret = new Dataset.Statistics();
+		ret.b = Sxy / Sxx;
+		ret.a = (sumy - ret.b * sumx) / n;
+		ret.r2 = (Sxy * Sxy) / (Sxx * Syy);
+		return ret;
+	}
+
+	public void testMatchesSearchPerPoint() {
+		for (int i = 0; i < series.length; i++) {
+			for (int j = 0; j < series.length; j++) {
+				Dataset.Statistics slow = slowRegress(series[i], series[j]);
+				Dataset.Statistics fast = series[i].getCorrelationStats(series[j]);
+				assertEquals(slow.a, fast.a, 1e-9);
+				assertEquals(slow.b, fast.b, 1e-9);
+				assertEquals(slow.r2, fast.r2, 1e-9);
+			}
+		}
+	}
+
+	public void testMatrixMatchesPairs() {
+		Dataset.Statistics[][] stats = SeriesAligner.correlationMatrix(
+				series, SeriesAligner.DEFAULT_TOLERANCE, 3);
+		MinMaxPyramid[] pyramids = new MinMaxPyramid[series.length];
+		for (int i = 0; i < series.length; i++)
+			pyramids[i] = series[i].getPyramid();
+		Dataset.Statistics[][] plain = SeriesAligner.correlationMatrix(
+				pyramids, SeriesAligner.DEFAULT_TOLERANCE, 2);
+		for (int i = 0; i < series.length; i++) {
+			for (int j = 0; j < series.length; j++) {
+				Dataset.Statistics pair = slowRegress(series[i], series[j]);
+				assertEquals(pair.r2, stats[i][j].r2, 1e-9);
+				assertEquals(pair.r2, plain[i][j].r2, 1e-9);
+			}
+			assertEquals(1.0, stats[i][i].r2, 1e-9);
+		}
+	}
+
+	public void testCacheFollowsChanges() {
+		Dataset.Statistics first = series[0].getCorrelationStats(series[1]);
+		assertSame(first, series[0].getCorrelationStats(series[1]));
+		Dataset.Statistics[][] stats = SeriesAligner.correlationMatrix(
+				series, SeriesAligner.DEFAULT_TOLERANCE, 2);
+		assertSame(first, stats[0][1]);
+
+		series[1].add(new DataPoint(1000, 5));
+		Dataset.Statistics second = series[0].getCorrelationStats(series[1]);
+		assertNotSame(first, second);
+		assertEquals(slowRegress(series[0], series[1]).r2, second.r2, 1e-9);
+
+		Dataset.Statistics self = series[2].getCorrelationStats();
+		assertSame(self, series[2].getCorrelationStats());
+		series[2].add(new DataPoint(1000, 5));
+		assertNotSame(self, series[2].getCorrelationStats());
+	}
+
+	public void testAlign() {
+		MinMaxPyramid a = new MinMaxPyramid(new double[] {0, 1, 2, 3},
+				new double[] {0, 0, 0, 0}, 4);
+		MinMaxPyramid b = new MinMaxPyramid(new double[] {-0.1, 0.95, 1.05, 3.2},
+				new double[] {0, 0, 0, 0}, 4);
+		int[] match = SeriesAligner.align(a, b, 0.10);
+		assertEquals(0, match[0]);
+		assertEquals(1, match[1]);
+		assertEquals(-1, match[2]);
+		assertEquals(-1, match[3]);
+	}
+}
@@ -0,0 +1,420 @@
+package chartlib.hist;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of small non-negative ints, meant for the dense indexes
+ * (0, 1, 2...) that HistogramDataset gives the particles of a collection.
+ * <p>
+ * The ints are split into chunks of 65536 by their upper 16 bits, and each
+ * chunk that has anything in it gets a container for the lower 16 bits: a
+ * sorted array of chars while it holds up to 4096 of them, and a 65536-bit
+ * bitmap after that.  So a sparse bin costs about two bytes a particle
+ * instead of the twenty-odd of an ArrayList of Integers, and and() and or()
+ * work a chunk at a time rather than hashing every ID.
+ * <p>
+ * add() is fastest when ints come in increasing order, as they do while
+ * a collection is read.
+ */
+public class AtomBitmap {
+	// an array container that would grow past this becomes a bitmap, and
+	// and() and or() give arrays for chunks this small, except in toDense().
+	private static final int ARRAY_MAX = 4096;
+	private static final int BITMAP_WORDS = 1 << 10;
+
+	// upper 16 bits of each chunk, increasing
+	private char[] keys;
+	// char[] (sorted) or long[BITMAP_WORDS] for each chunk
+	private Object[] containers;
+	// how many ints each chunk holds
+	private int[] sizes;
+	private int chunks;
+	private int cardinality;
+
+	public AtomBitmap() {
+		keys = new char[1];
+		containers = new Object[1];
+		sizes = new int[1];
+	}
+
+	private AtomBitmap(int capacity) {
+		keys = new char[Math.max(1, capacity)];
+		containers = new Object[keys.length];
+		sizes = new int[keys.length];
+	}
+
+	/**
+	 * @return true if index wasn't in the set already.
+	 */
+	public boolean add(int index) {
+		if (index < 0)
+			throw new IllegalArgumentException("Negative index " + index);
+		char key = (char) (index >>> 16), low = (char) index;
+		int c = findChunk(key);
+		if (c < 0) {
+			c = -c - 1;
+			insertChunk(c, key, new char[4], 0);
+		}
+		boolean added;
+		if (containers[c] instanceof long[]) {
+			long[] bits = (long[]) containers[c];
+			long mask = 1L << low;
+			added = (bits[low >>> 6] & mask) == 0;
+			bits[low >>> 6] |= mask;
+		} else {
+			char[] array = (char[]) containers[c];
+			int size = sizes[c];
+			int at;
+			if (size == 0 || array[size - 1] < low)
+				at = size;
+			else {
+				at = Arrays.binarySearch(array, 0, size, low);
+				if (at >= 0)
+					return false;
+				at = -at - 1;
+			}
+			added = true;
+			if (size == ARRAY_MAX) {
+				long[] bits = toBits(array, size);
+				bits[low >>> 6] |= 1L << low;
+				containers[c] = bits;
+			} else {
+				if (size == array.length) {
+					array = Arrays.copyOf(array,
+							Math.min(ARRAY_MAX, size + (size >> 1) + 1));
+					containers[c] = array;
+				}
+				System.arraycopy(array, at, array, at + 1, size - at);
+				array[at] = low;
+			}
+		}
+		if (added) {
+			sizes[c]++;
+			cardinality++;
+		}
+		return added;
+	}
+
+	public boolean contains(int index) {
+		if (index < 0)
+			return false;
+		int c = findChunk((char) (index >>> 16));
+		if (c < 0)
+			return false;
+		char low = (char) index;
+		if (containers[c] instanceof long[])
+			return (((long[]) containers[c])[low >>> 6] & (1L << low)) != 0;
+		return Arrays.binarySearch((char[]) containers[c], 0, sizes[c], low) >= 0;
+	}
+
+	/**
+	 * @return how many ints are in the set.
+	 */
+	public int cardinality() {
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	/**
+	 * @return a new set of the ints in both this and that.
+	 */
+	public AtomBitmap and(AtomBitmap that) {
+		AtomBitmap result = new AtomBitmap(Math.min(chunks, that.chunks));
+		int i = 0, j = 0;
+		while (i < chunks && j < that.chunks) {
+			if (keys[i] < that.keys[j])
+				i++;
+			else if (keys[i] > that.keys[j])
+				j++;
+			else {
+				result.appendAnd(keys[i], containers[i], sizes[i],
+						that.containers[j], that.sizes[j]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new set of the ints in either this or that.
+	 */
+	public AtomBitmap or(AtomBitmap that) {
+		AtomBitmap result = new AtomBitmap(chunks + that.chunks);
+		int i = 0, j = 0;
+		while (i < chunks || j < that.chunks) {
+			if (j == that.chunks || i < chunks && keys[i] < that.keys[j]) {
+				result.appendCopy(keys[i], containers[i], sizes[i]);
+				i++;
+			} else if (i == chunks || keys[i] > that.keys[j]) {
+				result.appendCopy(that.keys[j], that.containers[j], that.sizes[j]);
+				j++;
+			} else {
+				result.appendOr(keys[i], containers[i], sizes[i],
+						that.containers[j], that.sizes[j]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a copy of the set that keeps every chunk as a bitmap, however
+	 * few ints it has.  It takes 8K a chunk, but and() with it costs one 
+	 * bit test per int of the other set, so it's worth making when one set
+	 * is to be and()ed with many.
+	 */
+	public AtomBitmap toDense() {
+		AtomBitmap dense = new AtomBitmap(chunks);
+		for (int c = 0; c < chunks; c++) {
+			long[] bits = containers[c] instanceof long[] 
+				? ((long[]) containers[c]).clone()
+				: toBits((char[]) containers[c], sizes[c]);
+			dense.insertChunk(c, keys[c], bits, sizes[c]);
+		}
+		return dense;
+	}
+
+	/**
+	 * @return the ints in the set, in increasing order.
+	 */
+	public int[] toArray() {
+		int[] all = new int[cardinality];
+		int at = 0;
+		for (int c = 0; c < chunks; c++) {
+			int high = keys[c] << 16;
+			if (containers[c] instanceof long[]) {
+				long[] bits = (long[]) containers[c];
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					long word = bits[w];
+					while (word != 0) {
+						all[at++] = high | (w << 6)
+							| Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			} else {
+				char[] array = (char[]) containers[c];
+				for (int k = 0; k < sizes[c]; k++)
+					all[at++] = high | array[k];
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * @return roughly how many bytes of heap the set takes up.
+	 */
+	public long getMemory() {
+		long memory = 64 + 16L * keys.length;
+		for (int c = 0; c < chunks; c++) {
+			if (containers[c] instanceof long[])
+				memory += 16 + 8 * BITMAP_WORDS;
+			else
+				memory += 16 + 2 * ((char[]) containers[c]).length;
+		}
+		return memory;
+	}
+
+	@Override
+	public boolean equals(Object thatObject) {
+		if (!(thatObject instanceof AtomBitmap))
+			return false;
+		AtomBitmap that = (AtomBitmap) thatObject;
+		if (cardinality != that.cardinality || chunks != that.chunks)
+			return false;
+		for (int c = 0; c < chunks; c++) {
+			if (keys[c] != that.keys[c] || sizes[c] != that.sizes[c])
+				return false;
+			Object a = containers[c], b = that.containers[c];
+			if (a instanceof long[] && b instanceof long[]) {
+				if (!Arrays.equals((long[]) a, (long[]) b))
+					return false;
+			} else if (a instanceof char[] && b instanceof char[]) {
+				char[] x = (char[]) a, y = (char[]) b;
+				for (int k = 0; k < sizes[c]; k++)
+					if (x[k] != y[k])
+						return false;
+			} else {
+				// same size, so equal if one holds all of the other
+				char[] array = (char[]) (a instanceof char[] ? a : b);
+				long[] bits = (long[]) (a instanceof char[] ? b : a);
+				for (int k = 0; k < sizes[c]; k++)
+					if ((bits[array[k] >>> 6] & (1L << array[k])) == 0)
+						return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = cardinality;
+		for (int c = 0; c < chunks; c++)
+			hash = 31 * hash + keys[c] * 65537 + sizes[c];
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return "AtomBitmap" + Arrays.toString(toArray());
+	}
+
+	private int findChunk(char key) {
+		// particles are added in order, so the last chunk is the usual one
+		if (chunks > 0 && keys[chunks - 1] == key)
+			return chunks - 1;
+		return Arrays.binarySearch(keys, 0, chunks, key);
+	}
+
+	private void insertChunk(int at, char key, Object container, int size) {
+		if (chunks == keys.length) {
+			int capacity = chunks + (chunks >> 1) + 1;
+			keys = Arrays.copyOf(keys, capacity);
+			containers = Arrays.copyOf(containers, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+		}
+		System.arraycopy(keys, at, keys, at + 1, chunks - at);
+		System.arraycopy(containers, at, containers, at + 1, chunks - at);
+		System.arraycopy(sizes, at, sizes, at + 1, chunks - at);
+		keys[at] = key;
+		containers[at] = container;
+		sizes[at] = size;
+		chunks++;
+		cardinality += size;
+	}
+
+	/**
+	 * Adds a chunk past all the others, as an array if it's small enough.
+	 */
+	private void append(char key, Object container, int size) {
+		if (size == 0)
+			return;
+		if (container instanceof long[] && size <= ARRAY_MAX)
+			container = toArray((long[]) container, size);
+		insertChunk(chunks, key, container, size);
+	}
+
+	private void appendCopy(char key, Object container, int size) {
+		if (container instanceof long[])
+			append(key, ((long[]) container).clone(), size);
+		else
+			append(key, Arrays.copyOf((char[]) container, size), size);
+	}
+
+	private void appendAnd(char key, Object a, int aSize, Object b, int bSize) {
+		if (a instanceof long[] && b instanceof long[]) {
+			long[] x = (long[]) a, y = (long[]) b, bits = new long[BITMAP_WORDS];
+			int size = 0;
+			for (int w = 0; w < BITMAP_WORDS; w++) {
+				bits[w] = x[w] & y[w];
+				size += Long.bitCount(bits[w]);
+			}
+			append(key, bits, size);
+		} else if (a instanceof long[] || b instanceof long[]) {
+			long[] bits = (long[]) (a instanceof long[] ? a : b);
+			char[] array = (char[]) (a instanceof long[] ? b : a);
+			int arraySize = a instanceof long[] ? bSize : aSize;
+			char[] out = new char[arraySize];
+			int size = 0;
+			for (int k = 0; k < arraySize; k++)
+				if ((bits[array[k] >>> 6] & (1L << array[k])) != 0)
+					out[size++] = array[k];
+			append(key, out, size);
+		} else {
+			char[] x = (char[]) a, y = (char[]) b;
+			char[] out = new char[Math.min(aSize, bSize)];
+			int i = 0, j = 0, size = 0;
+			if (aSize > 16 * bSize || bSize > 16 * aSize) {
+				// one is much smaller: look each of its ints up in the other
+				char[] small = aSize < bSize ? x : y, large = aSize < bSize ? y : x;
+				int smallSize = Math.min(aSize, bSize);
+				int largeSize = Math.max(aSize, bSize);
+				for (int k = 0; k < smallSize && j < largeSize; k++) {
+					int found = Arrays.binarySearch(large, j, largeSize, small[k]);
+					if (found >= 0) {
+						out[size++] = small[k];
+						j = found + 1;
+					} else
+						j = -found - 1;
+				}
+				append(key, out, size);
+				return;
+			}
+			while (i < aSize && j < bSize) {
+				if (x[i] < y[j])
+					i++;
+				else if (x[i] > y[j])
+					j++;
+				else {
+					out[size++] = x[i];
+					i++;
+					j++;
+				}
+			}
+			append(key, out, size);
+		}
+	}
+
+	private void appendOr(char key, Object a, int aSize, Object b, int bSize) {
+		if (a instanceof char[] && b instanceof char[]
+				&& aSize + bSize <= ARRAY_MAX) {
+			char[] x = (char[]) a, y = (char[]) b;
+			char[] out = new char[aSize + bSize];
+			int i = 0, j = 0, size = 0;
+			while (i < aSize || j < bSize) {
+				if (j == bSize || i < aSize && x[i] < y[j])
+					out[size++] = x[i++];
+				else if (i == aSize || x[i] > y[j])
+					out[size++] = y[j++];
+				else {
+					out[size++] = x[i];
+					i++;
+					j++;
+				}
+			}
+			append(key, out, size);
+			return;
+		}
+		long[] bits = a instanceof long[] ? ((long[]) a).clone()
+				: toBits((char[]) a, aSize);
+		if (b instanceof long[]) {
+			long[] y = (long[]) b;
+			for (int w = 0; w < BITMAP_WORDS; w++)
+				bits[w] |= y[w];
+		} else {
+			char[] y = (char[]) b;
+			for (int k = 0; k < bSize; k++)
+				bits[y[k] >>> 6] |= 1L << y[k];
+		}
+		int size = 0;
+		for (int w = 0; w < BITMAP_WORDS; w++)
+			size += Long.bitCount(bits[w]);
+		append(key, bits, size);
+	}
+
+	private static long[] toBits(char[] array, int size) {
+		long[] bits = new long[BITMAP_WORDS];
+		for (int k = 0; k < size; k++)
+			bits[array[k] >>> 6] |= 1L << array[k];
+		return bits;
+	}
+
+	private static char[] toArray(long[] bits, int size) {
+		char[] array = new char[size];
+		int at = 0;
+		for (int w = 0; w < BITMAP_WORDS; w++) {
+			long word = bits[w];
+			while (word != 0) {
+				array[at++] = (char) ((w << 6)
+						| Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return array;
+	}
+}
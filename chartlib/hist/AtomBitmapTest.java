@@ -0,0 +1,98 @@
+package chartlib.hist;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class AtomBitmapTest extends TestCase {
+	private Random random = new Random(17);
+
+	/**
+	 * Makes a bitmap and a TreeSet with the same contents.  Some stretches
+	 * are dense enough to need bitmap containers, some sparse.
+	 */
+	private AtomBitmap make(TreeSet<Integer> expected, int n, int range) {
+		AtomBitmap bitmap = new AtomBitmap();
+		for (int i = 0; i < n; i++) {
+			int index;
+			if (random.nextBoolean())
+				index = random.nextInt(range);
+			else
+				index = 65536 + random.nextInt(6000);
+			assertEquals(expected.add(index), bitmap.add(index));
+		}
+		return bitmap;
+	}
+
+	private void assertContents(TreeSet<Integer> expected, AtomBitmap bitmap) {
+		assertEquals(expected.size(), bitmap.cardinality());
+		int[] all = bitmap.toArray();
+		int i = 0;
+		for (int index : expected)
+			assertEquals(index, all[i++]);
+	}
+
+	public void testAdd() {
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		AtomBitmap bitmap = make(expected, 20000, 500000);
+		assertContents(expected, bitmap);
+		for (int i = 0; i < 2000; i++) {
+			int index = random.nextInt(500000);
+			assertEquals(expected.contains(index), bitmap.contains(index));
+		}
+		assertFalse(bitmap.contains(-1));
+	}
+
+	public void testAndOr() {
+		for (int trial = 0; trial < 20; trial++) {
+			TreeSet<Integer> a = new TreeSet<Integer>(), b = new TreeSet<Integer>();
+			AtomBitmap x = make(a, random.nextInt(12000), 300000);
+			AtomBitmap y = make(b, random.nextInt(12000), 300000);
+
+			TreeSet<Integer> union = new TreeSet<Integer>(a);
+			union.addAll(b);
+			TreeSet<Integer> both = new TreeSet<Integer>(a);
+			both.retainAll(b);
+
+			assertContents(union, x.or(y));
+			assertContents(union, y.or(x));
+			assertContents(both, x.and(y));
+			assertContents(both, y.and(x));
+			assertEquals(x.and(y), y.and(x));
+			assertEquals(x.or(y), y.or(x));
+
+			AtomBitmap dense = y.toDense();
+			assertEquals(y, dense);
+			assertEquals(dense, y);
+			assertContents(both, x.and(dense));
+			assertEquals(x.and(y), x.and(dense));
+		}
+	}
+
+	public void testResultsAreIndependent() {
+		AtomBitmap x = new AtomBitmap(), y = new AtomBitmap();
+		for (int i = 0; i < 5000; i++)
+			x.add(2 * i);
+		AtomBitmap union = x.or(y);
+		union.add(1);
+		assertFalse(x.contains(1));
+		assertEquals(x.cardinality() + 1, union.cardinality());
+	}
+
+	public void testHistogramSelection() {
+		ChainingHistogram hist = new ChainingHistogram(0.01f);
+		hist.addPeak(0.105f, 1);
+		hist.addPeak(0.205f, 2);
+		hist.addPeak(0.205f, 3);
+		hist.addPeak(0.505f, 4);
+		assertEquals(4, hist.getHitCount());
+		assertEquals(2, hist.getCountAt(0.2f));
+
+		int[] atoms = hist.getAtomsBetween(0.1f, 0.3f).toArray();
+		assertEquals(3, atoms.length);
+		assertEquals(1, atoms[0]);
+		assertEquals(3, atoms[2]);
+		assertTrue(hist.getAtomsBetween(0.9f, 1f).isEmpty());
+	}
+}
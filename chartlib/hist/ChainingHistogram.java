@@ -1,7 +1,5 @@
 package chartlib.hist;
 
-import java.util.ArrayList;
-
 
 /**
  * This histogram actually stores references to the source of
@@ -10,11 +8,14 @@ import java.util.ArrayList;
  * hash table, except that the hash function is meaningful: it is the relative
  * area of a particular m/z value for a particle.  If that doesn't make sense,
  * just look at the addPeak() method.
+ * <p>
+ * The atoms are kept as an AtomBitmap of their indexes in the collection,
+ * which HistogramDataset maps back to atom IDs.
  * 
  * @author smitht
  */
 public class ChainingHistogram 
-	extends BinAddressableArrayList<ArrayList<Integer>>
+	extends BinAddressableArrayList<AtomBitmap>
 {	
 	private int hitCount;
 	
@@ -22,20 +23,20 @@ public class ChainingHistogram
 		super(binWidth);
 	}
 
-	public void addPeak(float peakHeight, Integer atomID) {
+	public void addPeak(float peakHeight, int atomIndex) {
 		if (peakHeight > 1) {throw new IllegalArgumentException();} 
-		ArrayList<Integer> target;
+		AtomBitmap target;
 		
 		target = get(peakHeight);
 		if (target == null) { 
 			// if the list is not this long,
 			// or if it is but nothing has been added to this bin yet.
-			target = new ArrayList<Integer>();
+			target = new AtomBitmap();
 			expandAndSet(peakHeight, target);
 		}
 		
-		target.add(atomID);
-		hitCount++;
+		if (target.add(atomIndex))
+			hitCount++;
 	}
 	
 	public int getCountAt(float peakHeight) {
@@ -44,27 +45,40 @@ public class ChainingHistogram
 	}
 	
 	public int getCountAtIndex(int index) {
-		ArrayList<Integer> target;
+		AtomBitmap target;
 		
+		if (index < 0) { return 0; }
 		target = getByIndex(index);
 		if (target == null) { return 0; }
-		else { return target.size(); }
+		else { return target.cardinality(); }
 	}
 	
 	public int getHitCount() {
-		// TODO: assert that the hitcount here is equal to the sum of the 
-		// hits in each arraylist.  how?
 		return hitCount;
 	}
 	
-	void setListAt(ArrayList<Integer> newList, float peakHeight) {
+	void setBitmapAt(AtomBitmap newBitmap, float peakHeight) {
 		int subtract, add;
 		subtract = getCountAt(peakHeight);
-		add = newList.size();
-		expandAndSet(peakHeight, newList);
+		add = newBitmap.cardinality();
+		expandAndSet(peakHeight, newBitmap);
 		hitCount = hitCount - subtract + add; 
 	}
 	
+	/**
+	 * @return the atoms in any of the bins that heights min to max fall in.
+	 */
+	public AtomBitmap getAtomsBetween(float min, float max) {
+		AtomBitmap atoms = new AtomBitmap();
+		int last = Math.min(heightToIndex(max), size() - 1);
+		for (int index = Math.max(0, heightToIndex(min)); index <= last; index++) {
+			AtomBitmap bin = getByIndex(index);
+			if (bin != null && !bin.isEmpty())
+				atoms = atoms.or(bin);
+		}
+		return atoms;
+	}
+	
 	public boolean equals(Object thatObject) {
 		if (thatObject == null || !(thatObject instanceof ChainingHistogram))
 			return false;
@@ -72,7 +86,19 @@ public class ChainingHistogram
 		ChainingHistogram that = (ChainingHistogram) thatObject;	
 		if (this.hitCount != that.hitCount)  
 			return false;
+		if (this.getBinWidth() != that.getBinWidth())
+			return false;
 		
-		return super.equals(that);
+		// an empty bin is the same as a missing one.
+		for (int i = 0; i < Math.max(size(), that.size()); i++) {
+			AtomBitmap thisBin = getByIndex(i), thatBin = that.getByIndex(i);
+			boolean thisEmpty = thisBin == null || thisBin.isEmpty(),
+				thatEmpty = thatBin == null || thatBin.isEmpty();
+			if (thisEmpty != thatEmpty)
+				return false;
+			if (!thisEmpty && !thisBin.equals(thatBin))
+				return false;
+		}
+		return true;
 	}
 }
@@ -3,8 +3,7 @@ package chartlib.hist;
 import java.awt.Color;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
 import ATOFMS.ParticleInfo;
@@ -12,12 +11,19 @@ import analysis.BinnedPeak;
 import analysis.BinnedPeakList;
 import analysis.DistanceMetric;
 import database.InfoWarehouse;
+import database.IntIntHashMap;
 import database.Database;
 import database.Database.BPLOnlyCursor;
 
 
 /**
  * Holds all the information needed to graph 
+ * <p>
+ * The particles are numbered 0, 1, 2... in the order they were read, and 
+ * the histograms keep those indexes rather than atom IDs; atomIDs maps them
+ * back.  A selection is then an AtomBitmap of indexes, and brushing is an 
+ * or() of the bins that were brushed and an and() of that with every bin.
+ * 
  * @author smitht
  *
  */
@@ -26,14 +32,21 @@ public class HistogramDataset {
 	public ChainingHistogram[] hists;
 	public int count;
 	public Color color;
+	/** the atom ID of the particle at each index */
+	public int[] atomIDs;
 	
-	private final static int maxMZ = 500; // ugly!  should be fixed sometime!
 	private static float binWidth = 0.01f; // fix!
 	
 	public HistogramDataset(int count, ChainingHistogram[] hists, Color color) {
+		this(count, hists, color, new int[0]);
+	}
+	
+	public HistogramDataset(int count, ChainingHistogram[] hists, Color color,
+			int[] atomIDs) {
 		this.count = count;
 		this.hists = hists;
 		this.color = color;
+		this.atomIDs = atomIDs;
 	}
 	
 	public static HistogramDataset[] analyseCollection(int collID, Color c) 
@@ -59,60 +72,87 @@ public class HistogramDataset {
 	{
 		BinnedPeakList peakList;
 		int partnum = 0;
+		int[] atomIDs = new int[1024];
 	
-		ChainingHistogram[] histograms, posHists = new ChainingHistogram[maxMZ],
-			negHists = new ChainingHistogram[maxMZ];
+		ChainingHistogram[] histograms, posHists = new ChainingHistogram[0],
+			negHists = new ChainingHistogram[0];
 		
 		while (b.next()) {
 			ParticleInfo t = b.getCurrent();
 			peakList = t.getBinnedList();
 			peakList.normalize(DistanceMetric.EUCLIDEAN_SQUARED);
 	
-			++partnum;
+			if (partnum == atomIDs.length)
+				atomIDs = Arrays.copyOf(atomIDs, 2 * partnum);
+			atomIDs[partnum] = t.getID();
 			
 			for (BinnedPeak p : peakList) {
-				if (p.getKey() >= maxMZ)
-					continue;
-				else if (p.getKey() >= 0)
+				int mz = p.getKey();
+				if (mz >= 0) {
+					if (mz >= posHists.length)
+						posHists = grow(posHists, mz);
 					histograms = posHists;
-				else if (p.getKey() > - maxMZ) {
+				} else {
+					mz = - mz;
+					if (mz >= negHists.length)
+						negHists = grow(negHists, mz);
 					histograms = negHists;
-					p.setKey(- p.getKey());
-				} else
-					continue;
-				if (histograms[p.getKey()] == null) {
-					histograms[p.getKey()] = new ChainingHistogram(binWidth);
 				}
-				histograms[p.getKey()].addPeak(p.getValue(), t.getID());
+				if (histograms[mz] == null) {
+					histograms[mz] = new ChainingHistogram(binWidth);
+				}
+				histograms[mz].addPeak(p.getValue(), partnum);
 			}
+			
+			++partnum;
 		}
 		
+		atomIDs = Arrays.copyOf(atomIDs, partnum);
 		return new HistogramDataset[] {
-				new HistogramDataset(partnum, posHists, c),
-				new HistogramDataset(partnum, negHists, c)
+				new HistogramDataset(partnum, posHists, c, atomIDs),
+				new HistogramDataset(partnum, negHists, c, atomIDs)
 		};
 	}
+	
+	private static ChainingHistogram[] grow(ChainingHistogram[] hists, int mz) {
+		return Arrays.copyOf(hists, Math.max(mz + 1, 2 * hists.length));
+	}
 
 	
 	/**
-	 * Warning!  As currently implemented, this will indeed take the intersection,
-	 * but the count of particles in the resulting dataset will simply be the length
-	 * of the list of AtomIDs, rather than the actual count of particles.  To
-	 * fix this, change the HashSet to a HashMap<Integer, Boolean>, set an atom's
-	 * entry to true if it is used, and return the count of true ones.  But that's
-	 * more complicated.
-	 * 
+	 * Keeps only the particles with the given atom IDs.
 	 */
 	public static HistogramDataset[] intersect(HistogramDataset[] spectra, 
 			ArrayList<Integer> atomIDs)
 	{
-		HashSet<Integer> keep = new HashSet<Integer>(atomIDs);
+		IntIntHashMap indexes = new IntIntHashMap(spectra[0].atomIDs.length);
+		for (int i = 0; i < spectra[0].atomIDs.length; i++)
+			indexes.put(spectra[0].atomIDs[i], i);
+		
+		AtomBitmap keep = new AtomBitmap();
+		for (int id : atomIDs) {
+			int index = indexes.get(id, -1);
+			if (index >= 0)
+				keep.add(index);
+		}
+		return intersect(spectra, keep);
+	}
+	
+	/**
+	 * Keeps only the particles at the given indexes.
+	 */
+	public static HistogramDataset[] intersect(HistogramDataset[] spectra, 
+			AtomBitmap keep)
+	{
 		HistogramDataset[] intersected = new HistogramDataset[spectra.length];
+		// every bin gets and()ed with this, so make that quick
+		AtomBitmap lookup = keep.toDense();
 		
 		// probably once each for positive and negative spectra
 		for (int ds = 0; ds < spectra.length; ds++) {
-			intersected[ds] = new HistogramDataset(atomIDs.size(),
-					new ChainingHistogram[maxMZ], spectra[ds].color);
+			intersected[ds] = new HistogramDataset(keep.cardinality(),
+					new ChainingHistogram[spectra[ds].hists.length], 
+					spectra[ds].color, spectra[ds].atomIDs);
 			
 			for (int mz = 0; mz < spectra[ds].hists.length; mz++) {
 				if (spectra[ds].hists[mz] == null) continue;
@@ -121,48 +161,41 @@ public class HistogramDataset {
 				ChainingHistogram src = spectra[ds].hists[mz], 
 					dest = intersected[ds].hists[mz];
 				
-				ArrayList<Integer> srcList, destList;
 				for (int index = 0; index < src.size(); index++) {
-					srcList = src.get(src.getIndexMiddle(index));
-					if (srcList == null) continue;
-					
-					destList = new ArrayList<Integer>();
+					AtomBitmap srcBin = src.getByIndex(index);
+					if (srcBin == null) continue;
 					
-					for (Integer id : srcList)
-						if (keep.contains(id))
-							destList.add(id);
-
-					dest.setListAt(destList, src.getIndexMiddle(index));
+					dest.setBitmapAt(srcBin.and(lookup), 
+							src.getIndexMiddle(index));
 				}
 			}
 		}
 		return intersected;
 	}
 	
-	public static HistogramDataset[] getSelection(HistogramDataset[] spectra,
+	/**
+	 * @return the indexes of the particles in any of the brushed areas.
+	 */
+	public static AtomBitmap getSelectedAtoms(HistogramDataset[] spectra,
 			List<BrushSelection> selection) {
-		ArrayList<Integer> atomIDs = new ArrayList<Integer>();
+		AtomBitmap atoms = new AtomBitmap();
 		
 		for (BrushSelection sel : selection) {
 			HistogramDataset ds = spectra[sel.spectrum];
 			if (ds == null) continue;
 			if (ds.hists == null) continue;
+			if (sel.mz < 0 || sel.mz >= ds.hists.length) continue;
 			ChainingHistogram hist = ds.hists[sel.mz];
 			if (hist == null) continue;
 			
-			Iterator<ArrayList<Integer>> bins = hist.getIterator(sel.min, sel.max);
-			
-			while (bins.hasNext()) {
-				ArrayList<Integer> bin = bins.next();
-				if (bin == null) continue;
-				atomIDs.addAll(bin);
-			}
+			atoms = atoms.or(hist.getAtomsBetween(sel.min, sel.max));
 		}
-		
-		// It happens not to matter if there are duplicate atomIDs:  intersect()
-		// constructs a hashset from the arraylist, and a set doesn't care about
-		// duplicates.
-		return intersect(spectra, atomIDs);
+		return atoms;
+	}
+	
+	public static HistogramDataset[] getSelection(HistogramDataset[] spectra,
+			List<BrushSelection> selection) {
+		return intersect(spectra, getSelectedAtoms(spectra, selection));
 	}
 	
 	/**
@@ -175,16 +208,19 @@ public class HistogramDataset {
 		HistogramDataset that = (HistogramDataset) thatObject;
 		
 		if (this.count != that.count) return false;
+		if (!Arrays.equals(atomIDs, that.atomIDs)) return false;
 		
-		for (int i = 0; i < hists.length; i++) {
-			if (hists[i] == null || hists[i].getHitCount() == 0)
-				if (that.hists[i] == null || that.hists[i].getHitCount() == 0) {
+		for (int i = 0; i < Math.max(hists.length, that.hists.length); i++) {
+			ChainingHistogram thisHist = i < hists.length ? hists[i] : null,
+				thatHist = i < that.hists.length ? that.hists[i] : null;
+			if (thisHist == null || thisHist.getHitCount() == 0)
+				if (thatHist == null || thatHist.getHitCount() == 0) {
 					continue;
 				} else {
 					return false;
 				}
 			
-			if (!(hists[i].equals(that.hists[i]))) return false;
+			if (!(thisHist.equals(thatHist))) return false;
 		}
 		
 		return true;
@@ -25,6 +25,11 @@ public class HistogramsPlot extends Chart {
 	
 	private HistogramDataset[] baseSpectra, brushSpectra;
 	
+	// the particles in the brushed areas.  Areas are only ever added to the
+	// end of the list or cleared, so each new one is just or'd in.
+	private AtomBitmap brushedAtoms = new AtomBitmap();
+	private ArrayList<BrushSelection> brushed = new ArrayList<BrushSelection>();
+	
 	public HistogramsPlot(final int collID) throws SQLException {
 		ProgressTask task = new ProgressTask(null, "Analysing collection", true) {
 			public void run() {
@@ -142,10 +147,13 @@ public class HistogramsPlot extends Chart {
 	}
 
 
-	public void setBrushSelection(final ArrayList<BrushSelection> selected) {
+	public void setBrushSelection(ArrayList<BrushSelection> selected) {
 		if (brushSpectra != null) removeDatasets(brushSpectra);
 		repaint();
 		
+		// the BrushManager keeps changing its list on the event thread.
+		final ArrayList<BrushSelection> selection 
+			= new ArrayList<BrushSelection>(selected);
 		final HistogramsPlot hplot = this;
 		SwingWorker sw = new SwingWorker() {
 			@Override
@@ -157,8 +165,8 @@ public class HistogramsPlot extends Chart {
 					}
 				});
 				
-				hplot.brushSpectra 
-					= HistogramDataset.getSelection(baseSpectra, selected);
+				hplot.brushSpectra = HistogramDataset.intersect(baseSpectra,
+						hplot.updateBrushedAtoms(selection));
 				hplot.brushSpectra[0].color = Color.RED;
 				hplot.brushSpectra[1].color = Color.RED;
 				
@@ -180,5 +188,21 @@ public class HistogramsPlot extends Chart {
 		
 		sw.start();
 	}
+	
+	/**
+	 * @return the particles in any of the brushed areas.
+	 */
+	private synchronized AtomBitmap updateBrushedAtoms(
+			ArrayList<BrushSelection> selection) {
+		if (selection.size() < brushed.size() 
+				|| !selection.subList(0, brushed.size()).equals(brushed)) {
+			brushedAtoms = new AtomBitmap();
+			brushed = new ArrayList<BrushSelection>();
+		}
+		brushedAtoms = brushedAtoms.or(HistogramDataset.getSelectedAtoms(
+				baseSpectra, selection.subList(brushed.size(), selection.size())));
+		brushed = selection;
+		return brushedAtoms;
+	}
 
 }
@@ -123,7 +123,6 @@ public class AMSDataSetImporter {
 	public void processDataSet(int index) throws DisplayException, WriteException {
 		boolean skipFile = false;
 		String[] AMS_tables = {"AMSAtomInfoDense", "AtomMembership", "DataSetMembers", "AMSAtomInfoSparse"};
-		final Database.Data_bulkBucket ams_buckets = ((Database)db).getDatabulkBucket(AMS_tables);
 		
 		progressBar.setIndeterminate(true);
 		progressBar.setText("Reading time series file");
@@ -216,6 +215,7 @@ public class AMSDataSetImporter {
 		progressBar.setMaximum((totalParticles/10)+1);
 		progressBar.setIndeterminate(false);
 		
+		final Database.Data_bulkBucket ams_buckets = ((Database)db).getDatabulkBucket(AMS_tables);
 		try{
 			Collection destination = db.getCollection(id[0]);
 			
@@ -287,6 +287,9 @@ public class AMSDataSetImporter {
 				// don't throw exception here because we want to keep going:
 				ErrorLogger.writeExceptionToLogAndPrompt("Importing","ParticleException: "+e2.toString());
 			}
+		} finally {
+			// does nothing if the particles went in
+			ams_buckets.abort();
 		}
 	}
 	
@@ -62,11 +62,14 @@ import java.awt.Window;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Scanner;
 import java.util.StringTokenizer;
 import java.util.zip.DataFormatException;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 
 import collection.Collection;
@@ -118,6 +121,9 @@ public class ATOFMSDataSetImporter {
 	
 	/* the parent collection */
 	private int parentID = 0;
+	
+	/* how many threads read spectra; 0 means one per processor */
+	private int numThreads = 0;
 
 	
 	/**
@@ -433,7 +439,6 @@ public class ATOFMSDataSetImporter {
 
 		//***SLH
 		final String[] ATOFMS_tables = {"ATOFMSAtomInfoDense", "AtomMembership", "DataSetMembers", "ATOFMSAtomInfoSparse","InternalAtomOrder"};
-		Database.Data_bulkBucket ATOFMS_buckets = ((Database)db).getDatabulkBucket(ATOFMS_tables) ;
 		String name = parent.getName();
 		name = parent.toString()+ File.separator + name + ".set";
 		if (new File(name).isFile()) {
@@ -444,7 +449,6 @@ public class ATOFMSDataSetImporter {
 			int particleNum = 0;
 			Collection destination = db.getCollection(id[0]);
 			collections[collectionIndex] = destination;
-			ATOFMSParticle currentParticle;
 			Date d;
 			DateFormat df = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
 				Scanner readSet = new Scanner(new File(name));
@@ -455,6 +459,10 @@ public class ATOFMSDataSetImporter {
 					//int doDisplay = 4;
 					int nextID = db.getNextID();
 					Collection curCollection = db.getCollection(id[0]);
+					OrderedPipeline<ParsedParticle> pipeline = 
+						new OrderedPipeline<ParsedParticle>(numThreads, 0);
+					Database.Data_bulkBucket ATOFMS_buckets = ((Database)db).getDatabulkBucket(ATOFMS_tables) ;
+					try {
 					while (readSet.hasNextLine()) { // repeat until end of file.
 
 						if(progressBar.wasTerminated()){
@@ -479,38 +487,37 @@ public class ATOFMSDataSetImporter {
 						String time = token.nextToken();						
 						d = df.parse(time);
 
-						ReadSpec read = new ReadSpec(particleFileName, d);
-						
-						currentParticle = read.getParticle();
-						
-						/***SLH ((Database)db).insertParticle(
-								currentParticle.particleInfoDenseString(db.getDateFormat()),
-								currentParticle.particleInfoSparseString(),
-								destination,id[1],nextID, true);
-						**/
-						//***SLH						
-						((Database)db).saveDataParticle(														// daves  do I need a try/catch around here?
-								currentParticle.particleInfoDenseStr(db.getDateFormat()),
-								currentParticle.particleInfoSparseString(),
-								destination,id[1],nextID, ATOFMS_buckets);
-						//***SLH
-					
+						// Reading and peak-picking happen on the pipeline's
+						// threads; particles are written here, in .set file
+						// order, so they get the same AtomIDs they always have.
+						pipeline.submit(new ParticleReader(particleFileName, d));
+						while (pipeline.isFull()) {
+							saveParticle(nextPipelineParticle(pipeline), 
+									destination, nextID, ATOFMS_buckets);
+							nextID++;
+							particleNum++;
+							updateProgress(particleNum);
+						}
+					}
+					while (!pipeline.isEmpty()) {
+						if(progressBar.wasTerminated()){
+							throw new InterruptedException();
+						}
+						saveParticle(nextPipelineParticle(pipeline), 
+								destination, nextID, ATOFMS_buckets);
 						nextID++;
 						particleNum++;
-						//doDisplay++;
-						//if((int)(100.0*particleNum/tParticles)>(int)(100.0*(particleNum-1)/tParticles)){
-						if(particleNum%10 == 0 && particleNum > 0){
-							//progressBar.increment("Importing Particle # "+particleNum+" out of "+tParticles);
-							//progressBar.setValue((int)(100.0*particleNum/tParticles));
-							progressBar.setValue(particleNum);
-							progressBar.setText("Importing Particle # "+particleNum+" out of "+numParticles[collectionIndex]);
-							
-						}
+						updateProgress(particleNum);
 					} //***SLH
 					((Database)db).BulkInsertDataParticles(ATOFMS_buckets);
 					//Percolate new atoms upward
 					db.propagateNewCollection(curCollection);
 					readSet.close();
+					} finally {
+						pipeline.shutdown();
+						// does nothing if the particles went in
+						ATOFMS_buckets.abort();
+					}
 		} else {
 			ErrorLogger.displayException(progressBar, 
 					"Dataset has no hits because " +name+" does not exist.");
@@ -518,6 +525,121 @@ public class ATOFMSDataSetImporter {
 
 	}
 	
+	/**
+	 * A particle that's been read and peak-picked, ready to be written.
+	 */
+	private static class ParsedParticle {
+		final String fileName;
+		final Date time;
+		final float laserPower;
+		final float size;
+		final int scatDelay;
+		final ArrayList<String> sparse;
+		
+		ParsedParticle(String fileName, Date time, SpectrumDecoder decoder,
+				ArrayList<String> sparse) {
+			this.fileName = fileName;
+			this.time = time;
+			laserPower = decoder.getLaserPower();
+			size = decoder.getSize();
+			scatDelay = decoder.getScatDelay();
+			this.sparse = sparse;
+		}
+		
+		/**
+		 * @return the same string as ATOFMSParticle.particleInfoDenseStr()
+		 */
+		String denseString(DateFormat d) {
+			return d.format(time) + ", " + laserPower + ", " + size + ", " + 
+				scatDelay + "," + fileName.trim();
+		}
+	}
+	
+	/**
+	 * Reads one particle's spectrum file and finds its peaks.  Run on the
+	 * pipeline's threads, so it mustn't touch the database.  Each thread
+	 * keeps its own decoder and peak buffer, so the spectra and peaks 
+	 * don't make new garbage for every particle.
+	 */
+	private static class ParticleReader implements Callable<ParsedParticle> {
+		private static final ThreadLocal<SpectrumDecoder> decoders =
+			new ThreadLocal<SpectrumDecoder>() {
+				protected SpectrumDecoder initialValue() {
+					return new SpectrumDecoder();
+				}
+			};
+		private static final ThreadLocal<PeakBuffer> peakBuffers =
+			new ThreadLocal<PeakBuffer>() {
+				protected PeakBuffer initialValue() {
+					return new PeakBuffer();
+				}
+			};
+		
+		private final String fileName;
+		private final Date time;
+		
+		ParticleReader(String fileName, Date time) {
+			this.fileName = fileName;
+			this.time = time;
+		}
+		
+		public ParsedParticle call() throws IOException {
+			SpectrumDecoder decoder = decoders.get();
+			PeakBuffer peaks = peakBuffers.get();
+			decoder.read(fileName);
+			int numPeaks = decoder.findPeaks(peaks);
+			ArrayList<String> sparse = new ArrayList<String>(numPeaks);
+			for (int i = 0; i < numPeaks; i++)
+				sparse.add(peaks.sparseString(i));
+			return new ParsedParticle(fileName, time, decoder, sparse);
+		}
+	}
+	
+	/**
+	 * Waits for the next particle from the pipeline, passing along any
+	 * exception reading it threw.
+	 */
+	private ParsedParticle nextPipelineParticle(
+			OrderedPipeline<ParsedParticle> pipeline)
+	throws IOException, InterruptedException {
+		try {
+			return pipeline.next();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException("Couldn't read particle: " + cause);
+		}
+	}
+	
+	private void saveParticle(ParsedParticle parsed, Collection destination,
+			int atomID, Database.Data_bulkBucket buckets) {
+		((Database)db).saveDataParticle(
+				parsed.denseString(db.getDateFormat()),
+				parsed.sparse, destination, id[1], atomID, buckets);
+	}
+	
+	private void updateProgress(int particleNum) {
+		if(particleNum%10 == 0 && particleNum > 0){
+			progressBar.setValue(particleNum);
+			progressBar.setText("Importing Particle # "+particleNum+" out of "+numParticles[collectionIndex]);
+		}
+	}
+	
+	/**
+	 * Sets how many threads read and peak-pick spectra during an import.
+	 * Particles are written in the same order, with the same AtomIDs, 
+	 * regardless.
+	 * @param numThreads the number of threads, or 0 for one per processor
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	
 	/**
 	 * @author Jamie Olson
 	 * @throws IOException
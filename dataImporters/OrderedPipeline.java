@@ -0,0 +1,139 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's OrderedPipeline class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package dataImporters;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs tasks on a pool of threads and hands back their results in the 
+ * order the tasks were submitted, so that one thread can write results
+ * out in order while the others work ahead of it.
+ * 
+ * At most getWindow() tasks are outstanding at a time; when isFull(), 
+ * the caller should take a result with next() before submitting more.
+ * That keeps the amount of parsed-but-unwritten data bounded no matter
+ * how far the workers get ahead of the writer.
+ */
+public class OrderedPipeline<T> {
+	private final ExecutorService pool;
+	private final ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>();
+	private final int numThreads;
+	private final int window;
+	
+	/**
+	 * @param numThreads the number of worker threads, or 0 for one per 
+	 * processor
+	 * @param window the most tasks that may be outstanding at once, or 0 
+	 * for four per thread
+	 */
+	public OrderedPipeline(int numThreads, int window) {
+		if (numThreads <= 0)
+			numThreads = Runtime.getRuntime().availableProcessors();
+		if (window <= 0)
+			window = 4 * numThreads;
+		this.numThreads = numThreads;
+		this.window = window;
+		pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "OrderedPipeline");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	
+	public int getWindow() {
+		return window;
+	}
+	
+	/**
+	 * @return true if no more tasks should be submitted until a result
+	 * has been taken.
+	 */
+	public boolean isFull() {
+		return pending.size() >= window;
+	}
+	
+	/**
+	 * @return true if every submitted task's result has been taken.
+	 */
+	public boolean isEmpty() {
+		return pending.isEmpty();
+	}
+	
+	public void submit(Callable<T> task) {
+		if (isFull())
+			throw new IllegalStateException("Pipeline is full");
+		pending.add(pool.submit(task));
+	}
+	
+	/**
+	 * Waits for the oldest outstanding task and returns its result.
+	 * @throws ExecutionException if the task threw an exception
+	 */
+	public T next() throws InterruptedException, ExecutionException {
+		Future<T> head = pending.poll();
+		if (head == null)
+			throw new IllegalStateException("Pipeline is empty");
+		return head.get();
+	}
+	
+	/**
+	 * Cancels any outstanding tasks and stops the worker threads.
+	 */
+	public void shutdown() {
+		for (Future<T> f : pending)
+			f.cancel(true);
+		pending.clear();
+		pool.shutdownNow();
+	}
+}
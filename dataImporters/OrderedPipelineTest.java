@@ -0,0 +1,77 @@
+package dataImporters;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+public class OrderedPipelineTest extends TestCase {
+	
+	public void testResultsComeBackInOrder() throws Exception {
+		OrderedPipeline<Integer> pipeline = new OrderedPipeline<Integer>(4, 6);
+		assertEquals(6, pipeline.getWindow());
+		final Random random = new Random(9);
+		int expected = 0;
+		try {
+			for (int i = 0; i < 200; i++) {
+				final int value = i;
+				final int delay = random.nextInt(3);
+				pipeline.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						Thread.sleep(delay);
+						return value;
+					}
+				});
+				while (pipeline.isFull())
+					assertEquals(expected++, pipeline.next().intValue());
+			}
+			while (!pipeline.isEmpty())
+				assertEquals(expected++, pipeline.next().intValue());
+		} finally {
+			pipeline.shutdown();
+		}
+		assertEquals(200, expected);
+	}
+	
+	public void testFailureReachesCaller() throws Exception {
+		OrderedPipeline<Integer> pipeline = new OrderedPipeline<Integer>(2, 0);
+		assertEquals(8, pipeline.getWindow());
+		pipeline.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return 1;
+			}
+		});
+		pipeline.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				throw new IOException("corrupt spectrum");
+			}
+		});
+		assertEquals(1, pipeline.next().intValue());
+		try {
+			pipeline.next();
+			fail("Task's exception was lost");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		pipeline.shutdown();
+	}
+	
+	public void testFullPipelineRejectsTasks() {
+		OrderedPipeline<Integer> pipeline = new OrderedPipeline<Integer>(1, 1);
+		Callable<Integer> task = new Callable<Integer>() {
+			public Integer call() {
+				return 0;
+			}
+		};
+		pipeline.submit(task);
+		assertTrue(pipeline.isFull());
+		try {
+			pipeline.submit(task);
+			fail("Submitted past the window");
+		} catch (IllegalStateException e) {
+		}
+		pipeline.shutdown();
+	}
+}
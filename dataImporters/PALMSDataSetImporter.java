@@ -183,7 +183,6 @@ public class PALMSDataSetImporter {
 		boolean skipFile = false;
 		final String[] ATOFMS_tables = {"ATOFMSAtomInfoDense", "AtomMembership", 
 				   "DataSetMembers", "ATOFMSAtomInfoSparse","InternalAtomOrder"};
-		Database.Data_bulkBucket ATOFMS_buckets = ((Database)db).getDatabulkBucket(ATOFMS_tables) ;
 		
 		//Begin reading data file
 		progressBar.setIndeterminate(true);
@@ -259,6 +258,7 @@ public class PALMSDataSetImporter {
 				"0" + "," + "0"  + "," + "0" + ",0");
 		
 		progressBar.setText("Reading particle data");
+		Database.Data_bulkBucket ATOFMS_buckets = ((Database)db).getDatabulkBucket(ATOFMS_tables) ;
 		try{
 			Collection destination = db.getCollection(id[0]);
 			
@@ -304,6 +304,9 @@ public class PALMSDataSetImporter {
 				// don't throw exception here because we want to keep going:
 				ErrorLogger.writeExceptionToLogAndPrompt("Importing","ParticleException: "+e2.toString());
 			}
+		} finally {
+			// does nothing if the particles went in
+			ATOFMS_buckets.abort();
 		}
 	}
 
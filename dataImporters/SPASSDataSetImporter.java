@@ -162,7 +162,6 @@ public class SPASSDataSetImporter {
 		boolean skipFile = false;
 		final String[] ATOFMS_tables = {"ATOFMSAtomInfoDense", "AtomMembership", 
 				   "DataSetMembers", "ATOFMSAtomInfoSparse","InternalAtomOrder"};
-		Database.Data_bulkBucket ATOFMS_buckets = ((Database)db).getDatabulkBucket(ATOFMS_tables) ;
 		
 		//get total number of particles for progress bar.
 		progressBar.setIndeterminate(true);
@@ -207,6 +206,7 @@ public class SPASSDataSetImporter {
 		
 		progressBar.setMaximum((totalParticles/10)+1);
 		progressBar.setIndeterminate(false);
+		Database.Data_bulkBucket ATOFMS_buckets = ((Database)db).getDatabulkBucket(ATOFMS_tables) ;
 		try{
 			Collection destination = db.getCollection(id[0]);
 			
@@ -263,6 +263,9 @@ public class SPASSDataSetImporter {
 				// don't throw exception here because we want to keep going:
 				ErrorLogger.writeExceptionToLogAndPrompt("Importing","ParticleException: "+e2.toString());
 			}
+		} finally {
+			// does nothing if the particles went in
+			ATOFMS_buckets.abort();
 		}
 	}
 
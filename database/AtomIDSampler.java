@@ -0,0 +1,124 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's AtomIDSampler class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+
+package database;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Random orderings and random samples of atom IDs, worked out on the 
+ * client so that they depend only on the seed and not on the state of the
+ * server's RAND().
+ * 
+ * shuffle() permutes a whole list in place.  An AtomIDSampler object keeps
+ * a reservoir: offer() it every atom ID in one pass, and getSample() then
+ * returns a uniformly random subset of the requested size, itself in 
+ * random order, no matter how many IDs went by.
+ */
+public class AtomIDSampler {
+	private final SplittableRandom random;
+	private final int[] reservoir;
+	private int seen = 0;
+	
+	/**
+	 * @param sampleSize the most atom IDs to keep
+	 * @param random where the randomness comes from
+	 */
+	public AtomIDSampler(int sampleSize, SplittableRandom random) {
+		if (sampleSize < 0)
+			throw new IllegalArgumentException(
+					"Sample size can't be negative: " + sampleSize);
+		this.random = random;
+		reservoir = new int[sampleSize];
+	}
+	
+	/**
+	 * Considers one more atom ID for the sample.
+	 */
+	public void offer(int atomID) {
+		if (seen < reservoir.length) {
+			reservoir[seen] = atomID;
+		}
+		else {
+			// keep it with probability sampleSize / (seen + 1)
+			long slot = random.nextLong(seen + 1L);
+			if (slot < reservoir.length)
+				reservoir[(int) slot] = atomID;
+		}
+		seen++;
+	}
+	
+	/**
+	 * @return how many atom IDs have been offered.
+	 */
+	public int getSeen() {
+		return seen;
+	}
+	
+	/**
+	 * @return the sampled atom IDs in random order; fewer than the sample
+	 * size if fewer than that many were offered.
+	 */
+	public int[] getSample() {
+		int[] sample = Arrays.copyOf(reservoir, 
+				Math.min(seen, reservoir.length));
+		// the reservoir keeps the first IDs in the order they came, so
+		// mix it before handing it out
+		return shuffle(sample, random);
+	}
+	
+	/**
+	 * Fisher-Yates shuffle of the given IDs, in place.
+	 * @return ids, for convenience
+	 */
+	public static int[] shuffle(int[] ids, SplittableRandom random) {
+		for (int i = ids.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int temp = ids[i];
+			ids[i] = ids[j];
+			ids[j] = temp;
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,99 @@
+package database;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import junit.framework.TestCase;
+
+public class AtomIDSamplerTest extends TestCase {
+	
+	private int[] range(int n) {
+		int[] ids = new int[n];
+		for (int i = 0; i < n; i++)
+			ids[i] = i + 1;
+		return ids;
+	}
+	
+	public void testShuffleIsPermutation() {
+		int[] ids = AtomIDSampler.shuffle(range(1000), new SplittableRandom(7));
+		assertFalse(Arrays.equals(range(1000), ids));
+		int[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		assertTrue(Arrays.equals(range(1000), sorted));
+	}
+	
+	public void testShuffleIsReproducible() {
+		int[] a = AtomIDSampler.shuffle(range(100), new SplittableRandom(12345));
+		int[] b = AtomIDSampler.shuffle(range(100), new SplittableRandom(12345));
+		int[] c = AtomIDSampler.shuffle(range(100), new SplittableRandom(54321));
+		assertTrue(Arrays.equals(a, b));
+		assertFalse(Arrays.equals(a, c));
+	}
+	
+	public void testShuffleSpreadsFirstPosition() {
+		// every ID should land first about equally often
+		int n = 5;
+		int trials = 50000;
+		int[] firstCounts = new int[n + 1];
+		SplittableRandom random = new SplittableRandom(3);
+		for (int t = 0; t < trials; t++)
+			firstCounts[AtomIDSampler.shuffle(range(n), random)[0]]++;
+		for (int id = 1; id <= n; id++)
+			assertEquals(trials / n, firstCounts[id], trials / n / 10);
+	}
+	
+	public void testSampleSmallerThanInput() {
+		AtomIDSampler sampler = new AtomIDSampler(10, new SplittableRandom(1));
+		for (int id : range(1000))
+			sampler.offer(id);
+		assertEquals(1000, sampler.getSeen());
+		int[] sample = sampler.getSample();
+		assertEquals(10, sample.length);
+		int[] sorted = sample.clone();
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++) {
+			assertTrue(sorted[i] >= 1 && sorted[i] <= 1000);
+			if (i > 0)
+				assertTrue(sorted[i] != sorted[i - 1]);
+		}
+	}
+	
+	public void testSampleLargerThanInput() {
+		AtomIDSampler sampler = new AtomIDSampler(10, new SplittableRandom(1));
+		for (int id : range(4))
+			sampler.offer(id);
+		int[] sample = sampler.getSample();
+		Arrays.sort(sample);
+		assertTrue(Arrays.equals(range(4), sample));
+		
+		assertEquals(0, new AtomIDSampler(0, new SplittableRandom(1)).getSample().length);
+		assertEquals(0, new AtomIDSampler(3, new SplittableRandom(1)).getSample().length);
+	}
+	
+	public void testSampleIsUniform() {
+		// each of 20 IDs should make it into a sample of 5 a quarter of 
+		// the time
+		int n = 20;
+		int trials = 40000;
+		int[] counts = new int[n + 1];
+		SplittableRandom random = new SplittableRandom(99);
+		for (int t = 0; t < trials; t++) {
+			AtomIDSampler sampler = new AtomIDSampler(5, random);
+			for (int id : range(n))
+				sampler.offer(id);
+			for (int id : sampler.getSample())
+				counts[id]++;
+		}
+		for (int id = 1; id <= n; id++)
+			assertEquals(trials / 4, counts[id], trials / 4 / 10);
+	}
+	
+	public void testNegativeSampleSize() {
+		try {
+			new AtomIDSampler(-1, new SplittableRandom(1));
+			fail("negative sample size accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
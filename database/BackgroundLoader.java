@@ -0,0 +1,208 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's BackgroundLoader class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands rows to another BulkLoader on a thread of its own, so that the
+ * importer can go on parsing while the last chunk is written.
+ * 
+ * Rows are passed along in chunks through a short queue; when the writer
+ * falls behind, append() waits for it, so memory use stays bounded.  If 
+ * the writer fails, the error is thrown from the next call to append(), 
+ * flush() or close(), and the wrapped loader is aborted rather than closed.
+ * 
+ * The wrapped loader is used only from the writer's thread, so it should 
+ * have a connection of its own.
+ */
+public class BackgroundLoader implements BulkLoader {
+	public static final int DEFAULT_CHUNK_SIZE = 5000;
+	public static final int DEFAULT_QUEUE_LENGTH = 4;
+	
+	/** Put on the queue to tell the writer it's done. */
+	private static final ArrayList<String[]> FINISHED = new ArrayList<String[]>();
+	
+	private final BulkLoader loader;
+	private final int chunkSize;
+	private final BlockingQueue<ArrayList<String[]>> queue;
+	private final Thread writer;
+	private ArrayList<String[]> chunk;
+	private volatile SQLException failure = null;
+	private volatile boolean aborted = false;
+	private boolean closed = false;
+	
+	/**
+	 * @param loader the loader that does the writing
+	 * @param chunkSize how many rows to pass to the writer at a time
+	 * @param queueLength how many chunks may wait to be written
+	 */
+	public BackgroundLoader(BulkLoader loader, int chunkSize, int queueLength) {
+		this.loader = loader;
+		this.chunkSize = chunkSize;
+		queue = new ArrayBlockingQueue<ArrayList<String[]>>(queueLength);
+		chunk = new ArrayList<String[]>(chunkSize);
+		writer = new Thread("BackgroundLoader") {
+			public void run() {
+				write();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	public BackgroundLoader(BulkLoader loader) {
+		this(loader, DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_LENGTH);
+	}
+	
+	private void write() {
+		try {
+			while (true) {
+				ArrayList<String[]> rows = queue.take();
+				if (rows == FINISHED)
+					return;
+				if (failure != null || aborted)
+					continue; // keep draining so append() never blocks
+				for (String[] row : rows)
+					loader.append(row[0], row[1]);
+				loader.flush();
+			}
+		} catch (SQLException e) {
+			failure = e;
+			drain();
+		} catch (InterruptedException e) {
+			failure = new SQLException("Background loader interrupted");
+		}
+	}
+	
+	private void drain() {
+		try {
+			while (queue.take() != FINISHED)
+				;
+		} catch (InterruptedException e) {
+		}
+	}
+	
+	private void checkFailure() throws SQLException {
+		if (failure != null)
+			throw failure;
+	}
+	
+	private void send(ArrayList<String[]> rows) throws SQLException {
+		try {
+			queue.put(rows);
+		} catch (InterruptedException e) {
+			throw new SQLException("Interrupted waiting for the background loader");
+		}
+	}
+	
+	public void append(String table, String values) throws SQLException {
+		checkFailure();
+		if (closed)
+			throw new SQLException("BackgroundLoader is closed");
+		chunk.add(new String[] {table, values});
+		if (chunk.size() >= chunkSize)
+			flush();
+	}
+	
+	public void flush() throws SQLException {
+		checkFailure();
+		if (chunk.isEmpty())
+			return;
+		send(chunk);
+		chunk = new ArrayList<String[]>(chunkSize);
+	}
+	
+	public void close() throws SQLException {
+		if (closed) {
+			checkFailure();
+			return;
+		}
+		try {
+			if (failure == null && !chunk.isEmpty())
+				send(chunk);
+			chunk = null;
+			send(FINISHED);
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				throw new SQLException("Interrupted waiting for the background loader");
+			}
+		} finally {
+			closed = true;
+			if (failure != null)
+				loader.abort();
+			else {
+				try {
+					loader.close();
+				} catch (SQLException e) {
+					failure = e;
+				}
+			}
+		}
+		checkFailure();
+	}
+	
+	/**
+	 * Stops the writer, throws away the rows still waiting for it, and
+	 * aborts the wrapped loader.
+	 */
+	public void abort() {
+		if (closed)
+			return;
+		closed = true;
+		aborted = true;
+		chunk = null;
+		queue.clear();
+		try {
+			// only the writer takes from the queue, so there's room now
+			queue.put(FINISHED);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		loader.abort();
+	}
+}
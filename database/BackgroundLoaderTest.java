@@ -0,0 +1,83 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BackgroundLoaderTest extends TestCase {
+	
+	public void testRowsArriveInOrder() throws SQLException {
+		InMemoryBulkLoader memory = new InMemoryBulkLoader();
+		BackgroundLoader loader = new BackgroundLoader(memory, 7, 2);
+		for (int i = 0; i < 1000; i++) {
+			loader.append("Dense", i + ",dense" + i);
+			for (int j = 0; j < i % 4; j++)
+				loader.append("Sparse", i + "," + j + ",");
+		}
+		loader.close();
+		
+		assertTrue(memory.isClosed());
+		assertTrue(memory.getFlushCount() > 1);
+		assertEquals("Dense", memory.getTables().get(0));
+		List<String[]> dense = memory.getRows("Dense");
+		assertEquals(1000, dense.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(Integer.toString(i), dense.get(i)[0]);
+			assertEquals("dense" + i, dense.get(i)[1]);
+		}
+		List<String[]> sparse = memory.getRows("Sparse");
+		assertEquals(1500, sparse.size());
+		assertEquals(3, sparse.get(0).length);
+		assertEquals("", sparse.get(0)[2]);
+		assertEquals("1", sparse.get(0)[0]);
+		assertEquals("999", sparse.get(1499)[0]);
+		assertEquals("2", sparse.get(1499)[1]);
+	}
+	
+	public void testFailureIsReported() throws SQLException {
+		BulkLoader failing = new InMemoryBulkLoader() {
+			public synchronized void append(String table, String values) 
+			throws SQLException {
+				if (values.startsWith("50,"))
+					throw new SQLException("bad row");
+				super.append(table, values);
+			}
+		};
+		BackgroundLoader loader = new BackgroundLoader(failing, 10, 1);
+		try {
+			for (int i = 0; i < 10000; i++)
+				loader.append("Dense", i + ",x");
+			loader.close();
+			fail("Writer's failure was never reported");
+		} catch (SQLException e) {
+			assertEquals("bad row", e.getMessage());
+		}
+		try {
+			loader.close();
+			fail("close() hid the writer's failure");
+		} catch (SQLException e) {
+			assertEquals("bad row", e.getMessage());
+		}
+		assertTrue(((InMemoryBulkLoader) failing).isClosed());
+	}
+	
+	public void testAbort() throws SQLException {
+		InMemoryBulkLoader memory = new InMemoryBulkLoader();
+		BackgroundLoader loader = new BackgroundLoader(memory, 10, 2);
+		for (int i = 0; i < 1000; i++)
+			loader.append("Dense", i + ",x");
+		loader.abort();
+		assertTrue(memory.isClosed());
+		assertTrue(memory.getRows("Dense").isEmpty());
+		try {
+			loader.append("Dense", "1000,x");
+			fail("Appended to an aborted loader");
+		} catch (SQLException e) {
+		}
+		// closing afterwards writes nothing
+		loader.close();
+		assertTrue(memory.getRows("Dense").isEmpty());
+		loader.abort();
+	}
+}
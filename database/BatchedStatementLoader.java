@@ -0,0 +1,235 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's BatchedStatementLoader class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+
+/**
+ * Loads rows with JDBC batches of prepared INSERT statements, one 
+ * statement per table.  Unlike BULK INSERT, this works against a server
+ * on another machine.
+ * 
+ * Rows are batched up until there are chunkSize of them, and then each
+ * table's batch is executed, in the order the tables were first seen, 
+ * inside one transaction.
+ * 
+ * Values are handed to the server as strings, the same as they would be
+ * read from a BULK INSERT file, and an empty value is a NULL.
+ * 
+ * A loader given a connection of its own instead keeps the whole load in
+ * one transaction, committed by close() and rolled back by abort(), and
+ * closes the connection when it's done.  That's the one to use from 
+ * another thread, since a connection's transactions are shared by 
+ * everything using it.
+ */
+public class BatchedStatementLoader implements BulkLoader {
+	public static final int DEFAULT_CHUNK_SIZE = 5000;
+	
+	private final Connection con;
+	private final int chunkSize;
+	private final LinkedHashMap<String, PreparedStatement> statements =
+		new LinkedHashMap<String, PreparedStatement>();
+	private final LinkedHashMap<String, Integer> columnCounts =
+		new LinkedHashMap<String, Integer>();
+	private final boolean ownConnection;
+	private int pending = 0;
+	private long written = 0;
+	private boolean closed = false;
+	
+	/**
+	 * @param con the connection to write through
+	 * @param chunkSize how many rows (over all the tables) to send at once
+	 */
+	public BatchedStatementLoader(Connection con, int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		this.con = con;
+		this.chunkSize = chunkSize;
+		ownConnection = false;
+	}
+	
+	/**
+	 * @param con the connection to write through
+	 * @param chunkSize how many rows (over all the tables) to send at once
+	 * @param ownConnection whether nothing else uses con, so that this 
+	 * loader can take it over and close it when it's done
+	 */
+	public BatchedStatementLoader(Connection con, int chunkSize, 
+			boolean ownConnection) throws SQLException {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		this.con = con;
+		this.chunkSize = chunkSize;
+		this.ownConnection = ownConnection;
+		if (ownConnection)
+			con.setAutoCommit(false);
+	}
+	
+	public BatchedStatementLoader(Connection con) {
+		this(con, DEFAULT_CHUNK_SIZE);
+	}
+	
+	public void append(String table, String values) throws SQLException {
+		String[] fields = values.split(",", -1);
+		PreparedStatement stmt = statements.get(table);
+		if (stmt == null) {
+			StringBuilder sql = new StringBuilder("INSERT INTO " + table +
+					" VALUES (");
+			for (int i = 0; i < fields.length; i++)
+				sql.append(i == 0 ? "?" : ",?");
+			sql.append(")");
+			stmt = con.prepareStatement(sql.toString());
+			statements.put(table, stmt);
+			columnCounts.put(table, fields.length);
+		}
+		else if (columnCounts.get(table) != fields.length)
+			throw new SQLException("Row for " + table + " has " + 
+					fields.length + " values, expected " + 
+					columnCounts.get(table) + ": " + values);
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].length() == 0)
+				stmt.setNull(i + 1, Types.VARCHAR);
+			else
+				stmt.setString(i + 1, fields[i]);
+		}
+		stmt.addBatch();
+		pending++;
+		if (pending >= chunkSize)
+			flush();
+	}
+	
+	public void flush() throws SQLException {
+		if (pending == 0)
+			return;
+		if (ownConnection) {
+			try {
+				for (PreparedStatement stmt : statements.values())
+					stmt.executeBatch();
+			} catch (SQLException e) {
+				abort();
+				throw e;
+			}
+			written += pending;
+			pending = 0;
+			return;
+		}
+		boolean autoCommit = con.getAutoCommit();
+		con.setAutoCommit(false);
+		try {
+			for (PreparedStatement stmt : statements.values())
+				stmt.executeBatch();
+			con.commit();
+		} catch (SQLException e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(autoCommit);
+		}
+		written += pending;
+		pending = 0;
+	}
+	
+	public void close() throws SQLException {
+		if (closed)
+			return;
+		boolean committed = false;
+		try {
+			flush();
+			if (ownConnection)
+				con.commit();
+			committed = true;
+		} finally {
+			if (committed)
+				release();
+			else
+				abort();
+		}
+	}
+	
+	/**
+	 * Drops the rows not yet sent.  With a connection of its own, the rows
+	 * that were sent are rolled back too; otherwise the chunks already 
+	 * committed stay.
+	 */
+	public void abort() {
+		if (closed)
+			return;
+		try {
+			if (ownConnection)
+				con.rollback();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		pending = 0;
+		release();
+	}
+	
+	private void release() {
+		closed = true;
+		for (PreparedStatement stmt : statements.values()) {
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		statements.clear();
+		if (ownConnection) {
+			try {
+				con.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * @return how many rows have made it into the database.
+	 */
+	public long getRowsWritten() {
+		return written;
+	}
+}
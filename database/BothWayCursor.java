@@ -119,6 +119,13 @@ public class BothWayCursor implements CollectionCursor {
 		return null;
 	}
 
+	/* (non-Javadoc)
+	 * @see database.CollectionCursor#getPositionOfAtomID(int)
+	 */
+	public int getPositionOfAtomID(int atomID) {
+		return -1;
+	}
+
 	/**
 	 * @param args
 	 */
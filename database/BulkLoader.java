@@ -0,0 +1,82 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's BulkLoader class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package database;
+
+import java.sql.SQLException;
+
+/**
+ * Something that takes rows for a handful of tables and gets them into the
+ * database as fast as it can.  Rows come in the same comma-delimited form
+ * that the BULK INSERT files use, so any loader can stand in for the 
+ * files in Database.Data_bulkBucket.
+ * 
+ * Rows for a table must be written in the order they were appended, and
+ * tables in the order they were first appended to, so that rows that 
+ * refer to other tables' rows find them there.
+ */
+public interface BulkLoader {
+	/**
+	 * Adds a row to be written.  It may or may not be written right away.
+	 * @param table the table the row goes in
+	 * @param values the row's values, separated by commas
+	 */
+	public void append(String table, String values) throws SQLException;
+	
+	/**
+	 * Sends off every row appended so far.  Loaders that write in the
+	 * background may return before the rows are in the database.
+	 */
+	public void flush() throws SQLException;
+	
+	/**
+	 * Writes every row appended so far, waits until they're in the 
+	 * database, and lets go of any resources.
+	 */
+	public void close() throws SQLException;
+	
+	/**
+	 * Gives up on the load: throws away any rows that haven't been written,
+	 * undoes what it can of the ones that have, and lets go of any 
+	 * resources.  Does nothing once the loader has been closed.
+	 */
+	public void abort();
+}
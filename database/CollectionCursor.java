@@ -71,4 +71,14 @@ public interface CollectionCursor {
 	 * @return the peak list of the desired id.
 	 */
 	public BinnedPeakList getPeakListfromAtomID(int id);
+	
+	/**
+	 * getPositionOfAtomID finds where the particle with the given atom ID is
+	 * in this cursor, so that it can be fetched with get().  Memory-backed
+	 * cursors keep an index of the particles they have read and answer in
+	 * constant time; cursors that would have to go looking return -1.
+	 * @param atomID - the particle id of the desired atom.
+	 * @return the position of the atom, or -1 if it is unknown.
+	 */
+	public int getPositionOfAtomID(int atomID);
 }
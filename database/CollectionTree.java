@@ -0,0 +1,127 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's CollectionTree class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+
+package database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The collection hierarchy, as parent/child pairs from 
+ * CollectionRelationships, held in memory so that ancestors and 
+ * descendants can be found without going back to the database for every
+ * level.
+ */
+public class CollectionTree {
+	private final HashMap<Integer, ArrayList<Integer>> parents =
+		new HashMap<Integer, ArrayList<Integer>>();
+	private final HashMap<Integer, ArrayList<Integer>> children = 
+		new HashMap<Integer, ArrayList<Integer>>();
+	
+	public void addRelationship(int parentID, int childID) {
+		add(parents, childID, parentID);
+		add(children, parentID, childID);
+	}
+	
+	private static void add(HashMap<Integer, ArrayList<Integer>> map, 
+			int key, int value) {
+		ArrayList<Integer> values = map.get(key);
+		if (values == null) {
+			values = new ArrayList<Integer>(2);
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+	
+	/**
+	 * @return the collection's parent, grandparent, and so on, nearest 
+	 * first, each once.  The collection itself isn't included.
+	 */
+	public Set<Integer> getAncestors(int collectionID) {
+		return walk(parents, collectionID);
+	}
+	
+	/**
+	 * @return all of the collection's children, their children, and so on,
+	 * each once.  The collection itself isn't included.
+	 */
+	public Set<Integer> getDescendants(int collectionID) {
+		return walk(children, collectionID);
+	}
+	
+	/**
+	 * @return the given collections and all of their ancestors.
+	 */
+	public Set<Integer> withAncestors(Iterable<Integer> collectionIDs) {
+		LinkedHashSet<Integer> result = new LinkedHashSet<Integer>();
+		for (int id : collectionIDs) {
+			if (result.add(id))
+				result.addAll(getAncestors(id));
+		}
+		return result;
+	}
+	
+	/**
+	 * Breadth-first search along one direction of the relationships; a 
+	 * collection already seen isn't followed again, so a cycle in the 
+	 * table can't hang it.
+	 */
+	private static Set<Integer> walk(HashMap<Integer, ArrayList<Integer>> edges,
+			int start) {
+		LinkedHashSet<Integer> seen = new LinkedHashSet<Integer>();
+		ArrayList<Integer> queue = new ArrayList<Integer>();
+		queue.add(start);
+		for (int i = 0; i < queue.size(); i++) {
+			ArrayList<Integer> next = edges.get(queue.get(i));
+			if (next == null)
+				continue;
+			for (int id : next) {
+				if (id != start && seen.add(id))
+					queue.add(id);
+			}
+		}
+		return seen;
+	}
+}
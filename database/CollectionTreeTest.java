@@ -0,0 +1,60 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class CollectionTreeTest extends TestCase {
+	private CollectionTree tree;
+	
+	/*
+	 *        0
+	 *        |
+	 *        2
+	 *       / \
+	 *      3   4
+	 *     / \
+	 *    5   6
+	 *        |
+	 *        7
+	 */
+	protected void setUp() {
+		tree = new CollectionTree();
+		tree.addRelationship(0, 2);
+		tree.addRelationship(2, 3);
+		tree.addRelationship(2, 4);
+		tree.addRelationship(3, 5);
+		tree.addRelationship(3, 6);
+		tree.addRelationship(6, 7);
+	}
+	
+	private ArrayList<Integer> list(Set<Integer> ids) {
+		return new ArrayList<Integer>(ids);
+	}
+	
+	public void testAncestorsNearestFirst() {
+		assertEquals(Arrays.asList(6, 3, 2, 0), list(tree.getAncestors(7)));
+		assertEquals(Arrays.asList(2, 0), list(tree.getAncestors(4)));
+		assertTrue(tree.getAncestors(0).isEmpty());
+		assertTrue(tree.getAncestors(99).isEmpty());
+	}
+	
+	public void testDescendants() {
+		assertEquals(Arrays.asList(5, 6, 7), list(tree.getDescendants(3)));
+		assertEquals(6, tree.getDescendants(0).size());
+		assertTrue(tree.getDescendants(7).isEmpty());
+	}
+	
+	public void testWithAncestors() {
+		Set<Integer> ids = tree.withAncestors(Arrays.asList(5, 4, 7));
+		assertEquals(Arrays.asList(5, 3, 2, 0, 4, 7, 6), list(ids));
+	}
+	
+	public void testCycleTerminates() {
+		tree.addRelationship(7, 2);
+		assertEquals(Arrays.asList(0, 7, 6, 3), list(tree.getAncestors(2)));
+		assertFalse(tree.getAncestors(2).contains(2));
+	}
+}
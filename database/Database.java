@@ -60,15 +60,19 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.Vector;
@@ -90,6 +94,7 @@ import ATOFMS.Peak;
 import analysis.BinnedPeakList;
 import analysis.DummyNormalizer;
 import analysis.Normalizer;
+import analysis.PlumeDetector;
 import analysis.clustering.ClusterInformation;
 import analysis.clustering.PeakList;
 import atom.ATOFMSAtomFromDB;
@@ -116,6 +121,8 @@ public abstract class Database implements InfoWarehouse {
     private static final String accessDBURLSuffix = ";READONLY=false}";
 
 	protected Connection con;
+	// what the connection was opened with, to open more like it
+	private String connectionString, connectionUser, connectionPass;
 	protected String url;
 	protected String port;
 	protected String database;
@@ -131,6 +138,14 @@ public abstract class Database implements InfoWarehouse {
 	private PrintWriter bulkInsertFileWriter;
 	private File bulkInsertFile;
 //	private String bulkInsertFileName;
+	private int bulkLoadChunkSize = BatchedStatementLoader.DEFAULT_CHUNK_SIZE;
+	// seeds the RandomizedCursors; null until seedRandom is called
+	private Long randomSeed = null;
+	// collections whose InternalAtomOrder rows are stale; non-null only 
+	// between deferInternalAtomOrderUpdates and flushInternalAtomOrderUpdates
+	private Set<Integer> deferredAtomOrder = null;
+	// whole TimeSeries collections, for conditional queries; made on first use
+	private TimeSeriesCache timeSeriesCache = null;
 	
 	protected boolean isDirty = false;
 	public boolean isDirty(){
@@ -268,6 +283,9 @@ public abstract class Database implements InfoWarehouse {
 		try {
 			con = DriverManager.getConnection(connectionstr, user, pass);
 			con.setAutoCommit(true);
+			connectionString = connectionstr;
+			connectionUser = user;
+			connectionPass = pass;
 			//ResultSet rs = con.createStatement().executeQuery("SELECT db_name()");
 			//rs.next();
 			//System.out.println("use database: "+rs.getString(1));
@@ -282,6 +300,15 @@ public abstract class Database implements InfoWarehouse {
 		return true;
 	}
 
+	public Connection openSeparateConnection() throws SQLException {
+		if (connectionString == null)
+			throw new SQLException("No connection is open to copy");
+		Connection separate = DriverManager.getConnection(
+				connectionString, connectionUser, connectionPass);
+		separate.setAutoCommit(true);
+		return separate;
+	}
+
 	/**
 	 * Close the connection to this database
 	 * @return true on success
@@ -513,6 +540,8 @@ public abstract class Database implements InfoWarehouse {
 	{
 		String[] tables;
 		BulkBucket[] buckets;
+		BulkLoader loader;
+		boolean finished = false;
 
 		public Data_bulkBucket(String[] tables){
 
@@ -528,31 +557,115 @@ public abstract class Database implements InfoWarehouse {
 			}
 		}
 		
+		/**
+		 * Sends the rows straight to a BulkLoader instead of to files.
+		 */
+		public Data_bulkBucket(String[] tables, BulkLoader loader) {
+			this.tables = tables;
+			this.loader = loader;
+		}
+		
+		public void append(int table, String values) throws SQLException {
+			if (loader != null)
+				loader.append(tables[table], values);
+			else
+				buckets[table].append(values);
+		}
+		
 		public void close() {
-		  for(int i = 0; i<tables.length; i++)
-			  buckets[i].close();
-	  }
+			if (buckets == null)
+				return;
+			for(int i = 0; i<tables.length; i++)
+				buckets[i].close();
+		}
 
 		public void cleanUp() {
-			  for(int i = 0; i<tables.length; i++)
-				  buckets[i].cleanUp();
-		  }
+			if (buckets == null)
+				return;
+			for(int i = 0; i<tables.length; i++)
+				buckets[i].cleanUp();
+		}
+		
+		/**
+		 * Throws away whatever hasn't been inserted yet.  Call this if the
+		 * import doesn't get as far as BulkInsertDataParticles(), so that 
+		 * no background writer or temporary files are left behind; after
+		 * BulkInsertDataParticles() it does nothing.
+		 */
+		public void abort() {
+			if (loader != null) {
+				loader.abort();
+				return;
+			}
+			if (buckets == null || finished)
+				return;
+			finished = true;
+			close();
+			cleanUp();
+		}
 
 		public String sqlCmd() {
-			 String querys = "";
-			 for(int i = 0; i<tables.length; i++)
-				 querys += buckets[i].sqlCmd();
-			 return querys;
-	  }
+			String querys = "";
+			if (buckets == null)
+				return querys;
+			for(int i = 0; i<tables.length; i++)
+				querys += buckets[i].sqlCmd();
+			return querys;
+		}
 	}
 
 	/**
+	 * Rows go to BULK INSERT files when the server can read them, that is,
+	 * when it's on this machine.  Otherwise they go through batches of 
+	 * prepared statements, written on a thread of their own with a 
+	 * connection of its own, all in one transaction.  If that connection
+	 * can't be opened, they're written through this one as they come.
 	 * @param the names of the database tables for different type of particle data
 	 * @return Data_bulkBucket 
 	 * @author SLH
 	 */
 	public Data_bulkBucket getDatabulkBucket(String[] tables) {
-		return new Data_bulkBucket(tables);
+		if (url.equals("localhost"))
+			return new Data_bulkBucket(tables);
+		Connection separate = null;
+		try {
+			separate = openSeparateConnection();
+			return new Data_bulkBucket(tables, new BackgroundLoader(
+					new BatchedStatementLoader(separate, bulkLoadChunkSize, true),
+					bulkLoadChunkSize, BackgroundLoader.DEFAULT_QUEUE_LENGTH));
+		} catch (SQLException e) {
+			ErrorLogger.writeExceptionToLog(getName(), 
+					"Couldn't open a connection for loading particles " +
+					"in the background: " + e);
+			if (separate != null) {
+				try {
+					separate.close();
+				} catch (SQLException e2) {
+					e2.printStackTrace();
+				}
+			}
+			return new Data_bulkBucket(tables, 
+					new BatchedStatementLoader(con, bulkLoadChunkSize));
+		}
+	}
+	
+	/**
+	 * @param tables the names of the database tables for the particle data
+	 * @param loader where to send the rows
+	 * @return a Data_bulkBucket that writes through loader
+	 */
+	public Data_bulkBucket getDatabulkBucket(String[] tables, BulkLoader loader) {
+		return new Data_bulkBucket(tables, loader);
+	}
+	
+	/**
+	 * Sets how many rows are sent to the server at a time when particles
+	 * are loaded through prepared statements.
+	 */
+	public void setBulkLoadChunkSize(int rows) {
+		if (rows < 1)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		bulkLoadChunkSize = rows;
 	}
 
 	/**
@@ -564,6 +677,11 @@ public abstract class Database implements InfoWarehouse {
     public void BulkInsertDataParticles(Data_bulkBucket bigBucket)
 	{
     	try {
+    		if (bigBucket.loader != null) {
+    			bigBucket.loader.close();
+    			return;
+    		}
+    		bigBucket.finished = true;
     		bigBucket.close();
 
     		Statement stmt = con.createStatement();
@@ -606,29 +724,29 @@ public abstract class Database implements InfoWarehouse {
 		try {
 			for(int i =0; i<num_tables; i++) {
 				if(bigBucket.tables[i].equals("AMSAtomInfoDense")) 
-					bigBucket.buckets[i].append(nextID + "," + dense );
+					bigBucket.append(i, nextID + "," + dense );
 				
 				if(bigBucket.tables[i].equals("ATOFMSAtomInfoDense")) 
-					bigBucket.buckets[i].append(nextID + "," + dense );
+					bigBucket.append(i, nextID + "," + dense );
 				
 				if(bigBucket.tables[i].equals("AMSAtomInfoSparse"))
 					for (int j = 0; j < sparse.size(); ++j) {
-						bigBucket.buckets[i].append(nextID + "," + sparse.get(j));
+						bigBucket.append(i, nextID + "," + sparse.get(j));
 					}
 				
 				if(bigBucket.tables[i].equals("ATOFMSAtomInfoSparse"))
 					for (int j = 0; j < sparse.size(); ++j) {
-						bigBucket.buckets[i].append(nextID + "," + sparse.get(j));
+						bigBucket.append(i, nextID + "," + sparse.get(j));
 					}
 				
 				if(bigBucket.tables[i].equals("AtomMembership"))
-					bigBucket.buckets[i].append(collection.getCollectionID() + "," + nextID );
+					bigBucket.append(i, collection.getCollectionID() + "," + nextID );
 				
 				if(bigBucket.tables[i].equals("DataSetMembers"))
-					bigBucket.buckets[i].append(datasetID + "," + nextID );
+					bigBucket.append(i, datasetID + "," + nextID );
 				
 				if(bigBucket.tables[i].equals("InternalAtomOrder"))
-					bigBucket.buckets[i].append(nextID + "," +collection.getCollectionID() );
+					bigBucket.append(i, nextID + "," +collection.getCollectionID() );
 			}
 		
 		} catch (SQLException e) {
@@ -1283,68 +1401,118 @@ public abstract class Database implements InfoWarehouse {
 	 * collection and its unique children, the original collection 
 	 * remains with original parent and a duplicate with a new id is 
 	 * assigned to the new parent.  
+	 * 
+	 * The whole subtree is copied on the server: a temp table maps each 
+	 * old CollectionID to its new one, and the collections, relationships,
+	 * memberships and InternalAtomOrder rows are each duplicated through it
+	 * with one INSERT ... SELECT.
 	 * @param collectionID The collection id of the collection to move.
 	 * @param toParentID The collection id of the new parent.  
 	 * @return The collection id of the copy.  
 	 */
 	public int copyCollection(Collection collection, Collection toCollection)
 	{
+		int col = collection.getCollectionID();
+		int toCol = toCollection.getCollectionID();
+		if (col == toCol) {
+			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"Cannot copy a collection into itself.");
+			System.err.println("Cannot copy a collection into itself");
+			return -1;
+		}
+		
+		// the source subtree, parents before children, is snapshotted 
+		// before anything is written, so copying a collection into one of
+		// its own descendants copies it just once.
+		CollectionTree tree = readCollectionTree();
+		ArrayList<Integer> subtree = new ArrayList<Integer>();
+		subtree.add(col);
+		subtree.addAll(tree.getDescendants(col));
+		
 		int newID = -1;
+		// old id -> new id
+		HashMap<Integer, Integer> remap = new HashMap<Integer, Integer>();
+		boolean ownTransaction = false;
 		try {
-			if (collection.getCollectionID() == toCollection.getCollectionID())
-				throw new SQLException("Cannot copy a collection into itself");
-			
 			Statement stmt = con.createStatement();
-			
-			// Get Collection info:
-			ResultSet rs = stmt.executeQuery("SELECT Name, Comment, Description\n" +
-					"FROM Collections\n" +
-					"WHERE CollectionID = " +
-					collection.getCollectionID());
-			boolean next = rs.next();
-			assert (next) : "Error copying collection information";
-			newID = createEmptyCollection(collection.getDatatype(),
-					toCollection.getCollectionID(), 
-					rs.getString(1), rs.getString(2),rs.getString(3));
-			Collection newCollection = getCollection(newID);
-			String description = getCollectionDescription(collection.getCollectionID());
-			if (description  != null)
-				setCollectionDescription(newCollection, getCollectionDescription(collection.getCollectionID()));
-			
-			rs = stmt.executeQuery("SELECT AtomID\n" +
-					"FROM AtomMembership\n" +
-					"WHERE CollectionID = " +
-					collection.getCollectionID());
-			System.out.println("Copying: " + collection.getCollectionID());
-			System.out.println("new CollectionID: " + newID);
-			while (rs.next())
-			{
-				stmt.addBatch("INSERT INTO AtomMembership " +
-						"(CollectionID, AtomID) " +
-						"VALUES (" + newID + ", " +
-						rs.getInt("AtomID") + 
-				")");
-			}
-
-			stmt.executeBatch();
+			ResultSet rs = stmt.executeQuery("SELECT MAX(CollectionID)\n" +
+					"FROM Collections\n");
+			rs.next();
+			int firstID = rs.getInt(1) + 1;
 			rs.close();
-			// Get Children
-			ArrayList<Integer> children = getImmediateSubCollections(collection);
-			for (int i = 0; i < children.size(); i++) {
-				copyCollection(getCollection(children.get(i)), newCollection);			
-			}
 			
+			for (int i = 0; i < subtree.size(); i++)
+				remap.put(subtree.get(i), firstID + i);
+			stmt.executeUpdate("IF (OBJECT_ID('tempdb..#CollectionRemap') " +
+					"IS NOT NULL)\n" +
+					"	DROP TABLE #CollectionRemap\n");
+			stmt.executeUpdate("CREATE TABLE #CollectionRemap " +
+					"(OldID int, NewID int, NewParentID int)");
+			PreparedStatement insertRemap = con.prepareStatement(
+					"INSERT INTO #CollectionRemap VALUES (?, ?, ?)");
+			insertRemap.setInt(1, col);
+			insertRemap.setInt(2, firstID);
+			insertRemap.setInt(3, toCol);
+			insertRemap.addBatch();
+			for (int i = 1; i < subtree.size(); i++) {
+				int oldID = subtree.get(i);
+				insertRemap.setInt(1, oldID);
+				insertRemap.setInt(2, remap.get(oldID));
+				insertRemap.setInt(3, 
+						remap.get(tree.getAncestors(oldID).iterator().next()));
+				insertRemap.addBatch();
+			}
+			
+			ownTransaction = con.getAutoCommit();
+			if (ownTransaction)
+				con.setAutoCommit(false);
+			insertRemap.executeBatch();
+			insertRemap.close();
+			stmt.executeUpdate("INSERT INTO Collections\n" +
+					"(CollectionID, Name, Comment, Description, Datatype)\n" +
+					"SELECT r.NewID, c.Name, c.Comment, c.Description, c.Datatype\n" +
+					"FROM Collections c, #CollectionRemap r\n" +
+					"WHERE c.CollectionID = r.OldID");
+			stmt.executeUpdate("INSERT INTO CollectionRelationships\n" +
+					"(ParentID, ChildID)\n" +
+					"SELECT NewParentID, NewID FROM #CollectionRemap");
+			stmt.executeUpdate("INSERT INTO AtomMembership (CollectionID, AtomID)\n" +
+					"SELECT r.NewID, am.AtomID\n" +
+					"FROM AtomMembership am, #CollectionRemap r\n" +
+					"WHERE am.CollectionID = r.OldID");
+			// the copy has the same shape as the original, so its 
+			// InternalAtomOrder rows are the original's, relabelled.
+			stmt.executeUpdate("INSERT INTO InternalAtomOrder (AtomID, CollectionID)\n" +
+					"SELECT iao.AtomID, r.NewID\n" +
+					"FROM InternalAtomOrder iao, #CollectionRemap r\n" +
+					"WHERE iao.CollectionID = r.OldID");
+			if (ownTransaction) {
+				con.commit();
+				con.setAutoCommit(true);
+			}
+			stmt.executeUpdate("DROP TABLE #CollectionRemap");
 			stmt.close();
-			
-			// update new collection's ancestors.
-			updateAncestors(newCollection);
-			return newID;
+			newID = firstID;
 		} catch (SQLException e) {
+			try {
+				if (ownTransaction) {
+					con.rollback();
+					con.setAutoCommit(true);
+				}
+			} catch (SQLException e2) {
+				e2.printStackTrace();
+			}
 			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception copying collection "+collection.getName());
 			System.err.println("Exception copying collection: ");
 			e.printStackTrace();
 			return -1;
 		}
+		
+		// the new ancestors only gain atoms.  If updates are deferred the
+		// original's rows may be out of date, so the copies are as well.
+		if (deferredAtomOrder != null)
+			deferredAtomOrder.addAll(remap.values());
+		propagateNewCollection(getCollection(newID));
+		return newID;
 	}
 	
 	/**
@@ -1370,13 +1538,30 @@ public abstract class Database implements InfoWarehouse {
 			int col = collection.getCollectionID();
 			int toCol = toCollection.getCollectionID();
 			
+			int fromCol = getParentCollectionID(col);
+			
 			Statement stmt = con.createStatement();
 			stmt.executeUpdate("UPDATE CollectionRelationships\n" +
 					"SET ParentID = " + toCol + "\n" +
 					"WHERE ChildID = " + col);
 			
-			// update InternalAtomOrder table.
-			updateAncestors(collection);
+			// update InternalAtomOrder table.  The moved subtree's own rows
+			// don't change; ancestors it left may lose atoms, and ancestors
+			// it joined only gain them.
+			if (deferredAtomOrder != null) {
+				deferredAtomOrder.add(col);
+				deferredAtomOrder.add(fromCol);
+			} else {
+				CollectionTree tree = readCollectionTree();
+				Set<Integer> oldChain = tree.withAncestors(
+						Arrays.asList(fromCol));
+				Set<Integer> newChain = tree.getAncestors(col);
+				Set<Integer> left = new LinkedHashSet<Integer>(oldChain);
+				left.removeAll(newChain);
+				synchronizeInternalAtomOrder(tree, left);
+				newChain.removeAll(oldChain);
+				addToInternalAtomOrder(col, newChain);
+			}
 			stmt.close();
 		} catch (SQLException e){
 			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception moving the collection "+collection.getName());
@@ -2008,8 +2193,10 @@ public abstract class Database implements InfoWarehouse {
 			stmt.execute("DELETE FROM InternalAtomOrder WHERE AtomID = " + 
 					atomID + " AND CollectionID = " + fromParentID);
 			addSingleInternalAtomToTable(atomID, toParentID);
-			updateAncestors(getCollection(fromParentID));
-			updateAncestors(getCollection(toParentID));
+			Set<Integer> changed = new LinkedHashSet<Integer>();
+			changed.add(fromParentID);
+			changed.add(toParentID);
+			refreshInternalAtomOrder(changed, true);
 			stmt.close();
 		} catch (SQLException e) {
 			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception updating AtomMembership table.");
@@ -2124,21 +2311,10 @@ public abstract class Database implements InfoWarehouse {
 		try {
 			long time = System.currentTimeMillis();
 			batchStatement.executeBatch();
-			for (int i = 0; i < alteredCollections.size(); i++)
-				updateInternalAtomOrder(getCollection(alteredCollections.get(i)));
-			
-			//when the parents of all the altered collections are the same
-			//don't need to update the parent FOR EACH subcollection, just at end
-			ArrayList<Collection> parents = new ArrayList<Collection>();
-			Collection temp;
-			for (int i = 0; i < alteredCollections.size(); i++){ 
-				temp = getCollection(alteredCollections.get(i)).getParentCollection();
-				if (! parents.contains(temp))
-					parents.add(temp);
-			}
-			//only update each distinct parent once
-			for (int i=0; i<parents.size(); i++)
-				updateAncestors(parents.get(i));
+			//the altered collections and all their ancestors are brought up
+			//to date together, so shared ancestors are only visited once
+			refreshInternalAtomOrder(
+					new LinkedHashSet<Integer>(alteredCollections), true);
 			batchStatement.close();
 			System.out.println("done with updating, time = " + (System.currentTimeMillis()-time));
 
@@ -2194,21 +2370,10 @@ public abstract class Database implements InfoWarehouse {
 			
 			time = System.currentTimeMillis();
 			System.out.println("alteredCollections.size() " + alteredCollections.size());
-			for (int i = 0; i < alteredCollections.size(); i++)
-				updateInternalAtomOrder(getCollection(alteredCollections.get(i)));
-			
-			//when the parents of all the altered collections are the same
-			//don't need to update the parent FOR EACH subcollection, just at end
-			ArrayList<Collection> parents = new ArrayList<Collection>();
-			Collection temp;
-			for (int i = 0; i < alteredCollections.size(); i++){ 
-				temp = getCollection(alteredCollections.get(i)).getParentCollection();
-				if (! parents.contains(temp))
-					parents.add(temp);
-			}
-			//only update each distinct parent once
-			for (int i=0; i<parents.size(); i++)
-				updateAncestors(parents.get(i));
+			//the altered collections and all their ancestors are brought up
+			//to date together, so shared ancestors are only visited once
+			refreshInternalAtomOrder(
+					new LinkedHashSet<Integer>(alteredCollections), true);
 			if (batchStatement != null) {
 				batchStatement.close();
 			}
@@ -2673,6 +2838,97 @@ public abstract class Database implements InfoWarehouse {
 		return particleInfo;
 	}
 	
+	/**
+	 * Finds the AtomID that starts each page of pageSize particles in the 
+	 * collection, in AtomID order.  The pages themselves are then read 
+	 * with getParticlePage, which seeks straight to its first AtomID 
+	 * rather than numbering the whole collection again.
+	 */
+	public int[] getParticlePageStarts(Collection collection, int pageSize) {
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		try {
+			Statement stmt = con.createStatement();
+			ResultSet rs = stmt.executeQuery(
+					"SELECT AtomID FROM \n(\n" +
+					"SELECT AtomID, ROW_NUMBER() OVER (ORDER BY AtomID) as rowNum\n" +
+					"FROM InternalAtomOrder WHERE CollectionID = " + 
+					collection.getCollectionID() + "\n) temptable\n" +
+					"WHERE (rowNum - 1) % " + pageSize + " = 0\n" +
+					"ORDER BY AtomID");
+			while (rs.next())
+				starts.add(rs.getInt(1));
+			stmt.close();
+		} catch (SQLException e) {
+			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception collecting particle information.");
+			System.err.println("Error finding particle pages:");
+			e.printStackTrace();
+		}
+		int[] result = new int[starts.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = starts.get(i);
+		return result;
+	}
+	
+	/**
+	 * Reads a page of the particle table: up to pageSize rows from 
+	 * AtomInfoDense, in AtomID order, starting at firstAtomID.  The rows
+	 * are laid out as in updateParticleTable.
+	 */
+	public Vector<Vector<Object>> getParticlePage(Collection collection, int firstAtomID, int pageSize) {
+		return getParticlePage(con, collection, firstAtomID, pageSize);
+	}
+	
+	public Vector<Vector<Object>> getParticlePage(Connection con, Collection collection, int firstAtomID, int pageSize) {
+		Vector<Vector<Object>> particleInfo = new Vector<Vector<Object>>(pageSize);
+		ArrayList<String> colNames = getColNames(con, collection.getDatatype(),DynamicTable.AtomInfoDense);
+		if (colNames.size() == 0)
+			return particleInfo;
+		String dense = getDynamicTableName(DynamicTable.AtomInfoDense,collection.getDatatype());
+		
+		StringBuffer query = new StringBuffer();
+		query.append("SELECT TOP ");
+		query.append(pageSize);
+		query.append(" ");
+		for (int i = 0; i < colNames.size(); i++)
+		{
+			query.append(dense);
+			query.append(".");
+			query.append(colNames.get(i));
+			query.append(",");
+		}
+		query.setLength(query.length() - 1);
+		query.append(" FROM ");
+		query.append(dense);
+		query.append(", InternalAtomOrder\n");
+		query.append("WHERE InternalAtomOrder.CollectionID = ");
+		query.append(collection.getCollectionID());
+		query.append("\nAND ");
+		query.append(dense);
+		query.append(".AtomID = InternalAtomOrder.AtomID\n");
+		query.append("AND InternalAtomOrder.AtomID >= ");
+		query.append(firstAtomID);
+		query.append("\nORDER BY InternalAtomOrder.AtomID");
+		try {
+			Statement stmt = con.createStatement();
+			ResultSet rs = stmt.executeQuery(query.toString());
+			while(rs.next())
+			{
+				Vector<Object> vtemp = new Vector<Object>(colNames.size());
+				vtemp.add(rs.getInt(1)); // Integer for atomID
+				for (int i = 2; i <= colNames.size(); i++) 
+					vtemp.add(rs.getString(i));
+				particleInfo.add(vtemp);
+			}
+			stmt.close();
+		} catch (SQLException e) {
+			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception collecting particle information.");
+			System.err.println("Error collecting particle " +
+			"information:");
+			e.printStackTrace();
+		}
+		return particleInfo;
+	}
+	
 	public void exportDatabase(String filename,int fileType) throws FileNotFoundException {
 		DatabaseConnection dbconn = null;
 		IDataSet dataSet = null;
@@ -3452,16 +3708,26 @@ public abstract class Database implements InfoWarehouse {
 		protected InstancedResultSet irs;
 		protected ResultSet rs;
 		protected Statement stmt = null;
-		private Collection collection;
-		private ClusterInformation cInfo;
-		private String datatype;
+		protected Collection collection;
+		protected ClusterInformation cInfo;
+		protected String datatype;
 		
 		public ClusteringCursor(Collection collection, ClusterInformation cInfo) {
+			this(collection, cInfo, true);
+		}
+		
+		/**
+		 * @param listAtoms false if a subclass gets its atoms some other
+		 * way and doesn't need the list of AtomIDs for the collection.
+		 */
+		protected ClusteringCursor(Collection collection, 
+				ClusterInformation cInfo, boolean listAtoms) {
 			super();
 			this.collection = collection;
 			datatype = collection.getDatatype();
 			this.cInfo = cInfo;
-			rs = getAllAtomsRS(collection);
+			if (listAtoms)
+				rs = getAllAtomsRS(collection);
 		}
 		
 		public boolean next() {
@@ -3519,6 +3785,10 @@ public abstract class Database implements InfoWarehouse {
 			throw new NoSuchMethodException("Not implemented in disk based cursors.");
 		}
 		
+		public int getPositionOfAtomID(int atomID) {
+			return -1;
+		}
+		
 		public BinnedPeakList getPeakListfromAtomID(int id) {
 			BinnedPeakList peakList;
 			if (cInfo.normalize)
@@ -3568,26 +3838,156 @@ public abstract class Database implements InfoWarehouse {
 		}
 	}
 	
+	/**
+	 * Streaming Clustering Cursor.  Returns the same binned peak lists as
+	 * a ClusteringCursor, but instead of running one query per atom it 
+	 * reads the sparse (or, when cInfo.automatic is set, the dense) rows
+	 * for the whole collection in one scan ordered by AtomID, the way
+	 * BPLOnlyCursor does, and assembles each peak list as its rows go by.
+	 * getPeakListfromAtomID still works, one query at a time.
+	 */
+	private class StreamingClusteringCursor extends ClusteringCursor {
+		private Statement peakStmt;
+		private ResultSet peakRS;
+		// true when peakRS is sitting on a row that hasn't been used yet
+		private boolean rowPending;
+		private ParticleInfo current;
+		
+		public StreamingClusteringCursor(Collection collection, 
+				ClusterInformation cInfo) {
+			super(collection, cInfo, false);
+			openScan();
+		}
+		
+		private String getScanQuery() {
+			int collectionID = collection.getCollectionID();
+			if (cInfo.automatic) {
+				String dense = getDynamicTableName(DynamicTable.AtomInfoDense, datatype);
+				return "SELECT InternalAtomOrder.AtomID, " + 
+					join(cInfo.valueColumns, ",") + "\n" +
+					"FROM InternalAtomOrder, " + dense + "\n" +
+					"WHERE InternalAtomOrder.CollectionID = " + collectionID + "\n" +
+					"AND " + dense + ".AtomID = InternalAtomOrder.AtomID\n" +
+					"ORDER BY InternalAtomOrder.AtomID";
+			}
+			else {
+				// outer join, so that atoms without any peaks still show
+				// up (with empty peak lists) like they do in a ClusteringCursor
+				String sparse = getDynamicTableName(DynamicTable.AtomInfoSparse, datatype);
+				return "SELECT InternalAtomOrder.AtomID, " + cInfo.keyColumn + 
+					", " + cInfo.valueColumns.iterator().next() + "\n" +
+					"FROM InternalAtomOrder LEFT OUTER JOIN " + sparse + "\n" +
+					"ON " + sparse + ".AtomID = InternalAtomOrder.AtomID\n" +
+					"WHERE InternalAtomOrder.CollectionID = " + collectionID + "\n" +
+					"ORDER BY InternalAtomOrder.AtomID";
+			}
+		}
+		
+		private void openScan() {
+			current = null;
+			try {
+				peakStmt = con.createStatement();
+				peakStmt.setFetchSize(1000);
+				peakRS = peakStmt.executeQuery(getScanQuery());
+				rowPending = peakRS.next();
+			} catch (SQLException e) {
+				ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving data through a streaming clustering cursor.");
+				System.err.println("Error opening the peak scan.");
+				e.printStackTrace();
+				rowPending = false;
+			}
+		}
+		
+		public boolean next() {
+			current = null;
+			if (!rowPending)
+				return false;
+			BinnedPeakList peakList;
+			if (cInfo.normalize)
+				peakList = new BinnedPeakList(new Normalizer());
+			else
+				peakList = new BinnedPeakList(new DummyNormalizer());
+			try {
+				int atomID = peakRS.getInt(1);
+				if (cInfo.automatic) {
+					for (int i = 1; i <= cInfo.valueColumns.size(); i++) {
+						//TODO: this is a hack; fix.
+						try {
+							peakList.addNoChecks(i, peakRS.getFloat(i + 1));
+						} catch (SQLException e) {
+							peakList.addNoChecks(i, peakRS.getInt(i + 1));
+						}
+					}
+					rowPending = peakRS.next();
+				}
+				else {
+					do {
+						float location = peakRS.getFloat(2);
+						if (!peakRS.wasNull())
+							peakList.add(location, peakRS.getFloat(3));
+						rowPending = peakRS.next();
+					} while (rowPending && peakRS.getInt(1) == atomID);
+				}
+				current = new ParticleInfo();
+				current.setID(atomID);
+				current.setBinnedList(peakList);
+				return true;
+			} catch (SQLException e) {
+				ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving data through a streaming clustering cursor.");
+				System.err.println("Error retrieving the " +
+				"next row");
+				e.printStackTrace();
+				rowPending = false;
+				return false;
+			}
+		}
+		
+		public ParticleInfo getCurrent() {
+			return current;
+		}
+		
+		public void reset() {
+			close();
+			openScan();
+		}
+		
+		public void close() {
+			try {
+				if (peakRS != null)
+					peakRS.close();
+				if (peakStmt != null)
+					peakStmt.close();
+			} catch (SQLException e) {
+				ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving data through a streaming clustering cursor.");
+				e.printStackTrace();
+			}
+		}
+	}
+	
 	/**
 	 * Memory Clustering Cursor.  Returns binned peak info for a given atom,
 	 * info kept in memory.
 	 */
-	private class MemoryClusteringCursor extends ClusteringCursor {
+	private class MemoryClusteringCursor extends StreamingClusteringCursor {
 		InfoWarehouse db;
 		boolean firstPass = true;
 		int position = -1;
 		
 		ArrayList<ParticleInfo> storedInfo = null;
+		// where each atom is in storedInfo
+		IntIntHashMap positions = null;
 		
 		public MemoryClusteringCursor(Collection collection, ClusterInformation cInfo) {
 			super (collection, cInfo);
 			storedInfo = new ArrayList<ParticleInfo>(100);
+			positions = new IntIntHashMap(100);
 		}
 		
 		public void reset()
 		{
 			if (firstPass) {
 				storedInfo.clear();
+				positions.clear();
 				super.reset();
 			}
 			position = -1;
@@ -3599,8 +3999,11 @@ public abstract class Database implements InfoWarehouse {
 			if (firstPass)
 			{
 				boolean superNext = super.next();
-				if (superNext)
+				if (superNext) {
+					positions.putIfAbsent(super.getCurrent().getID(), 
+							storedInfo.size());
 					storedInfo.add(super.getCurrent());
+				}
 				else
 					firstPass = false;
 				return superNext;
@@ -3626,12 +4029,15 @@ public abstract class Database implements InfoWarehouse {
 		}
 		
 		public BinnedPeakList getPeakListfromAtomID(int atomID) {
-			for (ParticleInfo particleInfo : storedInfo) {
-				if (particleInfo.getID() == atomID)
-					return particleInfo.getBinnedList();
-			}
+			int i = positions.get(atomID, -1);
+			if (i >= 0)
+				return storedInfo.get(i).getBinnedList();
 			return super.getPeakListfromAtomID(atomID);
 		}
+		
+		public int getPositionOfAtomID(int atomID) {
+			return positions.get(atomID, -1);
+		}
 	}
 	
 	/**
@@ -3701,6 +4107,10 @@ public abstract class Database implements InfoWarehouse {
 			}
 		}
 
+		public int getPositionOfAtomID(int atomID) {
+			return -1;
+		}
+		
 		public BinnedPeakList getPeakListfromAtomID(int id) {
 			// TODO Auto-generated method stub
 			throw new UnsupportedOperationException("getPeakListfromAtomID not implemented for BPLOnlyCursor");
@@ -3849,6 +4259,10 @@ public abstract class Database implements InfoWarehouse {
 			throw new NoSuchMethodException("Not implemented in disk based cursors.");
 		}
 		
+		public int getPositionOfAtomID(int atomID) {
+			return -1;
+		}
+		
 		public BinnedPeakList getPeakListfromAtomID(int atomID) {
 			BinnedPeakList peakList = new BinnedPeakList(new Normalizer());
 			try {
@@ -3947,6 +4361,10 @@ public abstract class Database implements InfoWarehouse {
 			}
 		}
 
+		public int getPositionOfAtomID(int atomID) {
+			return -1;
+		}
+		
 		/**
 		 * Not implemented for an AtomIDCursor - the datatype could theoretically
 		 * not have any spectrum information.
@@ -4134,129 +4552,235 @@ public abstract class Database implements InfoWarehouse {
 	}
 	
 	/**
-	 * Randomized Cursor.  Returns randomized atom info.
-	 *
-	 * NOTE:  Randomization cursor info found at 
-	 * http://www.sqlteam.com/item.asp?ItemID=217
-	 * 
-	 * Updated 12/05 at http://www.sqlteam.com/item.asp?ItemID=217
+	 * Randomized Cursor.  Returns the binned peak lists of a collection's 
+	 * atoms in random order.
 	 * 
-	 * Updated again 6/06 at http://www.sqlteam.com/item.asp?ItemID=8747
-	 * which has a much faster method for random ordering, but it will
-	 * only work on Windows 2000 and above.
+	 * The order is worked out on the client: the collection's AtomIDs are 
+	 * read once, in AtomID order, and then either shuffled or reservoir 
+	 * sampled with a SplittableRandom seeded by seedRandom(), so the same 
+	 * seed always gives the same particles in the same order.  The peaks 
+	 * are then fetched BATCH_SIZE atoms at a time.  reset() replays the same
+	 * order without going back for the AtomIDs.
 	 */
-	private class RandomizedCursor extends BinnedCursor {
-		protected Statement stmt = null;
+	private class RandomizedCursor implements CollectionCursor {
+		private static final int BATCH_SIZE = 500;
 		private Collection collection;
+		private Statement stmt = null;
+		private int[] atomIDs;
+		// atomIDs[batchStart] is batch[0]
+		private int batchStart = 0;
+		private ParticleInfo[] batch = new ParticleInfo[0];
+		private int position = -1;
+		
 		/**
-		 * @param collectionID
+		 * Walks every atom in the collection, in random order.
 		 */
 		public RandomizedCursor(Collection col) {
-			super(col);
+			this(col, -1);
+		}
+		
+		/**
+		 * @param sampleSize how many randomly chosen atoms to walk, or -1
+		 * for all of them.
+		 */
+		public RandomizedCursor(Collection col, int sampleSize) {
 			collection = col;
-			//Statement stmt = null;
+			SplittableRandom random = newSplittableRandom();
 			try {
 				stmt = con.createStatement();
-				
-				// Drop table if it already exists.
-				stmt.execute("IF (OBJECT_ID('tempdb..#TempRand') " +
-						"IS NOT NULL)\n" +
-				"	DROP TABLE #TempRand\n");
-				//These strings constitute the entire SQL query for randomization.
-				String createTable = "CREATE TABLE #TempRand (AtomID int NOT NULL,RandNum float NULL)";
-				String insertAtoms = "INSERT #TempRand (AtomID) SELECT AtomID " 
-					+ "FROM InternalAtomOrder WHERE CollectionID = " + col.getCollectionID()+ " ORDER BY AtomID";
-				String randomize = "DECLARE Randomizer CURSOR" +
-				" FOR SELECT RandNum FROM #TempRand" +
-				" OPEN Randomizer"+
-				" FETCH NEXT FROM Randomizer" +
-				" WHILE @@Fetch_Status != -1" +
-				" BEGIN UPDATE #TempRand SET RandNum = rand()" +
-				" WHERE CURRENT OF Randomizer"+
-				" FETCH NEXT FROM Randomizer" +
-				" END"+
-				" CLOSE Randomizer"+
-				" DEALLOCATE Randomizer";
-				String cursorQuery = "SELECT "+getDynamicTableName(DynamicTable.AtomInfoDense,collection.getDatatype())+".AtomID, OrigFilename, ScatDelay," +
-				" LaserPower, [Time] FROM "+getDynamicTableName(DynamicTable.AtomInfoDense,collection.getDatatype())+", #TempRand WHERE " +
-				getDynamicTableName(DynamicTable.AtomInfoDense,collection.getDatatype())+".AtomID = #TempRand.AtomID"+
-				" ORDER BY RandNum";
-				//System.out.println(createTable);
-				stmt.execute(createTable);
-				//System.out.println(insertAtoms);
-				stmt.execute(insertAtoms);
-				//System.out.println(randomize);
-				stmt.execute(randomize);
-				//System.out.println(cursorQuery);
-				partInfRS = stmt.executeQuery(cursorQuery);
-				//System.out.println("got result set");
+				if (sampleSize < 0)
+					atomIDs = AtomIDSampler.shuffle(readAtomIDs(), random);
+				else
+					atomIDs = sampleAtomIDs(sampleSize, random);
 			} catch (SQLException e) {
 				ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving data through a Randomized cursor.");
 				System.err.println("Could not randomize atoms.");
 				e.printStackTrace();
+				atomIDs = new int[0];
 			}
 		}
-		public void close() {
-			try {
-				con.createStatement().executeUpdate(
-				"DROP Table #TempRand");
-				super.close();
-			} catch (SQLException e) {
-				ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving data through a Randomized cursor.");
-				e.printStackTrace();
+		
+		private ResultSet scanAtomIDs() throws SQLException {
+			stmt.setFetchSize(1000);
+			return stmt.executeQuery("SELECT AtomID FROM InternalAtomOrder " +
+					"WHERE CollectionID = " + collection.getCollectionID() + 
+					" ORDER BY AtomID");
+		}
+		
+		private int[] readAtomIDs() throws SQLException {
+			int[] ids = new int[1024];
+			int count = 0;
+			ResultSet rs = scanAtomIDs();
+			while (rs.next()) {
+				if (count == ids.length)
+					ids = Arrays.copyOf(ids, count * 2);
+				ids[count++] = rs.getInt(1);
 			}
+			rs.close();
+			return Arrays.copyOf(ids, count);
 		}
-		public void reset()
-		{
-			
+		
+		private int[] sampleAtomIDs(int sampleSize, SplittableRandom random) 
+		throws SQLException {
+			AtomIDSampler sampler = new AtomIDSampler(sampleSize, random);
+			ResultSet rs = scanAtomIDs();
+			while (rs.next())
+				sampler.offer(rs.getInt(1));
+			rs.close();
+			return sampler.getSample();
+		}
+		
+		/**
+		 * Reads the peaks of the next BATCH_SIZE atoms, starting at 
+		 * atomIDs[start], in one query.
+		 */
+		private void readBatch(int start) {
+			int end = Math.min(start + BATCH_SIZE, atomIDs.length);
+			IntIntHashMap slots = new IntIntHashMap(end - start);
+			StringBuilder ids = new StringBuilder();
+			ArrayList<ArrayList<Peak>> peaks = 
+				new ArrayList<ArrayList<Peak>>(end - start);
+			for (int i = start; i < end; i++) {
+				slots.put(atomIDs[i], i - start);
+				if (i > start)
+					ids.append(",");
+				ids.append(atomIDs[i]);
+				peaks.add(new ArrayList<Peak>());
+			}
 			try {
-				partInfRS.close();
-				String cursorQuery = "SELECT "+getDynamicTableName(DynamicTable.AtomInfoDense,collection.getDatatype())+".AtomID, OrigFilename, ScatDelay," +
-				" LaserPower, [Time] FROM "+getDynamicTableName(DynamicTable.AtomInfoDense,collection.getDatatype())+", #TempRand WHERE " +
-				getDynamicTableName(DynamicTable.AtomInfoDense,collection.getDatatype())+".AtomID = #TempRand.AtomID"+
-				" ORDER BY RandNum";
-				partInfRS = stmt.executeQuery(cursorQuery);
+				ResultSet rs = stmt.executeQuery(
+						"SELECT AtomID, PeakHeight, PeakArea, RelPeakArea, PeakLocation\n" +
+						"FROM " + getDynamicTableName(DynamicTable.AtomInfoSparse,collection.getDatatype()) + "\n" +
+						"WHERE AtomID IN (" + ids + ")");
+				while (rs.next()) {
+					peaks.get(slots.get(rs.getInt(1), -1)).add(
+							new ATOFMSPeak(rs.getInt(2), rs.getInt(3), 
+									rs.getFloat(4), rs.getFloat(5)));
+				}
+				rs.close();
 			} catch (SQLException e) {
 				ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving data through a Randomized cursor.");
-				System.err.println("SQL Error resetting cursor: ");
 				e.printStackTrace();
 			}
+			batch = new ParticleInfo[end - start];
+			for (int i = 0; i < batch.length; i++) {
+				PeakList pList = new PeakList();
+				pList.setAtomID(atomIDs[start + i]);
+				pList.setPeakList(peaks.get(i));
+				BinnedPeakList bPList = new BinnedPeakList(new Normalizer());
+				for (Peak peak : peaks.get(i))
+					bPList.add((float)peak.massToCharge, (float)peak.value);
+				ParticleInfo pInfo = new ParticleInfo();
+				pInfo.setPeakList(pList);
+				pInfo.setID(pList.getAtomID());
+				pInfo.setBinnedList(bPList);
+				batch[i] = pInfo;
+			}
+			batchStart = start;
 		}
-	}
-	
-	/**
-	 * Memory Binned Cursor.  Returns binned peak info for a given atom,
-	 * info kept in memory.
-	 */
-	public class MemoryBinnedCursor extends BinnedCursor {
-		InfoWarehouse db;
-		boolean firstPass = true;
-		int position = -1;
 		
-		ArrayList<ParticleInfo> storedInfo = null;
+		public boolean next() {
+			if (position + 1 >= atomIDs.length)
+				return false;
+			position++;
+			if (position >= batchStart + batch.length)
+				readBatch(position);
+			return true;
+		}
 		
-		public MemoryBinnedCursor(Collection collection) {
-			super (collection);
-			storedInfo = new ArrayList<ParticleInfo>(100);
+		public ParticleInfo getCurrent() {
+			return batch[position - batchStart];
 		}
 		
-		public void reset()
-		{
-			if (firstPass) {
-				storedInfo.clear();
-				super.reset();
-			}
+		public void reset() {
 			position = -1;
+			batchStart = 0;
+			batch = new ParticleInfo[0];
 		}
 		
-		public boolean next()
+		public void close() {
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving data through a Randomized cursor.");
+				e.printStackTrace();
+			}
+		}
+		
+		public ParticleInfo get(int i) 
+		throws NoSuchMethodException {
+			throw new NoSuchMethodException("Not implemented in disk based cursors.");
+		}
+		
+		public int getPositionOfAtomID(int atomID) {
+			return -1;
+		}
+		
+		public BinnedPeakList getPeakListfromAtomID(int atomID) {
+			BinnedPeakList peakList = new BinnedPeakList(new Normalizer());
+			try {
+				ResultSet rs = 
+					con.createStatement().executeQuery(
+							"SELECT PeakLocation,PeakArea\n" +
+							"FROM " + getDynamicTableName(DynamicTable.AtomInfoSparse,collection.getDatatype()) + "\n" +
+							"WHERE AtomID = " + atomID);
+				while(rs.next()) {
+					peakList.add(
+							rs.getFloat(1),
+							rs.getInt(2));
+				}
+				rs.close();
+				return peakList;
+			} catch (SQLException e) {
+				ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving data through a Randomized cursor.");
+				System.err.println("Error retrieving peak " +
+				"list.");
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * Memory Binned Cursor.  Returns binned peak info for a given atom,
+	 * info kept in memory.
+	 */
+	public class MemoryBinnedCursor extends BinnedCursor {
+		InfoWarehouse db;
+		boolean firstPass = true;
+		int position = -1;
+		
+		ArrayList<ParticleInfo> storedInfo = null;
+		// where each atom is in storedInfo
+		IntIntHashMap positions = null;
+		
+		public MemoryBinnedCursor(Collection collection) {
+			super (collection);
+			storedInfo = new ArrayList<ParticleInfo>(100);
+			positions = new IntIntHashMap(100);
+		}
+		
+		public void reset()
+		{
+			if (firstPass) {
+				storedInfo.clear();
+				positions.clear();
+				super.reset();
+			}
+			position = -1;
+		}
+		
+		public boolean next()
 		{
 			position++;
 			if (firstPass)
 			{
 				boolean superNext = super.next();
-				if (superNext)
+				if (superNext) {
+					positions.putIfAbsent(super.getCurrent().getID(), 
+							storedInfo.size());
 					storedInfo.add(super.getCurrent());
+				}
 				else
 					firstPass = false;
 				return superNext;
@@ -4282,12 +4806,15 @@ public abstract class Database implements InfoWarehouse {
 		}
 		
 		public BinnedPeakList getPeakListfromAtomID(int atomID) {
-			for (ParticleInfo particleInfo : storedInfo) {
-				if (particleInfo.getID() == atomID)
-					return particleInfo.getBinnedList();
-			}
+			int i = positions.get(atomID, -1);
+			if (i >= 0)
+				return storedInfo.get(i).getBinnedList();
 			return new BinnedPeakList(new Normalizer());
 		}
+		
+		public int getPositionOfAtomID(int atomID) {
+			return positions.get(atomID, -1);
+		}
 	}
 	
 	/**
@@ -4355,6 +4882,16 @@ public abstract class Database implements InfoWarehouse {
 		return new RandomizedCursor(collection);
 	}
 	
+	/**
+	 * get method for a RandomizedCursor over sampleSize atoms of the 
+	 * collection, chosen by reservoir sampling in one pass over its AtomIDs.
+	 */
+	public CollectionCursor getRandomSampleCursor(Collection collection, 
+			int sampleSize)
+	{
+		return new RandomizedCursor(collection, sampleSize);
+	}
+	
 	/**
 	 * get method for ClusteringCursor.
 	 */
@@ -4364,9 +4901,29 @@ public abstract class Database implements InfoWarehouse {
 	}
 	
 	/**
-	 * Seeds the random number generator.
+	 * get method for StreamingClusteringCursor.
+	 */
+	public CollectionCursor getStreamingClusteringCursor(Collection collection, ClusterInformation cInfo)
+	{
+		return new StreamingClusteringCursor(collection, cInfo);
+	}
+	
+	/**
+	 * @return a SplittableRandom seeded by the last call to seedRandom, or 
+	 * an unpredictable one if it hasn't been called.
+	 */
+	private SplittableRandom newSplittableRandom() {
+		if (randomSeed == null)
+			return new SplittableRandom();
+		return new SplittableRandom(randomSeed.longValue());
+	}
+	
+	/**
+	 * Seeds the random number generator: both the server's RAND() and the
+	 * client-side orderings used by RandomizedCursors.
 	 */
 	public void seedRandom(int seed) {
+		randomSeed = Long.valueOf(seed);
 		try {
 			Statement stmt = con.createStatement();
 			stmt.executeQuery("SELECT RAND(" + seed + ")\n");
@@ -4437,6 +4994,10 @@ public abstract class Database implements InfoWarehouse {
 	 * @return arraylist of column names.
 	 */
 	public ArrayList<String> getColNames(String datatype, DynamicTable table) {
+		return getColNames(con, datatype, table);
+	}
+	
+	private ArrayList<String> getColNames(Connection con, String datatype, DynamicTable table) {
 		ArrayList<String> colNames = new ArrayList<String>();
 		
 		try {
@@ -5395,12 +5956,124 @@ public abstract class Database implements InfoWarehouse {
 	
 	/* @guru Jamie Olson
 	 * @see database.InfoWarehouse#getConditionalTSCollectionData(collection.Collection, java.util.ArrayList, java.util.ArrayList)
+	 * 
+	 * The sequences come from the time series cache, and the conditions are
+	 * evaluated against them in memory; only conditions the cache can't 
+	 * parse still go to the server.
 	 */
 	public Hashtable<java.util.Date, Double> getConditionalTSCollectionData(Collection seq,
 			ArrayList<Collection> conditionalSeqs, ArrayList<String> conditionStrs) {
-		/*String s = null;
-		s.charAt(5);
-		*/
+		Hashtable<java.util.Date, Double> retData = new Hashtable<java.util.Date, Double>();
+		try {
+			TimeSeriesCache.Series selected = 
+				getConditionalTSSeries(seq, conditionalSeqs, conditionStrs);
+			for (int i = 0; i < selected.size; i++)
+				retData.put(new java.util.Date(selected.times[i]), 
+						(double) selected.values[i]);
+		} catch (IllegalArgumentException e) {
+			return getConditionalTSCollectionDataFromServer(seq, 
+					conditionalSeqs, conditionStrs);
+		} catch (SQLException e) {
+			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL exception retrieving time series data.");
+			System.err.println("Error retrieving time series data.");
+			e.printStackTrace();
+		}
+		return retData;
+	}
+	
+	/**
+	 * The points of seq at which the conditions hold, sorted by time.
+	 * Each conditionStr compares "Ci.Value", the value of 
+	 * conditionalSeqs.get(i) at the same time, to a number or to another
+	 * "Cj.Value"; all but the first start with AND or OR.
+	 * @throws IllegalArgumentException if a condition isn't of that form.
+	 */
+	public TimeSeriesCache.Series getConditionalTSSeries(Collection seq,
+			List<Collection> conditionalSeqs, List<String> conditionStrs) 
+	throws SQLException {
+		TimeSeriesCache cache = getTimeSeriesCache();
+		ArrayList<TimeSeriesCache.Series> conditional = 
+			new ArrayList<TimeSeriesCache.Series>();
+		for (Collection c : conditionalSeqs)
+			conditional.add(cache.get(c.getCollectionID()));
+		return TimeSeriesCache.select(cache.get(seq.getCollectionID()), 
+				conditional, conditionStrs);
+	}
+	
+	/**
+	 * Drops every cached time series; they're reloaded as needed.
+	 */
+	public void clearTimeSeriesCache() {
+		if (timeSeriesCache != null)
+			timeSeriesCache.clear();
+	}
+	
+	private synchronized TimeSeriesCache getTimeSeriesCache() {
+		if (timeSeriesCache == null)
+			timeSeriesCache = new TimeSeriesCache(new TimeSeriesLoader(),
+					Runtime.getRuntime().maxMemory() / 8);
+		return timeSeriesCache;
+	}
+	
+	/**
+	 * Reads TimeSeries collections for the cache.  A collection's signature
+	 * is the count and range of its atom IDs, which any insert, delete or 
+	 * move changes.
+	 */
+	private class TimeSeriesLoader implements TimeSeriesCache.Loader {
+		public long[] signature(int collectionID) throws SQLException {
+			PreparedStatement stmt = con.prepareStatement(
+					"SELECT COUNT(*), MIN(AtomID), MAX(AtomID)\n" +
+					"FROM AtomMembership WHERE CollectionID = ?");
+			try {
+				stmt.setInt(1, collectionID);
+				ResultSet rs = stmt.executeQuery();
+				rs.next();
+				long[] signature = {rs.getLong(1), rs.getLong(2), rs.getLong(3)};
+				rs.close();
+				return signature;
+			} finally {
+				stmt.close();
+			}
+		}
+		
+		public TimeSeriesCache.Series load(int collectionID) throws SQLException {
+			PreparedStatement stmt = con.prepareStatement(
+					"SELECT D.Time, D.Value\n" +
+					"FROM " + getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries") + " D\n" +
+					"JOIN AtomMembership M ON (D.AtomID = M.AtomID)\n" +
+					"WHERE M.CollectionID = ? AND D.Time IS NOT NULL\n" +
+					"ORDER BY D.Time, D.AtomID");
+			try {
+				stmt.setInt(1, collectionID);
+				ResultSet rs = stmt.executeQuery();
+				long[] times = new long[1024];
+				float[] values = new float[1024];
+				int size = 0;
+				while (rs.next()) {
+					if (size == times.length) {
+						times = Arrays.copyOf(times, 2 * size);
+						values = Arrays.copyOf(values, 2 * size);
+					}
+					times[size] = rs.getTimestamp(1).getTime();
+					values[size] = rs.getFloat(2);
+					size++;
+				}
+				rs.close();
+				return TimeSeriesCache.sortedSeries(times, values, size);
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+	
+	/**
+	 * The original conditional query, evaluated entirely by the server 
+	 * with a self-join per condition.
+	 */
+	private Hashtable<java.util.Date, Double> getConditionalTSCollectionDataFromServer(
+			Collection seq, ArrayList<Collection> conditionalSeqs, 
+			ArrayList<String> conditionStrs) {
 		SimpleDateFormat parser = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
 		ArrayList<String> columnsToReturn = new ArrayList<String>();
 		columnsToReturn.add("Ts1Value");
@@ -5499,249 +6172,88 @@ public abstract class Database implements InfoWarehouse {
 	}
 	
 	public ArrayList<TreeMap<Date,Double>> createAndDetectPlumesFromPercent(Collection collection,double magnitude, int minDuration){
-		/*System.out.println("collection: |"+collection+"|");
-		System.out.println("Collection ID: "+collection.getCollectionID());
-		System.out.println("threshold: "+magnitude+"\nduration: "+minDuration);
-		*/int parentCollection = this.getParentCollectionID(collection.getCollectionID());
-		SimpleDateFormat parser = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-		
-		String atomSelStr = "SELECT CollectionID, Time, Value" +
-			"\n FROM " + getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries") + " D \n" +
-			"JOIN AtomMembership M ON (D.AtomID = M.AtomID)";
-		
-		
-		String selectAtomsStr = "SELECT T.Time as Time, T.Value AS Value\n " +
-				"FROM ("+atomSelStr+") T\n" +
-				"WHERE T.CollectionID = "+collection.getCollectionID()+" ";
-		
-		String selectValuesStr = "SELECT DISTINCT T.Time as Time, V.Value as Value\n";
-		
-		String joinStr = 
-		"FROM (SELECT CollectionID, Time, Value\n" +
-		"	FROM " + getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries") + " D\n" +
-		" 	JOIN AtomMembership M on (D.AtomID = M.AtomID)) T\n" +
-		"	JOIN CollectionRelationships CR on (CollectionID = CR.ChildID)";
-		
-		
-		String selectAllTimesStr = 
-			selectValuesStr + joinStr +
-			"WHERE ParentID = " + parentCollection+"\n";
-		
-		String selectAllAtomsTimesStr = 
-			selectValuesStr +
-			joinStr +
-		"	LEFT OUTER JOIN (" + selectAtomsStr + ") V ON (V.Time = T.Time)\n" +
-		"	WHERE ParentID = " + parentCollection+"\n";
-			
-		String datesCountStr = 
-			"SELECT COUNT(DISTINCT T.Time) as Count\n" +
-			joinStr +
-			"WHERE ParentID = " + parentCollection+"\n";
-		
-		String valuesCountStr = "SELECT COUNT(T.Time) as Count\n " +
-		"FROM ("+atomSelStr+") T\n" +
-		"WHERE T.CollectionID = "+collection.getCollectionID()+" \n";
-
-		
-		String orderedByTime = selectAllAtomsTimesStr + "     Order BY Time;\n";
-		String orderedByValue =  selectAllAtomsTimesStr + "     Order BY Value;\n";
-		
-		ArrayList<TreeMap<Date,Double>> plumes = new ArrayList<TreeMap<Date,Double>>();
-		TreeMap<Date,Double> curPlume = new TreeMap<Date,Double>();
-		try{
-			Statement stmt = con.createStatement();
-			
-			ResultSet rs;
-			System.out.println(datesCountStr);
-			rs = stmt.executeQuery(datesCountStr);
-			boolean hasRows = rs.next();
-			assert(hasRows);
-			int numParticles = rs.getInt("Count");
-			
-			System.out.println(valuesCountStr);
-			rs = stmt.executeQuery(valuesCountStr);
-			hasRows = rs.next();
-			assert(hasRows);
-			int numPeaks = rs.getInt("Count");
-			
-			System.out.println(orderedByValue);
-			rs = stmt.executeQuery(orderedByValue);
-			System.out.println("numParticles: "+numParticles+"\nnumPeaks: "+numPeaks);
-			System.out.println("skip to "+(int)(magnitude*numParticles));
-			for(int i = 0; i < (int)(magnitude*numParticles); i++){
-				hasRows = rs.next();
-				//System.out.println("Next value: "+rs.getDouble("Value"));
-				assert(hasRows);
-			}
-			double minValue = rs.getDouble("Value");
-			plumes = createAndDetectPlumesFromValue(collection,minValue,minDuration);
-		} catch (SQLException e){
-			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL exception retrieving time series data.");
-			System.err.println("Error retrieving time series data.");
-			e.printStackTrace();
-		} 
-		return plumes;
+		return detectPlumes(new Collection[] {collection}, 
+				PlumeDetector.Metric.PERCENT, magnitude, minDuration).get(0);
 	}
 	
 	public ArrayList<TreeMap<Date,Double>> createAndDetectPlumesFromMedian(Collection collection,double factor, int minDuration){
-		/*System.out.println("collection: |"+collection+"|");
-		System.out.println("Collection ID: "+collection.getCollectionID());
-		System.out.println("threshold: "+magnitude+"\nduration: "+minDuration);
-		*/int parentCollection = this.getParentCollectionID(collection.getCollectionID());
-		SimpleDateFormat parser = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-		
-		String atomSelStr = "SELECT CollectionID, Time, Value" +
-			"\n FROM " + getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries") + " D \n" +
-			"JOIN AtomMembership M ON (D.AtomID = M.AtomID)";
-		
-		
-		String selectAtomsStr = "SELECT T.Time as Time, T.Value AS Value\n " +
-				"FROM ("+atomSelStr+") T\n" +
-				"WHERE T.CollectionID = "+collection.getCollectionID()+" ";
-		
-		String selectValuesStr = "SELECT DISTINCT T.Time as Time, V.Value as Value\n";
-		
-		String joinStr = 
-		"FROM (SELECT CollectionID, Time, Value\n" +
-		"	FROM " + getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries") + " D\n" +
-		" 	JOIN AtomMembership M on (D.AtomID = M.AtomID)) T\n" +
-		"	JOIN CollectionRelationships CR on (CollectionID = CR.ChildID)";
-		
-		
-		String selectAllTimesStr = 
-			selectValuesStr + joinStr +
-			"WHERE ParentID = " + parentCollection+"\n";
-		
-		String selectAllAtomsTimesStr = 
-			selectValuesStr +
-			joinStr +
-		"	LEFT OUTER JOIN (" + selectAtomsStr + ") V ON (V.Time = T.Time)\n" +
-		"	WHERE ParentID = " + parentCollection+"\n";
-			
-		String datesCountStr = 
-			"SELECT COUNT(DISTINCT T.Time) as Count\n" +
-			joinStr +
-			"WHERE ParentID = " + parentCollection+"\n";
-		
-		String valuesCountStr = "SELECT COUNT(T.Time) as Count\n " +
-		"FROM ("+atomSelStr+") T\n" +
-		"WHERE T.CollectionID = "+collection.getCollectionID()+" \n";
-
-		
-		String orderedByTime = selectAllAtomsTimesStr + "     Order BY Time;\n";
-		String orderedByValue =  selectAllAtomsTimesStr + "     Order BY Value;\n";
-		
-		ArrayList<TreeMap<Date,Double>> plumes = new ArrayList<TreeMap<Date,Double>>();
-		try{
-			Statement stmt = con.createStatement();
-			
-			ResultSet rs;
-			boolean hasRows = false;
-			System.out.println(datesCountStr);
-			rs = stmt.executeQuery(datesCountStr);
-			hasRows = rs.next();
-			assert(hasRows);
-			int numParticles = rs.getInt("Count");
-			
-			System.out.println(valuesCountStr);
-			rs = stmt.executeQuery(valuesCountStr);
-			hasRows = rs.next();
-			assert(hasRows);
-			int numPeaks = rs.getInt("Count");
-			
-			System.out.println(orderedByValue);
-			rs = stmt.executeQuery(orderedByValue);
-			for(int i = 0; i < (int)(numParticles - .50*numPeaks); i++){
-				hasRows = rs.next();
-				//System.out.println("Next value: "+rs.getDouble("Value"));
-				assert(hasRows);
-			}
-			double minValue = rs.getDouble("Value");
-			minValue *= factor;
-			plumes = createAndDetectPlumesFromValue(collection,minValue,minDuration);
-		} catch (SQLException e){
-			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL exception retrieving time series data.");
-			System.err.println("Error retrieving time series data.");
-			e.printStackTrace();
-		} 
-		return plumes;
+		return detectPlumes(new Collection[] {collection}, 
+				PlumeDetector.Metric.MEDIAN, factor, minDuration).get(0);
 	}
 	
 	public ArrayList<TreeMap<Date,Double>> createAndDetectPlumesFromValue(Collection collection,double minValue, int minDuration){
-		/*System.out.println("collection: |"+collection+"|");
-		System.out.println("Collection ID: "+collection.getCollectionID());
-		System.out.println("threshold: "+magnitude+"\nduration: "+minDuration);
-		*/int parentCollection = this.getParentCollectionID(collection.getCollectionID());
-		SimpleDateFormat parser = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-		
-		String atomSelStr = "SELECT CollectionID, Time, Value" +
-			"\n FROM " + getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries") + " D \n" +
-			"JOIN AtomMembership M ON (D.AtomID = M.AtomID)";
-		
-		
-		String selectAtomsStr = "SELECT T.Time as Time, T.Value AS Value\n " +
-				"FROM ("+atomSelStr+") T\n" +
-				"WHERE T.CollectionID = "+collection.getCollectionID()+" ";
-		
-		String selectValuesStr = "SELECT DISTINCT T.Time as Time, V.Value as Value\n";
-		
-		String joinStr = 
-		"FROM (SELECT CollectionID, Time, Value\n" +
-		"	FROM " + getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries") + " D\n" +
-		" 	JOIN AtomMembership M on (D.AtomID = M.AtomID)) T\n" +
-		"	JOIN CollectionRelationships CR on (CollectionID = CR.ChildID)";
-		
-		
-		String selectAllTimesStr = 
-			selectValuesStr + joinStr +
-			"WHERE ParentID = " + parentCollection+"\n";
-		
-		String selectAllAtomsTimesStr = 
-			selectValuesStr +
-			joinStr +
-		"	LEFT OUTER JOIN (" + selectAtomsStr + ") V ON (V.Time = T.Time)\n" +
-		"	WHERE ParentID = " + parentCollection+"\n";
-			
-		String orderedByTime = selectAllAtomsTimesStr + "     Order BY Time;\n";
-		
-		
-		ArrayList<TreeMap<Date,Double>> plumes = new ArrayList<TreeMap<Date,Double>>();
-		TreeMap<Date,Double> curPlume = new TreeMap<Date,Double>();
-		try{
-			Statement stmt = con.createStatement();
-			
-			ResultSet rs;
-			System.out.println("MinValue: "+minValue);
-			System.out.println(orderedByTime);
-			rs = stmt.executeQuery(orderedByTime);
-			boolean more = true;
-			more = rs.next();
-			while(more){
-				while(more && rs.getDouble("Value") >= minValue){
-					String dateTime = rs.getString("Time");
-					curPlume.put(parser.parse(dateTime),rs.getDouble("Value"));
-					more = rs.next();
-				}
-				if(!curPlume.isEmpty()&&curPlume.lastKey().getTime() - curPlume.firstKey().getTime() 
-						>= minDuration * 1000){
-					plumes.add(curPlume);
-					System.out.println("Plume: "+curPlume.values().toString());
-				}
-				curPlume = new TreeMap<Date,Double>();
-				
-				while(more && rs.getDouble("Value") < minValue){
-					more = rs.next();
+		return detectPlumes(new Collection[] {collection}, 
+				PlumeDetector.Metric.VALUE, minValue, minDuration).get(0);
+	}
+	
+	/**
+	 * Finds the plumes of several TimeSeries collections.  Each one is laid
+	 * out on the timeline of all the sequences under its parent, and read 
+	 * through the time series cache; the detection itself runs on all
+	 * processors.
+	 * @see database.InfoWarehouse#detectPlumes(collection.Collection[], analysis.PlumeDetector.Metric, double, int)
+	 * @return the plumes of each collection, in the same order
+	 */
+	public ArrayList<ArrayList<TreeMap<Date,Double>>> detectPlumes(
+			Collection[] collections, PlumeDetector.Metric metric, 
+			double magnitude, int minDuration) {
+		ArrayList<PlumeDetector> detectors = new ArrayList<PlumeDetector>();
+		HashMap<Integer, long[]> timelines = new HashMap<Integer, long[]>();
+		try {
+			for (Collection c : collections) {
+				int parent = getParentCollectionID(c.getCollectionID());
+				long[] timeline = timelines.get(parent);
+				if (timeline == null) {
+					timeline = getTimeline(parent);
+					timelines.put(parent, timeline);
 				}
+				TimeSeriesCache.Series series = 
+					getTimeSeriesCache().get(c.getCollectionID());
+				detectors.add(PlumeDetector.onTimeline(timeline, 
+						timeline.length, series.times, series.values, 
+						series.size));
 			}
 		} catch (SQLException e){
 			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL exception retrieving time series data.");
 			System.err.println("Error retrieving time series data.");
 			e.printStackTrace();
-		} catch (ParseException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			ArrayList<ArrayList<TreeMap<Date,Double>>> none = 
+				new ArrayList<ArrayList<TreeMap<Date,Double>>>();
+			for (int i = 0; i < collections.length; i++)
+				none.add(new ArrayList<TreeMap<Date,Double>>());
+			return none;
+		}
+		return PlumeDetector.detectAll(detectors, metric, magnitude, 
+				minDuration, 0);
+	}
+	
+	/**
+	 * @return every distinct time of the TimeSeries children of the 
+	 * collection, in order.
+	 */
+	private long[] getTimeline(int parentID) throws SQLException {
+		PreparedStatement stmt = con.prepareStatement(
+				"SELECT DISTINCT D.Time\n" +
+				"FROM " + getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries") + " D\n" +
+				"JOIN AtomMembership M ON (D.AtomID = M.AtomID)\n" +
+				"JOIN CollectionRelationships CR ON (M.CollectionID = CR.ChildID)\n" +
+				"WHERE CR.ParentID = ? AND D.Time IS NOT NULL\n" +
+				"ORDER BY D.Time");
+		try {
+			stmt.setInt(1, parentID);
+			ResultSet rs = stmt.executeQuery();
+			long[] times = new long[1024];
+			int size = 0;
+			while (rs.next()) {
+				if (size == times.length)
+					times = Arrays.copyOf(times, 2 * size);
+				times[size++] = rs.getTimestamp(1).getTime();
+			}
+			rs.close();
+			return Arrays.copyOf(times, size);
+		} finally {
+			stmt.close();
 		}
-		return plumes;
 	}
 	
 	public void syncWithIonsInDB(ArrayList<LabelingIon> posIons, ArrayList<LabelingIon> negIons) {
@@ -6209,78 +6721,17 @@ public abstract class Database implements InfoWarehouse {
 	/**
 	 * @author steinbel - adapted to remove OrderNumber
 	 * 
-	 * internalAtomOrder updated by updating the collection itself,
-	 * recursing through subcollections.  This ONLY updates the specified
-	 * collection, and it works by traversing down to the leaves of the tree.
-	 * It is a recursive algortihm, and will be used mostly for cut/copy/paste
-	 * functionality.  Importing collections don't need this, since they have no
-	 * children.
-	 * 
-	 * Implements the bulk insert method from Greg Cipriano, since the client
-	 * and the server have to be on the same machine.
+	 * Brings InternalAtomOrder up to date for the specified collection only:
+	 * afterwards it holds exactly the atoms in the collection or in any of 
+	 * its descendants.  Ancestors aren't touched; use updateAncestors for 
+	 * those.
 	 * 
 	 * @param collection
 	 */
 	public void updateInternalAtomOrder(Collection collection) {
-		//System.out.println("updating InternalAtomOrder for collection " + collection.getCollectionID());
-		File tempFile = null;
-		int cID = collection.getCollectionID();
-		if (cID == 0 || cID == 1) 
-			return;
-		try {
-			Statement stmt = con.createStatement();
-
-			//again, want to compare with existing IAO table to see if there
-			//are any difference, if not, why delete? - steinbel
-			stmt.execute("DELETE FROM InternalAtomOrder WHERE CollectionID = " + cID);
-			
-			//get all the AtomIDs from AtomMembership if the corresponding CollectionID was
-			//the parent's or one of the children's.  We want the union of these so that there
-			//are no overlaps.
-			String query = "SELECT AtomID FROM AtomMembership WHERE CollectionID = " + cID;
-			Iterator<Integer> subCollections = getAllDescendantCollections(cID,false).iterator();
-			while (subCollections.hasNext())
-				query += " union (SELECT AtomID FROM AtomMembership WHERE CollectionID = " + subCollections.next() + ")";
-			query += " ORDER BY AtomID";
-			
-			//System.out.println(query);
-			ResultSet rs = stmt.executeQuery(query);
-			
-			// Only bulk insert if client and server are on the same machine...
-			if (url.equals("localhost")) {
-				PrintWriter bulkFile = null;
-				try {
-					tempFile = File.createTempFile("bulkfile", ".txt");
-					tempFile.deleteOnExit();
-					bulkFile = new PrintWriter(new FileWriter(tempFile));
-				} catch (IOException e) {
-					System.err.println("Trouble creating " + tempFile.getAbsolutePath());
-					e.printStackTrace();
-				}
-				while (rs.next()) {
-					//System.out.println(rs.getInt(1) + "," + cID);//TESTING
-					bulkFile.println(rs.getInt(1) + "," + cID);
-				}
-				bulkFile.close();
-				stmt.addBatch("BULK INSERT InternalAtomOrder\n" +
-						"FROM '" + tempFile.getAbsolutePath() + "'\n" +
-				"WITH (FIELDTERMINATOR=',')");
-			} else {
-				while (rs.next()) {			
-					stmt.addBatch("INSERT INTO InternalAtomOrder VALUES("+rs.getInt(1)+","+cID+")");
-				}
-			}		
-			//System.out.println("inserted " + (order-1) + " atoms into cID " + 4);
-			stmt.executeBatch();
-			stmt.close();
-			if (tempFile != null && tempFile.exists()) {
-				tempFile.delete();
-			}
-		} catch (SQLException e) {
-			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception inserting atom.  Please check incoming data for correct format.");
-			System.err.println("Exception inserting particle.");
-			e.printStackTrace();
-		}
+		Set<Integer> ids = new LinkedHashSet<Integer>();
+		ids.add(collection.getCollectionID());
+		refreshInternalAtomOrder(ids, false);
 	}
 	
 	/**
@@ -6288,128 +6739,213 @@ public abstract class Database implements InfoWarehouse {
 	 * This should be called whenever a new collection is created.  If it has one or more
 	 * parent, it will cause the parent to contain all of the new collection's atoms
 	 * 
+	 * Only adds rows, so it's cheaper than updateAncestors, all the 
+	 * ancestors being filled in by a single INSERT ... SELECT.
+	 * 
 	 * @param newCollection
 	 */
 	public void propagateNewCollection(Collection newCollection){
-		try {
-			Statement stmt = con.createStatement();
-			stmt.executeUpdate("IF (OBJECT_ID('tempdb..#newCollection') " +
-				"IS NOT NULL)\n" +
-				"	DROP TABLE #newCollection\n");
-			stmt.executeUpdate("CREATE TABLE #newCollection (AtomID int, CollectionID int)");
-			String query = "INSERT INTO #newCollection (AtomID)" +
-			" SELECT AtomID FROM InternalAtomOrder WHERE (CollectionID = "+newCollection.getCollectionID()+");";
-			stmt.execute(query);
-			propagateNewCollection(newCollection,newCollection.getParentCollection());
-			
-		} catch (SQLException e) {
-			e.printStackTrace();
+		int cID = newCollection.getCollectionID();
+		if (deferredAtomOrder != null) {
+			deferredAtomOrder.add(cID);
+			return;
 		}
+		addToInternalAtomOrder(cID, readCollectionTree().getAncestors(cID));
 	}
 	
-	private void propagateNewCollection(Collection newCollection, Collection parentCollection){
-		if (parentCollection == null || 
-				parentCollection.getCollectionID() == 0 || 
-				parentCollection.getCollectionID() == 1){
-			try {
-				Statement stmt = con.createStatement();
-				String query = "DROP TABLE #newCollection;";
-				stmt.execute(query);
-			} catch (SQLException e) {
-				e.printStackTrace();
-			}
+	/**
+	 * Adds the atoms in the collection's InternalAtomOrder rows to each of
+	 * the given collections that doesn't already have them, with a single
+	 * INSERT ... SELECT.  Never removes anything.
+	 */
+	private void addToInternalAtomOrder(int cID, Set<Integer> collectionIDs) {
+		collectionIDs.remove(0);
+		collectionIDs.remove(1);
+		if (collectionIDs.isEmpty())
 			return;
-		}
 		try {
 			Statement stmt = con.createStatement();
-			stmt.execute("UPDATE #newCollection SET CollectionID = " + parentCollection.getCollectionID());
-			stmt.execute("INSERT INTO InternalAtomOrder (AtomID, CollectionID) SELECT * FROM #newCollection;");
+			stmt.executeUpdate("INSERT INTO InternalAtomOrder (AtomID, CollectionID)\n" +
+					"SELECT iao.AtomID, c.CollectionID\n" +
+					"FROM InternalAtomOrder iao, Collections c\n" +
+					"WHERE iao.CollectionID = " + cID + "\n" +
+					"AND c.CollectionID IN (" + join(collectionIDs, ",") + ")\n" +
+					"AND NOT EXISTS (SELECT * FROM InternalAtomOrder old\n" +
+					"WHERE old.CollectionID = c.CollectionID\n" +
+					"AND old.AtomID = iao.AtomID)");
+			stmt.close();
 		} catch (SQLException e) {
+			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception propagating collection "+cID+" to its ancestors.");
+			System.err.println("Exception propagating new collection.");
 			e.printStackTrace();
 		}
-		propagateNewCollection(newCollection,parentCollection.getParentCollection());
-		
-		
 	}
 	
 	/**
 	 * @author steinbel - removed OrderNumber
 	 * @author jtbigwoo - use InternalAtomOrder for the children so that we get
 	 * the contents from sub-sub collections
-	 * TODO: still needs optimization
+	 * 
+	 * Brings InternalAtomOrder up to date for the collection and every one
+	 * of its ancestors, all in one pass.
 	 */
 	public void updateAncestors(Collection collection) {
-		// if you try to update a null collection or one of the root collections,
-		// return.
-		if (collection == null || 
-				collection.getCollectionID() == 0 || 
-				collection.getCollectionID() == 1) 
+		if (collection == null)
+			return;
+		Set<Integer> ids = new LinkedHashSet<Integer>();
+		ids.add(collection.getCollectionID());
+		refreshInternalAtomOrder(ids, true);
+	}
+	
+	/**
+	 * Holds off on InternalAtomOrder maintenance until 
+	 * flushInternalAtomOrderUpdates is called; until then the collections
+	 * touched are only remembered.  Meant for operations, like hierarchical
+	 * clustering, that create and move a lot of collections and would 
+	 * otherwise rewrite the same ancestors over and over.
+	 */
+	public void deferInternalAtomOrderUpdates() {
+		if (deferredAtomOrder == null)
+			deferredAtomOrder = new LinkedHashSet<Integer>();
+	}
+	
+	/**
+	 * @return true between deferInternalAtomOrderUpdates and 
+	 * flushInternalAtomOrderUpdates.
+	 */
+	public boolean isDeferringInternalAtomOrderUpdates() {
+		return deferredAtomOrder != null;
+	}
+	
+	/**
+	 * Brings InternalAtomOrder up to date for every collection touched 
+	 * since deferInternalAtomOrderUpdates, and their ancestors, in a 
+	 * single pass, and goes back to updating it right away.
+	 */
+	public void flushInternalAtomOrderUpdates() {
+		Set<Integer> ids = deferredAtomOrder;
+		deferredAtomOrder = null;
+		if (ids != null && !ids.isEmpty())
+			refreshInternalAtomOrder(ids, true);
+	}
+	
+	/**
+	 * Updates InternalAtomOrder for the given collections, or just notes 
+	 * them if updates are being deferred.
+	 * 
+	 * @param collectionIDs the collections that have changed.
+	 * @param ancestors whether their ancestors need updating as well.
+	 */
+	private void refreshInternalAtomOrder(Set<Integer> collectionIDs, 
+			boolean ancestors) {
+		if (deferredAtomOrder != null) {
+			deferredAtomOrder.addAll(collectionIDs);
 			return;
-		int cID = collection.getCollectionID();
-		System.out.println("updating InternalAtomOrder Table for: " + cID);
+		}
+		CollectionTree tree = readCollectionTree();
+		synchronizeInternalAtomOrder(tree, ancestors ? 
+				tree.withAncestors(collectionIDs) : collectionIDs);
+	}
+	
+	/**
+	 * @return the whole collection hierarchy, read in one query.
+	 */
+	private CollectionTree readCollectionTree() {
+		CollectionTree tree = new CollectionTree();
 		try {
 			Statement stmt = con.createStatement();
-			
-			/*get atomIDs for collection in IAO and in AtomMembership.  
-			 * if difference, rectify it
-			 *
-			 * then, loop through all children and repeat procedure
-			 */
-
-			String query = "INSERT INTO InternalAtomOrder " +
-					"(AtomID, CollectionID)" +
-					"SELECT AtomID, COllectionID FROM AtomMembership " +
-					"WHERE CollectionID = " + cID  +
-					" AND (AtomID NOT IN (SELECT AtomID from InternalAtomOrder" +
-					" WHERE CollectionID = " + cID + "))";
-			ArrayList<Integer> subCollections = collection.getSubCollectionIDs();
-			System.out.println(query);//TESTING
-			stmt.executeUpdate(query);
+			ResultSet rs = stmt.executeQuery(
+					"SELECT ParentID, ChildID FROM CollectionRelationships");
+			while (rs.next())
+				tree.addRelationship(rs.getInt(1), rs.getInt(2));
+			rs.close();
+			stmt.close();
+		} catch (SQLException e) {
+			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception retrieving the collection hierarchy.");
+			System.err.println("Exception reading CollectionRelationships.");
+			e.printStackTrace();
+		}
+		return tree;
+	}
 	
-			if (subCollections.size() > 0){
-
-				/*
-				 * Because of SQL syntax, cannot combine SELECT with a constant,
-				 * so we'll create a temp table and poplulate it with the AtomIDs
-				 * of the children collection and the CollectionID of the 
-				 * current collection.  Then we'll copy that info into IAO. - steinbel
-				 */
-				stmt.executeUpdate("IF (OBJECT_ID('tempdb..#children') " +
+	/**
+	 * Makes InternalAtomOrder hold exactly the right atoms for each of the
+	 * given collections: every atom in AtomMembership for the collection 
+	 * or one of its descendants.  The (collection, descendant) pairs go into
+	 * a temp table so that the whole thing is one DELETE of the stale rows
+	 * and one INSERT ... SELECT of the missing ones, rather than a round of
+	 * queries for each collection and each level of the tree.
+	 * The root collections (0 and 1) are never stored, so they're skipped.
+	 */
+	private void synchronizeInternalAtomOrder(CollectionTree tree, 
+			Set<Integer> collectionIDs) {
+		// if the caller already has a transaction open, this is part of it
+		boolean ownTransaction = false;
+		try {
+			Statement stmt = con.createStatement();
+			stmt.executeUpdate("IF (OBJECT_ID('tempdb..#IAOClosure') " +
 					"IS NOT NULL)\n" +
-					"	DROP TABLE #children\n");
-				stmt.executeUpdate("CREATE TABLE #children (AtomID int, CollectionID int)");
-				query = "INSERT INTO #children (AtomID)" +
-				" SELECT AtomID FROM InternalAtomOrder WHERE (CollectionID = ";
-				for (int i=0; i<subCollections.size(); i++){
-					query += subCollections.get(i) + ")";
-					if (i<subCollections.size()-1)
-						query += "OR (CollectionID = ";
-
+					"	DROP TABLE #IAOClosure\n");
+			stmt.executeUpdate("CREATE TABLE #IAOClosure " +
+					"(Ancestor int, Descendant int)");
+			PreparedStatement closure = con.prepareStatement(
+					"INSERT INTO #IAOClosure VALUES (?, ?)");
+			int pairs = 0;
+			for (int cID : collectionIDs) {
+				if (cID == 0 || cID == 1)
+					continue;
+				closure.setInt(1, cID);
+				closure.setInt(2, cID);
+				closure.addBatch();
+				pairs++;
+				for (int descendant : tree.getDescendants(cID)) {
+					closure.setInt(1, cID);
+					closure.setInt(2, descendant);
+					closure.addBatch();
+					pairs++;
 				}
-				System.out.println(query);//TESTING
-				stmt.executeUpdate(query);
-				stmt.executeUpdate("UPDATE #children SET CollectionID = " + cID);
-				stmt.executeUpdate("INSERT INTO InternalAtomOrder " +
-						" (AtomID, CollectionID) SELECT * FROM #children " +
-						" WHERE NOT EXISTS (SELECT * FROM InternalAtomOrder" +
-						" WHERE InternalAtomOrder.CollectionID = " + cID +
-						" AND InternalAtomOrder.AtomID = #children.AtomID)");
-				System.out.println("Going to drop #children now");//TESTING
-				stmt.executeUpdate("DROP TABLE #children");
 			}
-
-
+			if (pairs > 0) {
+				ownTransaction = con.getAutoCommit();
+				if (ownTransaction)
+					con.setAutoCommit(false);
+				closure.executeBatch();
+				stmt.executeUpdate("DELETE FROM InternalAtomOrder\n" +
+						"WHERE CollectionID IN (SELECT Ancestor FROM #IAOClosure)\n" +
+						"AND NOT EXISTS (SELECT * FROM AtomMembership am, #IAOClosure cl\n" +
+						"WHERE cl.Ancestor = InternalAtomOrder.CollectionID\n" +
+						"AND am.CollectionID = cl.Descendant\n" +
+						"AND am.AtomID = InternalAtomOrder.AtomID)");
+				stmt.executeUpdate("INSERT INTO InternalAtomOrder (AtomID, CollectionID)\n" +
+						"SELECT DISTINCT am.AtomID, cl.Ancestor\n" +
+						"FROM AtomMembership am, #IAOClosure cl\n" +
+						"WHERE am.CollectionID = cl.Descendant\n" +
+						"AND NOT EXISTS (SELECT * FROM InternalAtomOrder iao\n" +
+						"WHERE iao.CollectionID = cl.Ancestor\n" +
+						"AND iao.AtomID = am.AtomID)");
+				if (ownTransaction) {
+					con.commit();
+					con.setAutoCommit(true);
+				}
+			}
+			closure.close();
+			stmt.executeUpdate("DROP TABLE #IAOClosure");
 			stmt.close();
 		} catch (SQLException e) {
+			try {
+				if (ownTransaction) {
+					con.rollback();
+					con.setAutoCommit(true);
+				}
+			} catch (SQLException e2) {
+				e2.printStackTrace();
+			}
+			ErrorLogger.writeExceptionToLogAndPrompt(getName(),"SQL Exception updating InternalAtomOrder.");
+			System.err.println("Exception updating InternalAtomOrder.");
 			e.printStackTrace();
 		}
-		
-		// maybe make this conditional?  how?  temp table and replace it?
-		updateAncestors(collection.getParentCollection());
 	}
 	
-
-
 	/**
 	 * Find the sum of values from a given column given a list of AtomIDs specifying which rows to use
 	 * @param table Whether the table is static or dynamic
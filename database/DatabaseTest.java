@@ -58,6 +58,7 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Scanner;
 import java.util.Vector;
@@ -76,6 +77,7 @@ import ATOFMS.CalInfo;
 import ATOFMS.ParticleInfo;
 import ATOFMS.Peak;
 import analysis.BinnedPeakList;
+import analysis.clustering.ClusterInformation;
 import atom.ATOFMSAtomFromDB;
 
 /**
@@ -477,6 +479,32 @@ public class DatabaseTest extends TestCase {
 		db.closeConnection();
 	}
 
+	/**
+	 * Copies collection 5, which has subcollection 6, into its own child;
+	 * the subtree should be copied exactly once.
+	 */
+	public void testCopyCollectionSubtree() throws SQLException {
+		db.openConnection(dbName);
+		int copy = db.copyCollection(db.getCollection(5), db.getCollection(6));
+		assertTrue(copy > 0);
+		assertEquals(6, db.getParentCollectionID(copy));
+		ArrayList<Integer> children = 
+			db.getImmediateSubCollections(db.getCollection(copy));
+		assertEquals(1, children.size());
+		int childCopy = children.get(0);
+		assertTrue(db.getImmediateSubCollections(
+				db.getCollection(childCopy)).isEmpty());
+		
+		assertTrue(Arrays.equals(readInternalAtomOrder(5), 
+				readInternalAtomOrder(copy)));
+		assertTrue(Arrays.equals(readInternalAtomOrder(6), 
+				readInternalAtomOrder(childCopy)));
+		// 6 now holds a copy of all of 5's atoms
+		assertTrue(Arrays.equals(readInternalAtomOrder(5), 
+				readInternalAtomOrder(6)));
+		db.closeConnection();
+	}
+
 	public void testMoveCollection() {
 		db.openConnection(dbName);
 		assertTrue(db.moveCollection(db.getCollection(3),db.getCollection(2)));
@@ -563,6 +591,44 @@ public class DatabaseTest extends TestCase {
 		}
 		db.closeConnection();
 	}
+	
+	private int[] readInternalAtomOrder(int collectionID) throws SQLException {
+		Statement stmt = db.getCon().createStatement();
+		ResultSet rs = stmt.executeQuery("USE TestDB SELECT AtomID " +
+				"FROM InternalAtomOrder WHERE CollectionID = " + collectionID +
+				" ORDER BY AtomID");
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		while (rs.next())
+			ids.add(rs.getInt(1));
+		rs.close();
+		stmt.close();
+		int[] result = new int[ids.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = ids.get(i);
+		return result;
+	}
+	
+	/**
+	 * Moves collection 3 under 2 with updates deferred, then back out of 
+	 * it; the old parent should lose 3's atoms again.
+	 */
+	public void testDeferredInternalAtomOrderUpdates() throws SQLException {
+		db.openConnection(dbName);
+		int[] two = {1, 2, 3, 4, 5};
+		int[] twoAndThree = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+		
+		db.deferInternalAtomOrderUpdates();
+		assertTrue(db.isDeferringInternalAtomOrderUpdates());
+		assertTrue(db.moveCollection(db.getCollection(3), db.getCollection(2)));
+		assertTrue(Arrays.equals(two, readInternalAtomOrder(2)));
+		db.flushInternalAtomOrderUpdates();
+		assertFalse(db.isDeferringInternalAtomOrderUpdates());
+		assertTrue(Arrays.equals(twoAndThree, readInternalAtomOrder(2)));
+		
+		assertTrue(db.moveCollection(db.getCollection(3), db.getCollection(4)));
+		assertTrue(Arrays.equals(two, readInternalAtomOrder(2)));
+		db.closeConnection();
+	}
 
 	public void testInsertATOFMSParticle() {
 		db.openConnection(dbName);
@@ -1310,6 +1376,40 @@ public class DatabaseTest extends TestCase {
 		}
 		db.closeConnection();
 	}
+	/**
+	 * The streaming cursor should hand back the same atoms, in the same
+	 * order, with the same peak lists as the one-query-per-atom
+	 * ClusteringCursor.
+	 */
+	public void testGetStreamingClusteringCursor() {
+		db.openConnection(dbName);
+		ArrayList<String> list = new ArrayList<String>();
+		list.add("ATOFMSAtomInfoSparse.PeakArea");
+		ClusterInformation cInfo = new ClusterInformation(list, 
+				"ATOFMSAtomInfoSparse.PeakLocation", null, false, true);
+		CollectionCursor slow = db.getClusteringCursor(db.getCollection(2), cInfo);
+		CollectionCursor fast = db.getStreamingClusteringCursor(db.getCollection(2), cInfo);
+		for (int pass = 0; pass < 2; pass++) {
+			int count = 0;
+			while (slow.next()) {
+				assertTrue(fast.next());
+				ParticleInfo expected = slow.getCurrent();
+				ParticleInfo actual = fast.getCurrent();
+				assertEquals(expected.getID(), actual.getID());
+				assertEquals(expected.getBinnedList().getPeaks(), 
+						actual.getBinnedList().getPeaks());
+				count++;
+			}
+			assertFalse(fast.next());
+			assertTrue(count > 0);
+			slow.reset();
+			fast.reset();
+		}
+		slow.close();
+		fast.close();
+		db.closeConnection();
+	}
+	
 	public void testGetMemoryBinnedCursor() {
 		db.openConnection(dbName);
 		Collection c = db.getCollection(2);
@@ -1318,6 +1418,34 @@ public class DatabaseTest extends TestCase {
 		db.closeConnection();
 	}
 	
+	public void testMemoryCursorPositions() throws Exception {
+		db.openConnection(dbName);
+		ArrayList<String> list = new ArrayList<String>();
+		list.add("ATOFMSAtomInfoSparse.PeakArea");
+		ClusterInformation cInfo = new ClusterInformation(list, 
+				"ATOFMSAtomInfoSparse.PeakLocation", null, false, true);
+		CollectionCursor[] cursors = new CollectionCursor[] {
+				db.getMemoryBinnedCursor(db.getCollection(2)),
+				db.getMemoryClusteringCursor(db.getCollection(2), cInfo)};
+		for (CollectionCursor curs : cursors) {
+			assertEquals(-1, curs.getPositionOfAtomID(2));
+			ArrayList<Integer> atomIDs = new ArrayList<Integer>();
+			while (curs.next())
+				atomIDs.add(curs.getCurrent().getID());
+			assertTrue(atomIDs.size() > 0);
+			for (int i = 0; i < atomIDs.size(); i++) {
+				assertEquals(i, curs.getPositionOfAtomID(atomIDs.get(i)));
+				assertEquals(atomIDs.get(i).intValue(), curs.get(i).getID());
+				assertSame(curs.get(i).getBinnedList(), 
+						curs.getPeakListfromAtomID(atomIDs.get(i)));
+			}
+			assertEquals(-1, curs.getPositionOfAtomID(-5));
+			curs.close();
+		}
+		assertEquals(-1, db.getBinnedCursor(db.getCollection(2)).getPositionOfAtomID(2));
+		db.closeConnection();
+	}
+	
 	public void testGetRandomizedCursor() {
 		db.openConnection(dbName);
 		CollectionCursor curs = db.getRandomizedCursor(db.getCollection(2));	
@@ -1325,6 +1453,50 @@ public class DatabaseTest extends TestCase {
 		db.closeConnection();
 	}
 
+	public void testRandomizedCursorSeeding() {
+		db.openConnection(dbName);
+		db.seedRandom(12345);
+		int[] first = readIDs(db.getRandomizedCursor(db.getCollection(2)));
+		db.seedRandom(12345);
+		int[] second = readIDs(db.getRandomizedCursor(db.getCollection(2)));
+		assertTrue(Arrays.equals(first, second));
+		int[] sorted = first.clone();
+		Arrays.sort(sorted);
+		assertTrue(Arrays.equals(new int[] {1, 2, 3, 4, 5}, sorted));
+		db.closeConnection();
+	}
+	
+	public void testGetRandomSampleCursor() {
+		db.openConnection(dbName);
+		db.seedRandom(12345);
+		CollectionCursor curs = db.getRandomSampleCursor(db.getCollection(2), 3);
+		int[] ids = readIDs(curs);
+		assertEquals(3, ids.length);
+		for (int id : ids)
+			assertTrue(id >= 1 && id <= 5);
+		curs.reset();
+		assertTrue(Arrays.equals(ids, readIDs(curs)));
+		curs.close();
+		
+		curs = db.getRandomSampleCursor(db.getCollection(2), 10);
+		assertEquals(5, readIDs(curs).length);
+		curs.close();
+		db.closeConnection();
+	}
+	
+	private int[] readIDs(CollectionCursor curs) {
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		while (curs.next()) {
+			ParticleInfo p = curs.getCurrent();
+			assertNotNull(p.getBinnedList());
+			ids.add(p.getID());
+		}
+		int[] result = new int[ids.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = ids.get(i);
+		return result;
+	}
+
 	// SubSampleCursor is actually located in the analysis package, but
 	// it's much more convenient to test it here since this is where the
 	// other cursor tests are.
@@ -2564,6 +2736,78 @@ public class DatabaseTest extends TestCase {
 		
 	}
 	
+	public void testsaveAtofmsParticle_BatchedStatementLoader() {
+		String[] tables = {"ATOFMSAtomInfoDense", "AtomMembership", "DataSetMembers", "ATOFMSAtomInfoSparse", "InternalAtomOrder"};
+		String dense_str = "12-30-06 10:59:49, 1.89E-4, 2.4032946, 4286,E:\\Data\\12-29-2003\\h\\h-031230105949-00001.amz";
+		ArrayList<String> sparse = new ArrayList<String>();
+		sparse.add("23.0, 56673, 0.60352063, 2625");
+		sparse.add("40.0, 5289, 0.05632348, 450");
+		
+		db.openConnection(dbName);
+		Collection c = db.getCollection(0);
+		try {
+			// a chunk size of 3 makes the particles span several batches
+			BatchedStatementLoader loader = new BatchedStatementLoader(
+					db.openSeparateConnection(), 3, true);
+			Database.Data_bulkBucket bkts = db.getDatabulkBucket(tables,
+					new BackgroundLoader(loader, 2, 1));
+			for (int id = 100; id < 105; id++)
+				assertEquals(id, db.saveDataParticle(dense_str, sparse, c, 100, id, bkts));
+			db.BulkInsertDataParticles(bkts);
+			assertEquals(5 * (tables.length + 1), loader.getRowsWritten());
+			
+			Statement stmt = db.getCon().createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ATOFMSAtomInfoDense WHERE AtomID BETWEEN 100 AND 104");
+			assertTrue(rs.next());
+			assertEquals(5, rs.getInt(1));
+			rs = stmt.executeQuery("SELECT PeakArea FROM ATOFMSAtomInfoSparse WHERE AtomID = 104 AND PeakLocation = 40");
+			assertTrue(rs.next());
+			assertEquals(5289, rs.getInt(1));
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM InternalAtomOrder WHERE AtomID BETWEEN 100 AND 104");
+			assertTrue(rs.next());
+			assertEquals(5, rs.getInt(1));
+			stmt.close();
+		}
+		catch (SQLException e) {
+			e.printStackTrace();
+			fail("Problem inserting ATOFMS data through BatchedStatementLoader");
+		}
+		db.closeConnection();
+	}
+	
+	public void testAbortBatchedStatementLoader() {
+		String[] tables = {"ATOFMSAtomInfoDense", "AtomMembership", "DataSetMembers", "ATOFMSAtomInfoSparse", "InternalAtomOrder"};
+		String dense_str = "12-30-06 10:59:49, 1.89E-4, 2.4032946, 4286,E:\\Data\\12-29-2003\\h\\h-031230105949-00001.amz";
+		ArrayList<String> sparse = new ArrayList<String>();
+		sparse.add("23.0, 56673, 0.60352063, 2625");
+		
+		db.openConnection(dbName);
+		Collection c = db.getCollection(0);
+		try {
+			BatchedStatementLoader loader = new BatchedStatementLoader(
+					db.openSeparateConnection(), 3, true);
+			Database.Data_bulkBucket bkts = db.getDatabulkBucket(tables,
+					new BackgroundLoader(loader, 2, 1));
+			for (int id = 100; id < 105; id++)
+				db.saveDataParticle(dense_str, sparse, c, 100, id, bkts);
+			bkts.abort();
+			
+			Statement stmt = db.getCon().createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ATOFMSAtomInfoDense WHERE AtomID BETWEEN 100 AND 104");
+			assertTrue(rs.next());
+			assertEquals(0, rs.getInt(1));
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM AtomMembership WHERE AtomID BETWEEN 100 AND 104");
+			assertTrue(rs.next());
+			assertEquals(0, rs.getInt(1));
+			stmt.close();
+		}
+		catch (SQLException e) {
+			e.printStackTrace();
+			fail("Problem aborting a BatchedStatementLoader");
+		}
+		db.closeConnection();
+	}
+	
 	public void testsaveAmsParticle_BulkInsertAmsParticles() {
 		
 		String[] tables= {"AMSAtomInfoDense"};
@@ -2724,6 +2968,53 @@ public class DatabaseTest extends TestCase {
 		assertEquals(20, particleInfo.get(4).get(0));
 	}
 	
+	public void testParticlePages()
+	{
+		db.openConnection(dbName);
+		try
+		{
+			db.getCon().createStatement().executeUpdate(
+					"USE TestDB\n " +
+					"INSERT INTO Collections VALUES (7, 'Seven', 'seven', 'sevendescrip', 'ATOFMS')\n" +
+					"INSERT INTO AtomMembership VALUES (7,1)\n" +
+					"INSERT INTO AtomMembership VALUES (7,3)\n" +
+					"INSERT INTO AtomMembership VALUES (7,5)\n" +
+					"INSERT INTO AtomMembership VALUES (7,7)\n" +
+					"INSERT INTO AtomMembership VALUES (7,9)\n" +
+					"INSERT INTO InternalAtomOrder (AtomID, CollectionID) (SELECT AtomID, CollectionID FROM AtomMembership WHERE CollectionID = 7)");
+		}
+		catch (SQLException e)
+		{
+			e.printStackTrace();
+			fail("Failed to insert new collection to test particle pages");
+		}
+		Collection c = db.getCollection(7);
+		int[] starts = db.getParticlePageStarts(c, 2);
+		assertTrue(Arrays.equals(new int[] {1, 5, 9}, starts));
+		
+		Vector<Vector<Object>> page = db.getParticlePage(c, 5, 2);
+		assertEquals(2, page.size());
+		assertEquals(5, page.get(0).get(0));
+		assertEquals(7, page.get(1).get(0));
+		
+		page = db.getParticlePage(c, 9, 2);
+		assertEquals(1, page.size());
+		assertEquals(9, page.get(0).get(0));
+		
+		// the same rows updateParticleTable gives
+		Vector<Vector<Object>> particleInfo = new Vector<Vector<Object>>();
+		db.updateParticleTable(c, particleInfo, 1, 2);
+		assertEquals(particleInfo, db.getParticlePage(c, 1, 2));
+		
+		ParticlePager pager = new ParticlePager(db, c, 2, 3);
+		assertEquals(5, pager.size());
+		assertEquals(7, pager.getAtomID(3));
+		assertEquals(9, pager.getAtomID(4));
+		assertEquals(-1, pager.getAtomID(5));
+		pager.close();
+		db.closeConnection();
+	}
+	
 	/**
 	 * author jtbigwoo
 	 */
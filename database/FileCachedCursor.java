@@ -0,0 +1,344 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's FileCachedCursor class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package database;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ATOFMS.ParticleInfo;
+import analysis.BinnedPeakList;
+import analysis.DummyNormalizer;
+import analysis.Normalizer;
+import errorframework.ErrorLogger;
+
+/**
+ * Wraps around another cursor, writing the atom ID and binned peak list of
+ * each particle to a temporary file on the first pass.  Later passes read
+ * the file back through memory mapped buffers instead of going back to the
+ * wrapped cursor (and the database), so iterative algorithms get close to
+ * the speed of the memory cursors without having to fit the collection in
+ * the heap.
+ * 
+ * Each particle is stored as its atom ID, whether its peak list used a
+ * DummyNormalizer, its number of peaks, the peak locations and then the
+ * peak areas, 8 bytes a peak plus 12.  Each pass 
+ * after the first hands back new ParticleInfos, so changes made to their 
+ * peak lists don't carry over to the next pass.
+ * 
+ * If the file can't be written, this logs the error and keeps reading from
+ * the wrapped cursor instead.
+ */
+public class FileCachedCursor implements CollectionCursor {
+	// Buffers are mapped in pieces no bigger than this, with no particle
+	// split across two pieces.
+	private static final long SEGMENT_SIZE = 1 << 30;
+	
+	private CollectionCursor cursor;
+	private final File directory;
+	
+	private File file = null;
+	private DataOutputStream out = null;
+	private boolean firstPass = true;
+	private boolean failed = false;
+	
+	// where each particle starts, as an offset into the file
+	private long[] offsets = new long[1024];
+	// where each atom is in the file
+	private IntIntHashMap positions = new IntIntHashMap(1024);
+	private int numParticles = 0;
+	private long bytesWritten = 0;
+	
+	private MappedByteBuffer[] segments = null;
+	private long[] segmentStarts = null;
+	
+	private int position = -1;
+	private ParticleInfo current = null;
+	
+	/**
+	 * Caches the particles in the default temporary directory.
+	 */
+	public FileCachedCursor(CollectionCursor wrappee) {
+		this(wrappee, null);
+	}
+	
+	/**
+	 * @param wrappee the cursor to read the first pass from
+	 * @param directory where to put the file, or null for the default 
+	 * temporary directory
+	 */
+	public FileCachedCursor(CollectionCursor wrappee, File directory) {
+		cursor = wrappee;
+		this.directory = directory;
+	}
+	
+	public boolean next() {
+		position++;
+		if (firstPass && !failed) {
+			if (out == null)
+				startWriting();
+			boolean moreData = cursor.next();
+			if (moreData) {
+				current = cursor.getCurrent();
+				write(current);
+			}
+			else
+				finishWriting();
+			return moreData;
+		}
+		else if (failed) {
+			boolean moreData = cursor.next();
+			current = moreData ? cursor.getCurrent() : null;
+			return moreData;
+		}
+		else if (position < numParticles) {
+			current = read(position);
+			return true;
+		}
+		else {
+			current = null;
+			return false;
+		}
+	}
+	
+	public ParticleInfo getCurrent() {
+		return current;
+	}
+	
+	public void reset() {
+		if (firstPass || failed) {
+			// start over, since we don't have everything yet
+			cursor.reset();
+			if (out != null) {
+				closeFile();
+				positions.clear();
+				numParticles = 0;
+				bytesWritten = 0;
+			}
+		}
+		position = -1;
+		current = null;
+	}
+	
+	public void close() {
+		closeFile();
+		segments = null;
+		cursor.close();
+	}
+	
+	/**
+	 * Only particles that have already been through the cursor can be got;
+	 * this returns null for the others.
+	 */
+	public ParticleInfo get(int i) throws NoSuchMethodException {
+		if (failed)
+			return cursor.get(i);
+		if (i < 0 || i >= numParticles || segments == null)
+			return null;
+		return read(i);
+	}
+	
+	public BinnedPeakList getPeakListfromAtomID(int atomID) {
+		int i = getPositionOfAtomID(atomID);
+		if (i >= 0)
+			return read(i).getBinnedList();
+		return cursor.getPeakListfromAtomID(atomID);
+	}
+	
+	/**
+	 * Only knows about particles once the first pass is over.
+	 */
+	public int getPositionOfAtomID(int atomID) {
+		if (failed)
+			return cursor.getPositionOfAtomID(atomID);
+		if (segments == null)
+			return -1;
+		return positions.get(atomID, -1);
+	}
+	
+	/**
+	 * @return the number of bytes the cached particles take on disk.
+	 */
+	public long getBytesCached() {
+		return bytesWritten;
+	}
+	
+	private void startWriting() {
+		try {
+			file = File.createTempFile("enchilada", ".particles", directory);
+			file.deleteOnExit();
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file), 1 << 16));
+		} catch (IOException e) {
+			giveUp(e);
+		}
+	}
+	
+	private void write(ParticleInfo particle) {
+		if (out == null)
+			return;
+		BinnedPeakList peaks = particle.getBinnedList();
+		int numPeaks = peaks == null ? 0 : peaks.length();
+		// remember whether the list was normalizable, so the replayed 
+		// particles measure distances the same way as the first pass
+		boolean dummy = peaks != null 
+			&& peaks.getNormalizable() instanceof DummyNormalizer;
+		long recordSize = 12 + 8L * numPeaks;
+		try {
+			// don't let a particle straddle two segments
+			long segmentEnd = (bytesWritten / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+			if (bytesWritten + recordSize > segmentEnd && 
+					bytesWritten % SEGMENT_SIZE != 0) {
+				for (long b = bytesWritten; b < segmentEnd; b++)
+					out.writeByte(0);
+				bytesWritten = segmentEnd;
+			}
+			if (numParticles == offsets.length)
+				offsets = Arrays.copyOf(offsets, numParticles * 2);
+			positions.putIfAbsent(particle.getID(), numParticles);
+			offsets[numParticles++] = bytesWritten;
+			out.writeInt(particle.getID());
+			out.writeInt(dummy ? 1 : 0);
+			out.writeInt(numPeaks);
+			for (int i = 0; i < numPeaks; i++)
+				out.writeInt(peaks.getLocationAtIndex(i));
+			for (int i = 0; i < numPeaks; i++)
+				out.writeFloat(peaks.getAreaAtIndex(i));
+			bytesWritten += recordSize;
+		} catch (IOException e) {
+			giveUp(e);
+		}
+	}
+	
+	private void finishWriting() {
+		if (out == null)
+			return;
+		try {
+			out.close();
+			out = null;
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			ArrayList<MappedByteBuffer> mapped = new ArrayList<MappedByteBuffer>();
+			for (long start = 0; start < bytesWritten; start += SEGMENT_SIZE) {
+				mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(SEGMENT_SIZE, bytesWritten - start)));
+			}
+			// the mappings stay good after the channel is closed
+			raf.close();
+			segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+			segmentStarts = new long[segments.length];
+			for (int i = 0; i < segments.length; i++)
+				segmentStarts[i] = i * SEGMENT_SIZE;
+			firstPass = false;
+		} catch (IOException e) {
+			giveUp(e);
+		}
+	}
+	
+	private int segmentOf(int particle) {
+		return (int) (offsets[particle] / SEGMENT_SIZE);
+	}
+	
+	private MappedByteBuffer segmentFor(int particle) {
+		return segments[segmentOf(particle)];
+	}
+	
+	private ParticleInfo read(int particle) {
+		MappedByteBuffer segment = segmentFor(particle);
+		int offset = (int) (offsets[particle] - segmentStarts[segmentOf(particle)]);
+		int atomID = segment.getInt(offset);
+		boolean dummy = segment.getInt(offset + 4) != 0;
+		int numPeaks = segment.getInt(offset + 8);
+		int[] locations = new int[numPeaks];
+		float[] areas = new float[numPeaks];
+		int locationStart = offset + 12;
+		int areaStart = locationStart + 4 * numPeaks;
+		for (int i = 0; i < numPeaks; i++) {
+			locations[i] = segment.getInt(locationStart + 4 * i);
+			areas[i] = segment.getFloat(areaStart + 4 * i);
+		}
+		ParticleInfo particleInfo = new ParticleInfo();
+		particleInfo.setID(atomID);
+		particleInfo.setBinnedList(new BinnedPeakList(
+				dummy ? new DummyNormalizer() : new Normalizer(), 
+				locations, areas, numPeaks));
+		return particleInfo;
+	}
+	
+	/**
+	 * Logs the problem and goes back to reading everything from the 
+	 * wrapped cursor.
+	 */
+	private void giveUp(IOException e) {
+		ErrorLogger.writeExceptionToLog("FileCachedCursor",
+				"Couldn't cache particles in " + file + 
+				", reading them from the database instead: " + e);
+		e.printStackTrace();
+		failed = true;
+		closeFile();
+	}
+	
+	private void closeFile() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			out = null;
+		}
+		segments = null;
+		if (file != null) {
+			// on some platforms this won't work until the buffers are
+			// garbage collected, but deleteOnExit will catch it then.
+			file.delete();
+			file = null;
+		}
+	}
+}
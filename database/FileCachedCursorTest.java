@@ -0,0 +1,164 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import ATOFMS.ParticleInfo;
+import analysis.BinnedPeakList;
+import analysis.DistanceMetric;
+import analysis.DummyNormalizer;
+import analysis.Normalizer;
+import analysis.clustering.Centroid;
+import analysis.clustering.CentroidListCursor;
+import junit.framework.TestCase;
+
+/**
+ * Tests FileCachedCursor against an in-memory cursor; no database needed.
+ */
+public class FileCachedCursorTest extends TestCase {
+	private ArrayList<Centroid> particles;
+	private int wrappedReads;
+	private CollectionCursor wrapped;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		makeParticles(false);
+	}
+	
+	private void makeParticles(boolean dummy) {
+		Random random = new Random(55);
+		particles = new ArrayList<Centroid>();
+		for (int i = 0; i < 500; i++) {
+			BinnedPeakList peaks = new BinnedPeakList(
+					dummy ? new DummyNormalizer() : new Normalizer());
+			// leave a few empty
+			int numPeaks = i % 50 == 0 ? 0 : random.nextInt(40);
+			for (int p = 0; p < numPeaks; p++)
+				peaks.add(random.nextInt(800) - 400, random.nextFloat());
+			particles.add(new Centroid(peaks, 0));
+		}
+		wrappedReads = 0;
+		wrapped = new CentroidListCursor(particles) {
+			public boolean next() {
+				wrappedReads++;
+				return super.next();
+			}
+		};
+	}
+	
+	private void checkPass(CollectionCursor curs) {
+		int count = 0;
+		while (curs.next()) {
+			ParticleInfo info = curs.getCurrent();
+			assertEquals(count, info.getID());
+			assertEquals(particles.get(count).peaks.getPeaks(), 
+					info.getBinnedList().getPeaks());
+			count++;
+		}
+		assertEquals(particles.size(), count);
+	}
+	
+	public void testReplay() throws Exception {
+		FileCachedCursor curs = new FileCachedCursor(wrapped);
+		checkPass(curs);
+		int readsAfterFirstPass = wrappedReads;
+		assertTrue(curs.getBytesCached() > 0);
+		for (int pass = 0; pass < 3; pass++) {
+			curs.reset();
+			checkPass(curs);
+		}
+		assertEquals(readsAfterFirstPass, wrappedReads);
+		
+		assertEquals(7, curs.get(7).getID());
+		assertEquals(particles.get(7).peaks.getPeaks(), 
+				curs.get(7).getBinnedList().getPeaks());
+		assertNull(curs.get(particles.size()));
+		assertEquals(particles.get(123).peaks.getPeaks(), 
+				curs.getPeakListfromAtomID(123).getPeaks());
+		for (int i = 0; i < particles.size(); i++)
+			assertEquals(i, curs.getPositionOfAtomID(i));
+		assertEquals(-1, curs.getPositionOfAtomID(particles.size()));
+		curs.close();
+	}
+	
+	/**
+	 * The cached passes should normalize (or not) just like the first.
+	 */
+	public void testReplayKeepsNormalizer() {
+		makeParticles(true);
+		FileCachedCursor curs = new FileCachedCursor(wrapped);
+		ArrayList<float[]> firstPass = new ArrayList<float[]>();
+		while (curs.next()) {
+			BinnedPeakList peaks = curs.getCurrent().getBinnedList();
+			assertTrue(peaks.getNormalizable() instanceof DummyNormalizer);
+			peaks.normalize(DistanceMetric.EUCLIDEAN_SQUARED);
+			firstPass.add(areas(peaks));
+		}
+		curs.reset();
+		int count = 0;
+		while (curs.next()) {
+			BinnedPeakList peaks = curs.getCurrent().getBinnedList();
+			assertTrue(peaks.getNormalizable() instanceof DummyNormalizer);
+			peaks.normalize(DistanceMetric.EUCLIDEAN_SQUARED);
+			assertTrue(Arrays.equals(firstPass.get(count), areas(peaks)));
+			count++;
+		}
+		assertEquals(particles.size(), count);
+		curs.close();
+		
+		makeParticles(false);
+		curs = new FileCachedCursor(wrapped);
+		checkPass(curs);
+		curs.reset();
+		curs.next();
+		assertTrue(curs.getCurrent().getBinnedList().getNormalizable() 
+				instanceof Normalizer);
+		curs.close();
+	}
+	
+	private static float[] areas(BinnedPeakList peaks) {
+		float[] areas = new float[peaks.length()];
+		for (int i = 0; i < areas.length; i++)
+			areas[i] = peaks.getAreaAtIndex(i);
+		return areas;
+	}
+	
+	public void testChangesDontStick() {
+		FileCachedCursor curs = new FileCachedCursor(wrapped);
+		checkPass(curs);
+		curs.reset();
+		curs.next();
+		curs.getCurrent().getBinnedList().divideAreasBy(7);
+		curs.reset();
+		checkPass(curs);
+		curs.close();
+	}
+	
+	public void testResetDuringFirstPass() {
+		FileCachedCursor curs = new FileCachedCursor(wrapped);
+		for (int i = 0; i < 100; i++)
+			curs.next();
+		curs.reset();
+		checkPass(curs);
+		curs.reset();
+		checkPass(curs);
+		curs.close();
+	}
+	
+	public void testNonZero() {
+		int nonEmpty = 0;
+		for (Centroid particle : particles)
+			if (particle.peaks.length() > 0)
+				nonEmpty++;
+		NonZeroCursor curs = new NonZeroCursor(new FileCachedCursor(wrapped));
+		for (int pass = 0; pass < 2; pass++) {
+			int count = 0;
+			while (curs.next())
+				count++;
+			assertEquals(nonEmpty, count);
+			curs.reset();
+		}
+		curs.close();
+	}
+}
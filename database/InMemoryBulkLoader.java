@@ -0,0 +1,112 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's InMemoryBulkLoader class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A BulkLoader that keeps its rows in memory, split into fields the same 
+ * way BatchedStatementLoader splits them.  Useful for checking what an 
+ * importer would write without a database to write it to.
+ */
+public class InMemoryBulkLoader implements BulkLoader {
+	private final LinkedHashMap<String, List<String[]>> tables =
+		new LinkedHashMap<String, List<String[]>>();
+	private int flushes = 0;
+	private boolean closed = false;
+	
+	public synchronized void append(String table, String values) 
+	throws SQLException {
+		if (closed)
+			throw new SQLException("InMemoryBulkLoader is closed");
+		List<String[]> rows = tables.get(table);
+		if (rows == null) {
+			rows = new ArrayList<String[]>();
+			tables.put(table, rows);
+		}
+		rows.add(values.split(",", -1));
+	}
+	
+	public synchronized void flush() {
+		flushes++;
+	}
+	
+	public synchronized void close() {
+		closed = true;
+	}
+	
+	public synchronized void abort() {
+		if (closed)
+			return;
+		tables.clear();
+		closed = true;
+	}
+	
+	/**
+	 * @return the rows appended to the given table, in order.
+	 */
+	public synchronized List<String[]> getRows(String table) {
+		List<String[]> rows = tables.get(table);
+		if (rows == null)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(new ArrayList<String[]>(rows));
+	}
+	
+	/**
+	 * @return the tables written to, in the order they were first seen.
+	 */
+	public synchronized List<String> getTables() {
+		return new ArrayList<String>(tables.keySet());
+	}
+	
+	public synchronized int getFlushCount() {
+		return flushes;
+	}
+	
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+}
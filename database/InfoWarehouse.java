@@ -58,6 +58,7 @@ import java.util.TreeMap;
 import java.util.Vector;
 
 import analysis.BinnedPeakList;
+import analysis.PlumeDetector;
 import analysis.clustering.ClusterInformation;
 
 import ATOFMS.Peak;
@@ -294,11 +295,23 @@ public interface InfoWarehouse {
 	
 	public CollectionCursor getClusteringCursor(Collection collection, ClusterInformation cInfo);
 	
+	/**
+	 * Like getClusteringCursor, but reads the peaks of the whole collection
+	 * in one ordered scan rather than one query per atom.
+	 */
+	public CollectionCursor getStreamingClusteringCursor(Collection collection, ClusterInformation cInfo);
+	
 	public CollectionCursor getMemoryClusteringCursor(Collection collection, ClusterInformation cInfo);
 	public CollectionCursor getMemoryBinnedCursor(Collection collection);
 	
 	public CollectionCursor getRandomizedCursor(Collection collection);
 	
+	/**
+	 * A randomized cursor over only sampleSize atoms of the collection (or 
+	 * all of them, if it has fewer), picked in a single pass.
+	 */
+	public CollectionCursor getRandomSampleCursor(Collection collection, int sampleSize);
+	
 	public void seedRandom(int seed);
 	
 	/* Used for testing random number seeding */
@@ -308,6 +321,30 @@ public interface InfoWarehouse {
 	public Connection getCon();
 	public Vector<Vector<Object>> updateParticleTable(Collection collection, Vector<Vector<Object>> particleTable, int lowAtomID, int hightAtomID);
 	
+	/**
+	 * Finds the first AtomID of every pageSize particles in the collection,
+	 * in AtomID order, so that pages can be read with getParticlePage.
+	 */
+	public int[] getParticlePageStarts(Collection collection, int pageSize);
+	
+	/**
+	 * Reads up to pageSize rows of particle information, in the same form
+	 * as updateParticleTable, starting at the given AtomID.
+	 */
+	public Vector<Vector<Object>> getParticlePage(Collection collection, int firstAtomID, int pageSize);
+	
+	/**
+	 * The same as getParticlePage, but read through the given connection,
+	 * such as one from openSeparateConnection.
+	 */
+	public Vector<Vector<Object>> getParticlePage(Connection con, Collection collection, int firstAtomID, int pageSize);
+	
+	/**
+	 * Opens another connection to the database that's open now, for work
+	 * done on a thread of its own.  The caller closes it.
+	 */
+	public Connection openSeparateConnection() throws SQLException;
+	
 	public int saveMap(String name, Vector<int[]> mapRanges);
 	public Hashtable<Integer, String> getValueMaps();
 	public Vector<int[]> getValueMapRanges();
@@ -323,6 +360,7 @@ public interface InfoWarehouse {
 	public ArrayList<TreeMap<Date,Double>> createAndDetectPlumesFromPercent(Collection collection,double magnitude, int minDuration);
 	public ArrayList<TreeMap<Date,Double>> createAndDetectPlumesFromMedian(Collection collection,double magnitude, int minDuration);
 	public ArrayList<TreeMap<Date,Double>> createAndDetectPlumesFromValue(Collection collection,double magnitude, int minDuration);
+	public ArrayList<ArrayList<TreeMap<Date,Double>>> detectPlumes(Collection[] collections, PlumeDetector.Metric metric, double magnitude, int minDuration);
 	
 	public int[] getValidSelectedMZValuesForCollection(Collection collection, Date startDate, Date endDate);
 	
@@ -331,6 +369,7 @@ public interface InfoWarehouse {
 	
 	public Hashtable<Date, Double> getConditionalTSCollectionData(Collection seq, 
 			ArrayList<Collection> conditionalSeqs, ArrayList<String> conditionStrs);
+	public void clearTimeSeriesCache();
 
 	public void syncWithIonsInDB(ArrayList<LabelingIon> posIons, ArrayList<LabelingIon> negIons);
 	public void saveAtomRemovedIons(int atomID, ArrayList<LabelingIon> posIons, ArrayList<LabelingIon> negIons);
@@ -349,6 +388,19 @@ public interface InfoWarehouse {
 	public int getParentCollectionID(int collectionID);
 	public void updateAncestors(Collection collection);
 	public void updateInternalAtomOrder(Collection collection);
+	
+	/**
+	 * Holds off on InternalAtomOrder maintenance, remembering which 
+	 * collections change, until flushInternalAtomOrderUpdates is called.
+	 */
+	public void deferInternalAtomOrderUpdates();
+	public boolean isDeferringInternalAtomOrderUpdates();
+	
+	/**
+	 * Brings InternalAtomOrder up to date for everything that changed while
+	 * updates were deferred, and stops deferring them.
+	 */
+	public void flushInternalAtomOrderUpdates();
 	public String aggregateColumn(DynamicTable atomInfoDense, String string, ArrayList<Integer> curIDs, String oldDatatype);
 	public ArrayList<String> getPrimaryKey(String datatype, DynamicTable atomInfoSparse);
 	public String getCollectionDatatype(int subCollectionNum);
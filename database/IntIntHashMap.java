@@ -0,0 +1,200 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's IntIntHashMap class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package database;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from int to int that doesn't box anything: keys and values 
+ * sit in two parallel arrays, and collisions are resolved by linear 
+ * probing.  Used by the memory cursors to find a particle's position from
+ * its atom ID in constant time.
+ * 
+ * Entries can't be removed, only cleared all at once.
+ */
+public class IntIntHashMap {
+	// marks an empty slot; a real key with this value is kept off to the 
+	// side instead
+	private static final int FREE = Integer.MIN_VALUE;
+	private static final float LOAD_FACTOR = 0.5f;
+	
+	private int[] keys;
+	private int[] values;
+	private int size = 0;
+	private int mask;
+	
+	private boolean hasFreeKey = false;
+	private int freeKeyValue;
+	
+	public IntIntHashMap() {
+		this(16);
+	}
+	
+	/**
+	 * @param expectedSize how many entries to make room for up front
+	 */
+	public IntIntHashMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+	
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, FREE);
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+	
+	private int slot(int key) {
+		// spread the bits, since atom IDs are usually consecutive
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+	
+	/**
+	 * @return the value for key, or missing if there isn't one.
+	 */
+	public int get(int key, int missing) {
+		if (key == FREE)
+			return hasFreeKey ? freeKeyValue : missing;
+		int i = slot(key);
+		while (true) {
+			int k = keys[i];
+			if (k == key)
+				return values[i];
+			if (k == FREE)
+				return missing;
+			i = (i + 1) & mask;
+		}
+	}
+	
+	public boolean containsKey(int key) {
+		if (key == FREE)
+			return hasFreeKey;
+		int i = slot(key);
+		while (true) {
+			int k = keys[i];
+			if (k == key)
+				return true;
+			if (k == FREE)
+				return false;
+			i = (i + 1) & mask;
+		}
+	}
+	
+	/**
+	 * Sets the value for key, replacing any value it had.
+	 */
+	public void put(int key, int value) {
+		insert(key, value, true);
+	}
+	
+	/**
+	 * Sets the value for key only if it doesn't have one yet.
+	 * @return true if the value was set
+	 */
+	public boolean putIfAbsent(int key, int value) {
+		return insert(key, value, false);
+	}
+	
+	private boolean insert(int key, int value, boolean replace) {
+		if (key == FREE) {
+			if (hasFreeKey && !replace)
+				return false;
+			if (!hasFreeKey)
+				size++;
+			hasFreeKey = true;
+			freeKeyValue = value;
+			return true;
+		}
+		int i = slot(key);
+		while (true) {
+			int k = keys[i];
+			if (k == FREE)
+				break;
+			if (k == key) {
+				if (!replace)
+					return false;
+				values[i] = value;
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		if (size > keys.length * LOAD_FACTOR)
+			rehash();
+		return true;
+	}
+	
+	private void rehash() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int j = 0; j < oldKeys.length; j++) {
+			int key = oldKeys[j];
+			if (key == FREE)
+				continue;
+			int i = slot(key);
+			while (keys[i] != FREE)
+				i = (i + 1) & mask;
+			keys[i] = key;
+			values[i] = oldValues[j];
+		}
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Empties the map, keeping its current capacity.
+	 */
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		size = 0;
+		hasFreeKey = false;
+	}
+}
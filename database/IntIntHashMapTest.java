@@ -0,0 +1,62 @@
+package database;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IntIntHashMapTest extends TestCase {
+	
+	public void testPutGet() {
+		IntIntHashMap map = new IntIntHashMap();
+		assertEquals(0, map.size());
+		assertEquals(-1, map.get(5, -1));
+		map.put(5, 50);
+		map.put(6, 60);
+		assertEquals(50, map.get(5, -1));
+		assertEquals(60, map.get(6, -1));
+		map.put(5, 55);
+		assertEquals(55, map.get(5, -1));
+		assertFalse(map.putIfAbsent(5, 555));
+		assertEquals(55, map.get(5, -1));
+		assertTrue(map.putIfAbsent(7, 70));
+		assertEquals(3, map.size());
+		assertTrue(map.containsKey(7));
+		assertFalse(map.containsKey(8));
+	}
+	
+	public void testOddKeys() {
+		IntIntHashMap map = new IntIntHashMap();
+		map.put(Integer.MIN_VALUE, 1);
+		map.put(0, 2);
+		map.put(-1, 3);
+		map.put(Integer.MAX_VALUE, 4);
+		assertEquals(1, map.get(Integer.MIN_VALUE, -1));
+		assertEquals(2, map.get(0, -1));
+		assertEquals(3, map.get(-1, -1));
+		assertEquals(4, map.get(Integer.MAX_VALUE, -1));
+		assertEquals(4, map.size());
+		map.clear();
+		assertEquals(0, map.size());
+		assertFalse(map.containsKey(Integer.MIN_VALUE));
+		assertEquals(-1, map.get(0, -1));
+	}
+	
+	public void testAgainstHashMap() {
+		Random random = new Random(8);
+		IntIntHashMap map = new IntIntHashMap(4);
+		HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 50000; i++) {
+			// mostly consecutive, like atom IDs, with some scattered ones
+			int key = i % 3 == 0 ? random.nextInt() : i;
+			map.put(key, i);
+			expected.put(key, i);
+		}
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet())
+			assertEquals(entry.getValue().intValue(), 
+					map.get(entry.getKey(), -1));
+		assertEquals(-1, map.get(-7, -1));
+	}
+}
@@ -106,6 +106,12 @@ public class NonZeroCursor implements CollectionCursor {
 	    return cursor.getPeakListfromAtomID(atomID);
 	}
 	
+	// Positions aren't available for the same reason get() isn't: the 
+	// wrapped cursor counts the zero peak list records we skip.
+	public int getPositionOfAtomID(int atomID) {
+	    return -1;
+	}
+	
 	public void close() {
 	    cursor.close();
 	}
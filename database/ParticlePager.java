@@ -0,0 +1,347 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's ParticlePager class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import collection.Collection;
+import errorframework.ErrorLogger;
+
+/**
+ * Reads a collection's particle table a page at a time, for browsing.
+ * 
+ * The first AtomID of every page is looked up once; after that a page is
+ * read by seeking straight to its first AtomID, so any row can be reached
+ * without reading the ones before it.  The most recently used pages are 
+ * kept, and whenever a page is asked for, the pages on either side of it
+ * are read ahead on a background thread, so that paging or scrolling 
+ * forwards and backwards rarely has to wait for the database.
+ * 
+ * The background thread reads through a connection of its own, since the
+ * database's connection belongs to the thread using the pager.  If that
+ * connection can't be opened, nothing is read ahead.
+ * 
+ * Rows are laid out as in InfoWarehouse.updateParticleTable: the AtomID 
+ * as an Integer, then the rest of AtomInfoDense as Strings.
+ */
+public class ParticlePager {
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+	public static final int DEFAULT_MAX_PAGES = 16;
+	
+	private final InfoWarehouse db;
+	private final Collection collection;
+	private final int pageSize;
+	private final Map<Integer, FutureTask<Vector<Vector<Object>>>> pages;
+	private final ExecutorService prefetcher;
+	// only used by the prefetcher's thread
+	private Connection prefetchCon = null;
+	private int[] pageStarts = null;
+	private int size = -1;
+	
+	public ParticlePager(InfoWarehouse db, Collection collection) {
+		this(db, collection, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+	}
+	
+	/**
+	 * @param pageSize the number of rows read at a time
+	 * @param maxPages the most pages to keep; at least three, so that
+	 * a page and its neighbours fit
+	 */
+	public ParticlePager(InfoWarehouse db, Collection collection, 
+			int pageSize, final int maxPages) {
+		if (pageSize < 1)
+			throw new IllegalArgumentException("Page size must be positive");
+		if (maxPages < 3)
+			throw new IllegalArgumentException("Must keep at least three pages");
+		this.db = db;
+		this.collection = collection;
+		this.pageSize = pageSize;
+		pages = new LinkedHashMap<Integer, FutureTask<Vector<Vector<Object>>>>(
+				maxPages * 2, 0.75f, true) {
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, FutureTask<Vector<Vector<Object>>>> eldest) {
+				return size() > maxPages;
+			}
+		};
+		prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				Thread t = new Thread(new Runnable() {
+					public void run() {
+						try {
+							r.run();
+						} finally {
+							closePrefetchConnection();
+						}
+					}
+				}, "ParticlePager");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	/**
+	 * @return the number of particles in the collection.
+	 */
+	public synchronized int size() {
+		if (size < 0)
+			size = readSize();
+		return size;
+	}
+	
+	/**
+	 * @return the number of pages.
+	 */
+	public synchronized int getPageCount() {
+		if (pageStarts == null)
+			pageStarts = readPageStarts();
+		return pageStarts.length;
+	}
+	
+	/**
+	 * @return the row'th particle of the collection, counting from 0 in 
+	 * AtomID order, or null if there's no such row.
+	 */
+	public Vector<Object> getRow(int row) {
+		if (row < 0)
+			return null;
+		Vector<Vector<Object>> page = getPage(row / pageSize);
+		int offset = row % pageSize;
+		if (page == null || offset >= page.size())
+			return null;
+		return page.get(offset);
+	}
+	
+	/**
+	 * @return the AtomID of the row'th particle, or -1 if there's no such
+	 * row.
+	 */
+	public int getAtomID(int row) {
+		Vector<Object> data = getRow(row);
+		if (data == null)
+			return -1;
+		return ((Integer) data.get(0)).intValue();
+	}
+	
+	/**
+	 * Gets a page, reading it if it isn't kept already, and starts reading
+	 * the pages around it.
+	 * @return the rows of the page, or null if there's no such page.  The
+	 * rows are shared, so don't change them.
+	 */
+	public Vector<Vector<Object>> getPage(int page) {
+		FutureTask<Vector<Vector<Object>>> task;
+		boolean readHere;
+		synchronized (this) {
+			if (page < 0 || page >= getPageCount())
+				return null;
+			task = pages.get(page);
+			readHere = task == null;
+			if (readHere) {
+				task = newPageTask(page, false);
+				pages.put(page, task);
+			}
+		}
+		if (readHere)
+			task.run();
+		prefetch(page + 1);
+		prefetch(page - 1);
+		try {
+			Vector<Vector<Object>> rows = task.get();
+			if (rows == null) {
+				// couldn't be read ahead after all, so read it here
+				synchronized (this) {
+					if (pages.get(page) == task)
+						pages.remove(page);
+				}
+				return getPage(page);
+			}
+			return rows;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				// don't keep the failure; the next request tries again
+				if (pages.get(page) == task)
+					pages.remove(page);
+			}
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Starts reading a page in the background, unless it is kept already
+	 * or doesn't exist.
+	 */
+	private void prefetch(int page) {
+		FutureTask<Vector<Vector<Object>>> task;
+		synchronized (this) {
+			if (page < 0 || page >= getPageCount() || 
+					prefetcher.isShutdown())
+				return;
+			// containsKey doesn't count as a use, so a kept neighbour
+			// doesn't move ahead of pages that were really asked for
+			if (pages.containsKey(page))
+				return;
+			task = newPageTask(page, true);
+			pages.put(page, task);
+		}
+		try {
+			prefetcher.execute(task);
+		} catch (RejectedExecutionException e) {
+			// closed in the meantime; the page will be read when it's needed
+			synchronized (this) {
+				pages.remove(page);
+			}
+		}
+	}
+	
+	private FutureTask<Vector<Vector<Object>>> newPageTask(final int page,
+			final boolean ahead) {
+		final int firstAtomID = pageStarts[page];
+		return new FutureTask<Vector<Vector<Object>>>(
+				new Callable<Vector<Vector<Object>>>() {
+			public Vector<Vector<Object>> call() {
+				if (ahead)
+					return readPageAhead(firstAtomID);
+				return readPage(firstAtomID);
+			}
+		});
+	}
+	
+	/**
+	 * @return true if the page has been read, or is being read.
+	 */
+	public synchronized boolean isKept(int page) {
+		return pages.containsKey(page);
+	}
+	
+	/**
+	 * Forgets every page, so that they are read again; the row count and
+	 * page boundaries are looked up again too.
+	 */
+	public synchronized void clear() {
+		pages.clear();
+		pageStarts = null;
+		size = -1;
+	}
+	
+	/**
+	 * Stops the background thread and forgets the kept pages.  Pages can
+	 * still be asked for afterwards, but nothing more is read ahead.
+	 */
+	public void close() {
+		prefetcher.shutdownNow();
+		synchronized (this) {
+			pages.clear();
+		}
+	}
+	
+	/**
+	 * @return the first AtomID of each page.
+	 */
+	protected int[] readPageStarts() {
+		return db.getParticlePageStarts(collection, pageSize);
+	}
+	
+	/**
+	 * @return the page that begins with the given AtomID.
+	 */
+	protected Vector<Vector<Object>> readPage(int firstAtomID) {
+		return db.getParticlePage(collection, firstAtomID, pageSize);
+	}
+	
+	/**
+	 * Reads a page on the background thread, through its own connection.
+	 * @return the page that begins with the given AtomID, or null if it
+	 * couldn't be read ahead.
+	 */
+	protected Vector<Vector<Object>> readPageAhead(int firstAtomID) {
+		if (prefetchCon == null) {
+			try {
+				prefetchCon = db.openSeparateConnection();
+			} catch (SQLException e) {
+				ErrorLogger.writeExceptionToLog("ParticlePager",
+						"Couldn't open a connection to read particles ahead.");
+				e.printStackTrace();
+				prefetcher.shutdown();
+				return null;
+			}
+		}
+		return db.getParticlePage(prefetchCon, collection, firstAtomID, pageSize);
+	}
+	
+	private void closePrefetchConnection() {
+		if (prefetchCon == null)
+			return;
+		try {
+			prefetchCon.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		prefetchCon = null;
+	}
+	
+	protected int readSize() {
+		return db.getCollectionSize(collection.getCollectionID());
+	}
+}
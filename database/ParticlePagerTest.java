@@ -0,0 +1,152 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+public class ParticlePagerTest extends TestCase {
+	
+	/**
+	 * Pages over AtomIDs 2, 4, 6, ... without a database, and remembers 
+	 * which pages it was asked to read.
+	 */
+	private static class FakePager extends ParticlePager {
+		private final int numAtoms;
+		final List<Integer> reads = 
+			Collections.synchronizedList(new ArrayList<Integer>());
+		
+		FakePager(int numAtoms, int pageSize, int maxPages) {
+			super(null, null, pageSize, maxPages);
+			this.numAtoms = numAtoms;
+		}
+		
+		protected int[] readPageStarts() {
+			int[] starts = new int[(numAtoms + getPageSize() - 1) / getPageSize()];
+			for (int i = 0; i < starts.length; i++)
+				starts[i] = 2 * (i * getPageSize() + 1);
+			return starts;
+		}
+		
+		protected Vector<Vector<Object>> readPage(int firstAtomID) {
+			reads.add(firstAtomID);
+			Vector<Vector<Object>> page = new Vector<Vector<Object>>();
+			for (int id = firstAtomID; id <= 2 * numAtoms && 
+					page.size() < getPageSize(); id += 2) {
+				Vector<Object> row = new Vector<Object>();
+				row.add(id);
+				row.add("file" + id);
+				page.add(row);
+			}
+			return page;
+		}
+		
+		protected Vector<Vector<Object>> readPageAhead(int firstAtomID) {
+			return readPage(firstAtomID);
+		}
+		
+		protected int readSize() {
+			return numAtoms;
+		}
+	}
+	
+	public void testRows() {
+		FakePager pager = new FakePager(25, 10, 4);
+		assertEquals(25, pager.size());
+		assertEquals(3, pager.getPageCount());
+		for (int row = 0; row < 25; row++) {
+			assertEquals(2 * (row + 1), pager.getAtomID(row));
+			assertEquals("file" + 2 * (row + 1), pager.getRow(row).get(1));
+		}
+		assertNull(pager.getRow(25));
+		assertNull(pager.getRow(-1));
+		assertEquals(-1, pager.getAtomID(30));
+		assertNull(pager.getPage(3));
+		pager.close();
+	}
+	
+	public void testJumpReadsOnlyNearbyPages() throws Exception {
+		FakePager pager = new FakePager(1000, 10, 8);
+		assertEquals(2 * 501, pager.getAtomID(500));
+		// the page itself, and at most its two neighbours
+		Thread.sleep(100);
+		assertTrue(pager.reads.contains(2 * 501));
+		assertTrue(pager.reads.size() <= 3);
+		assertTrue(pager.isKept(50));
+		assertTrue(pager.isKept(49));
+		assertTrue(pager.isKept(51));
+		assertFalse(pager.isKept(0));
+		pager.close();
+	}
+	
+	public void testPagesAreKept() throws Exception {
+		FakePager pager = new FakePager(100, 10, 4);
+		pager.getRow(35);
+		pager.getRow(36);
+		pager.getRow(31);
+		Thread.sleep(100);
+		int reads = pager.reads.size();
+		// next and previous pages were read ahead
+		pager.getRow(45);
+		pager.getRow(25);
+		Thread.sleep(100);
+		assertTrue(pager.reads.size() > reads);
+		assertEquals(1, Collections.frequency(pager.reads, 2 * 31));
+		assertEquals(1, Collections.frequency(pager.reads, 2 * 41));
+		assertEquals(1, Collections.frequency(pager.reads, 2 * 21));
+		pager.close();
+	}
+	
+	public void testLeastRecentlyUsedDropped() throws Exception {
+		FakePager pager = new FakePager(1000, 10, 3);
+		pager.getRow(0);
+		pager.getRow(500);
+		pager.getRow(900);
+		Thread.sleep(100);
+		assertFalse(pager.isKept(0));
+		assertTrue(pager.isKept(90));
+		assertEquals(2 * 1, pager.getAtomID(0));
+		Thread.sleep(100);
+		assertEquals(2, Collections.frequency(pager.reads, 2 * 1));
+		pager.close();
+	}
+	
+	public void testClosedPagerStillReads() {
+		FakePager pager = new FakePager(30, 10, 3);
+		pager.close();
+		assertEquals(2 * 15, pager.getAtomID(14));
+		assertEquals(1, pager.reads.size());
+	}
+	
+	public void testReadsHereWhenNotReadAhead() throws Exception {
+		FakePager pager = new FakePager(30, 10, 3) {
+			protected Vector<Vector<Object>> readPageAhead(int firstAtomID) {
+				return null;
+			}
+		};
+		pager.getRow(0);
+		Thread.sleep(100);
+		assertTrue(pager.isKept(1));
+		assertEquals(2 * 11, pager.getAtomID(10));
+		assertEquals(2 * 21, pager.getAtomID(20));
+		assertEquals(3, pager.reads.size());
+		pager.close();
+	}
+	
+	public void testBadArguments() {
+		try {
+			new FakePager(10, 0, 3);
+			fail("page size 0 accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new FakePager(10, 10, 2);
+			fail("two pages accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
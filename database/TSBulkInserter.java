@@ -1,11 +1,16 @@
 package database;
 
-import java.text.SimpleDateFormat;
 import java.sql.*;
 
 /**
  * This class makes it fairly simple to insert a lot of time series data quickly.
  * <p>
+ * Points are kept in fixed-size arrays of times and values, and every 
+ * getBatchSize() points they are written with parameterised batch 
+ * inserts into the dense table, AtomMembership, InternalAtomOrder and 
+ * DataSetMembers, one transaction per batch.  The same four prepared 
+ * statements are used for the whole dataset.
+ * <p>
  * It is not synchronized or anything, so only use one at a time!  
  * Otherwise you'll get conflicting AtomIDs.
  * 
@@ -14,16 +19,20 @@ import java.sql.*;
  *
  */
 public class TSBulkInserter {
-	private StringBuilder vals, membership, dataset;
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	
 	private String tabName;
-	private SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 	private boolean started = false;
 	private int collectionID, datasetID, nextID, firstID;
-	private int maxBufferSize = 1024 * 950 * 3; // a bit before 1M for each StringBuilder.
 	
+	// the points that haven't been written yet
+	private long[] times;
+	private float[] values;
+	private int count;
 	
 	private InfoWarehouse db;
 	private Connection con;
+	private PreparedStatement valsStmt, membershipStmt, orderStmt, datasetStmt;
 	
 	/**
 	 * Create a new TSBulkInserter with its own database connection.
@@ -45,9 +54,9 @@ public class TSBulkInserter {
 	}
 
 	private void setUp() {
-		vals = new StringBuilder(2048);
-		membership = new StringBuilder(2048);
-		dataset = new StringBuilder(2048);
+		times = new long[DEFAULT_BATCH_SIZE];
+		values = new float[DEFAULT_BATCH_SIZE];
+		count = 0;
 		tabName = db.getDynamicTableName(DynamicTable.AtomInfoDense, "TimeSeries");
 		con = db.getCon();
 		nextID = firstID = collectionID = datasetID = -1;
@@ -71,6 +80,7 @@ public class TSBulkInserter {
 		collectionID = collectionInfo[0];
 		datasetID = collectionInfo[1];
 		nextID = firstID = db.getNextID();
+		count = 0;
 		started = true;
 		return collectionInfo;
 	}
@@ -84,64 +94,106 @@ public class TSBulkInserter {
 	 * @throws SQLException
 	 */
 	public void addPoint(java.util.Date time, float val) throws SQLException {
+		addPoint(time.getTime(), val);
+	}
+	
+	/**
+	 * As above, with the time in milliseconds since the epoch.
+	 */
+	public void addPoint(long time, float val) throws SQLException {
 		if (!started) {
 			throw new Error("Haven't called startDataset() before adding a point.");
 		}
-		vals.append("INSERT INTO " + tabName 
-				+ " VALUES (" + nextID + ",'"
-				+ df.format(time) + "',"
-				+ val +")");
-		membership.append("INSERT INTO AtomMembership" +
-				"(CollectionID, AtomID)" +
-				"VALUES (" + collectionID + "," +
-				nextID + ")");
-		membership.append("INSERT INTO InternalAtomOrder" +
-				"(CollectionID, AtomID)" +
-				"VALUES (" + collectionID + "," +
-				nextID + ")");
-		dataset.append("INSERT INTO DataSetMembers" +
-			"(OrigDataSetID, AtomID)" +
-			" VALUES (" + datasetID + "," + nextID + ")");
+		times[count] = time;
+		values[count] = val;
+		count++;
 		
-		nextID++;
-		
-		if (vals.length() + membership.length() + dataset.length() > maxBufferSize) {
+		if (count == times.length) {
 			interimCommit();
 		}
+	}
 	
+	private void prepareStatements() throws SQLException {
+		if (valsStmt != null)
+			return;
+		valsStmt = con.prepareStatement(
+				"INSERT INTO " + tabName + " VALUES (?,?,?)");
+		membershipStmt = con.prepareStatement(
+				"INSERT INTO AtomMembership (CollectionID, AtomID) VALUES (?,?)");
+		orderStmt = con.prepareStatement(
+				"INSERT INTO InternalAtomOrder (CollectionID, AtomID) VALUES (?,?)");
+		datasetStmt = con.prepareStatement(
+				"INSERT INTO DataSetMembers (OrigDataSetID, AtomID) VALUES (?,?)");
+	}
+	
+	private void closeStatements() throws SQLException {
+		if (valsStmt == null)
+			return;
+		valsStmt.close();
+		membershipStmt.close();
+		orderStmt.close();
+		datasetStmt.close();
+		valsStmt = membershipStmt = orderStmt = datasetStmt = null;
 	}
 	
 	/**
-	 * commits the particles that are currently queued up in the StringBuffers.
+	 * commits the points that are currently queued up in the buffers.
 	 * @throws SQLException
 	 */
-	// TODO:  We would be better off using bulk inserts from a file for this.
 	private void interimCommit() throws SQLException {
+		if (count == 0)
+			return;
 		if (db.getNextID() != firstID) {
 			throw new SQLException("Database has changed under a batch insert.. you can't do that!");
 		}
 		
-		Statement st = con.createStatement();
-		st.execute(membership.toString());
-		st.execute(vals.toString());
-		st.execute(dataset.toString());
-		st.close();
-		// jtbigwoo - this next part is a bit hacky, but honestly, who builds 
-		// 4MB of insert statements?
-		// the connection will keep the text of the executed statements until
-		// we close it.  this is a big problem since we might be executing hundreds
-		// of thousands of statements.  closing the connection clears the 
-		// connection's statement cache
-		db.closeConnection();
-		String databaseName = db.getDatabaseName();
-		db.openConnection(databaseName);
-		con = db.getCon();
+		prepareStatements();
+		for (int i = 0; i < count; i++) {
+			int atomID = nextID + i;
+			membershipStmt.setInt(1, collectionID);
+			membershipStmt.setInt(2, atomID);
+			membershipStmt.addBatch();
+			orderStmt.setInt(1, collectionID);
+			orderStmt.setInt(2, atomID);
+			orderStmt.addBatch();
+			valsStmt.setInt(1, atomID);
+			valsStmt.setTimestamp(2, new Timestamp(toWholeSeconds(times[i])));
+			valsStmt.setFloat(3, values[i]);
+			valsStmt.addBatch();
+			datasetStmt.setInt(1, datasetID);
+			datasetStmt.setInt(2, atomID);
+			datasetStmt.addBatch();
+		}
 		
-		vals.setLength(0); // make it into nothing!
-		dataset.setLength(0);
-		membership.setLength(0);
+		boolean autoCommit = con.getAutoCommit();
+		con.setAutoCommit(false);
+		try {
+			membershipStmt.executeBatch();
+			orderStmt.executeBatch();
+			valsStmt.executeBatch();
+			datasetStmt.executeBatch();
+			con.commit();
+		} catch (SQLException e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(autoCommit);
+		}
 		
-		firstID = nextID = db.getNextID();
+		nextID += count;
+		firstID = nextID;
+		count = 0;
+	}
+	
+	/**
+	 * Times are stored to the second, as they were when they went in as 
+	 * formatted strings.
+	 */
+	private static long toWholeSeconds(long time) {
+		long millis = time % 1000;
+		if (millis < 0)
+			millis += 1000;
+		return time - millis;
 	}
 	
 	/**
@@ -153,7 +205,11 @@ public class TSBulkInserter {
 	 * @throws SQLException
 	 */
 	public int commit() throws SQLException {
-		interimCommit();
+		try {
+			interimCommit();
+		} finally {
+			closeStatements();
+		}
 		started = false;
 		
 		db.propagateNewCollection(db.getCollection(collectionID));
@@ -168,18 +224,24 @@ public class TSBulkInserter {
 	}
 
 	/**
-	 * Returns the maximum size that TSBulkInserter will let its queues of 
-	 * SQL insert statements grow to, in bytes.
+	 * Returns the number of points that TSBulkInserter holds before 
+	 * writing them to the database.
 	 */
-	public int getMaxBufferSize() {
-		return maxBufferSize;
+	public int getBatchSize() {
+		return times.length;
 	}
 
 	/**
-	 * Set the maximum amount of data to queue up between commits to the database.
-	 * @param maxBufferSize in bytes
+	 * Set the number of points to queue up between commits to the database.
+	 * Any points already queued are written first.
+	 * @throws SQLException
 	 */
-	public void setMaxBufferSize(int maxBufferSize) {
-		this.maxBufferSize = maxBufferSize;
+	public void setBatchSize(int batchSize) throws SQLException {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be positive");
+		if (started)
+			interimCommit();
+		times = new long[batchSize];
+		values = new float[batchSize];
 	}
 }
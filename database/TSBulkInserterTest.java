@@ -70,6 +70,33 @@ public class TSBulkInserterTest extends TestCase {
 		insertAndTest(data, initialDate);
 	}
 	
+	// points split over many small batches, with a partial one at the end
+	public void testAddPointsInSmallBatches() throws SQLException {
+		ins.setBatchSize(7);
+		assertEquals(7, ins.getBatchSize());
+		TreeMap<Date, Float> data = new TreeMap<Date, Float>();
+		Date initialDate = new Date();
+		Calendar c = new GregorianCalendar();
+		c.setTimeInMillis(initialDate.getTime());
+		for (int i = 0; i < 100; i++) {
+			data.put(c.getTime(), Float.valueOf(i));
+			
+			c.add(Calendar.SECOND, 30);
+		}
+		insertAndTest(data, initialDate);
+		assertEquals(22 + 100, db.getNextID());
+		assertEquals(100, db.getCollectionSize(findCollection("test coll")));
+	}
+	
+	private int findCollection(String name) throws SQLException {
+		ResultSet rs = db.getCon().createStatement().executeQuery(
+				"SELECT CollectionID FROM Collections WHERE Name = '" + name + "'");
+		assertTrue(rs.next());
+		int id = rs.getInt(1);
+		rs.close();
+		return id;
+	}
+	
 	private void insertAndTest(Map<Date,Float> data, Date initialDate) {
 		ins.startDataset("test coll");
 		
@@ -0,0 +1,354 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is EDAM Enchilada's TimeSeriesCache class.
+ *
+ * The Initial Developer of the Original Code is
+ * The EDAM Project at Carleton College.
+ * Portions created by the Initial Developer are Copyright (C) 2005
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * Ben J Anderson andersbe@gmail.com
+ * David R Musicant dmusican@carleton.edu
+ * Anna Ritz ritza@carleton.edu
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps whole TimeSeries collections in memory as sorted arrays of epoch
+ * milliseconds and values, so that conditional queries can be answered by
+ * walking the arrays instead of self-joining the time series table.
+ * 
+ * Collections are evicted least recently used first once the cache holds
+ * more than its byte budget.  Each lookup checks a cheap signature of the
+ * collection's membership with the loader, and reloads if it has changed.
+ */
+public class TimeSeriesCache {
+	/**
+	 * One TimeSeries collection: times in increasing order, no repeats, 
+	 * with the value at each.
+	 */
+	public static class Series {
+		public final long[] times;
+		public final float[] values;
+		public final int size;
+		private long[] signature;
+		
+		/**
+		 * Takes over the arrays, which must already be sorted by time with
+		 * no time repeated.
+		 */
+		public Series(long[] times, float[] values, int size) {
+			this.times = times;
+			this.values = values;
+			this.size = size;
+		}
+		
+		/**
+		 * @return roughly how many bytes of heap this series takes up.
+		 */
+		public long getMemory() {
+			return 64 + 8L * times.length + 4L * values.length;
+		}
+	}
+	
+	/**
+	 * Where the cache gets its data from.
+	 */
+	public interface Loader {
+		/**
+		 * @return a few numbers that change whenever the collection's 
+		 * members do, such as their count and smallest and largest ID.
+		 */
+		public long[] signature(int collectionID) throws SQLException;
+		
+		/**
+		 * @return the collection's points, sorted by time; if a time 
+		 * repeats, the last point read wins.
+		 */
+		public Series load(int collectionID) throws SQLException;
+	}
+	
+	private final Loader loader;
+	private final long maxBytes;
+	private long bytes = 0;
+	private final LinkedHashMap<Integer, Series> series = 
+		new LinkedHashMap<Integer, Series>(16, 0.75f, true);
+	
+	/**
+	 * @param maxBytes how much the cached series may take up in total
+	 */
+	public TimeSeriesCache(Loader loader, long maxBytes) {
+		this.loader = loader;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * @return the collection's series, loading it if it isn't cached or 
+	 * its members have changed since.
+	 */
+	public synchronized Series get(int collectionID) throws SQLException {
+		long[] signature = loader.signature(collectionID);
+		Series cached = series.get(collectionID);
+		if (cached != null) {
+			if (Arrays.equals(cached.signature, signature))
+				return cached;
+			remove(collectionID);
+		}
+		Series loaded = loader.load(collectionID);
+		loaded.signature = signature;
+		// something bigger than the whole budget is handed out but not kept
+		if (loaded.getMemory() <= maxBytes) {
+			series.put(collectionID, loaded);
+			bytes += loaded.getMemory();
+			evict();
+		}
+		return loaded;
+	}
+	
+	private void evict() {
+		Iterator<Series> eldest = series.values().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			bytes -= eldest.next().getMemory();
+			eldest.remove();
+		}
+	}
+	
+	public synchronized void remove(int collectionID) {
+		Series removed = series.remove(collectionID);
+		if (removed != null)
+			bytes -= removed.getMemory();
+	}
+	
+	public synchronized void clear() {
+		series.clear();
+		bytes = 0;
+	}
+	
+	public synchronized boolean contains(int collectionID) {
+		return series.containsKey(collectionID);
+	}
+	
+	public synchronized long getMemory() {
+		return bytes;
+	}
+	
+	/**
+	 * Sorts the points by time, keeping the last of any repeated time, 
+	 * and packs them into a Series.  Points that are already
+	 * in order are packed into the given arrays.
+	 */
+	public static Series sortedSeries(long[] times, float[] values, int size) {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; i++)
+			sorted = times[i - 1] <= times[i];
+		if (sorted)
+			return dropRepeats(times, values, size);
+		
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		final long[] t = times;
+		// stable, so repeated times stay in the order they were read
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return t[a] < t[b] ? -1 : (t[a] == t[b] ? 0 : 1);
+			}
+		});
+		long[] sortedTimes = new long[size];
+		float[] sortedValues = new float[size];
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			int at = order[i];
+			if (n > 0 && sortedTimes[n - 1] == times[at])
+				n--;
+			sortedTimes[n] = times[at];
+			sortedValues[n] = values[at];
+			n++;
+		}
+		return new Series(sortedTimes, sortedValues, n);
+	}
+	
+	private static Series dropRepeats(long[] times, float[] values, int size) {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			if (n > 0 && times[n - 1] == times[i])
+				n--;
+			times[n] = times[i];
+			values[n] = values[i];
+			n++;
+		}
+		return new Series(times, values, n);
+	}
+	
+	/**
+	 * @return for each point of seq, the index of the point of other at the
+	 * same time, or -1 if other has none.  A merge of the two sorted time
+	 * arrays.
+	 */
+	public static int[] align(Series seq, Series other) {
+		int[] at = new int[seq.size];
+		int j = 0;
+		for (int i = 0; i < seq.size; i++) {
+			long time = seq.times[i];
+			while (j < other.size && other.times[j] < time)
+				j++;
+			at[i] = (j < other.size && other.times[j] == time) ? j : -1;
+		}
+		return at;
+	}
+	
+	/**
+	 * One comparison from SyncAnalyzePanel, e.g. "AND C1.Value &lt; 2" or
+	 * "C0.Value &gt;= C1.Value".
+	 */
+	public static class Condition {
+		private static final Pattern FORMAT = Pattern.compile(
+				"\\s*(?:(AND|OR)\\s+)?C(\\d+)\\.Value\\s*(<=|>=|<>|<|>|=)\\s*" +
+				"(?:C(\\d+)\\.Value|([-+]?(?:\\d+\\.?\\d*|\\.\\d+)(?:[eE][-+]?\\d+)?))\\s*");
+		
+		final boolean or;
+		final int left;
+		final String op;
+		// the other sequence's index, or -1 to compare against value
+		final int right;
+		final double value;
+		
+		private Condition(boolean or, int left, String op, int right, 
+				double value) {
+			this.or = or;
+			this.left = left;
+			this.op = op;
+			this.right = right;
+			this.value = value;
+		}
+		
+		/**
+		 * @throws IllegalArgumentException if the text isn't a single 
+		 * comparison of that form.
+		 */
+		public static Condition parse(String text) {
+			Matcher m = FORMAT.matcher(text);
+			if (!m.matches())
+				throw new IllegalArgumentException(
+						"Can't evaluate condition \"" + text + "\"");
+			boolean or = "OR".equals(m.group(1));
+			int left = Integer.parseInt(m.group(2));
+			if (m.group(4) != null)
+				return new Condition(or, left, m.group(3), 
+						Integer.parseInt(m.group(4)), 0);
+			return new Condition(or, left, m.group(3), -1, 
+					Double.parseDouble(m.group(5)));
+		}
+		
+		boolean test(double a, double b) {
+			if (op.equals("<"))
+				return a < b;
+			if (op.equals(">"))
+				return a > b;
+			if (op.equals("<="))
+				return a <= b;
+			if (op.equals(">="))
+				return a >= b;
+			if (op.equals("="))
+				return a == b;
+			return a != b;
+		}
+	}
+	
+	/**
+	 * Picks out the points of seq at which the conditions hold.  Condition
+	 * Ci refers to conditionalSeqs.get(i), and a comparison involving a 
+	 * sequence with no point at that time is false.  As in SQL, AND binds
+	 * tighter than OR, and the first condition's AND/OR is ignored.
+	 * 
+	 * @throws IllegalArgumentException if a condition can't be parsed or 
+	 * refers to a sequence that wasn't given.
+	 */
+	public static Series select(Series seq, List<Series> conditionalSeqs,
+			List<String> conditionStrs) {
+		if (conditionStrs.isEmpty())
+			return seq;
+		
+		ArrayList<Condition> conditions = new ArrayList<Condition>();
+		for (String text : conditionStrs) {
+			Condition c = Condition.parse(text);
+			if (c.left >= conditionalSeqs.size() || 
+					c.right >= conditionalSeqs.size())
+				throw new IllegalArgumentException("Condition \"" + text +
+						"\" refers to a missing sequence");
+			conditions.add(c);
+		}
+		int[][] at = new int[conditionalSeqs.size()][];
+		for (int i = 0; i < at.length; i++)
+			at[i] = align(seq, conditionalSeqs.get(i));
+		
+		long[] times = new long[seq.size];
+		float[] values = new float[seq.size];
+		int n = 0;
+		for (int i = 0; i < seq.size; i++) {
+			boolean any = false;
+			boolean all = true;
+			for (int k = 0; k < conditions.size(); k++) {
+				Condition c = conditions.get(k);
+				if (k > 0 && c.or) {
+					any |= all;
+					all = true;
+				}
+				if (!all)
+					continue;
+				int l = at[c.left][i];
+				int r = c.right < 0 ? 0 : at[c.right][i];
+				if (l < 0 || r < 0) {
+					all = false;
+					continue;
+				}
+				double a = conditionalSeqs.get(c.left).values[l];
+				double b = c.right < 0 ? c.value :
+					conditionalSeqs.get(c.right).values[r];
+				all = c.test(a, b);
+			}
+			if (any || all) {
+				times[n] = seq.times[i];
+				values[n] = seq.values[i];
+				n++;
+			}
+		}
+		return new Series(times, values, n);
+	}
+}
@@ -0,0 +1,143 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+public class TimeSeriesCacheTest extends TestCase {
+	private HashMap<Integer, TimeSeriesCache.Series> stored;
+	private HashMap<Integer, long[]> signatures;
+	private int loads;
+	private TimeSeriesCache.Loader loader;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		stored = new HashMap<Integer, TimeSeriesCache.Series>();
+		signatures = new HashMap<Integer, long[]>();
+		loads = 0;
+		loader = new TimeSeriesCache.Loader() {
+			public long[] signature(int collectionID) throws SQLException {
+				return signatures.get(collectionID);
+			}
+			public TimeSeriesCache.Series load(int collectionID) throws SQLException {
+				loads++;
+				return stored.get(collectionID);
+			}
+		};
+	}
+	
+	private static TimeSeriesCache.Series series(long[] times, float[] values) {
+		return new TimeSeriesCache.Series(times, values, times.length);
+	}
+	
+	private void store(int id, TimeSeriesCache.Series s) {
+		stored.put(id, s);
+		signatures.put(id, new long[] {s.size});
+	}
+	
+	public void testCachesUntilSignatureChanges() throws Exception {
+		TimeSeriesCache cache = new TimeSeriesCache(loader, 1 << 20);
+		store(2, series(new long[] {1, 2}, new float[] {5, 6}));
+		TimeSeriesCache.Series first = cache.get(2);
+		assertSame(first, cache.get(2));
+		assertEquals(1, loads);
+		
+		store(2, series(new long[] {1, 2, 3}, new float[] {5, 6, 7}));
+		assertEquals(3, cache.get(2).size);
+		assertEquals(2, loads);
+	}
+	
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		long[] times = new long[100];
+		float[] values = new float[100];
+		for (int i = 1; i <= 3; i++)
+			store(i, series(times.clone(), values.clone()));
+		long each = stored.get(1).getMemory();
+		TimeSeriesCache cache = new TimeSeriesCache(loader, 2 * each);
+		cache.get(1);
+		cache.get(2);
+		cache.get(1);
+		cache.get(3);
+		assertTrue(cache.contains(1));
+		assertFalse(cache.contains(2));
+		assertTrue(cache.contains(3));
+		assertEquals(2 * each, cache.getMemory());
+		
+		// too big to keep at all
+		TimeSeriesCache small = new TimeSeriesCache(loader, each - 1);
+		assertNotNull(small.get(1));
+		assertFalse(small.contains(1));
+		assertEquals(0, small.getMemory());
+	}
+	
+	public void testSortedSeries() {
+		TimeSeriesCache.Series s = TimeSeriesCache.sortedSeries(
+				new long[] {30, 10, 20, 10}, new float[] {3, 1, 2, 4}, 4);
+		assertEquals(3, s.size);
+		assertTrue(Arrays.equals(new long[] {10, 20, 30}, 
+				Arrays.copyOf(s.times, 3)));
+		// the later of the repeated times wins
+		assertEquals(4f, s.values[0]);
+		assertEquals(2f, s.values[1]);
+		assertEquals(3f, s.values[2]);
+	}
+	
+	public void testAlign() {
+		TimeSeriesCache.Series a = series(new long[] {1, 3, 5, 7}, new float[4]);
+		TimeSeriesCache.Series b = series(new long[] {0, 3, 4, 7, 9}, new float[5]);
+		assertTrue(Arrays.equals(new int[] {-1, 1, -1, 3}, 
+				TimeSeriesCache.align(a, b)));
+	}
+	
+	public void testSelect() {
+		TimeSeriesCache.Series seq = series(new long[] {1, 2, 3, 4}, 
+				new float[] {10, 20, 30, 40});
+		TimeSeriesCache.Series c0 = series(new long[] {1, 2, 3, 4}, 
+				new float[] {1, 6, 7, 8});
+		TimeSeriesCache.Series c1 = series(new long[] {1, 3, 4}, 
+				new float[] {0, 1, 9});
+		ArrayList<TimeSeriesCache.Series> conds = new ArrayList<TimeSeriesCache.Series>();
+		conds.add(c0);
+		conds.add(c1);
+		
+		ArrayList<String> strs = new ArrayList<String>();
+		strs.add("C0.Value  > 5");
+		strs.add("AND C1.Value  < 2");
+		assertTimes(new long[] {3}, TimeSeriesCache.select(seq, conds, strs));
+		
+		strs.set(1, "OR C1.Value  < 2");
+		assertTimes(new long[] {1, 2, 3, 4}, TimeSeriesCache.select(seq, conds, strs));
+		
+		strs.clear();
+		strs.add("C0.Value  >= C1.Value ");
+		assertTimes(new long[] {1, 3}, TimeSeriesCache.select(seq, conds, strs));
+		
+		strs.clear();
+		assertSame(seq, TimeSeriesCache.select(seq, conds, strs));
+	}
+	
+	public void testSelectRejectsUnknownConditions() {
+		TimeSeriesCache.Series seq = series(new long[] {1}, new float[] {1});
+		ArrayList<TimeSeriesCache.Series> conds = new ArrayList<TimeSeriesCache.Series>();
+		conds.add(seq);
+		ArrayList<String> strs = new ArrayList<String>();
+		strs.add("C0.Value > 5; DROP TABLE x");
+		try {
+			TimeSeriesCache.select(seq, conds, strs);
+			fail();
+		} catch (IllegalArgumentException e) {}
+		strs.set(0, "C1.Value > 5");
+		try {
+			TimeSeriesCache.select(seq, conds, strs);
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+	
+	private static void assertTimes(long[] expected, TimeSeriesCache.Series s) {
+		assertTrue(Arrays.toString(Arrays.copyOf(s.times, s.size)),
+				Arrays.equals(expected, Arrays.copyOf(s.times, s.size)));
+	}
+}
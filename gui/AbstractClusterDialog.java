@@ -65,6 +65,7 @@ public abstract class AbstractClusterDialog extends JDialog implements ItemListe
 	final static String RANDOM = "Random Points (fastest)";
 	final static String REFINED = "Refined Centroids (slow)";
 	final static String KMEANSPP = "KMeans++ (fast)";
+	final static String KMEANSPARALLEL = "KMeans|| (fast for large k)";
 	
 	protected String[] clusterNames;
 	
@@ -148,7 +149,7 @@ public abstract class AbstractClusterDialog extends JDialog implements ItemListe
 		JLabel kLabel = new JLabel("Number of Clusters:");
 		kClusterText = new JTextField(5);
 		JLabel initialLabel = new JLabel("Initial Centroids:");
-		String[] initialNames = {FARTHEST, RANDOM, REFINED, KMEANSPP};
+		String[] initialNames = {FARTHEST, RANDOM, REFINED, KMEANSPP, KMEANSPARALLEL};
 		initialCentroids = new JComboBox(initialNames);
 		initialCentroids.setEditable(false);
 		initialCentroids.addItemListener(this);
@@ -423,6 +424,9 @@ public abstract class AbstractClusterDialog extends JDialog implements ItemListe
 		else if (initialCentroidMethod.equals(KMEANSPP)) {
 			initialCentroidsInt = ClusterK.KMEANS_PLUS_PLUS_CENTROIDS;
 		}
+		else if (initialCentroidMethod.equals(KMEANSPARALLEL)) {
+			initialCentroidsInt = ClusterK.KMEANS_PARALLEL_CENTROIDS;
+		}
 		if (source == okButton) {
 			doOKButtonAction(dMetInt, initialCentroidsInt);
 		}
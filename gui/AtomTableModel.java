@@ -43,93 +43,84 @@
  */
 package gui;
 
-import javax.swing.table.AbstractTableModel;
-
-import ATOFMS.ParticleInfo;
+import java.util.ArrayList;
+import java.util.Vector;
 
+import javax.swing.table.AbstractTableModel;
 
-import database.CollectionCursor;
+import collection.Collection;
+import database.DynamicTable;
 import database.InfoWarehouse;
+import database.ParticlePager;
 
 /**
- * This table model goes straight to the database to lookup 
- * particles.  It is also never used?
- * 
- * TODO: Implement cacheing (and figure out how to spell it as a 
- * verb)
+ * This table model shows a whole collection's particle information, 
+ * reading it from the database a page at a time through a ParticlePager,
+ * so scrolling anywhere in the table only reads the rows around the ones 
+ * showing.  The columns are those of the collection's AtomInfoDense 
+ * table.
  * @author andersbe
  */
 public class AtomTableModel extends AbstractTableModel {
 	InfoWarehouse db;
 	int collectionID;
-	int lastCheckedRow = -1;
-	CollectionCursor curs;
-	/**
-	 * 
-	 */
+	ParticlePager pager;
+	ArrayList<String> columnNames;
+	
 	public AtomTableModel(InfoWarehouse db, int collectionID) {
 		super();
 		this.db = db;
 		this.collectionID = collectionID;
-		curs = db.getAtomInfoOnlyCursor(db.getCollection(collectionID));
+		Collection collection = db.getCollection(collectionID);
+		pager = new ParticlePager(db, collection);
+		columnNames = new ArrayList<String>();
+		for (String name : db.getColNames(collection.getDatatype(), 
+				DynamicTable.AtomInfoDense)) {
+			// names come back in brackets, e.g. [AtomID]
+			if (name.startsWith("[") && name.endsWith("]"))
+				name = name.substring(1, name.length() - 1);
+			columnNames.add(name);
+		}
+	}
+	
+	/**
+	 * @return the pager the rows come from, which can be shared with 
+	 * other views of the same collection.
+	 */
+	public ParticlePager getPager() {
+		return pager;
 	}
 
 	/* (non-Javadoc)
 	 * @see javax.swing.table.TableModel#getRowCount()
 	 */
 	public int getRowCount() {
-		return db.getCollectionSize(collectionID);
+		return pager.size();
 	}
 
 	/* (non-Javadoc)
 	 * @see javax.swing.table.TableModel#getColumnCount()
 	 */
 	public int getColumnCount() {
-		return 4;
+		return columnNames.size();
+	}
+	
+	public String getColumnName(int column) {
+		return columnNames.get(column);
 	}
 
 	/* (non-Javadoc)
 	 * @see javax.swing.table.TableModel#getValueAt(int, int)
 	 */
 	public Object getValueAt(int rowIndex, int columnIndex) {
-		ParticleInfo pInfo = null;
-		if (rowIndex == lastCheckedRow + 1)
-		{
-			curs.next();
-			pInfo = curs.getCurrent();
-		}
-		else
-		{
-			curs.reset();
-			for (int i = 0; i <= rowIndex; i++)
-				curs.next();
-			pInfo = curs.getCurrent();
-		}
-		lastCheckedRow = rowIndex;
-		
-		if (columnIndex == 0)
-		{
-			return new Integer(
-					pInfo.getATOFMSParticleInfo().getAtomID());
-		}
-		else if (columnIndex == 1)
-		{
-			return pInfo.getATOFMSParticleInfo().getFilename();
-		}
-		else if (columnIndex == 2)
-		{
-			return new Float(pInfo.getATOFMSParticleInfo().getSize());
-		}
-		else if (columnIndex == 3)
-		{
-			return pInfo.getATOFMSParticleInfo().getDateString();
-		}
-		else
+		Vector<Object> row = pager.getRow(rowIndex);
+		if (row == null || columnIndex >= row.size())
 			return null;
+		return row.get(columnIndex);
 	}
 	
 	public void close() {
-		curs.close();
+		pager.close();
 	}
 
 }
@@ -202,7 +202,7 @@ public class ClusterDialog extends AbstractClusterDialog
 					}
 					else
 					{
-						art2a.setCursorType(Cluster.DISK_BASED);
+						art2a.setCursorType(Cluster.STORE_ON_DISK_ON_FIRST_PASS);
 					}
 					art2a.divide();
 				}
@@ -261,7 +261,7 @@ public class ClusterDialog extends AbstractClusterDialog
 							}
 							else
 							{
-								kMedians.setCursorType(Cluster.DISK_BASED);
+								kMedians.setCursorType(Cluster.STORE_ON_DISK_ON_FIRST_PASS);
 							}
 	
 							kMedians.divide();
@@ -286,7 +286,7 @@ public class ClusterDialog extends AbstractClusterDialog
 							}
 							else
 							{
-								kMeans.setCursorType(Cluster.DISK_BASED);
+								kMeans.setCursorType(Cluster.STORE_ON_DISK_ON_FIRST_PASS);
 							}
 	
 							kMeans.divide();
@@ -24,6 +24,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 
+import analysis.PlumeDetector;
 import collection.Collection;
 
 import database.InfoWarehouse;
@@ -113,43 +114,47 @@ public class DetectPlumesDialog  extends JDialog implements ActionListener, Item
 			fileChooser.setVisible(true);
 			String filename = fileChooser.getDirectory()+fileChooser.getFile();
 			if(fileChooser.getFile()==null) return;
-			Collection curCollection = cTree.getSelectedCollection();
-			metricDropdown.getSelectedIndex();
+			Collection[] collections = cTree.getSelectedCollections();
+			if (collections == null) return;
 			
-			ArrayList<TreeMap<Date, Double>> plumes = null;
+			PlumeDetector.Metric metric;
 			switch(metricDropdown.getSelectedIndex()){
 			case 0:
-				plumes = db.createAndDetectPlumesFromPercent(
-						curCollection, threshold, duration);
+				metric = PlumeDetector.Metric.PERCENT;
 				break;
 			case 1:
-				plumes = db.createAndDetectPlumesFromMedian(
-						curCollection, threshold, duration);
-				break;
-			case 2:
-				plumes = db.createAndDetectPlumesFromValue(
-						curCollection, threshold, duration);
+				metric = PlumeDetector.Metric.MEDIAN;
 				break;
 			default: 
+				metric = PlumeDetector.Metric.VALUE;
 				break;
 			}
-			
+			// all the selected collections are searched at once
+			ArrayList<ArrayList<TreeMap<Date, Double>>> allPlumes = 
+				db.detectPlumes(collections, metric, threshold, duration);
 
 			SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 			FileWriter output;
+			int numPlumes = 0;
 			try {
 				output = new FileWriter(filename);
-				for (int i = 0; i < plumes.size(); i++) {
-					output.write("Plume # "+i+"\n");
-					for(Date date : plumes.get(i).keySet()){
-						output.write(formatter.format(date)+", ");
-					}
-					output.write("\n");
-					for(Double value : plumes.get(i).values()){
-						output.write(value+", ");
+				for (int c = 0; c < collections.length; c++) {
+					ArrayList<TreeMap<Date, Double>> plumes = allPlumes.get(c);
+					if (collections.length > 1)
+						output.write("Collection: "+collections[c].getName()+"\n\n");
+					for (int i = 0; i < plumes.size(); i++) {
+						output.write("Plume # "+i+"\n");
+						for(Date date : plumes.get(i).keySet()){
+							output.write(formatter.format(date)+", ");
+						}
+						output.write("\n");
+						for(Double value : plumes.get(i).values()){
+							output.write(value+", ");
+						}
+						output.write("\n");
+						output.write("\n");
 					}
-					output.write("\n");
-					output.write("\n");
+					numPlumes += plumes.size();
 				}
 				output.flush();
 				output.close();
@@ -160,7 +165,7 @@ public class DetectPlumesDialog  extends JDialog implements ActionListener, Item
 			}
 
 			JOptionPane.showMessageDialog(parent, 
-					plumes.size()+" plumes were detected and were written to the file: "+filename,
+					numPlumes+" plumes were detected and were written to the file: "+filename,
 					"Plumes Detected",JOptionPane.INFORMATION_MESSAGE);
 			dispose();
 		}else if (source == cancelButton) {
@@ -73,6 +73,7 @@ import database.InfoWarehouse;
 import database.Database;
 import database.VersionChecker;
 import database.DynamicTable;
+import database.ParticlePager;
 import errorframework.DisplayException;
 import errorframework.ErrorLogger;
 import externalswing.SwingWorker;
@@ -172,6 +173,8 @@ public class MainFrame extends JFrame implements ActionListener
 	private int currCollectionSize;
 	private int currHigh;
 	private int currLow;
+	// reads the particle table for the collection being shown
+	private ParticlePager particlePager = null;
 	private JLabel currentlyShowing;
 	private JButton searchButton;
 	private int currCollection;
@@ -1091,7 +1094,7 @@ public class MainFrame extends JFrame implements ActionListener
 		for (int row : selectedRows) {
 			Collection coll = collectionPane.getSelectedCollection();
 			ParticleAnalyzeWindow pw = 
-				new ParticleAnalyzeWindow(db, particlesTable, row, coll);
+				new ParticleAnalyzeWindow(db, particlePager, currLow - 1 + row, coll);
 			//set this as the owner
 			pw.setOwner(this);
 			pw.setVisible(true);
@@ -1515,6 +1518,9 @@ public class MainFrame extends JFrame implements ActionListener
 		 */ 
 		currCollectionSize = db.getCollectionSize(collection.getCollectionID());
 		currCollection = collection.getCollectionID();
+		if (particlePager != null)
+			particlePager.close();
+		particlePager = new ParticlePager(db, collection);
 		
 		currLow = 1;
 		backwardButton.setEnabled(false);
@@ -1888,6 +1894,10 @@ public class MainFrame extends JFrame implements ActionListener
 	 * This clears the particle table when a collection is deleted.  
 	 */
 	public void clearTable() {
+		if (particlePager != null) {
+			particlePager.close();
+			particlePager = null;
+		}
 		//data.clear();
 		data = new Vector<Vector<Object>>(1000);
 		Vector<Object> row = new Vector<Object>(6);
@@ -1930,7 +1940,14 @@ public class MainFrame extends JFrame implements ActionListener
 			currentlyShowing.setText("Currently showing particles " + currLow +
 					"-" + currHigh + " of " + currCollectionSize + ".");
 			data.clear();
-			db.updateParticleTable(getSelectedCollection(),data,currLow,currHigh);
+			// the pages are the same size as the table's windows, and the
+			// pager reads the neighbouring ones ahead for next/previous
+			Vector<Vector<Object>> page = null;
+			if (particlePager != null)
+				page = particlePager.getPage(
+						(currLow - 1) / ParticlePager.DEFAULT_PAGE_SIZE);
+			if (page != null)
+				data.addAll(page);
 			particlesTable.tableChanged(new TableModelEvent(particlesTable.getModel()));
 			particlesTable.doLayout();
 	
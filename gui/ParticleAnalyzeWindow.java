@@ -76,7 +76,6 @@ import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.Vector;
 import java.util.Date;
 
 import javax.swing.ButtonGroup;
@@ -97,7 +96,6 @@ import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.AbstractTableModel;
-import javax.swing.table.TableModel;
 
 import ATOFMS.AMSPeak;
 import ATOFMS.ATOFMSParticle;
@@ -111,6 +109,7 @@ import chartlib.SpectrumPlot;
 import chartlib.ZoomableChart;
 import collection.Collection;
 import database.InfoWarehouse;
+import database.ParticlePager;
 import errorframework.ErrorLogger;
 
 
@@ -125,7 +124,6 @@ import errorframework.ErrorLogger;
 public class ParticleAnalyzeWindow extends JFrame 
 implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 	
-	private final int CACHE_NUM = 1000;//see createCache() below
 	
 	//GUI elements
 	private SpectrumPlot chart;
@@ -146,7 +144,8 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 	
 	//Data elements
 	private InfoWarehouse db;
-	private Vector<Vector<Object>> particlesData;
+	// the collection's particle table, read a page at a time
+	private ParticlePager particles;
 	private int curRow;
 	private Collection coll;
 	private String datatype;
@@ -219,10 +218,13 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 	/**
 	 * Makes a new panel containing a zoomable chart and a table of values.
 	 * Both begin empty.
-	 * @param chart
+	 * @param particles the collection's particle table, which next and 
+	 * previous move through
+	 * @param curRow the row of the particle to show first, counting from 
+	 * the start of the collection
 	 */
-	public ParticleAnalyzeWindow(final InfoWarehouse db, JTable dt, int curRow,
-			Collection collection) {
+	public ParticleAnalyzeWindow(final InfoWarehouse db, ParticlePager particles,
+			int curRow, Collection collection) {
 		super();
 		
 		setDefaultCloseOperation(DISPOSE_ON_CLOSE);
@@ -254,7 +256,7 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 		
 	    this.db = db;
 	    this.curRow = curRow;
-	    this.particlesData = createCache(dt, curRow);
+	    this.particles = particles;
 	    this.coll = collection;
 	    this.datatype = collection.getDatatype();
 	    labelLoader = new LabelLoader(this);
@@ -315,40 +317,6 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 		});
 	}
 
-	/**
-	 * @author steinbel
-	 * Creates a deep copy of CACHE_NUM rows before the selected row and
-	 * after it.
-	 * @param orig - the original table from which the copy will be made
-	 * @param selected - the row selected in the original table
-	 * @return a copy of the data from the original table within range of
-	 * 			the selected row
-	 */
-	private Vector<Vector<Object>> createCache(JTable orig, int selected){
-		Vector<Vector<Object>> cache = new Vector<Vector<Object>>();
-		TableModel data = orig.getModel();
-		
-		//determine the range for data to cache
-		int cols = data.getColumnCount();
-		int rows = data.getRowCount();
-		int start = selected - CACHE_NUM;
-		if (start < 0)
-			start = 0;
-		int end = selected + CACHE_NUM;
-		if (end > rows)
-			end = rows;
-		
-		//copy data
-		for (int i=start; i<end; i++){
-			cache.add(i, new Vector<Object>());
-			for (int j=0; j<cols; j++){
-				cache.get(i).add(j, data.getValueAt(i, j));
-			}
-		}
-		
-		return cache;
-	}
-
 	/**
 	 * @param db
 	 * @param curRow
@@ -379,7 +347,7 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 		JPanel peakButtonPanel = new JPanel(new GridLayout(2,1));
 		
 		int aID = ((Integer)
-				particlesData.get(curRow).get(0)).intValue();
+				particles.getRow(curRow).get(0)).intValue();
 		
 		clusterID = db.getRepresentedCluster(aID);
 		
@@ -664,7 +632,7 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 	}
 	
 	private void showNextParticle() {
-		if (curRow < (particlesData.size()-1));
+		if (curRow < (particles.size()-1));
 			curRow++;
 		showGraph();
 		unZoom();
@@ -679,7 +647,7 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 	private void showGraph(){
 		
 		int atomID = ((Integer)
-				particlesData.get(curRow).get(0)).intValue();
+				particles.getRow(curRow).get(0)).intValue();
 		
 		//enable and disable buttons according to data available
 		if(curRow<=0){
@@ -687,7 +655,7 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 		}else{
 			prevButton.setEnabled(true);
 		}
-		if(curRow>= (particlesData.size()-1)){
+		if(curRow>= (particles.size()-1)){
 			nextButton.setEnabled(false);
 		}else{
 			nextButton.setEnabled(true);
@@ -698,9 +666,9 @@ implements MouseMotionListener, MouseListener, ActionListener, KeyListener {
 		//grab this from the table COPY
 		String filename = null;
 		if (datatype.equals("ATOFMS"))
-			filename = (String)particlesData.get(curRow).get(5);
+			filename = (String)particles.getRow(curRow).get(5);
 		
-		String dateTime = (String)particlesData.get(curRow).get(1);
+		String dateTime = (String)particles.getRow(curRow).get(1);
 		Date time = null;
 		// dateTime can be null if the particle is artificial, such as a
 		// cluster center
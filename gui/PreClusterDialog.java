@@ -182,7 +182,7 @@ public class PreClusterDialog extends AbstractClusterDialog
 					}
 					else
 					{
-						art2a.setCursorType(Cluster.DISK_BASED);
+						art2a.setCursorType(Cluster.STORE_ON_DISK_ON_FIRST_PASS);
 					}
 					art2a.setCreateCentroids(false);
 					dividedParticleCollectionId = art2a.divide();
@@ -240,7 +240,7 @@ public class PreClusterDialog extends AbstractClusterDialog
 						}
 						else
 						{
-							kMedians.setCursorType(Cluster.DISK_BASED);
+							kMedians.setCursorType(Cluster.STORE_ON_DISK_ON_FIRST_PASS);
 						}
 						kMedians.setCreateCentroids(false);
 						dividedParticleCollectionId = kMedians.divide();
@@ -265,7 +265,7 @@ public class PreClusterDialog extends AbstractClusterDialog
 						}
 						else
 						{
-							kMeans.setCursorType(Cluster.DISK_BASED);
+							kMeans.setCursorType(Cluster.STORE_ON_DISK_ON_FIRST_PASS);
 						}
 						kMeans.setCreateCentroids(false);
 
@@ -339,10 +339,29 @@ public class SyncAnalyzePanel extends JPanel {
 				File f = fc.getSelectedFile();
 				PrintWriter fWriter = new PrintWriter(f);
 					
-				//Print r^2 value iff 2 datasets were selected
+				//Parse through collectionsToExport - similar to "data" arrayList in setupBottom()
+				ArrayList<Hashtable<Date,Double>> colData = new ArrayList<Hashtable<Date,Double>>();
+				for (Collection c : collectionsToExport)
+					colData.add(db.getConditionalTSCollectionData(c, condCollections, conditionStrs));
+					
+				//Print r^2 value iff 2 datasets were selected, and a table
+				//of them for more
 				int numCollections = collectionsToExport.length;
 				if (numCollections == 2 && datasets.length >= 2){
 					fWriter.println("R^2: "	+ datasets[0].getCorrelationStats(datasets[1]).r2);
+				} else if (numCollections > 2) {
+					Dataset.Statistics[][] stats = SeriesAligner.correlationMatrix(
+							toPyramids(colData), SeriesAligner.DEFAULT_TOLERANCE, 0);
+					String header = "R^2";
+					for (int i = 0; i < numCollections; i++)
+						header += ",Sequence " + (i+1);
+					fWriter.println(header);
+					for (int i = 0; i < numCollections; i++) {
+						fWriter.print("Sequence " + (i+1));
+						for (int j = 0; j < numCollections; j++)
+							fWriter.print("," + stats[i][j].r2);
+						fWriter.println();
+					}
 				}
 				
 				//Load in conditions
@@ -406,10 +425,6 @@ public class SyncAnalyzePanel extends JPanel {
 					
 				fWriter.println(line1);
 				fWriter.println(line2);
-				//Parse through collectionsToExport - similar to "data" arrayList in setupBottom()
-				ArrayList<Hashtable<Date,Double>> colData = new ArrayList<Hashtable<Date,Double>>();
-				for (Collection c : collectionsToExport)
-					colData.add(db.getConditionalTSCollectionData(c, condCollections, conditionStrs));
 									
 				//Print out the values, finally
 				for (Date d : dateSet) {
@@ -432,6 +447,27 @@ public class SyncAnalyzePanel extends JPanel {
 	}
 
 
+	/**
+	 * Puts each collection's values in time order, as SeriesAligner wants.
+	 */
+	private static MinMaxPyramid[] toPyramids(
+			ArrayList<Hashtable<Date,Double>> colData) {
+		MinMaxPyramid[] pyramids = new MinMaxPyramid[colData.size()];
+		for (int i = 0; i < pyramids.length; i++) {
+			Hashtable<Date,Double> table = colData.get(i);
+			ArrayList<Date> dates = new ArrayList<Date>(table.keySet());
+			Collections.sort(dates);
+			double[] x = new double[dates.size()];
+			double[] y = new double[dates.size()];
+			for (int j = 0; j < x.length; j++) {
+				x[j] = dates.get(j).getTime();
+				y[j] = table.get(dates.get(j));
+			}
+			pyramids[i] = new MinMaxPyramid(x, y, x.length);
+		}
+		return pyramids;
+	}
+
 	private JPanel addComponent(JComponent newComponent, JPanel parent) {
 		JPanel bottomHalf = new JPanel();
 		parent.setLayout(new BorderLayout());
@@ -139,4 +139,8 @@ public class TestCursor implements CollectionCursor {
 	public BinnedPeakList getPeakListfromAtomID(int id) {
 		return null;
 	}
+	
+	public int getPositionOfAtomID(int atomID) {
+		return -1;
+	}
 }